@@ -0,0 +1,97 @@
+package me.desair.tus.server.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.upload.UploadIdFactory;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UuidUploadIdFactory;
+import me.desair.tus.server.upload.disk.DiskStorageService;
+import me.desair.tus.server.upload.disk.DurabilityPolicy;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure the latency of {@link DiskStorageService#append(UploadInfo, java.io.InputStream)} (a
+ * single PATCH request) for each {@link DurabilityPolicy} and chunk size. The storage directory can
+ * be changed with the system property "tus.benchmark.dir" to test a specific disk or network
+ * volume.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AppendDurabilityBenchmark {
+
+  /** Start a new upload once the current one reaches this size to limit the used disk space. */
+  private static final long MAX_UPLOAD_SIZE = 256L * 1024 * 1024;
+
+  @Param({"ALWAYS", "DATA_ONLY", "PERIODIC", "NONE"})
+  public DurabilityPolicy policy;
+
+  @Param({"65536", "1048576", "16777216"})
+  public int chunkSize;
+
+  private Path storagePath;
+  private DiskStorageService storageService;
+  private byte[] chunk;
+  private UploadInfo uploadInfo;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    String baseDir = System.getProperty("tus.benchmark.dir", System.getProperty("java.io.tmpdir"));
+    storagePath = Files.createTempDirectory(Path.of(baseDir), "tus-append-benchmark");
+
+    UploadIdFactory idFactory = new UuidUploadIdFactory();
+    idFactory.setUploadUri("/files/upload");
+    storageService = new DiskStorageService(idFactory, storagePath.toString());
+    storageService.setDurabilityPolicy(policy);
+
+    chunk = new byte[chunkSize];
+    ThreadLocalRandom.current().nextBytes(chunk);
+  }
+
+  @Setup(Level.Iteration)
+  public void createUpload() throws IOException {
+    uploadInfo = newUpload();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    storageService.setDurabilityPolicy(DurabilityPolicy.ALWAYS);
+    FileUtils.deleteDirectory(storagePath.toFile());
+  }
+
+  @Benchmark
+  public long append() throws IOException, TusException {
+    if (uploadInfo.getOffset() + chunkSize > MAX_UPLOAD_SIZE) {
+      storageService.terminateUpload(uploadInfo);
+      uploadInfo = newUpload();
+    }
+    return storageService.append(uploadInfo, new ByteArrayInputStream(chunk)).getOffset();
+  }
+
+  private UploadInfo newUpload() throws IOException {
+    UploadInfo info = new UploadInfo();
+    info.setLength(Long.MAX_VALUE);
+    return storageService.create(info, null);
+  }
+}
@@ -0,0 +1,56 @@
+package me.desair.tus.server.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.checksum.ChecksumAlgorithm;
+import me.desair.tus.server.checksum.ChecksumCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure the throughput of every supported {@link ChecksumAlgorithm} on 1MB of data (the number of
+ * operations per second equals the number of MB per second). The buffer is passed in 64KB slices,
+ * which is the read size used when ingesting a PATCH request body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChecksumAlgorithmBenchmark {
+
+  private static final int DATA_SIZE = 1024 * 1024;
+  private static final int SLICE_SIZE = 64 * 1024;
+
+  @Param({"md5", "sha1", "sha256", "sha384", "sha512", "crc32c", "xxh64"})
+  public String algorithm;
+
+  private ChecksumCalculator calculator;
+  private byte[] data;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    calculator = ChecksumAlgorithm.forTusName(algorithm).getChecksumCalculator();
+    data = new byte[DATA_SIZE];
+    ThreadLocalRandom.current().nextBytes(data);
+  }
+
+  @Benchmark
+  public byte[] checksum() {
+    for (int offset = 0; offset < DATA_SIZE; offset += SLICE_SIZE) {
+      calculator.update(data, offset, SLICE_SIZE);
+    }
+    return calculator.digest();
+  }
+}
@@ -0,0 +1,93 @@
+package me.desair.tus.server.benchmark;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.checksum.ChecksumAlgorithm;
+import me.desair.tus.server.checksum.ChecksumInputStream;
+import me.desair.tus.server.util.ByteBufferPool;
+import me.desair.tus.server.util.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure the ingest throughput of a PATCH request body with a checksum, where the checksum is
+ * either calculated on the request thread ("inline") or by the checksum pipeline on the common
+ * {@link ForkJoinPool} ("parallel"). The storage directory can be changed with the system property
+ * "tus.benchmark.dir".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChecksumPipelineBenchmark {
+
+  @Param({"sha1", "sha256", "sha512"})
+  public String algorithm;
+
+  @Param({"inline", "parallel"})
+  public String mode;
+
+  @Param({"16777216"})
+  public int chunkSize;
+
+  private Path storagePath;
+  private Path uploadPath;
+  private FileChannel file;
+  private ByteBufferPool bufferPool;
+  private ChecksumAlgorithm checksumAlgorithm;
+  private byte[] chunk;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    String baseDir = System.getProperty("tus.benchmark.dir", System.getProperty("java.io.tmpdir"));
+    storagePath = Files.createTempDirectory(Path.of(baseDir), "tus-checksum-benchmark");
+    uploadPath = Files.createFile(storagePath.resolve("data"));
+    file = FileChannel.open(uploadPath, WRITE);
+
+    bufferPool = new ByteBufferPool();
+    checksumAlgorithm = ChecksumAlgorithm.forTusName(algorithm);
+    chunk = new byte[chunkSize];
+    ThreadLocalRandom.current().nextBytes(chunk);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    file.close();
+    Files.deleteIfExists(uploadPath);
+    Files.deleteIfExists(storagePath);
+  }
+
+  @Benchmark
+  public String ingest() throws IOException {
+    ChecksumInputStream inputStream =
+        new ChecksumInputStream(
+            new ByteArrayInputStream(chunk),
+            EnumSet.of(checksumAlgorithm),
+            "parallel".equals(mode) ? ForkJoinPool.commonPool() : null);
+
+    Utils.transferFrom(inputStream, file, 0, chunkSize, bufferPool);
+    return inputStream.getChecksum(checksumAlgorithm);
+  }
+}
@@ -0,0 +1,85 @@
+package me.desair.tus.server.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.util.HttpChunkedEncodingInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure the throughput of decoding a 4 MiB request body that was sent with HTTP chunked transfer
+ * encoding and an Upload-Checksum trailer by {@link HttpChunkedEncodingInputStream}, for different
+ * sizes of the HTTP chunks and of the buffer that reads the decoded bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkedDecodingBenchmark {
+
+  private static final int BODY_SIZE = 4 * 1024 * 1024;
+
+  @Param({"1024", "16384", "262144"})
+  public int httpChunkSize;
+
+  @Param({"8192", "262144"})
+  public int bufferSize;
+
+  private byte[] encoded;
+  private byte[] buffer;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    byte[] body = new byte[BODY_SIZE];
+    ThreadLocalRandom.current().nextBytes(body);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream(BODY_SIZE + BODY_SIZE / 100);
+    for (int offset = 0; offset < BODY_SIZE; offset += httpChunkSize) {
+      int length = Math.min(httpChunkSize, BODY_SIZE - offset);
+      output.write((Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+      output.write(body, offset, length);
+      output.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+    output.write(
+        "0\r\nUpload-Checksum: sha1 Mfhm5HaSPUf+pUakdMxARo4rvfQ=\r\n\r\n"
+            .getBytes(StandardCharsets.US_ASCII));
+    encoded = output.toByteArray();
+    buffer = new byte[bufferSize];
+  }
+
+  @Benchmark
+  public long decode() throws IOException {
+    Map<String, List<String>> trailerHeaders = new HashMap<>();
+    long total = 0;
+    try (HttpChunkedEncodingInputStream inputStream =
+        new HttpChunkedEncodingInputStream(new ByteArrayInputStream(encoded), trailerHeaders)) {
+      int read;
+      while ((read = inputStream.read(buffer)) >= 0) {
+        total += read;
+      }
+    }
+    if (total != BODY_SIZE || trailerHeaders.isEmpty()) {
+      throw new IllegalStateException("The request body was not decoded correctly");
+    }
+    return total;
+  }
+}
@@ -0,0 +1,159 @@
+package me.desair.tus.server.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadIdFactory;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UuidUploadIdFactory;
+import me.desair.tus.server.upload.disk.DiskStorageService;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure the latency of creating and looking up an upload in a {@link DiskStorageService} that
+ * already contains a given number of uploads, with and without directory sharding. <br>
+ * Filling the storage directory with 10^7 uploads takes a long time and needs about 3 * 10^7
+ * inodes. When the system property "tus.benchmark.dir" is set, the filled directories are kept in
+ * that directory and reused by the next run. Otherwise they are created in a temporary directory
+ * that is removed afterwards. Select fewer sizes with for example {@code
+ * -Djmh.args="DirectorySharding -p uploads=10000,1000000"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectoryShardingBenchmark {
+
+  private static final String FILLED_MARKER = ".filled";
+  private static final int SAMPLE_SIZE = 4096;
+
+  @Param({"0", "2"})
+  public int shardingLevels;
+
+  @Param({"10000", "1000000", "10000000"})
+  public int uploads;
+
+  private Path storagePath;
+  private boolean isTemporary;
+  private DiskStorageService storageService;
+  private final List<UploadId> sample = new ArrayList<>();
+  private final List<UploadInfo> created = new ArrayList<>();
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    String keepDir = System.getProperty("tus.benchmark.dir");
+    if (keepDir == null) {
+      storagePath = Files.createTempDirectory("tus-sharding-benchmark");
+      isTemporary = true;
+    } else {
+      storagePath = Path.of(keepDir, "tus-sharding-" + shardingLevels + "-" + uploads);
+      Files.createDirectories(storagePath);
+    }
+
+    UploadIdFactory idFactory = new UuidUploadIdFactory();
+    idFactory.setUploadUri("/files/upload");
+    storageService = new DiskStorageService(idFactory, storagePath.toString());
+    storageService.setShardingLevels(shardingLevels);
+
+    if (!Files.exists(storagePath.resolve(FILLED_MARKER))) {
+      fill();
+      Files.createFile(storagePath.resolve(FILLED_MARKER));
+    }
+
+    // Look up uploads that are spread over the whole storage directory
+    sample.clear();
+    Path uploadsPath = storagePath.resolve("uploads");
+    try (var entries = Files.find(uploadsPath, shardingLevels + 1, (path, attributes) -> true)) {
+      entries
+          .filter(path -> path.getNameCount() == uploadsPath.getNameCount() + shardingLevels + 1)
+          .filter(path -> ThreadLocalRandom.current().nextInt(uploads) < SAMPLE_SIZE)
+          .forEach(path -> sample.add(new UploadId(path.getFileName().toString())));
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void removeCreatedUploads() throws IOException, TusException {
+    for (UploadInfo info : created) {
+      storageService.terminateUpload(info);
+    }
+    created.clear();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    if (isTemporary) {
+      FileUtils.deleteDirectory(storagePath.toFile());
+    }
+  }
+
+  @Benchmark
+  public UploadInfo create() throws IOException {
+    UploadInfo info = new UploadInfo();
+    info.setLength(1024L);
+    info = storageService.create(info, null);
+    created.add(info);
+    return info;
+  }
+
+  @Benchmark
+  public UploadInfo lookup() throws IOException {
+    UploadId id = sample.get(ThreadLocalRandom.current().nextInt(sample.size()));
+    return storageService.getUploadInfo(id);
+  }
+
+  @Benchmark
+  public UploadInfo lookupMissing() throws IOException {
+    return storageService.getUploadInfo(new UploadId(UUID.randomUUID()));
+  }
+
+  private void fill() throws Exception {
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int thread = 0; thread < threads; thread++) {
+        int count = uploads / threads + (thread < uploads % threads ? 1 : 0);
+        results.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < count; i++) {
+                    UploadInfo info = new UploadInfo();
+                    info.setLength(1024L);
+                    storageService.create(info, null);
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
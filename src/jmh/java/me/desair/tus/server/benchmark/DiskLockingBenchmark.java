@@ -0,0 +1,98 @@
+package me.desair.tus.server.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.upload.UploadIdFactory;
+import me.desair.tus.server.upload.UploadLock;
+import me.desair.tus.server.upload.UuidUploadIdFactory;
+import me.desair.tus.server.upload.disk.DiskLockingService;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure the latency of acquiring and releasing the lock of an upload with {@link
+ * DiskLockingService#lockUploadByUri(String)}, as done by every request, from a single thread and
+ * from four threads that each lock their own uploads. The storage directory can be changed with the
+ * system property "tus.benchmark.dir".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiskLockingBenchmark {
+
+  private static final int UPLOADS_PER_THREAD = 256;
+
+  private Path storagePath;
+  private UploadIdFactory idFactory;
+  private DiskLockingService lockingService;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    String baseDir = System.getProperty("tus.benchmark.dir", System.getProperty("java.io.tmpdir"));
+    storagePath =
+        Files.createTempDirectory(
+            Files.createDirectories(Path.of(baseDir)), "tus-locking-benchmark");
+    idFactory = new UuidUploadIdFactory();
+    idFactory.setUploadUri("/files/upload");
+    lockingService = new DiskLockingService(idFactory, storagePath.toString());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(storagePath.toFile());
+  }
+
+  @Benchmark
+  public void lockAndRelease(ThreadUploads uploads) throws TusException, IOException {
+    lock(uploads);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void lockAndReleaseParallel(ThreadUploads uploads) throws TusException, IOException {
+    lock(uploads);
+  }
+
+  private void lock(ThreadUploads uploads) throws TusException, IOException {
+    String uri = uploads.uris[ThreadLocalRandom.current().nextInt(UPLOADS_PER_THREAD)];
+    try (UploadLock lock = lockingService.lockUploadByUri(uri)) {
+      if (lock == null) {
+        throw new IllegalStateException("Unable to lock " + uri);
+      }
+    }
+  }
+
+  /** The uploads of a single thread, so the threads never wait for each other's locks. */
+  @State(Scope.Thread)
+  public static class ThreadUploads {
+
+    private String[] uris;
+
+    @Setup(Level.Trial)
+    public void setUp(DiskLockingBenchmark benchmark) {
+      uris = new String[UPLOADS_PER_THREAD];
+      for (int i = 0; i < UPLOADS_PER_THREAD; i++) {
+        uris[i] = benchmark.idFactory.getUploadUri() + "/" + benchmark.idFactory.createId();
+      }
+    }
+  }
+}
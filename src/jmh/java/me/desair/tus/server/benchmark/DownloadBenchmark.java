@@ -0,0 +1,265 @@
+package me.desair.tus.server.benchmark;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadIdFactory;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadType;
+import me.desair.tus.server.upload.UuidUploadIdFactory;
+import me.desair.tus.server.upload.disk.DiskStorageService;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare the download paths when sending an upload to a loopback socket: {@link
+ * DiskStorageService#copyUploadTo(UploadInfo, long, long, OutputStream)} to a plain output stream
+ * (pooled direct-buffer copy), the previous implementation that wrapped the stream with {@link
+ * Channels#newChannel(OutputStream)} and a zero-copy transferTo from the upload file to the socket
+ * channel. The "nativeChannel" numbers come from that synthetic socket channel: the output streams
+ * of servlet containers like Tomcat and Jetty do not expose a channel, so they only show what
+ * sendfile can achieve when the container sends the file itself. The "singleStream" and
+ * "concatenatedStream" benchmarks compare reading a single upload with reading a concatenated
+ * upload of {@value #PARTS} partial uploads through {@link
+ * DiskStorageService#getUploadedBytes(UploadId)}, also transferred to a synthetic output stream
+ * that exposes the socket channel. The "megabytes" counter gives the throughput in MB/s, the CPU
+ * time that the sending thread spent per GB is printed at the end of each trial. The storage
+ * directory can be changed with the system property "tus.benchmark.dir".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+
+  private static final int PARTS = 8;
+
+  @Param({"67108864"})
+  public int uploadSize;
+
+  private Path storagePath;
+  private DiskStorageService storageService;
+  private UploadInfo uploadInfo;
+  private UploadInfo concatenatedInfo;
+  private Path uploadPath;
+
+  private ServerSocketChannel server;
+  private SocketChannel client;
+  private Thread drainThread;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, TusException {
+    String baseDir = System.getProperty("tus.benchmark.dir", System.getProperty("java.io.tmpdir"));
+    storagePath = Files.createTempDirectory(Path.of(baseDir), "tus-download-benchmark");
+
+    UploadIdFactory idFactory = new UuidUploadIdFactory();
+    idFactory.setUploadUri("/files/upload");
+    storageService = new DiskStorageService(idFactory, storagePath.toString());
+
+    byte[] content = new byte[uploadSize];
+    ThreadLocalRandom.current().nextBytes(content);
+    UploadInfo info = new UploadInfo();
+    info.setLength((long) uploadSize);
+    uploadInfo = storageService.create(info, null);
+    storageService.append(uploadInfo, new ByteArrayInputStream(content));
+    uploadPath = storageService.getUploadedBytesPath(uploadInfo);
+    concatenatedInfo = createConcatenatedUpload(idFactory, content);
+
+    server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    client = SocketChannel.open(server.getLocalAddress());
+    SocketChannel receiver = server.accept();
+    drainThread = new Thread(() -> drain(receiver), "download-benchmark-drain");
+    drainThread.setDaemon(true);
+    drainThread.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException, InterruptedException {
+    client.close();
+    drainThread.join(TimeUnit.SECONDS.toMillis(10));
+    server.close();
+    FileUtils.deleteDirectory(storagePath.toFile());
+  }
+
+  @Benchmark
+  public void nativeChannel(CpuCounters counters) throws IOException {
+    long start = counters.start();
+    try (FileChannel file = FileChannel.open(uploadPath, READ)) {
+      long position = 0;
+      while (position < uploadSize) {
+        position += file.transferTo(position, uploadSize - position, client);
+      }
+    }
+    counters.stop(start, uploadSize);
+  }
+
+  @Benchmark
+  public void pooledCopy(CpuCounters counters) throws IOException, TusException {
+    long start = counters.start();
+    storageService.copyUploadTo(uploadInfo, 0, uploadSize, Channels.newOutputStream(client));
+    counters.stop(start, uploadSize);
+  }
+
+  @Benchmark
+  public void wrappedChannel(CpuCounters counters) throws IOException {
+    long start = counters.start();
+    OutputStream outputStream = Channels.newOutputStream(client);
+    try (FileChannel file = FileChannel.open(uploadPath, READ)) {
+      file.transferTo(0, uploadSize, Channels.newChannel(outputStream));
+    }
+    counters.stop(start, uploadSize);
+  }
+
+  @Benchmark
+  public void singleStream(CpuCounters counters) throws IOException, TusException {
+    long start = counters.start();
+    try (InputStream inputStream = storageService.getUploadedBytes(uploadInfo.getId())) {
+      inputStream.transferTo(new SocketOutputStream(client));
+    }
+    counters.stop(start, uploadSize);
+  }
+
+  @Benchmark
+  public void concatenatedStream(CpuCounters counters) throws IOException, TusException {
+    long start = counters.start();
+    try (InputStream inputStream = storageService.getUploadedBytes(concatenatedInfo.getId())) {
+      inputStream.transferTo(new SocketOutputStream(client));
+    }
+    counters.stop(start, uploadSize);
+  }
+
+  private UploadInfo createConcatenatedUpload(UploadIdFactory idFactory, byte[] content)
+      throws IOException, TusException {
+    List<String> partIds = new ArrayList<>();
+    int partSize = content.length / PARTS;
+    for (int i = 0; i < PARTS; i++) {
+      int length = i == PARTS - 1 ? content.length - i * partSize : partSize;
+      UploadInfo part = new UploadInfo();
+      part.setUploadType(UploadType.PARTIAL);
+      part.setLength((long) length);
+      part = storageService.create(part, null);
+      storageService.append(part, new ByteArrayInputStream(content, i * partSize, length));
+      partIds.add(idFactory.getUploadUri() + "/" + part.getId());
+    }
+
+    UploadInfo info = new UploadInfo();
+    info.setUploadType(UploadType.CONCATENATED);
+    info.setConcatenationPartIds(partIds);
+    info = storageService.create(info, null);
+    storageService.getUploadConcatenationService().merge(info);
+    return info;
+  }
+
+  private static void drain(SocketChannel receiver) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+    try (SocketChannel channel = receiver) {
+      while (channel.read(buffer) >= 0) {
+        buffer.clear();
+      }
+    } catch (IOException e) {
+      // The benchmark is finished
+    }
+  }
+
+  /** Throughput and CPU time of the thread that sends the upload. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class CpuCounters {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public double megabytes;
+
+    private long totalCpuNanos;
+    private long totalBytes;
+
+    long start() {
+      return THREADS.getCurrentThreadCpuTime();
+    }
+
+    void stop(long start, long bytes) {
+      totalCpuNanos += THREADS.getCurrentThreadCpuTime() - start;
+      totalBytes += bytes;
+      megabytes += bytes / (1024.0 * 1024.0);
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+      if (totalBytes > 0) {
+        System.out.printf(
+            "%nCPU time per GB: %.1f ms%n",
+            totalCpuNanos / 1_000_000.0 / (totalBytes / (1024.0 * 1024.0 * 1024.0)));
+      }
+    }
+  }
+
+  /** Synthetic output stream that exposes the socket channel, servlet containers do not do this. */
+  private static class SocketOutputStream extends OutputStream implements WritableByteChannel {
+
+    private final SocketChannel channel;
+
+    SocketOutputStream(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      return channel.write(src);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(ByteBuffer.wrap(new byte[] {(byte) b}));
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+  }
+}
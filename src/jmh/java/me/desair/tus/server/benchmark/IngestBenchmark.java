@@ -0,0 +1,89 @@
+package me.desair.tus.server.benchmark;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.util.ByteBufferPool;
+import me.desair.tus.server.util.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare copying a PATCH request body into the upload file with {@link
+ * FileChannel#transferFrom(java.nio.channels.ReadableByteChannel, long, long)} on a {@link
+ * Channels#newChannel(InputStream)} wrapper (the previous implementation) against the pooled
+ * direct-buffer copy loop of {@link Utils#transferFrom(InputStream, FileChannel, long, long,
+ * ByteBufferPool)}. Run with "-prof gc" and divide gc.alloc.rate.norm by the chunk size to get the
+ * allocations per uploaded byte. The storage directory can be changed with the system property
+ * "tus.benchmark.dir".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+
+  @Param({"1048576", "16777216"})
+  public int chunkSize;
+
+  @Param({"262144", "1048576"})
+  public int bufferSize;
+
+  private Path storagePath;
+  private Path uploadPath;
+  private FileChannel file;
+  private ByteBufferPool bufferPool;
+  private byte[] chunk;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    String baseDir = System.getProperty("tus.benchmark.dir", System.getProperty("java.io.tmpdir"));
+    storagePath = Files.createTempDirectory(Path.of(baseDir), "tus-ingest-benchmark");
+    uploadPath = Files.createFile(storagePath.resolve("data"));
+    file = FileChannel.open(uploadPath, WRITE);
+
+    bufferPool = new ByteBufferPool(bufferSize, ByteBufferPool.DEFAULT_MAX_POOLED_BUFFERS);
+    chunk = new byte[chunkSize];
+    ThreadLocalRandom.current().nextBytes(chunk);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    file.close();
+    Files.deleteIfExists(uploadPath);
+    Files.deleteIfExists(storagePath);
+  }
+
+  @Benchmark
+  public long channel() throws IOException {
+    InputStream inputStream = new ByteArrayInputStream(chunk);
+    return file.transferFrom(Channels.newChannel(inputStream), 0, chunkSize);
+  }
+
+  @Benchmark
+  public long pooled() throws IOException {
+    InputStream inputStream = new ByteArrayInputStream(chunk);
+    return Utils.transferFrom(inputStream, file, 0, chunkSize, bufferPool);
+  }
+}
@@ -0,0 +1,106 @@
+package me.desair.tus.server.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.upload.UploadIdFactory;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UuidUploadIdFactory;
+import me.desair.tus.server.upload.disk.DiskStorageService;
+import me.desair.tus.server.upload.disk.MappedUploadInfoStore;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure the latency of reading the upload info of an upload (as done by a HEAD request) and of
+ * updating its offset (as done after every PATCH request) in a {@link DiskStorageService} that
+ * stores the upload info in info files, in a {@link MappedUploadInfoStore} or in a {@link
+ * MappedUploadInfoStore} that forces every write to the storage device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappedUploadInfoStoreBenchmark {
+
+  private static final int UPLOADS = 10_000;
+
+  @Param({"file", "mapped", "mapped-sync"})
+  public String store;
+
+  private Path storagePath;
+  private DiskStorageService storageService;
+  private MappedUploadInfoStore mappedStore;
+  private final List<UploadInfo> uploads = new ArrayList<>();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    String benchmarkDir = System.getProperty("tus.benchmark.dir");
+    storagePath =
+        benchmarkDir == null
+            ? Files.createTempDirectory("tus-info-store-benchmark")
+            : Files.createTempDirectory(
+                Files.createDirectories(Path.of(benchmarkDir)), "tus-info-store-benchmark");
+
+    UploadIdFactory idFactory = new UuidUploadIdFactory();
+    idFactory.setUploadUri("/files/upload");
+    storageService = new DiskStorageService(idFactory, storagePath.toString());
+    if (!"file".equals(store)) {
+      mappedStore = new MappedUploadInfoStore(storagePath.resolve("info.store"));
+      mappedStore.setSyncOnWrite("mapped-sync".equals(store));
+      storageService.setUploadInfoStore(mappedStore);
+    }
+
+    uploads.clear();
+    for (int i = 0; i < UPLOADS; i++) {
+      UploadInfo info = new UploadInfo();
+      info.setLength(1024L * 1024);
+      info.setEncodedMetadata(
+          "filename d29ybGRfZG9taW5hdGlvbl9wbGFuLnBkZg==,filetype YXBwbGljYXRpb24vcGRm");
+      uploads.add(storageService.create(info, null));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    if (mappedStore != null) {
+      mappedStore.close();
+    }
+    FileUtils.deleteDirectory(storagePath.toFile());
+  }
+
+  @Benchmark
+  public UploadInfo head() throws IOException {
+    UploadInfo info = uploads.get(ThreadLocalRandom.current().nextInt(uploads.size()));
+    return storageService.getUploadInfo(info.getId());
+  }
+
+  @Benchmark
+  public UploadInfo updateOffset() throws IOException, TusException {
+    UploadInfo info = uploads.get(ThreadLocalRandom.current().nextInt(uploads.size()));
+    // Only the offset changes, like after a PATCH request
+    UploadInfo update = storageService.getUploadInfo(info.getId());
+    update.setOffset((update.getOffset() + 1) % update.getLength());
+    storageService.update(update);
+    return update;
+  }
+}
@@ -0,0 +1,213 @@
+package me.desair.tus.server.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.HttpHeader;
+import me.desair.tus.server.TusFileUploadService;
+import me.desair.tus.server.checksum.ChecksumAlgorithm;
+import me.desair.tus.server.checksum.ChecksumCalculator;
+import me.desair.tus.server.exception.TusException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Measure the latency of complete tus requests through {@link
+ * TusFileUploadService#process(jakarta.servlet.http.HttpServletRequest,
+ * jakarta.servlet.http.HttpServletResponse)} with a disk storage in a temporary directory: creating
+ * an upload (POST), reading its offset (HEAD), appending chunks of different sizes (PATCH) and
+ * appending a 1 MiB chunk with an Upload-Checksum header of each {@link ChecksumAlgorithm}. The
+ * requests are Spring {@link MockHttpServletRequest} instances, so the numbers do not include any
+ * network or servlet container overhead. The storage directory can be changed with the system
+ * property "tus.benchmark.dir".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestPipelineBenchmark {
+
+  private static final String UPLOAD_URI = "/files/upload";
+  private static final int HEAD_UPLOADS = 1000;
+
+  private Path storagePath;
+  private TusFileUploadService tusFileUploadService;
+  private String[] headLocations;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, TusException {
+    String baseDir = System.getProperty("tus.benchmark.dir", System.getProperty("java.io.tmpdir"));
+    storagePath =
+        Files.createTempDirectory(
+            Files.createDirectories(Path.of(baseDir)), "tus-pipeline-benchmark");
+    tusFileUploadService =
+        new TusFileUploadService()
+            .withUploadUri(UPLOAD_URI)
+            .withStoragePath(storagePath.toString())
+            .withUploadExpirationPeriod(TimeUnit.DAYS.toMillis(1));
+
+    headLocations = new String[HEAD_UPLOADS];
+    for (int i = 0; i < HEAD_UPLOADS; i++) {
+      headLocations[i] = create(tusFileUploadService, 1024L * 1024);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(storagePath.toFile());
+  }
+
+  @Benchmark
+  public MockHttpServletResponse post() throws IOException {
+    MockHttpServletRequest request = newRequest("POST", UPLOAD_URI);
+    request.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+    request.addHeader(HttpHeader.UPLOAD_LENGTH, 1024 * 1024);
+    request.addHeader(
+        HttpHeader.UPLOAD_METADATA,
+        "filename d29ybGRfZG9taW5hdGlvbl9wbGFuLnBkZg==,filetype YXBwbGljYXRpb24vcGRm");
+    return process(tusFileUploadService, request);
+  }
+
+  @Benchmark
+  public MockHttpServletResponse head() throws IOException {
+    String location = headLocations[ThreadLocalRandom.current().nextInt(HEAD_UPLOADS)];
+    return process(tusFileUploadService, newRequest("HEAD", location));
+  }
+
+  @Benchmark
+  public MockHttpServletResponse patch(ChunkState state) throws IOException, TusException {
+    return state.patch(tusFileUploadService, null);
+  }
+
+  @Benchmark
+  public MockHttpServletResponse patchWithChecksum(ChecksumState state)
+      throws IOException, TusException {
+    return state.patch(tusFileUploadService, state.checksumHeader);
+  }
+
+  /** PATCH requests with a chunk of the given size. */
+  @State(Scope.Thread)
+  public static class ChunkState extends UploadState {
+
+    @Param({"4096", "262144", "4194304"})
+    public int chunkSize;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      init(chunkSize);
+    }
+  }
+
+  /** PATCH requests of 1 MiB with an Upload-Checksum header of the given algorithm. */
+  @State(Scope.Thread)
+  public static class ChecksumState extends UploadState {
+
+    @Param({"none", "md5", "sha1", "sha256", "sha512", "crc32c", "xxh64"})
+    public String algorithm;
+
+    private String checksumHeader;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      init(1024 * 1024);
+      if (!"none".equals(algorithm)) {
+        // Every chunk has the same content, so the checksum only needs to be calculated once
+        ChecksumAlgorithm checksumAlgorithm = ChecksumAlgorithm.forTusName(algorithm);
+        ChecksumCalculator calculator = checksumAlgorithm.getChecksumCalculator();
+        calculator.update(chunk, 0, chunk.length);
+        checksumHeader =
+            checksumAlgorithm.getTusName()
+                + ChecksumAlgorithm.CHECKSUM_VALUE_SEPARATOR
+                + Base64.getEncoder().encodeToString(calculator.digest());
+      }
+    }
+  }
+
+  /** An upload that receives chunks until it is complete and is then replaced by a new one. */
+  abstract static class UploadState {
+
+    private static final int CHUNKS_PER_UPLOAD = 64;
+
+    byte[] chunk;
+    private String location;
+    private long offset;
+
+    void init(int chunkSize) {
+      chunk = new byte[chunkSize];
+      ThreadLocalRandom.current().nextBytes(chunk);
+    }
+
+    MockHttpServletResponse patch(TusFileUploadService tusFileUploadService, String checksumHeader)
+        throws IOException, TusException {
+      if (location == null || offset >= (long) chunk.length * CHUNKS_PER_UPLOAD) {
+        if (location != null) {
+          // Keep the disk usage of the benchmark bounded
+          tusFileUploadService.deleteUpload(location);
+        }
+        location = create(tusFileUploadService, (long) chunk.length * CHUNKS_PER_UPLOAD);
+        offset = 0;
+      }
+
+      MockHttpServletRequest request = newRequest("PATCH", location);
+      request.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+      request.addHeader(HttpHeader.CONTENT_LENGTH, chunk.length);
+      request.addHeader(HttpHeader.UPLOAD_OFFSET, offset);
+      if (checksumHeader != null) {
+        request.addHeader(HttpHeader.UPLOAD_CHECKSUM, checksumHeader);
+      }
+      request.setContent(chunk);
+      MockHttpServletResponse response = process(tusFileUploadService, request);
+      offset += chunk.length;
+      return response;
+    }
+  }
+
+  private static String create(TusFileUploadService tusFileUploadService, long length)
+      throws IOException {
+    MockHttpServletRequest request = newRequest("POST", UPLOAD_URI);
+    request.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+    request.addHeader(HttpHeader.UPLOAD_LENGTH, length);
+    MockHttpServletResponse response = process(tusFileUploadService, request);
+    // The Location header contains the absolute URL of the new upload
+    return UPLOAD_URI
+        + StringUtils.substringAfter(response.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+  }
+
+  private static MockHttpServletRequest newRequest(String method, String uri) {
+    MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+    request.addHeader(HttpHeader.TUS_RESUMABLE, TusFileUploadService.TUS_API_VERSION);
+    return request;
+  }
+
+  private static MockHttpServletResponse process(
+      TusFileUploadService tusFileUploadService, MockHttpServletRequest request)
+      throws IOException {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    tusFileUploadService.process(request, response);
+    if (response.getStatus() >= 300) {
+      throw new IllegalStateException(
+          request.getMethod() + " request failed with status " + response.getStatus());
+    }
+    return response;
+  }
+}
@@ -0,0 +1,67 @@
+package me.desair.tus.server.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.upload.TimeBasedUploadIdFactory;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadIdFactory;
+import me.desair.tus.server.upload.UuidUploadIdFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure the latency of {@link UploadIdFactory#readUploadId(String)}, which parses the upload ID
+ * of every HEAD, PATCH, GET and DELETE request, for the {@link UuidUploadIdFactory} and the {@link
+ * TimeBasedUploadIdFactory}, with a valid upload URL and with a URL that does not contain a valid
+ * upload ID.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadIdBenchmark {
+
+  private static final int URLS = 1024;
+
+  @Param({"uuid", "time"})
+  public String factory;
+
+  private UploadIdFactory idFactory;
+  private String[] validUrls;
+  private String[] invalidUrls;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    idFactory = "uuid".equals(factory) ? new UuidUploadIdFactory() : new TimeBasedUploadIdFactory();
+    idFactory.setUploadUri("/files/upload");
+
+    validUrls = new String[URLS];
+    invalidUrls = new String[URLS];
+    for (int i = 0; i < URLS; i++) {
+      validUrls[i] = "http://localhost:8080/files/upload/" + idFactory.createId();
+      invalidUrls[i] = "http://localhost:8080/files/upload/not-an-upload-" + i;
+    }
+  }
+
+  @Benchmark
+  public UploadId readValid() {
+    return idFactory.readUploadId(validUrls[ThreadLocalRandom.current().nextInt(URLS)]);
+  }
+
+  @Benchmark
+  public UploadId readInvalid() {
+    return idFactory.readUploadId(invalidUrls[ThreadLocalRandom.current().nextInt(URLS)]);
+  }
+}
@@ -0,0 +1,91 @@
+package me.desair.tus.server.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadType;
+import me.desair.tus.server.upload.codec.BinaryUploadInfoCodec;
+import me.desair.tus.server.upload.codec.SerializableUploadInfoCodec;
+import me.desair.tus.server.upload.codec.UploadInfoCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare the {@link BinaryUploadInfoCodec} with the legacy Java serialization based {@link
+ * SerializableUploadInfoCodec}. Run with the GC profiler ("-prof gc") to also compare the number of
+ * bytes allocated per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UploadInfoCodecBenchmark {
+
+  @Param({"binary", "serializable"})
+  public String codecName;
+
+  @Param({"regular", "concatenated"})
+  public String uploadKind;
+
+  private UploadInfoCodec codec;
+  private UploadInfo uploadInfo;
+  private ByteBuffer encoded;
+
+  @Setup
+  public void setUp() throws IOException {
+    codec =
+        "binary".equals(codecName)
+            ? new BinaryUploadInfoCodec()
+            : new SerializableUploadInfoCodec();
+
+    uploadInfo = new UploadInfo();
+    uploadInfo.setId(new UploadId(UUID.randomUUID()));
+    uploadInfo.setOwnerKey("tenant-42");
+    uploadInfo.setOffset(1048576L);
+    uploadInfo.setLength(16777216L);
+    uploadInfo.setEncodedMetadata(
+        "filename d29ybGRfZG9taW5hdGlvbl9wbGFuLnBkZg==,mimetype YXBwbGljYXRpb24vcGRm");
+    uploadInfo.setCreatorIpAddresses("10.0.2.1, 123.231.12.4, 192.168.1.1");
+    uploadInfo.updateExpiration(86400000L);
+
+    if ("concatenated".equals(uploadKind)) {
+      uploadInfo.setUploadType(UploadType.CONCATENATED);
+      uploadInfo.setConcatenationPartIds(
+          Arrays.asList(
+              "/files/upload/" + UUID.randomUUID(),
+              "/files/upload/" + UUID.randomUUID(),
+              "/files/upload/" + UUID.randomUUID()));
+      uploadInfo.setUploadConcatHeaderValue(
+          "final;" + String.join(" ", uploadInfo.getConcatenationPartIds()));
+    } else {
+      uploadInfo.setUploadType(UploadType.REGULAR);
+    }
+
+    encoded = codec.encode(uploadInfo);
+  }
+
+  @Benchmark
+  public ByteBuffer encode() throws IOException {
+    return codec.encode(uploadInfo);
+  }
+
+  @Benchmark
+  public UploadInfo decode() throws IOException {
+    return codec.decode(encoded.duplicate());
+  }
+}
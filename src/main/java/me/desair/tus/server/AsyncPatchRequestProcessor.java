@@ -0,0 +1,409 @@
+package me.desair.tus.server;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadLock;
+import me.desair.tus.server.upload.UploadLockingService;
+import me.desair.tus.server.upload.cache.UploadRequestContext;
+import me.desair.tus.server.util.TusServletRequest;
+import me.desair.tus.server.util.TusServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes a single PATCH request with Servlet non-blocking I/O. The content of the request is
+ * read from {@link ReadListener} callbacks into a bounded buffer, so no container thread is used
+ * while the client is not sending any bytes. Every time the buffer is full, its content is appended
+ * to the upload. When all content has been received, the remaining bytes are passed to the regular
+ * request handlers of the enabled extensions. <br>
+ * The upload lock is held, and the {@link TusServletRequest} (with its byte count and checksums) is
+ * shared, from the validation of the request until the response is completed. Errors are therefore
+ * handled exactly like in {@link TusFileUploadService#process(HttpServletRequest,
+ * HttpServletResponse, String)}: on a {@link TusException} all bytes of this request are removed
+ * again, while the bytes that were received before the connection failed are kept.
+ */
+final class AsyncPatchRequestProcessor implements ReadListener, AsyncListener {
+
+  private static final Logger log = LoggerFactory.getLogger(AsyncPatchRequestProcessor.class);
+
+  private final TusFileUploadService uploadService;
+  private final HttpMethod method;
+  private final HttpServletRequest servletRequest;
+  private final String ownerKey;
+  private final UploadRequestContext context;
+  private final RequestBody body;
+  private final TusServletRequest request;
+  private final TusServletResponse response;
+
+  /** Serializes the container callbacks, without pinning a virtual thread while appending. */
+  private final ReentrantLock callbackLock = new ReentrantLock();
+
+  private UploadLock lock;
+  private AsyncContext asyncContext;
+  private ServletInputStream input;
+  private boolean done = false;
+  private long startNanos;
+  private long processingStartNanos;
+
+  AsyncPatchRequestProcessor(
+      TusFileUploadService uploadService,
+      HttpMethod method,
+      HttpServletRequest servletRequest,
+      HttpServletResponse servletResponse,
+      String ownerKey,
+      int bufferSize) {
+    this.uploadService = uploadService;
+    this.method = method;
+    this.servletRequest = servletRequest;
+    this.ownerKey = ownerKey;
+    this.context = uploadService.newRequestContext();
+    this.body = new RequestBody(bufferSize);
+    this.request =
+        uploadService.newTusServletRequest(new BufferedBodyRequest(servletRequest, body));
+    this.response = new TusServletResponse(servletResponse);
+  }
+
+  /**
+   * Lock and validate the upload and, if the request is valid, start reading its content
+   * asynchronously. The lock is released when the response is completed.
+   *
+   * @param lockingService The service to lock the upload with
+   * @param timeout The timeout of the asynchronous processing in milliseconds
+   * @throws IOException When the request cannot be validated
+   */
+  void start(UploadLockingService lockingService, long timeout) throws IOException {
+    startNanos = System.nanoTime();
+    try {
+      lock = lockingService.lockUploadByUri(request.getRequestURI());
+    } catch (TusException e) {
+      log.error("Unable to lock upload for request URI " + request.getRequestURI(), e);
+      uploadService
+          .getMetrics()
+          .requestCompleted(method, response.getStatus(), System.nanoTime() - startNanos);
+      return;
+    }
+
+    callbackLock.lock();
+    try {
+      long validationStartNanos = System.nanoTime();
+      uploadService.validateRequest(method, request, context, ownerKey);
+      processingStartNanos = System.nanoTime();
+      uploadService
+          .getMetrics()
+          .requestValidated(method, processingStartNanos - validationStartNanos);
+
+      asyncContext = servletRequest.startAsync();
+      asyncContext.setTimeout(timeout);
+      asyncContext.addListener(this);
+
+      input = servletRequest.getInputStream();
+      input.setReadListener(this);
+
+    } catch (TusException e) {
+      uploadService.processTusException(method, request, response, context, ownerKey, e);
+      finish();
+    } catch (IOException | RuntimeException e) {
+      finish();
+      throw e;
+    } finally {
+      callbackLock.unlock();
+    }
+  }
+
+  @Override
+  public void onDataAvailable() {
+    callbackLock.lock();
+    try {
+      while (!done) {
+        boolean isFull;
+        try {
+          isFull = body.readFrom(input);
+        } catch (IOException e) {
+          abort(e);
+          return;
+        }
+
+        if (!isFull) {
+          // Wait for the next callback, this does not keep a thread busy
+          return;
+        }
+        appendBody();
+      }
+    } finally {
+      callbackLock.unlock();
+    }
+  }
+
+  @Override
+  public void onAllDataRead() {
+    callbackLock.lock();
+    try {
+      if (done) {
+        return;
+      }
+
+      // The core request handler appends the bytes that are still in the buffer
+      uploadService.executeProcessingByFeatures(method, request, response, context, ownerKey);
+      uploadService.getMetrics().requestProcessed(method, System.nanoTime() - processingStartNanos);
+
+    } catch (TusException e) {
+      processTusException(e);
+    } catch (IOException e) {
+      processIoException(e);
+    } finally {
+      finish();
+      callbackLock.unlock();
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    abort(throwable);
+  }
+
+  @Override
+  public void onError(AsyncEvent event) {
+    abort(event.getThrowable());
+  }
+
+  @Override
+  public void onTimeout(AsyncEvent event) {
+    abort(new TimeoutException("Timed out while waiting for the upload content"));
+  }
+
+  @Override
+  public void onComplete(AsyncEvent event) {
+    // Nothing to do, all resources are released before completing the request
+  }
+
+  @Override
+  public void onStartAsync(AsyncEvent event) {
+    // Nothing to do
+  }
+
+  private void appendBody() {
+    try {
+      UploadInfo uploadInfo = context.getUploadInfo(request.getRequestURI(), ownerKey);
+      if (uploadInfo != null && uploadInfo.isUploadInProgress()) {
+        context.append(uploadInfo, request.getContentInputStream());
+      }
+      body.clear();
+
+    } catch (TusException e) {
+      processTusException(e);
+      finish();
+    } catch (IOException e) {
+      processIoException(e);
+      finish();
+    }
+  }
+
+  private void abort(Throwable cause) {
+    callbackLock.lock();
+    try {
+      if (done) {
+        return;
+      }
+
+      log.warn(
+          "Unable to receive the content of request {} {}, keeping the {} bytes that were received",
+          method,
+          request.getRequestURL(),
+          request.getBytesRead() + body.available(),
+          cause);
+
+      // Just like a blocking request that fails while reading, keep the bytes we received so that
+      // the client can resume the upload from there
+      appendBody();
+      if (!done) {
+        sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        finish();
+      }
+    } finally {
+      callbackLock.unlock();
+    }
+  }
+
+  private void processTusException(TusException exception) {
+    try {
+      uploadService.processTusException(method, request, response, context, ownerKey, exception);
+    } catch (IOException e) {
+      processIoException(e);
+    }
+  }
+
+  private void processIoException(IOException exception) {
+    log.error("Unable to process request " + method + " " + request.getRequestURL(), exception);
+    flushContext();
+    sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+  }
+
+  private void flushContext() {
+    try {
+      // Save the upload information before the response is committed
+      context.flush();
+    } catch (IOException e) {
+      log.error("Unable to save the upload information of request " + request.getRequestURI(), e);
+    }
+  }
+
+  private void sendError(int status) {
+    try {
+      if (!response.isCommitted()) {
+        response.sendError(status);
+      }
+    } catch (IOException | IllegalStateException e) {
+      log.debug("Unable to send the error response of request {}", request.getRequestURL(), e);
+    }
+  }
+
+  private void finish() {
+    if (done) {
+      return;
+    }
+    done = true;
+    body.release();
+
+    try {
+      context.flush();
+    } catch (IOException e) {
+      processIoException(e);
+    } finally {
+      try {
+        if (lock != null) {
+          lock.close();
+        }
+      } catch (IOException e) {
+        log.warn("Unable to release the lock of request URI " + request.getRequestURI(), e);
+      } finally {
+        uploadService
+            .getMetrics()
+            .requestCompleted(method, response.getStatus(), System.nanoTime() - startNanos);
+        if (asyncContext != null) {
+          asyncContext.complete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Request wrapper that replaces the (non-blocking) input stream of the request with the buffer
+   * that is filled by the read callbacks.
+   */
+  private static class BufferedBodyRequest extends HttpServletRequestWrapper {
+
+    private final RequestBody body;
+
+    BufferedBodyRequest(HttpServletRequest request, RequestBody body) {
+      super(request);
+      this.body = body;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+      return body;
+    }
+  }
+
+  /**
+   * Buffer with the content that was received but not yet appended to the upload. Reading from this
+   * stream never blocks: it signals the end of the stream as soon as the buffer is empty, so that
+   * the storage service stops appending. The same stream is read again after the buffer has been
+   * filled with the next bytes.
+   */
+  static class RequestBody extends ServletInputStream {
+
+    private final int bufferSize;
+    private byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+
+    RequestBody(int bufferSize) {
+      this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Read as many bytes as possible from the given stream without blocking.
+     *
+     * @param in The non-blocking input stream of the request
+     * @return True if the buffer is full, false if no more bytes can be read for now
+     * @throws IOException When reading from the stream fails
+     */
+    boolean readFrom(ServletInputStream in) throws IOException {
+      if (buffer == null) {
+        // Only allocate the buffer once we actually receive bytes
+        buffer = new byte[bufferSize];
+      }
+
+      while (limit < buffer.length && !in.isFinished() && in.isReady()) {
+        int count = in.read(buffer, limit, buffer.length - limit);
+        if (count < 0) {
+          break;
+        }
+        limit += count;
+      }
+      return limit == buffer.length;
+    }
+
+    void clear() {
+      position = 0;
+      limit = 0;
+    }
+
+    void release() {
+      clear();
+      buffer = null;
+    }
+
+    @Override
+    public int available() {
+      return limit - position;
+    }
+
+    @Override
+    public int read() {
+      return position < limit ? buffer[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (position >= limit) {
+        return -1;
+      }
+
+      int count = Math.min(length, limit - position);
+      System.arraycopy(buffer, position, bytes, offset, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public boolean isFinished() {
+      return position >= limit;
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+      throw new UnsupportedOperationException("The buffered content is always ready to be read");
+    }
+  }
+}
@@ -15,6 +15,11 @@ public class HttpHeader {
   public static final String CONTENT_LENGTH = "Content-Length";
   public static final String CONTENT_DISPOSITION = "Content-Disposition";
   public static final String LOCATION = "Location";
+  public static final String ACCEPT_RANGES = "Accept-Ranges";
+  public static final String CONTENT_RANGE = "Content-Range";
+  public static final String ETAG = "ETag";
+  public static final String IF_RANGE = "If-Range";
+  public static final String RANGE = "Range";
 
   /**
    * The Transfer-Encoding header specifies the form of encoding used to safely transfer the entity
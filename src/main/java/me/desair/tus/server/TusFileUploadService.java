@@ -5,25 +5,39 @@ import jakarta.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.checksum.ChecksumAlgorithm;
 import me.desair.tus.server.checksum.ChecksumExtension;
 import me.desair.tus.server.concatenation.ConcatenationExtension;
 import me.desair.tus.server.core.CoreProtocol;
 import me.desair.tus.server.creation.CreationExtension;
 import me.desair.tus.server.download.DownloadExtension;
 import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.expiration.CleanupStatistics;
 import me.desair.tus.server.expiration.ExpirationExtension;
+import me.desair.tus.server.expiration.ExpiredUploadCleaner;
+import me.desair.tus.server.metrics.TusMetrics;
 import me.desair.tus.server.termination.TerminationExtension;
 import me.desair.tus.server.upload.UploadIdFactory;
 import me.desair.tus.server.upload.UploadInfo;
 import me.desair.tus.server.upload.UploadLock;
 import me.desair.tus.server.upload.UploadLockingService;
 import me.desair.tus.server.upload.UploadStorageService;
+import me.desair.tus.server.upload.UploadType;
 import me.desair.tus.server.upload.UuidUploadIdFactory;
-import me.desair.tus.server.upload.cache.ThreadLocalCachedStorageAndLockingService;
+import me.desair.tus.server.upload.cache.CachedStorageAndLockingService;
+import me.desair.tus.server.upload.cache.UploadInfoCache;
+import me.desair.tus.server.upload.cache.UploadRequestContext;
+import me.desair.tus.server.upload.concatenation.UploadConcatenationService;
 import me.desair.tus.server.upload.disk.DiskLockingService;
 import me.desair.tus.server.upload.disk.DiskStorageService;
 import me.desair.tus.server.util.TusServletRequest;
@@ -38,22 +52,40 @@ import org.slf4j.LoggerFactory;
 public class TusFileUploadService {
 
   public static final String TUS_API_VERSION = "1.0.0";
+  public static final int DEFAULT_ASYNC_BUFFER_SIZE = 256 * 1024;
 
   private static final Logger log = LoggerFactory.getLogger(TusFileUploadService.class);
 
   private UploadStorageService uploadStorageService;
   private UploadLockingService uploadLockingService;
+
+  /** The storage and locking services as configured, without the upload info cache around them. */
+  private UploadStorageService storageServiceDelegate;
+
+  private UploadLockingService lockingServiceDelegate;
   private UploadIdFactory idFactory = new UuidUploadIdFactory();
   private final LinkedHashMap<String, TusExtension> enabledFeatures = new LinkedHashMap<>();
   private final Set<HttpMethod> supportedHttpMethods = EnumSet.noneOf(HttpMethod.class);
-  private boolean isThreadLocalCacheEnabled = false;
+  private UploadInfoCache uploadInfoCache = null;
   private boolean isChunkedTransferDecodingEnabled = false;
+  private boolean sendfileDownloads = false;
+  private final Set<HttpMethod> lockFreeHttpMethods =
+      EnumSet.of(HttpMethod.HEAD, HttpMethod.OPTIONS);
+  private Set<ChecksumAlgorithm> checksumTrailerAlgorithms = EnumSet.allOf(ChecksumAlgorithm.class);
+  private Executor checksumExecutor = null;
+  private int asyncBufferSize = DEFAULT_ASYNC_BUFFER_SIZE;
+  private long asyncTimeout = 0;
+  private final ExpiredUploadCleaner uploadCleaner = new ExpiredUploadCleaner();
+  private ScheduledExecutorService cleanupScheduler;
+  private TusMetrics metrics = TusMetrics.NOOP;
 
   /** Constructor. */
   public TusFileUploadService() {
     String storagePath = FileUtils.getTempDirectoryPath() + File.separator + "tus";
     this.uploadStorageService = new DiskStorageService(idFactory, storagePath);
     this.uploadLockingService = new DiskLockingService(idFactory, storagePath);
+    this.storageServiceDelegate = uploadStorageService;
+    this.lockingServiceDelegate = uploadLockingService;
     initFeatures();
   }
 
@@ -127,8 +159,9 @@ public class TusFileUploadService {
     uploadStorageService.setUploadExpirationPeriod(
         this.uploadStorageService.getUploadExpirationPeriod());
     uploadStorageService.setIdFactory(this.idFactory);
+    uploadStorageService.setMetrics(this.metrics);
     // Update the upload storage service
-    this.uploadStorageService = uploadStorageService;
+    this.storageServiceDelegate = uploadStorageService;
     prepareCacheIfEnabled();
     return this;
   }
@@ -144,8 +177,9 @@ public class TusFileUploadService {
   public TusFileUploadService withUploadLockingService(UploadLockingService uploadLockingService) {
     Validate.notNull(uploadLockingService, "The UploadStorageService cannot be null");
     uploadLockingService.setIdFactory(this.idFactory);
-    // Update the upload storage service
-    this.uploadLockingService = uploadLockingService;
+    uploadLockingService.setMetrics(this.metrics);
+    // Update the upload locking service
+    this.lockingServiceDelegate = uploadLockingService;
     prepareCacheIfEnabled();
     return this;
   }
@@ -161,23 +195,87 @@ public class TusFileUploadService {
     Validate.notBlank(storagePath, "The storage path cannot be blank");
     withUploadStorageService(new DiskStorageService(storagePath));
     withUploadLockingService(new DiskLockingService(storagePath));
-    prepareCacheIfEnabled();
     return this;
   }
 
   /**
-   * Enable or disable a thread-local based cache of upload data. This can reduce the load on the
-   * storage backends. By default this cache is disabled.
+   * Enable or disable a cache of upload data. This can reduce the load on the storage backends. By
+   * default this cache is disabled.
    *
    * @param isEnabled True if the cache should be enabled, false otherwise
    * @return The current service
+   * @deprecated The thread-local cache has been replaced by a shared cache, use {@link
+   *     #withUploadInfoCache(int)} instead. Enabling the cache with this method uses {@link
+   *     UploadInfoCache#DEFAULT_MAX_SIZE} as the cache size.
    */
+  @Deprecated
   public TusFileUploadService withThreadLocalCache(boolean isEnabled) {
-    this.isThreadLocalCacheEnabled = isEnabled;
-    prepareCacheIfEnabled();
+    return withUploadInfoCache(isEnabled ? UploadInfoCache.DEFAULT_MAX_SIZE : 0);
+  }
+
+  /**
+   * Enable a cache of upload information ({@link UploadInfo}) that is shared by all requests, so
+   * that consecutive requests for the same upload do not read the upload information from the
+   * storage backend every time. Cached upload information is validated against the storage backend
+   * before it is used, so the cache can also be used when multiple application instances share the
+   * same storage. By default this cache is disabled.
+   *
+   * @param maxUploads The maximum number of uploads to cache, or 0 to disable the cache
+   * @return The current service
+   */
+  public TusFileUploadService withUploadInfoCache(int maxUploads) {
+    Validate.isTrue(maxUploads >= 0, "The cache size cannot be negative");
+    if (maxUploads == 0) {
+      this.uploadInfoCache = null;
+      prepareCacheIfEnabled();
+    } else if (uploadInfoCache == null || uploadInfoCache.getMaxSize() != maxUploads) {
+      this.uploadInfoCache = new UploadInfoCache(maxUploads);
+      this.uploadInfoCache.setMetrics(this.metrics);
+      prepareCacheIfEnabled();
+    }
+    return this;
+  }
+
+  /**
+   * Get the shared cache of upload information, which reports the number of cache hits and misses.
+   *
+   * @return The cache, or null if the cache is not enabled
+   */
+  public UploadInfoCache getUploadInfoCache() {
+    return uploadInfoCache;
+  }
+
+  /**
+   * Report the work done by this service, like the request latencies, the time spent waiting for
+   * upload locks, the throughput of appending bytes and calculating checksums, the hit ratio of the
+   * upload information cache and the results of cleanups, to the given metrics listener. Use a
+   * {@link me.desair.tus.server.metrics.MicrometerTusMetrics} to record these metrics in a
+   * Micrometer registry. By default no metrics are recorded.
+   *
+   * @param metrics The {@link TusMetrics} implementation to notify
+   * @return The current service
+   */
+  public TusFileUploadService withMetrics(TusMetrics metrics) {
+    Validate.notNull(metrics, "The TusMetrics cannot be null");
+    this.metrics = metrics;
+    uploadStorageService.setMetrics(metrics);
+    uploadLockingService.setMetrics(metrics);
+    uploadCleaner.setMetrics(metrics);
+    if (uploadInfoCache != null) {
+      uploadInfoCache.setMetrics(metrics);
+    }
     return this;
   }
 
+  /**
+   * Get the metrics listener that is notified of the work done by this service.
+   *
+   * @return The metrics listener, {@link TusMetrics#NOOP} if no metrics are recorded
+   */
+  public TusMetrics getMetrics() {
+    return metrics;
+  }
+
   /**
    * Instruct this service to (not) decode any requests with Transfer-Encoding value "chunked". Use
    * this method in case the web container in which this service is running does not decode chunked
@@ -191,6 +289,82 @@ public class TusFileUploadService {
     return this;
   }
 
+  /**
+   * Limit the checksum algorithms that can be used in an Upload-Checksum trailer of a chunked
+   * request. Since such a trailer is only received after the upload content, the server has to
+   * calculate the checksum of every allowed algorithm while receiving the content. By default all
+   * supported algorithms are allowed. If you call this method without any algorithms, clients must
+   * send the Upload-Checksum header before the content and no checksums are calculated
+   * speculatively.
+   *
+   * @param algorithms The checksum algorithms that are allowed in a trailer
+   * @return The current service
+   */
+  public TusFileUploadService withChecksumTrailerAlgorithms(ChecksumAlgorithm... algorithms) {
+    Validate.noNullElements(algorithms, "The checksum algorithms cannot be null");
+    checksumTrailerAlgorithms = EnumSet.noneOf(ChecksumAlgorithm.class);
+    checksumTrailerAlgorithms.addAll(Arrays.asList(algorithms));
+    return this;
+  }
+
+  /**
+   * Enable or disable the calculation of upload checksums in parallel with storing the uploaded
+   * bytes. When enabled, the request thread copies the received bytes into a bounded set of buffers
+   * that are passed to a separate worker per checksum algorithm, so that a fast storage backend is
+   * not limited by the speed of a (cryptographic) checksum algorithm. The workers run on the common
+   * {@link ForkJoinPool}. By default checksums are calculated on the request thread.
+   *
+   * @param isEnabled True if checksums should be calculated in parallel, false otherwise
+   * @return The current service
+   */
+  public TusFileUploadService withParallelChecksums(boolean isEnabled) {
+    return withParallelChecksums(isEnabled ? ForkJoinPool.commonPool() : null);
+  }
+
+  /**
+   * Calculate upload checksums in parallel with storing the uploaded bytes, using worker threads of
+   * the given executor. The submitted tasks never block, so the executor can be shared with other
+   * non-blocking work.
+   *
+   * @param executor The executor that runs the checksum calculations or null to calculate checksums
+   *     on the request thread
+   * @return The current service
+   */
+  public TusFileUploadService withParallelChecksums(Executor executor) {
+    this.checksumExecutor = executor;
+    return this;
+  }
+
+  /**
+   * Set the maximum number of bytes of a PATCH request that are kept in memory by {@link
+   * #processAsync(HttpServletRequest, HttpServletResponse, String)} before they are appended to the
+   * upload. A bigger buffer results in fewer (and more efficient) writes to the storage backend,
+   * but uses more memory per (idle) upload request. The default is 256 KB.
+   *
+   * @param bufferSize The size of the buffer in bytes
+   * @return The current service
+   */
+  public TusFileUploadService withAsyncBufferSize(int bufferSize) {
+    Validate.isTrue(bufferSize > 0, "The async buffer size must be bigger than 0");
+    this.asyncBufferSize = bufferSize;
+    return this;
+  }
+
+  /**
+   * Set the timeout of a PATCH request that is processed asynchronously by {@link
+   * #processAsync(HttpServletRequest, HttpServletResponse, String)}. This timeout applies to the
+   * complete request, so it should be long enough to receive the biggest chunk a client will send.
+   * By default there is no timeout and idle connections are closed by the read timeout of the web
+   * container.
+   *
+   * @param timeout The timeout in milliseconds, zero or less means no timeout
+   * @return The current service
+   */
+  public TusFileUploadService withAsyncTimeout(long timeout) {
+    this.asyncTimeout = timeout;
+    return this;
+  }
+
   /**
    * You can set the number of milliseconds after which an upload is considered as expired and
    * available for cleanup.
@@ -204,6 +378,99 @@ public class TusFileUploadService {
     return this;
   }
 
+  /**
+   * Set the number of threads that delete expired uploads in parallel during a {@link #cleanup()}.
+   * The threads only exist while a cleanup is running. By default expired uploads are deleted one
+   * by one on the thread that calls the cleanup.
+   *
+   * @param workerCount The number of worker threads
+   * @return The current service
+   */
+  public TusFileUploadService withCleanupWorkers(int workerCount) {
+    uploadCleaner.setWorkerCount(workerCount);
+    return this;
+  }
+
+  /**
+   * Limit the I/O that a {@link #cleanup()} can use to delete expired uploads, so that cleaning up
+   * a large number of expired uploads does not slow down the processing of upload requests. By
+   * default there is no limit.
+   *
+   * @param maxDeletesPerSecond The maximum number of uploads that are deleted per second, zero or
+   *     less means no limit
+   * @param maxBytesPerSecond The maximum number of uploaded bytes that are deleted per second, zero
+   *     or less means no limit
+   * @return The current service
+   */
+  public TusFileUploadService withCleanupRateLimit(
+      double maxDeletesPerSecond, long maxBytesPerSecond) {
+    uploadCleaner.setRateLimit(maxDeletesPerSecond, maxBytesPerSecond);
+    return this;
+  }
+
+  /**
+   * Set the maximum number of expired uploads that are deleted by a single {@link #cleanup()}. The
+   * remaining expired uploads are deleted by the next cleanup, so that a large backlog is removed
+   * in multiple shorter passes. By default there is no limit.
+   *
+   * @param maxUploads The maximum number of uploads that are deleted per cleanup
+   * @return The current service
+   */
+  public TusFileUploadService withMaxUploadsPerCleanup(int maxUploads) {
+    uploadCleaner.setMaxUploadsPerPass(maxUploads);
+    return this;
+  }
+
+  /**
+   * Run {@link #cleanup()} in the background at a fixed interval, on a daemon thread that is
+   * managed by this service. The interval is measured between the end of a cleanup and the start of
+   * the next one. Call {@link #stopScheduledCleanup()} when the service is no longer used.
+   *
+   * @param interval The number of milliseconds between two cleanups
+   * @return The current service
+   */
+  public TusFileUploadService withScheduledCleanup(long interval) {
+    Validate.isTrue(interval > 0, "The cleanup interval must be bigger than 0");
+    stopScheduledCleanup();
+
+    ScheduledThreadPoolExecutor scheduler =
+        new ScheduledThreadPoolExecutor(
+            1,
+            runnable -> {
+              Thread thread = new Thread(runnable, "tus-cleanup-scheduler");
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.scheduleWithFixedDelay(
+        this::runScheduledCleanup, interval, interval, TimeUnit.MILLISECONDS);
+    cleanupScheduler = scheduler;
+    return this;
+  }
+
+  /**
+   * Stop the background cleanup that was started with {@link #withScheduledCleanup(long)}. A
+   * cleanup that is running is interrupted.
+   */
+  public void stopScheduledCleanup() {
+    if (cleanupScheduler != null) {
+      cleanupScheduler.shutdownNow();
+      cleanupScheduler = null;
+    }
+  }
+
+  /**
+   * Release the resources of this service when it is no longer used, for example when the
+   * application is shut down or redeployed. This stops the background cleanup (see {@link
+   * #stopScheduledCleanup()}) and closes the upload storage service, which for the {@link
+   * DiskStorageService} forces pending bytes to the storage device and stops its background thread.
+   *
+   * @throws IOException When the storage service cannot be closed
+   */
+  public void shutdown() throws IOException {
+    stopScheduledCleanup();
+    uploadStorageService.close();
+  }
+
   /**
    * Enable the unofficial `download` extension that also allows you to download uploaded bytes. By
    * default this feature is disabled.
@@ -211,7 +478,47 @@ public class TusFileUploadService {
    * @return The current service
    */
   public TusFileUploadService withDownloadFeature() {
-    addTusExtension(new DownloadExtension());
+    DownloadExtension downloadExtension = new DownloadExtension();
+    downloadExtension.setSendfileEnabled(sendfileDownloads);
+    addTusExtension(downloadExtension);
+    return this;
+  }
+
+  /**
+   * Let servlet containers that support sendfile (like Tomcat with the NIO or NIO2 connector) send
+   * completed uploads directly from disk, without copying the bytes through the JVM. The container
+   * sends the file after the download request has been processed and the upload has been unlocked,
+   * so only enable this when uploads are never removed while they are downloaded: the termination
+   * extension is disabled, uploads do not expire and partial uploads are not removed after a
+   * physical concatenation. By default the bytes are copied while processing the request.
+   *
+   * @param isEnabled True if downloads can use sendfile, false otherwise
+   * @return The current service
+   */
+  public TusFileUploadService withSendfileDownloads(boolean isEnabled) {
+    this.sendfileDownloads = isEnabled;
+    TusExtension downloadExtension = enabledFeatures.get("download");
+    if (downloadExtension instanceof DownloadExtension) {
+      ((DownloadExtension) downloadExtension).setSendfileEnabled(isEnabled);
+    }
+    return this;
+  }
+
+  /**
+   * Process download (GET) requests without locking the upload, so that multiple clients can
+   * download the same upload simultaneously. Downloads are only allowed for completed uploads, but
+   * note that an upload that is being downloaded can still be deleted by another request. By
+   * default download requests lock the upload. HEAD and OPTIONS requests never lock the upload.
+   *
+   * @param isEnabled True if download requests should not lock the upload, false otherwise
+   * @return The current service
+   */
+  public TusFileUploadService withLockFreeDownloads(boolean isEnabled) {
+    if (isEnabled) {
+      lockFreeHttpMethods.add(HttpMethod.GET);
+    } else {
+      lockFreeHttpMethods.remove(HttpMethod.GET);
+    }
     return this;
   }
 
@@ -298,21 +605,93 @@ public class TusFileUploadService {
     Validate.notNull(servletRequest, "The HTTP Servlet request cannot be null");
     Validate.notNull(servletResponse, "The HTTP Servlet response cannot be null");
 
+    long start = System.nanoTime();
     HttpMethod method = HttpMethod.getMethodIfSupported(servletRequest, supportedHttpMethods);
 
     log.debug(
         "Processing request with method {} and URL {}", method, servletRequest.getRequestURL());
 
-    TusServletRequest request =
-        new TusServletRequest(servletRequest, isChunkedTransferDecodingEnabled);
+    TusServletRequest request = newTusServletRequest(servletRequest);
     TusServletResponse response = new TusServletResponse(servletResponse);
 
-    try (UploadLock lock = uploadLockingService.lockUploadByUri(request.getRequestURI())) {
+    try {
+      UploadRequestContext lockFreeContext = newLockFreeContext(method, request, ownerKey);
+      if (lockFreeContext != null) {
+        // Read-only requests do not need a lock since the storage service always returns the last
+        // persisted upload information. This way clients that check the upload offset do not have
+        // to wait for (or fail because of) an upload request that is still in progress.
+        processRequest(method, request, response, lockFreeContext, ownerKey);
 
-      processLockedRequest(method, request, response, ownerKey);
+      } else {
+        try (UploadLock lock = uploadLockingService.lockUploadByUri(request.getRequestURI())) {
 
-    } catch (TusException e) {
-      log.error("Unable to lock upload for request URI " + request.getRequestURI(), e);
+          processLockedRequest(method, request, response, ownerKey);
+
+        } catch (TusException e) {
+          log.error("Unable to lock upload for request URI " + request.getRequestURI(), e);
+        }
+      }
+    } finally {
+      metrics.requestCompleted(method, servletResponse.getStatus(), System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Process a tus upload request using Servlet non-blocking I/O for the content of PATCH requests.
+   * See {@link #processAsync(HttpServletRequest, HttpServletResponse, String)}.
+   *
+   * @param servletRequest The {@link HttpServletRequest} of the request
+   * @param servletResponse The {@link HttpServletResponse} of the request
+   * @throws IOException When saving bytes or information of this requests fails
+   */
+  public void processAsync(HttpServletRequest servletRequest, HttpServletResponse servletResponse)
+      throws IOException {
+    processAsync(servletRequest, servletResponse, null);
+  }
+
+  /**
+   * Process a tus upload request that belongs to a specific owner, using Servlet non-blocking I/O
+   * for the content of PATCH requests. Instead of blocking a container thread while the content is
+   * uploaded, the request is put in asynchronous mode and the received bytes are appended to the
+   * upload whenever the web container signals that they are available. The response is completed
+   * when all content has been received, so it is not yet committed when this method returns. The
+   * upload stays locked until then. <br>
+   * All other requests, and PATCH requests that cannot be processed asynchronously (because the
+   * servlet or filter does not support async processing or because chunked transfer decoding by
+   * this library is needed), are processed by {@link #process(HttpServletRequest,
+   * HttpServletResponse, String)}.
+   *
+   * @param servletRequest The {@link HttpServletRequest} of the request
+   * @param servletResponse The {@link HttpServletResponse} of the request
+   * @param ownerKey A unique identifier of the owner (group) of this upload
+   * @throws IOException When saving bytes or information of this requests fails
+   */
+  public void processAsync(
+      HttpServletRequest servletRequest, HttpServletResponse servletResponse, String ownerKey)
+      throws IOException {
+    Validate.notNull(servletRequest, "The HTTP Servlet request cannot be null");
+    Validate.notNull(servletResponse, "The HTTP Servlet response cannot be null");
+
+    HttpMethod method = HttpMethod.getMethodIfSupported(servletRequest, supportedHttpMethods);
+
+    boolean isChunkedDecodingNeeded =
+        isChunkedTransferDecodingEnabled
+            && StringUtils.equalsIgnoreCase(
+                "chunked", servletRequest.getHeader(HttpHeader.TRANSFER_ENCODING));
+
+    if (HttpMethod.PATCH.equals(method)
+        && servletRequest.isAsyncSupported()
+        && !isChunkedDecodingNeeded) {
+      log.debug(
+          "Processing request with method {} and URL {} asynchronously",
+          method,
+          servletRequest.getRequestURL());
+
+      new AsyncPatchRequestProcessor(
+              this, method, servletRequest, servletResponse, ownerKey, asyncBufferSize)
+          .start(uploadLockingService, asyncTimeout);
+    } else {
+      process(servletRequest, servletResponse, ownerKey);
     }
   }
 
@@ -402,25 +781,117 @@ public class TusFileUploadService {
   }
 
   /**
-   * This method should be invoked periodically. It will cleanup any expired uploads and stale locks
+   * This method should be invoked periodically. It will cleanup any expired uploads and stale
+   * locks. You can also let this service invoke it in the background using {@link
+   * #withScheduledCleanup(long)}. <br>
+   * A storage service that cannot list its expired uploads (see {@link
+   * UploadStorageService#getExpiredUploads(int)}) removes them itself, in which case the cleanup
+   * workers, rate limit and statistics of this service are not used.
    *
    * @throws IOException When cleaning fails
    */
   public void cleanup() throws IOException {
     uploadLockingService.cleanupStaleLocks();
-    uploadStorageService.cleanupExpiredUploads(uploadLockingService);
+    if (canListExpiredUploads(storageServiceDelegate)) {
+      uploadCleaner.cleanup(uploadStorageService, uploadLockingService);
+    } else {
+      uploadStorageService.cleanupExpiredUploads(uploadLockingService);
+    }
+  }
+
+  /**
+   * Get the metrics of the last cleanup of expired uploads, like the number of deleted uploads and
+   * the number of bytes that were freed.
+   *
+   * @return The statistics of the last cleanup, or null if no cleanup has completed yet
+   */
+  public CleanupStatistics getLastCleanupStatistics() {
+    return uploadCleaner.getLastStatistics();
+  }
+
+  private static boolean canListExpiredUploads(UploadStorageService storageService) {
+    try {
+      return !storageService.getClass().getMethod("getExpiredUploads", int.class).isDefault();
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  private void runScheduledCleanup() {
+    try {
+      cleanup();
+    } catch (IOException | RuntimeException e) {
+      // Try again at the next interval, an exception would cancel all future cleanups
+      log.error("Unable to clean up expired uploads and stale locks", e);
+    }
   }
 
   protected void processLockedRequest(
       HttpMethod method, TusServletRequest request, TusServletResponse response, String ownerKey)
       throws IOException {
+    // Make sure the upload information is only read and written once while processing this request
+    processRequest(method, request, response, newRequestContext(), ownerKey);
+  }
+
+  /**
+   * Create the read-only request context of a request that can be processed without the upload
+   * lock. The context reads the upload information once, both to check if the request needs the
+   * lock and for the validators and request handlers.
+   *
+   * @return The context, or null if the request must be processed while holding the upload lock
+   */
+  private UploadRequestContext newLockFreeContext(
+      HttpMethod method, TusServletRequest request, String ownerKey) throws IOException {
+    if (method == null || !lockFreeHttpMethods.contains(method)) {
+      return null;
+    }
+
+    UploadRequestContext context = newRequestContext();
+    if (isMergePending(context.getUploadInfo(request.getRequestURI(), ownerKey))) {
+      return null;
+    }
+    // Without the lock, the request must not change the upload
+    context.setReadOnly(true);
+    return context;
+  }
+
+  /**
+   * Check if the upload is a concatenated upload that still has to be merged. A merge saves the
+   * upload information and can copy and remove files, so it needs the upload lock.
+   */
+  private boolean isMergePending(UploadInfo uploadInfo) throws IOException {
+    if (uploadInfo == null || !UploadType.CONCATENATED.equals(uploadInfo.getUploadType())) {
+      return false;
+    }
+    UploadConcatenationService concatenationService =
+        uploadStorageService.getUploadConcatenationService();
+    return concatenationService != null && !concatenationService.isMerged(uploadInfo);
+  }
+
+  private void processRequest(
+      HttpMethod method,
+      TusServletRequest request,
+      TusServletResponse response,
+      UploadRequestContext context,
+      String ownerKey)
+      throws IOException {
     try {
-      validateRequest(method, request, ownerKey);
+      long start = System.nanoTime();
+      validateRequest(method, request, context, ownerKey);
+      long processingStart = System.nanoTime();
+      metrics.requestValidated(method, processingStart - start);
 
-      executeProcessingByFeatures(method, request, response, ownerKey);
+      executeProcessingByFeatures(method, request, response, context, ownerKey);
+      metrics.requestProcessed(method, System.nanoTime() - processingStart);
+
+      // Save the upload information before the response is committed
+      context.flush();
 
     } catch (TusException e) {
-      processTusException(method, request, response, ownerKey, e);
+      processTusException(method, request, response, context, ownerKey, e);
+    } finally {
+      // Only writes the updates of a request that failed with an unexpected exception
+      context.flush();
     }
   }
 
@@ -428,23 +899,27 @@ public class TusFileUploadService {
       HttpMethod method,
       TusServletRequest servletRequest,
       TusServletResponse servletResponse,
+      UploadStorageService storageService,
       String ownerKey)
       throws IOException, TusException {
 
     for (TusExtension feature : enabledFeatures.values()) {
       if (!servletRequest.isProcessedBy(feature)) {
         servletRequest.addProcessor(feature);
-        feature.process(method, servletRequest, servletResponse, uploadStorageService, ownerKey);
+        feature.process(method, servletRequest, servletResponse, storageService, ownerKey);
       }
     }
   }
 
   protected void validateRequest(
-      HttpMethod method, HttpServletRequest servletRequest, String ownerKey)
+      HttpMethod method,
+      HttpServletRequest servletRequest,
+      UploadStorageService storageService,
+      String ownerKey)
       throws TusException, IOException {
 
     for (TusExtension feature : enabledFeatures.values()) {
-      feature.validate(method, servletRequest, uploadStorageService, ownerKey);
+      feature.validate(method, servletRequest, storageService, ownerKey);
     }
   }
 
@@ -452,6 +927,7 @@ public class TusFileUploadService {
       HttpMethod method,
       TusServletRequest request,
       TusServletResponse response,
+      UploadStorageService storageService,
       String ownerKey,
       TusException exception)
       throws IOException {
@@ -471,22 +947,45 @@ public class TusFileUploadService {
 
         if (!request.isProcessedBy(feature)) {
           request.addProcessor(feature);
-          feature.handleError(method, request, response, uploadStorageService, ownerKey);
+          feature.handleError(method, request, response, storageService, ownerKey);
         }
       }
 
       // Since an error occurred, the bytes we have written are probably not valid. So remove
       // them.
-      UploadInfo uploadInfo = uploadStorageService.getUploadInfo(request.getRequestURI(), ownerKey);
-      uploadStorageService.removeLastNumberOfBytes(uploadInfo, request.getBytesRead());
+      UploadInfo uploadInfo = storageService.getUploadInfo(request.getRequestURI(), ownerKey);
+      storageService.removeLastNumberOfBytes(uploadInfo, request.getBytesRead());
 
     } catch (TusException ex) {
       log.warn("An exception occurred while handling another exception", ex);
     }
 
+    if (storageService instanceof UploadRequestContext) {
+      // Save the upload information before the error response is committed
+      try {
+        ((UploadRequestContext) storageService).flush();
+      } catch (IOException ex) {
+        log.error(
+            "Unable to save the upload information of request " + request.getRequestURI(), ex);
+      }
+    }
+
     response.sendError(status, message);
   }
 
+  TusServletRequest newTusServletRequest(HttpServletRequest servletRequest) {
+    TusServletRequest request =
+        new TusServletRequest(
+            servletRequest, isChunkedTransferDecodingEnabled, checksumTrailerAlgorithms);
+    request.setChecksumExecutor(checksumExecutor);
+    request.setMetrics(metrics);
+    return request;
+  }
+
+  UploadRequestContext newRequestContext() {
+    return new UploadRequestContext(uploadStorageService, idFactory);
+  }
+
   private void updateSupportedHttpMethods() {
     supportedHttpMethods.clear();
     for (TusExtension tusFeature : enabledFeatures.values()) {
@@ -494,13 +993,26 @@ public class TusFileUploadService {
     }
   }
 
+  UploadStorageService getUploadStorageService() {
+    return uploadStorageService;
+  }
+
+  UploadLockingService getUploadLockingService() {
+    return uploadLockingService;
+  }
+
   private void prepareCacheIfEnabled() {
-    if (isThreadLocalCacheEnabled && uploadStorageService != null && uploadLockingService != null) {
-      ThreadLocalCachedStorageAndLockingService service =
-          new ThreadLocalCachedStorageAndLockingService(uploadStorageService, uploadLockingService);
+    // Always wrap the configured services, so a new cache never wraps the previous one
+    if (uploadInfoCache != null) {
+      CachedStorageAndLockingService service =
+          new CachedStorageAndLockingService(
+              storageServiceDelegate, lockingServiceDelegate, uploadInfoCache);
       service.setIdFactory(this.idFactory);
       this.uploadStorageService = service;
       this.uploadLockingService = service;
+    } else {
+      this.uploadStorageService = storageServiceDelegate;
+      this.uploadLockingService = lockingServiceDelegate;
     }
   }
 }
@@ -2,6 +2,11 @@ package me.desair.tus.server.checksum;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.function.Supplier;
+import me.desair.tus.server.checksum.calculator.Crc32cCalculator;
+import me.desair.tus.server.checksum.calculator.MessageDigestCalculator;
+import me.desair.tus.server.checksum.calculator.Sha256Calculator;
+import me.desair.tus.server.checksum.calculator.XxHash64Calculator;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,13 +14,17 @@ import org.slf4j.LoggerFactory;
 /**
  * Enum that contains all supported checksum algorithms The names of the checksum algorithms MUST
  * only consist of ASCII characters with the modification that uppercase characters are excluded.
+ * Next to the cryptographic {@link MessageDigest} algorithms, the much faster non-cryptographic
+ * CRC-32C and XXH64 checksums are supported for clients that only need an integrity check.
  */
 public enum ChecksumAlgorithm {
   MD5("MD5", "md5"),
   SHA1("SHA-1", "sha1"),
   SHA256("SHA-256", "sha256"),
   SHA384("SHA-384", "sha384"),
-  SHA512("SHA-512", "sha512");
+  SHA512("SHA-512", "sha512"),
+  CRC32C("CRC32C", "crc32c", Crc32cCalculator::new),
+  XXH64("XXH64", "xxh64", XxHash64Calculator::new);
 
   public static final String CHECKSUM_VALUE_SEPARATOR = " ";
 
@@ -23,10 +32,16 @@ public enum ChecksumAlgorithm {
 
   private String javaName;
   private String tusName;
+  private Supplier<ChecksumCalculator> calculatorFactory;
 
   ChecksumAlgorithm(String javaName, String tusName) {
+    this(javaName, tusName, null);
+  }
+
+  ChecksumAlgorithm(String javaName, String tusName, Supplier<ChecksumCalculator> factory) {
     this.javaName = javaName;
     this.tusName = tusName;
+    this.calculatorFactory = factory;
   }
 
   public String getJavaName() {
@@ -42,7 +57,15 @@ public enum ChecksumAlgorithm {
     return getTusName();
   }
 
+  /**
+   * Get a new {@link MessageDigest} instance for this algorithm.
+   *
+   * @return The message digest or null if this algorithm is not backed by a {@link MessageDigest}
+   */
   public MessageDigest getMessageDigest() {
+    if (calculatorFactory != null) {
+      return null;
+    }
     try {
       return MessageDigest.getInstance(getJavaName());
     } catch (NoSuchAlgorithmException e) {
@@ -51,6 +74,36 @@ public enum ChecksumAlgorithm {
     }
   }
 
+  /**
+   * Get a new {@link ChecksumCalculator} instance for this algorithm.
+   *
+   * @return The checksum calculator or null if this algorithm is not supported by this JVM
+   */
+  public ChecksumCalculator getChecksumCalculator() {
+    if (calculatorFactory != null) {
+      return calculatorFactory.get();
+    }
+    MessageDigest messageDigest = getMessageDigest();
+    return messageDigest == null ? null : new MessageDigestCalculator(messageDigest);
+  }
+
+  /**
+   * Get a new {@link ResumableChecksumCalculator} instance for this algorithm, which can be used to
+   * calculate a checksum over multiple requests.
+   *
+   * @return The resumable checksum calculator or null if this algorithm does not support it
+   */
+  public ResumableChecksumCalculator getResumableChecksumCalculator() {
+    switch (this) {
+      case SHA256:
+        return new Sha256Calculator();
+      case XXH64:
+        return new XxHash64Calculator();
+      default:
+        return null;
+    }
+  }
+
   public static ChecksumAlgorithm forTusName(String name) {
     for (ChecksumAlgorithm alg : ChecksumAlgorithm.values()) {
       if (alg.getTusName().equals(name)) {
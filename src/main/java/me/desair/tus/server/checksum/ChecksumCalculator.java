@@ -0,0 +1,25 @@
+package me.desair.tus.server.checksum;
+
+/**
+ * Calculates the checksum of a sequence of bytes for a single {@link ChecksumAlgorithm}. This
+ * abstraction allows both {@link java.security.MessageDigest} based algorithms and faster
+ * non-cryptographic checksums to be used for upload checksums. Implementations are not thread-safe.
+ */
+public interface ChecksumCalculator {
+
+  /**
+   * Add the given bytes to the checksum.
+   *
+   * @param buffer The buffer containing the bytes
+   * @param offset The offset of the first byte in the buffer
+   * @param length The number of bytes
+   */
+  void update(byte[] buffer, int offset, int length);
+
+  /**
+   * Complete the checksum calculation and reset this calculator.
+   *
+   * @return The checksum value in its binary (big-endian) representation
+   */
+  byte[] digest();
+}
@@ -0,0 +1,210 @@
+package me.desair.tus.server.checksum;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import me.desair.tus.server.metrics.TusMetrics;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Input stream that calculates the checksums of all bytes that are read for one or more {@link
+ * ChecksumAlgorithm}s at once. Every buffer that is read from the underlying stream is passed to
+ * each checksum calculator, instead of chaining a separate digest stream per algorithm. <br>
+ * Optionally the checksums are calculated by worker threads of an {@link Executor}, so that reading
+ * (and storing) the content is not limited by the speed of the checksum calculation.
+ */
+public class ChecksumInputStream extends FilterInputStream {
+
+  private static final int SKIP_BUFFER_SIZE = 8192;
+
+  private final Map<ChecksumAlgorithm, ChecksumCalculator> calculators =
+      new EnumMap<>(ChecksumAlgorithm.class);
+  private final ChecksumCalculator[] calculatorArray;
+  private final ChecksumPipeline pipeline;
+  private TusMetrics metrics = TusMetrics.NOOP;
+  private long[] calculationNanos;
+  private long byteCount = 0;
+
+  /**
+   * Create a new checksum stream.
+   *
+   * @param inputStream The stream to read from
+   * @param algorithms The algorithms for which a checksum should be calculated
+   */
+  public ChecksumInputStream(InputStream inputStream, Collection<ChecksumAlgorithm> algorithms) {
+    this(inputStream, algorithms, null);
+  }
+
+  /**
+   * Create a new checksum stream that calculates the checksums in the background.
+   *
+   * @param inputStream The stream to read from
+   * @param algorithms The algorithms for which a checksum should be calculated
+   * @param executor The executor that runs the checksum calculations, or null to calculate the
+   *     checksums on the thread that reads from this stream
+   */
+  public ChecksumInputStream(
+      InputStream inputStream, Collection<ChecksumAlgorithm> algorithms, Executor executor) {
+    super(inputStream);
+    for (ChecksumAlgorithm algorithm : algorithms) {
+      ChecksumCalculator calculator = algorithm.getChecksumCalculator();
+      if (calculator != null) {
+        calculators.put(algorithm, calculator);
+      }
+    }
+    this.calculatorArray = calculators.values().toArray(new ChecksumCalculator[0]);
+    this.pipeline =
+        executor == null || calculators.isEmpty()
+            ? null
+            : new ChecksumPipeline(calculators.values(), executor);
+  }
+
+  /**
+   * Create a new checksum stream that updates the given calculator, for example a calculator that
+   * continues from a previously saved state.
+   *
+   * @param inputStream The stream to read from
+   * @param algorithm The algorithm of the calculator
+   * @param calculator The calculator to update with all bytes that are read
+   */
+  public ChecksumInputStream(
+      InputStream inputStream, ChecksumAlgorithm algorithm, ChecksumCalculator calculator) {
+    super(inputStream);
+    calculators.put(algorithm, calculator);
+    this.calculatorArray = new ChecksumCalculator[] {calculator};
+    this.pipeline = null;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int value = in.read();
+    if (value != -1) {
+      update(new byte[] {(byte) value}, 0, 1);
+    }
+    return value;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    int bytesRead = in.read(buffer, offset, length);
+    if (bytesRead > 0) {
+      update(buffer, offset, bytesRead);
+    }
+    return bytesRead;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    // Skipped bytes also need to be part of the checksum, so read them instead
+    byte[] buffer = new byte[(int) Math.min(SKIP_BUFFER_SIZE, Math.max(n, 0))];
+    long remaining = n;
+    while (remaining > 0) {
+      int bytesRead = read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (bytesRead < 0) {
+        break;
+      }
+      remaining -= bytesRead;
+    }
+    return n - Math.max(remaining, 0);
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public void mark(int readlimit) {
+    // Mark and reset are not supported since the checksums cannot be rewound
+  }
+
+  @Override
+  public void reset() throws IOException {
+    throw new IOException("Mark and reset are not supported by a checksum stream");
+  }
+
+  /**
+   * Set the listener that is notified of the checksum calculation time per algorithm, when the
+   * checksum of that algorithm is retrieved.
+   *
+   * @param metrics The {@link TusMetrics} to notify
+   */
+  public void setMetrics(TusMetrics metrics) {
+    Validate.notNull(metrics, "The TusMetrics cannot be null");
+    this.metrics = metrics;
+    this.calculationNanos = metrics == TusMetrics.NOOP ? null : new long[calculatorArray.length];
+  }
+
+  /**
+   * Get the set of algorithms for which a checksum is calculated.
+   *
+   * @return The set of active checksum algorithms
+   */
+  public Set<ChecksumAlgorithm> getAlgorithms() {
+    return Collections.unmodifiableSet(calculators.keySet());
+  }
+
+  /**
+   * Complete the checksum calculation of the given algorithm and return the Base64 encoded value.
+   * This method should only be called once per algorithm after all bytes have been read.
+   *
+   * @param algorithm The checksum algorithm
+   * @return The Base64 encoded checksum or null if the checksum of this algorithm is not calculated
+   * @throws InterruptedIOException When interrupted while waiting for the background calculation
+   * @throws IOException When the background calculation failed
+   */
+  public String getChecksum(ChecksumAlgorithm algorithm) throws IOException {
+    if (pipeline != null && !pipeline.isFinished()) {
+      pipeline.finish();
+    }
+    ChecksumCalculator calculator = calculators.get(algorithm);
+    if (calculator == null) {
+      return null;
+    }
+    if (calculationNanos != null) {
+      recordCalculation(algorithm);
+    }
+    return Base64.encodeBase64String(calculator.digest());
+  }
+
+  private void update(byte[] buffer, int offset, int length) throws IOException {
+    byteCount += length;
+    if (pipeline != null && !pipeline.isFinished()) {
+      pipeline.update(buffer, offset, length);
+    } else if (calculationNanos == null) {
+      for (ChecksumCalculator calculator : calculatorArray) {
+        calculator.update(buffer, offset, length);
+      }
+    } else {
+      for (int i = 0; i < calculatorArray.length; i++) {
+        long start = System.nanoTime();
+        calculatorArray[i].update(buffer, offset, length);
+        calculationNanos[i] += System.nanoTime() - start;
+      }
+    }
+  }
+
+  private void recordCalculation(ChecksumAlgorithm algorithm) {
+    // The calculators are ordered like the algorithms in the EnumMap
+    int index = 0;
+    for (ChecksumAlgorithm key : calculators.keySet()) {
+      if (key == algorithm) {
+        break;
+      }
+      index++;
+    }
+    long nanos = calculationNanos[index];
+    if (pipeline != null) {
+      nanos += pipeline.getCalculationNanos(index);
+    }
+    metrics.checksumCalculated(algorithm, byteCount, nanos);
+  }
+}
@@ -11,7 +11,8 @@ import org.apache.commons.lang3.StringUtils;
 /**
  * The Tus-Checksum-Algorithm header MUST be included in the response to an OPTIONS request. The
  * Tus-Checksum-Algorithm response header MUST be a comma-separated list of the checksum algorithms
- * supported by the server.
+ * supported by the server. The checksum-trailer extension is only advertised when at least one
+ * checksum algorithm is allowed in an Upload-Checksum trailer.
  */
 public class ChecksumOptionsRequestHandler extends AbstractExtensionRequestHandler {
 
@@ -25,6 +26,14 @@ public class ChecksumOptionsRequestHandler extends AbstractExtensionRequestHandl
 
     super.process(method, servletRequest, servletResponse, uploadStorageService, ownerKey);
 
+    if (!servletRequest.getChecksumTrailerAlgorithms().isEmpty()) {
+      // Only advertise trailer support if we calculate at least one checksum speculatively
+      StringBuilder extensionBuilder =
+          new StringBuilder(servletResponse.getHeader(HttpHeader.TUS_EXTENSION));
+      addExtension(extensionBuilder, "checksum-trailer");
+      servletResponse.setHeader(HttpHeader.TUS_EXTENSION, extensionBuilder.toString());
+    }
+
     servletResponse.setHeader(
         HttpHeader.TUS_CHECKSUM_ALGORITHM, StringUtils.join(ChecksumAlgorithm.values(), ","));
   }
@@ -32,6 +41,5 @@ public class ChecksumOptionsRequestHandler extends AbstractExtensionRequestHandl
   @Override
   protected void appendExtensions(StringBuilder extensionBuilder) {
     addExtension(extensionBuilder, "checksum");
-    addExtension(extensionBuilder, "checksum-trailer");
   }
 }
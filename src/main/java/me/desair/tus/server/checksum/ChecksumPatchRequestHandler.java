@@ -6,6 +6,8 @@ import java.io.IOException;
 import me.desair.tus.server.HttpHeader;
 import me.desair.tus.server.HttpMethod;
 import me.desair.tus.server.checksum.validation.ChecksumAlgorithmValidator;
+import me.desair.tus.server.exception.ChecksumAlgorithmNotSupportedException;
+import me.desair.tus.server.exception.ChecksumCalculationException;
 import me.desair.tus.server.exception.TusException;
 import me.desair.tus.server.exception.UploadChecksumMismatchException;
 import me.desair.tus.server.upload.UploadStorageService;
@@ -32,7 +34,10 @@ public class ChecksumPatchRequestHandler extends AbstractRequestHandler {
 
     String uploadChecksumHeader = servletRequest.getHeader(HttpHeader.UPLOAD_CHECKSUM);
 
-    if (servletRequest.hasCalculatedChecksum() && StringUtils.isNotBlank(uploadChecksumHeader)) {
+    boolean hasReadContent =
+        servletRequest.hasCalculatedChecksum() || servletRequest.getBytesRead() > 0;
+
+    if (hasReadContent && StringUtils.isNotBlank(uploadChecksumHeader)) {
 
       // The Upload-Checksum header can be a trailing header which is only present after
       // reading the
@@ -47,7 +52,24 @@ public class ChecksumPatchRequestHandler extends AbstractRequestHandler {
 
       ChecksumAlgorithm checksumAlgorithm =
           ChecksumAlgorithm.forUploadChecksumHeader(uploadChecksumHeader);
-      String calculatedValue = servletRequest.getCalculatedChecksum(checksumAlgorithm);
+      String calculatedValue;
+      try {
+        calculatedValue = servletRequest.getCalculatedChecksum(checksumAlgorithm);
+      } catch (IOException e) {
+        // Throw a TusException so that the bytes that were already saved are removed
+        throw new ChecksumCalculationException(
+            "Unable to calculate the checksum with algorithm " + checksumAlgorithm, e);
+      }
+
+      if (calculatedValue == null) {
+        // The checksum was sent as a trailer for an algorithm we did not calculate up front
+        throw new ChecksumAlgorithmNotSupportedException(
+            "The checksum algorithm "
+                + checksumAlgorithm
+                + " is not supported in a trailing "
+                + HttpHeader.UPLOAD_CHECKSUM
+                + " header, send the header before the upload content instead");
+      }
 
       if (!StringUtils.equals(expectedValue, calculatedValue)) {
         // throw an exception if the checksum is invalid. This will also trigger the removal
@@ -0,0 +1,250 @@
+package me.desair.tus.server.checksum;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pipeline that updates checksum calculators on worker threads of an {@link Executor}, so that the
+ * thread reading the upload content does not have to wait for the (expensive) checksum calculation.
+ * The bytes are copied into a bounded ring of chunks which are consumed by one worker per checksum
+ * calculator. When all chunks are in use, the reading thread waits until a chunk is released by all
+ * workers.
+ *
+ * <p>Workers never block: a worker is only scheduled when there are chunks to process and stops
+ * when its queue is empty. An abandoned pipeline therefore does not keep any thread busy.
+ */
+class ChecksumPipeline {
+
+  static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+  static final int DEFAULT_RING_SIZE = 16;
+
+  private final Executor executor;
+  private final Worker[] workers;
+  private final int chunkSize;
+  private final int ringSize;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition chunkReleased = lock.newCondition();
+  private final Deque<Chunk> freeChunks = new ArrayDeque<>();
+  private int allocatedChunks = 0;
+  private int chunksInUse = 0;
+  private Throwable failure;
+
+  private Chunk current;
+  private boolean finished = false;
+
+  ChecksumPipeline(Collection<ChecksumCalculator> calculators, Executor executor) {
+    this(calculators, executor, DEFAULT_CHUNK_SIZE, DEFAULT_RING_SIZE);
+  }
+
+  ChecksumPipeline(
+      Collection<ChecksumCalculator> calculators, Executor executor, int chunkSize, int ringSize) {
+    this.executor = executor;
+    this.chunkSize = chunkSize;
+    this.ringSize = ringSize;
+    this.workers = new Worker[calculators.size()];
+    int i = 0;
+    for (ChecksumCalculator calculator : calculators) {
+      workers[i++] = new Worker(calculator);
+    }
+  }
+
+  /**
+   * Queue the given bytes for all checksum calculators of this pipeline.
+   *
+   * @param buffer The buffer containing the bytes
+   * @param offset The offset of the first byte in the buffer
+   * @param length The number of bytes
+   * @throws InterruptedIOException When the thread was interrupted while waiting for a free chunk
+   */
+  void update(byte[] buffer, int offset, int length) throws InterruptedIOException {
+    int position = offset;
+    int remaining = length;
+    while (remaining > 0) {
+      if (current == null) {
+        current = acquireChunk();
+      }
+
+      int count = Math.min(remaining, current.data.length - current.length);
+      System.arraycopy(buffer, position, current.data, current.length, count);
+      current.length += count;
+      position += count;
+      remaining -= count;
+
+      if (current.length == current.data.length) {
+        publish(current);
+        current = null;
+      }
+    }
+  }
+
+  /**
+   * Wait until all queued bytes have been passed to the checksum calculators. After this method
+   * returns, the checksum calculators can safely be used by the calling thread.
+   *
+   * @throws InterruptedIOException When the thread was interrupted while waiting
+   * @throws IOException When a checksum calculator failed
+   */
+  void finish() throws IOException {
+    if (current != null) {
+      publish(current);
+      current = null;
+    }
+    finished = true;
+
+    lock.lock();
+    try {
+      while (chunksInUse > 0) {
+        chunkReleased.await();
+      }
+      if (failure != null) {
+        throw new IOException("Unable to calculate the checksum", failure);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the checksum calculation");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * Get the time the calculator with the given index spent on the queued bytes, which is only
+   * complete after {@link #finish()} returned.
+   */
+  long getCalculationNanos(int index) {
+    return workers[index].calculationNanos;
+  }
+
+  private Chunk acquireChunk() throws InterruptedIOException {
+    lock.lock();
+    try {
+      while (freeChunks.isEmpty() && allocatedChunks >= ringSize) {
+        chunkReleased.await();
+      }
+      chunksInUse++;
+      Chunk chunk = freeChunks.poll();
+      if (chunk == null) {
+        allocatedChunks++;
+        chunk = new Chunk(new byte[chunkSize]);
+      }
+      chunk.length = 0;
+      return chunk;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the checksum calculation");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void releaseChunk(Chunk chunk) {
+    lock.lock();
+    try {
+      chunksInUse--;
+      freeChunks.push(chunk);
+      chunkReleased.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void publish(Chunk chunk) {
+    if (workers.length == 0) {
+      releaseChunk(chunk);
+      return;
+    }
+    chunk.pendingWorkers.set(workers.length);
+    for (Worker worker : workers) {
+      worker.submit(chunk);
+    }
+  }
+
+  private void recordFailure(Throwable throwable) {
+    lock.lock();
+    try {
+      if (failure == null) {
+        failure = throwable;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static class Chunk {
+    private final byte[] data;
+    private final AtomicInteger pendingWorkers = new AtomicInteger();
+    private int length;
+
+    private Chunk(byte[] data) {
+      this.data = data;
+    }
+  }
+
+  /** Worker that passes the published chunks to a single checksum calculator in order. */
+  private class Worker implements Runnable {
+    private final ChecksumCalculator calculator;
+    private final Queue<Chunk> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile long calculationNanos = 0;
+
+    private Worker(ChecksumCalculator calculator) {
+      this.calculator = calculator;
+    }
+
+    private void submit(Chunk chunk) {
+      queue.offer(chunk);
+      schedule();
+    }
+
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        try {
+          executor.execute(this);
+        } catch (RejectedExecutionException e) {
+          // Fall back to calculating the checksum on the current thread
+          run();
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      Chunk chunk;
+      while ((chunk = queue.poll()) != null) {
+        try {
+          long start = System.nanoTime();
+          calculator.update(chunk.data, 0, chunk.length);
+          calculationNanos += System.nanoTime() - start;
+        } catch (RuntimeException e) {
+          recordFailure(e);
+        } finally {
+          if (chunk.pendingWorkers.decrementAndGet() == 0) {
+            releaseChunk(chunk);
+          }
+        }
+      }
+      scheduled.set(false);
+
+      // A chunk could have been submitted after our last poll but before we were unscheduled
+      if (!queue.isEmpty()) {
+        schedule();
+      }
+    }
+  }
+}
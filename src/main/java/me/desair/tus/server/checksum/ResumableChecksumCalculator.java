@@ -0,0 +1,24 @@
+package me.desair.tus.server.checksum;
+
+/**
+ * A {@link ChecksumCalculator} of which the intermediate state can be exported and restored, so
+ * that the calculation of a checksum can be continued later on, for example by another request or
+ * after a restart of the application.
+ */
+public interface ResumableChecksumCalculator extends ChecksumCalculator {
+
+  /**
+   * Export the intermediate state of this calculator.
+   *
+   * @return The state of all bytes that were added so far
+   */
+  byte[] getState();
+
+  /**
+   * Restore an intermediate state that was exported with {@link #getState()}.
+   *
+   * @param state The state to restore
+   * @throws IllegalArgumentException If the given state is not valid for this calculator
+   */
+  void setState(byte[] state);
+}
@@ -0,0 +1,28 @@
+package me.desair.tus.server.checksum.calculator;
+
+import java.util.zip.CRC32C;
+import me.desair.tus.server.checksum.ChecksumCalculator;
+
+/**
+ * {@link ChecksumCalculator} for the CRC-32C (Castagnoli) checksum, which uses the hardware
+ * accelerated {@link CRC32C} implementation of the JVM. The checksum is returned as 4 big-endian
+ * bytes.
+ */
+public class Crc32cCalculator implements ChecksumCalculator {
+
+  private final CRC32C crc = new CRC32C();
+
+  @Override
+  public void update(byte[] buffer, int offset, int length) {
+    crc.update(buffer, offset, length);
+  }
+
+  @Override
+  public byte[] digest() {
+    long value = crc.getValue();
+    crc.reset();
+    return new byte[] {
+      (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value
+    };
+  }
+}
@@ -0,0 +1,24 @@
+package me.desair.tus.server.checksum.calculator;
+
+import java.security.MessageDigest;
+import me.desair.tus.server.checksum.ChecksumCalculator;
+
+/** {@link ChecksumCalculator} that delegates to a (cryptographic) {@link MessageDigest}. */
+public class MessageDigestCalculator implements ChecksumCalculator {
+
+  private final MessageDigest messageDigest;
+
+  public MessageDigestCalculator(MessageDigest messageDigest) {
+    this.messageDigest = messageDigest;
+  }
+
+  @Override
+  public void update(byte[] buffer, int offset, int length) {
+    messageDigest.update(buffer, offset, length);
+  }
+
+  @Override
+  public byte[] digest() {
+    return messageDigest.digest();
+  }
+}
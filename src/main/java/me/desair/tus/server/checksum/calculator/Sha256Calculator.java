@@ -0,0 +1,176 @@
+package me.desair.tus.server.checksum.calculator;
+
+import java.nio.ByteBuffer;
+import me.desair.tus.server.checksum.ResumableChecksumCalculator;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Pure-Java implementation of SHA-256 (FIPS 180-4) of which the intermediate state can be exported
+ * and restored. The JDK {@link java.security.MessageDigest} is faster, but its state cannot be
+ * persisted, so this implementation is only used to calculate a checksum over multiple requests.
+ */
+public class Sha256Calculator implements ResumableChecksumCalculator {
+
+  private static final int BLOCK_SIZE = 64;
+
+  private static final int[] INITIAL_HASH = {
+    0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+  };
+
+  private static final int[] K = {
+    0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+    0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+    0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+    0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+    0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+    0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+    0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+    0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+  };
+
+  private final int[] hash = new int[8];
+  private final int[] words = new int[64];
+  private final byte[] block = new byte[BLOCK_SIZE];
+  private int blockLength;
+  private long byteCount;
+
+  public Sha256Calculator() {
+    reset();
+  }
+
+  @Override
+  public void update(byte[] buffer, int offset, int length) {
+    int position = offset;
+    int end = offset + length;
+    byteCount += length;
+
+    if (blockLength > 0) {
+      int count = Math.min(BLOCK_SIZE - blockLength, length);
+      System.arraycopy(buffer, position, block, blockLength, count);
+      blockLength += count;
+      position += count;
+      if (blockLength < BLOCK_SIZE) {
+        return;
+      }
+      processBlock(block, 0);
+      blockLength = 0;
+    }
+
+    while (end - position >= BLOCK_SIZE) {
+      processBlock(buffer, position);
+      position += BLOCK_SIZE;
+    }
+
+    if (position < end) {
+      blockLength = end - position;
+      System.arraycopy(buffer, position, block, 0, blockLength);
+    }
+  }
+
+  @Override
+  public byte[] digest() {
+    long bitCount = byteCount * 8;
+
+    // Pad with a single 1 bit, zeros and finally the message length in bits
+    byte[] padding = new byte[BLOCK_SIZE * 2];
+    padding[0] = (byte) 0x80;
+    int paddingLength = (blockLength < 56 ? 56 : 120) - blockLength;
+    for (int i = 0; i < 8; i++) {
+      padding[paddingLength + i] = (byte) (bitCount >>> (56 - 8 * i));
+    }
+    update(padding, 0, paddingLength + 8);
+
+    ByteBuffer result = ByteBuffer.allocate(32);
+    for (int value : hash) {
+      result.putInt(value);
+    }
+    reset();
+    return result.array();
+  }
+
+  @Override
+  public byte[] getState() {
+    ByteBuffer state = ByteBuffer.allocate(hash.length * 4 + 8 + blockLength);
+    for (int value : hash) {
+      state.putInt(value);
+    }
+    state.putLong(byteCount);
+    state.put(block, 0, blockLength);
+    return state.array();
+  }
+
+  @Override
+  public void setState(byte[] state) {
+    Validate.isTrue(
+        state != null && state.length >= 40 && state.length < 40 + BLOCK_SIZE,
+        "Invalid SHA-256 state");
+    ByteBuffer buffer = ByteBuffer.wrap(state);
+    for (int i = 0; i < hash.length; i++) {
+      hash[i] = buffer.getInt();
+    }
+    byteCount = buffer.getLong();
+    blockLength = buffer.remaining();
+    Validate.isTrue(byteCount % BLOCK_SIZE == blockLength, "Invalid SHA-256 state");
+    buffer.get(block, 0, blockLength);
+  }
+
+  private void reset() {
+    System.arraycopy(INITIAL_HASH, 0, hash, 0, hash.length);
+    blockLength = 0;
+    byteCount = 0;
+  }
+
+  private void processBlock(byte[] buffer, int offset) {
+    for (int t = 0; t < 16; t++) {
+      int i = offset + t * 4;
+      words[t] =
+          (buffer[i] << 24)
+              | ((buffer[i + 1] & 0xFF) << 16)
+              | ((buffer[i + 2] & 0xFF) << 8)
+              | (buffer[i + 3] & 0xFF);
+    }
+    for (int t = 16; t < 64; t++) {
+      int w15 = words[t - 15];
+      int w2 = words[t - 2];
+      int s0 = Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3);
+      int s1 = Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10);
+      words[t] = words[t - 16] + s0 + words[t - 7] + s1;
+    }
+
+    int a = hash[0];
+    int b = hash[1];
+    int c = hash[2];
+    int d = hash[3];
+    int e = hash[4];
+    int f = hash[5];
+    int g = hash[6];
+    int h = hash[7];
+
+    for (int t = 0; t < 64; t++) {
+      int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+      int ch = (e & f) ^ (~e & g);
+      int temp1 = h + s1 + ch + K[t] + words[t];
+      int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+      int maj = (a & b) ^ (a & c) ^ (b & c);
+      int temp2 = s0 + maj;
+
+      h = g;
+      g = f;
+      f = e;
+      e = d + temp1;
+      d = c;
+      c = b;
+      b = a;
+      a = temp1 + temp2;
+    }
+
+    hash[0] += a;
+    hash[1] += b;
+    hash[2] += c;
+    hash[3] += d;
+    hash[4] += e;
+    hash[5] += f;
+    hash[6] += g;
+    hash[7] += h;
+  }
+}
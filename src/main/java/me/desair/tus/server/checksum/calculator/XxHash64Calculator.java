@@ -0,0 +1,178 @@
+package me.desair.tus.server.checksum.calculator;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import me.desair.tus.server.checksum.ResumableChecksumCalculator;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Streaming pure-Java implementation of the non-cryptographic XXH64 hash (with seed 0) as specified
+ * at https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md. The hash is returned as 8
+ * big-endian bytes, which is the canonical representation of an XXH64 value. The intermediate state
+ * can be exported and restored to continue a calculation later on.
+ */
+public class XxHash64Calculator implements ResumableChecksumCalculator {
+
+  private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+  private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long PRIME64_3 = 0x165667B19E3779F9L;
+  private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+  private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+  private static final int STRIPE_SIZE = 32;
+
+  private static final VarHandle LONG_HANDLE =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+  private static final VarHandle INT_HANDLE =
+      MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+  private final byte[] stripe = new byte[STRIPE_SIZE];
+  private int stripeLength;
+  private long totalLength;
+  private long acc1;
+  private long acc2;
+  private long acc3;
+  private long acc4;
+
+  public XxHash64Calculator() {
+    reset();
+  }
+
+  @Override
+  public void update(byte[] buffer, int offset, int length) {
+    int position = offset;
+    int end = offset + length;
+    totalLength += length;
+
+    if (stripeLength > 0) {
+      // Complete the partial stripe of a previous update first
+      int count = Math.min(STRIPE_SIZE - stripeLength, length);
+      System.arraycopy(buffer, position, stripe, stripeLength, count);
+      stripeLength += count;
+      position += count;
+      if (stripeLength < STRIPE_SIZE) {
+        return;
+      }
+      processStripe(stripe, 0);
+      stripeLength = 0;
+    }
+
+    while (end - position >= STRIPE_SIZE) {
+      processStripe(buffer, position);
+      position += STRIPE_SIZE;
+    }
+
+    if (position < end) {
+      stripeLength = end - position;
+      System.arraycopy(buffer, position, stripe, 0, stripeLength);
+    }
+  }
+
+  @Override
+  public byte[] digest() {
+    long hash;
+    if (totalLength >= STRIPE_SIZE) {
+      hash =
+          Long.rotateLeft(acc1, 1)
+              + Long.rotateLeft(acc2, 7)
+              + Long.rotateLeft(acc3, 12)
+              + Long.rotateLeft(acc4, 18);
+      hash = mergeAccumulator(hash, acc1);
+      hash = mergeAccumulator(hash, acc2);
+      hash = mergeAccumulator(hash, acc3);
+      hash = mergeAccumulator(hash, acc4);
+    } else {
+      hash = PRIME64_5;
+    }
+    hash += totalLength;
+
+    int position = 0;
+    while (stripeLength - position >= 8) {
+      hash ^= round(0, (long) LONG_HANDLE.get(stripe, position));
+      hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+      position += 8;
+    }
+    if (stripeLength - position >= 4) {
+      hash ^= Integer.toUnsignedLong((int) INT_HANDLE.get(stripe, position)) * PRIME64_1;
+      hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+      position += 4;
+    }
+    while (position < stripeLength) {
+      hash ^= (stripe[position] & 0xFFL) * PRIME64_5;
+      hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+      position++;
+    }
+
+    hash ^= hash >>> 33;
+    hash *= PRIME64_2;
+    hash ^= hash >>> 29;
+    hash *= PRIME64_3;
+    hash ^= hash >>> 32;
+
+    reset();
+
+    byte[] result = new byte[8];
+    for (int i = 7; i >= 0; i--) {
+      result[i] = (byte) hash;
+      hash >>>= 8;
+    }
+    return result;
+  }
+
+  @Override
+  public byte[] getState() {
+    return ByteBuffer.allocate(5 * 8 + stripeLength)
+        .putLong(acc1)
+        .putLong(acc2)
+        .putLong(acc3)
+        .putLong(acc4)
+        .putLong(totalLength)
+        .put(stripe, 0, stripeLength)
+        .array();
+  }
+
+  @Override
+  public void setState(byte[] state) {
+    Validate.isTrue(
+        state != null && state.length >= 40 && state.length < 40 + STRIPE_SIZE,
+        "Invalid XXH64 state");
+    ByteBuffer buffer = ByteBuffer.wrap(state);
+    acc1 = buffer.getLong();
+    acc2 = buffer.getLong();
+    acc3 = buffer.getLong();
+    acc4 = buffer.getLong();
+    totalLength = buffer.getLong();
+    stripeLength = buffer.remaining();
+    Validate.isTrue(totalLength % STRIPE_SIZE == stripeLength, "Invalid XXH64 state");
+    buffer.get(stripe, 0, stripeLength);
+  }
+
+  private void reset() {
+    acc1 = PRIME64_1 + PRIME64_2;
+    acc2 = PRIME64_2;
+    acc3 = 0;
+    acc4 = -PRIME64_1;
+    stripeLength = 0;
+    totalLength = 0;
+  }
+
+  private void processStripe(byte[] buffer, int offset) {
+    acc1 = round(acc1, (long) LONG_HANDLE.get(buffer, offset));
+    acc2 = round(acc2, (long) LONG_HANDLE.get(buffer, offset + 8));
+    acc3 = round(acc3, (long) LONG_HANDLE.get(buffer, offset + 16));
+    acc4 = round(acc4, (long) LONG_HANDLE.get(buffer, offset + 24));
+  }
+
+  private static long round(long accumulator, long input) {
+    accumulator += input * PRIME64_2;
+    accumulator = Long.rotateLeft(accumulator, 31);
+    return accumulator * PRIME64_1;
+  }
+
+  private static long mergeAccumulator(long hash, long accumulator) {
+    hash ^= round(0, accumulator);
+    return hash * PRIME64_1 + PRIME64_4;
+  }
+}
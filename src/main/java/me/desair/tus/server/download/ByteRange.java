@@ -0,0 +1,132 @@
+package me.desair.tus.server.download;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A satisfiable byte range of an upload, as requested by a Range header (see RFC 9110 section
+ * 14.2). The first and last positions are inclusive.
+ */
+class ByteRange {
+
+  private static final String BYTES_UNIT = "bytes=";
+
+  /** Requests with more ranges than this are served as a single complete response. */
+  private static final int MAX_RANGES = 64;
+
+  private final long first;
+  private final long last;
+
+  ByteRange(long first, long last) {
+    this.first = first;
+    this.last = last;
+  }
+
+  long getFirst() {
+    return first;
+  }
+
+  long getLast() {
+    return last;
+  }
+
+  long getLength() {
+    return last - first + 1;
+  }
+
+  /**
+   * Get the value of the Content-Range header for this range.
+   *
+   * @param completeLength The total length of the upload
+   * @return The Content-Range header value
+   */
+  String toContentRange(long completeLength) {
+    return "bytes " + first + "-" + last + "/" + completeLength;
+  }
+
+  /**
+   * Parse the value of a Range header. Overlapping and adjacent ranges are combined, and the result
+   * is sorted by position.
+   *
+   * @param rangeHeader The value of the Range header
+   * @param completeLength The total length of the upload
+   * @return The satisfiable ranges, an empty list if none of the ranges can be satisfied, or null
+   *     if the header is not a valid byte range request and should be ignored
+   */
+  static List<ByteRange> parse(String rangeHeader, long completeLength) {
+    if (!StringUtils.startsWithIgnoreCase(rangeHeader, BYTES_UNIT)) {
+      return null;
+    }
+
+    String[] specs = rangeHeader.substring(BYTES_UNIT.length()).split(",", -1);
+    if (specs.length > MAX_RANGES) {
+      return null;
+    }
+
+    List<ByteRange> ranges = new ArrayList<>(specs.length);
+    for (String spec : specs) {
+      String value = spec.trim();
+      int dash = value.indexOf('-');
+      if (dash < 0) {
+        return null;
+      }
+
+      try {
+        String firstValue = value.substring(0, dash).trim();
+        String lastValue = value.substring(dash + 1).trim();
+        if (firstValue.isEmpty()) {
+          // Suffix range containing the last N bytes
+          long suffixLength = parsePosition(lastValue);
+          if (suffixLength > 0 && completeLength > 0) {
+            ranges.add(
+                new ByteRange(Math.max(0, completeLength - suffixLength), completeLength - 1));
+          }
+        } else {
+          long first = parsePosition(firstValue);
+          long last = lastValue.isEmpty() ? Long.MAX_VALUE : parsePosition(lastValue);
+          if (last < first) {
+            return null;
+          } else if (first < completeLength) {
+            ranges.add(new ByteRange(first, Math.min(last, completeLength - 1)));
+          }
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    return coalesce(ranges);
+  }
+
+  private static long parsePosition(String value) {
+    if (value.isEmpty() || !StringUtils.isNumeric(value)) {
+      throw new NumberFormatException("Invalid byte position " + value);
+    }
+    return Long.parseLong(value);
+  }
+
+  private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+    if (ranges.size() <= 1) {
+      return ranges;
+    }
+
+    List<ByteRange> sorted = new ArrayList<>(ranges);
+    sorted.sort(Comparator.comparingLong(ByteRange::getFirst));
+
+    List<ByteRange> result = new ArrayList<>(sorted.size());
+    ByteRange current = sorted.get(0);
+    for (ByteRange range : sorted.subList(1, sorted.size())) {
+      if (range.getFirst() <= current.getLast() + 1) {
+        current = new ByteRange(current.getFirst(), Math.max(current.getLast(), range.getLast()));
+      } else {
+        result.add(current);
+        current = range;
+      }
+    }
+    result.add(current);
+    return Collections.unmodifiableList(result);
+  }
+}
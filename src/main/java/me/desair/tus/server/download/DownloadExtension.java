@@ -14,6 +14,23 @@ import me.desair.tus.server.util.AbstractTusExtension;
  */
 public class DownloadExtension extends AbstractTusExtension {
 
+  // Assigned while the request handlers are initialized by the super constructor
+  private DownloadGetRequestHandler getRequestHandler;
+
+  /**
+   * Let servlet containers that support sendfile send completed uploads directly from disk. See
+   * {@link me.desair.tus.server.TusFileUploadService#withSendfileDownloads(boolean)}.
+   *
+   * @param sendfileEnabled True if sendfile can be used, false to copy the bytes instead
+   */
+  public void setSendfileEnabled(boolean sendfileEnabled) {
+    getRequestHandler.setSendfileEnabled(sendfileEnabled);
+  }
+
+  public boolean isSendfileEnabled() {
+    return getRequestHandler.isSendfileEnabled();
+  }
+
   @Override
   public String getName() {
     return "download";
@@ -31,7 +48,8 @@ public class DownloadExtension extends AbstractTusExtension {
 
   @Override
   protected void initRequestHandlers(List<RequestHandler> requestHandlers) {
-    requestHandlers.add(new DownloadGetRequestHandler());
+    getRequestHandler = new DownloadGetRequestHandler();
+    requestHandlers.add(getRequestHandler);
     requestHandlers.add(new DownloadOptionsRequestHandler());
   }
 }
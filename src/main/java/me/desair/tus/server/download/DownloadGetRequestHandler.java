@@ -2,11 +2,17 @@ package me.desair.tus.server.download;
 
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
 import me.desair.tus.server.HttpHeader;
 import me.desair.tus.server.HttpMethod;
+import me.desair.tus.server.exception.RangeNotSatisfiableException;
 import me.desair.tus.server.exception.TusException;
 import me.desair.tus.server.exception.UploadInProgressException;
 import me.desair.tus.server.upload.UploadInfo;
@@ -15,11 +21,42 @@ import me.desair.tus.server.util.AbstractRequestHandler;
 import me.desair.tus.server.util.TusServletRequest;
 import me.desair.tus.server.util.TusServletResponse;
 
-/** Send the uploaded bytes of finished uploads. */
+/**
+ * Send the uploaded bytes of finished uploads. Clients can request one or more byte ranges of the
+ * upload using a Range header, optionally conditional on the ETag of the upload with an If-Range
+ * header, to resume an interrupted download. <br>
+ * When sendfile is enabled and the servlet container supports it, the bytes are sent directly from
+ * the upload file without passing through the JVM.
+ */
 public class DownloadGetRequestHandler extends AbstractRequestHandler {
 
   private static final String CONTENT_DISPOSITION_FORMAT =
       "attachment; filename=\"%s\"; filename*=UTF-8''%s";
+  private static final String BYTES_UNIT = "bytes";
+
+  static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+  static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+  static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+  static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+  private static final String MULTIPART_BYTERANGES = "multipart/byteranges";
+
+  private boolean sendfileEnabled = false;
+
+  /**
+   * Let the servlet container send the upload file after this request has been processed. Only
+   * enable this when uploads cannot be removed while they are downloaded, since the upload is no
+   * longer locked when the container sends the file.
+   *
+   * @param sendfileEnabled True if sendfile can be used, false to copy the bytes instead
+   */
+  public void setSendfileEnabled(boolean sendfileEnabled) {
+    this.sendfileEnabled = sendfileEnabled;
+  }
+
+  public boolean isSendfileEnabled() {
+    return sendfileEnabled;
+  }
 
   @Override
   public boolean supports(HttpMethod method) {
@@ -44,7 +81,11 @@ public class DownloadGetRequestHandler extends AbstractRequestHandler {
               + "and cannot be downloaded yet");
     } else {
 
-      servletResponse.setHeader(HttpHeader.CONTENT_LENGTH, Objects.toString(info.getLength()));
+      long length = info.getLength();
+      String entityTag = getEntityTag(info);
+
+      servletResponse.setHeader(HttpHeader.ACCEPT_RANGES, BYTES_UNIT);
+      servletResponse.setHeader(HttpHeader.ETAG, entityTag);
 
       servletResponse.setHeader(
           HttpHeader.CONTENT_DISPOSITION,
@@ -54,15 +95,142 @@ public class DownloadGetRequestHandler extends AbstractRequestHandler {
               URLEncoder.encode(info.getFileName(), StandardCharsets.UTF_8.toString())
                   .replace("+", "%20")));
 
-      servletResponse.setHeader(HttpHeader.CONTENT_TYPE, info.getFileMimeType());
-
       if (info.hasMetadata()) {
         servletResponse.setHeader(HttpHeader.UPLOAD_METADATA, info.getEncodedMetadata());
       }
 
-      uploadStorageService.copyUploadTo(info, servletResponse.getOutputStream());
+      List<ByteRange> ranges = getRequestedRanges(servletRequest, entityTag, length);
+      if (ranges == null) {
+        servletResponse.setHeader(HttpHeader.CONTENT_LENGTH, Objects.toString(info.getLength()));
+        servletResponse.setHeader(HttpHeader.CONTENT_TYPE, info.getFileMimeType());
+        servletResponse.setStatus(HttpServletResponse.SC_OK);
+
+        if (!sendFile(servletRequest, info, 0, length, uploadStorageService)) {
+          uploadStorageService.copyUploadTo(info, servletResponse.getOutputStream());
+        }
+
+      } else if (ranges.isEmpty()) {
+        servletResponse.setHeader(HttpHeader.CONTENT_RANGE, BYTES_UNIT + " */" + length);
+        throw new RangeNotSatisfiableException(
+            "None of the requested byte ranges of upload "
+                + servletRequest.getRequestURI()
+                + " can be satisfied");
+
+      } else if (ranges.size() == 1) {
+        ByteRange range = ranges.get(0);
+        servletResponse.setHeader(HttpHeader.CONTENT_LENGTH, Long.toString(range.getLength()));
+        servletResponse.setHeader(HttpHeader.CONTENT_TYPE, info.getFileMimeType());
+        servletResponse.setHeader(HttpHeader.CONTENT_RANGE, range.toContentRange(length));
+        servletResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+        if (!sendFile(
+            servletRequest, info, range.getFirst(), range.getLength(), uploadStorageService)) {
+          uploadStorageService.copyUploadTo(
+              info, range.getFirst(), range.getLength(), servletResponse.getOutputStream());
+        }
+
+      } else {
+        sendMultipleRanges(info, ranges, servletResponse, uploadStorageService);
+      }
+    }
+  }
+
+  /**
+   * Let the servlet container send the bytes directly from the upload file to the socket if it
+   * supports this, like Tomcat does with the sendfile request attributes. The container sends the
+   * file after this request has been processed and the upload has been unlocked. The bytes of a
+   * completed upload never change, but the upload can be removed meanwhile, so this is only done
+   * when sendfile is enabled explicitly.
+   */
+  private boolean sendFile(
+      TusServletRequest servletRequest,
+      UploadInfo info,
+      long position,
+      long count,
+      UploadStorageService uploadStorageService)
+      throws IOException, TusException {
+    if (!sendfileEnabled
+        || count <= 0
+        || !Boolean.TRUE.equals(servletRequest.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+      return false;
+    }
+
+    Path path = uploadStorageService.getUploadedBytesPath(info);
+    if (path == null) {
+      return false;
+    }
+
+    servletRequest.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, path.toAbsolutePath().toString());
+    servletRequest.setAttribute(SENDFILE_START_ATTRIBUTE, position);
+    servletRequest.setAttribute(SENDFILE_END_ATTRIBUTE, position + count);
+    return true;
+  }
+
+  private String getEntityTag(UploadInfo info) {
+    // The bytes of a completed upload never change, so its ID and length identify its content
+    return "\""
+        + info.getId()
+        + "-"
+        + Long.toHexString(info.getLength())
+        + "-"
+        + Long.toHexString(info.getCreationTimestamp() == null ? 0 : info.getCreationTimestamp())
+        + "\"";
+  }
+
+  private List<ByteRange> getRequestedRanges(
+      TusServletRequest servletRequest, String entityTag, long length) {
+    String rangeHeader = servletRequest.getHeader(HttpHeader.RANGE);
+    String ifRange = servletRequest.getHeader(HttpHeader.IF_RANGE);
+    if (rangeHeader == null || (ifRange != null && !ifRange.trim().equals(entityTag))) {
+      // Send the complete upload if the client's copy is outdated or identified by a date
+      return null;
     }
+    return ByteRange.parse(rangeHeader, length);
+  }
+
+  private void sendMultipleRanges(
+      UploadInfo info,
+      List<ByteRange> ranges,
+      TusServletResponse servletResponse,
+      UploadStorageService uploadStorageService)
+      throws IOException, TusException {
+    long length = info.getLength();
+    String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
 
-    servletResponse.setStatus(HttpServletResponse.SC_OK);
+    List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+    long contentLength = 0;
+    for (ByteRange range : ranges) {
+      byte[] partHeader =
+          ("\r\n--"
+                  + boundary
+                  + "\r\n"
+                  + HttpHeader.CONTENT_TYPE
+                  + ": "
+                  + info.getFileMimeType()
+                  + "\r\n"
+                  + HttpHeader.CONTENT_RANGE
+                  + ": "
+                  + range.toContentRange(length)
+                  + "\r\n\r\n")
+              .getBytes(StandardCharsets.ISO_8859_1);
+      partHeaders.add(partHeader);
+      contentLength += partHeader.length + range.getLength();
+    }
+    byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    contentLength += end.length;
+
+    servletResponse.setHeader(HttpHeader.CONTENT_LENGTH, Long.toString(contentLength));
+    servletResponse.setHeader(
+        HttpHeader.CONTENT_TYPE, MULTIPART_BYTERANGES + "; boundary=" + boundary);
+    servletResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+    OutputStream outputStream = servletResponse.getOutputStream();
+    for (int i = 0; i < ranges.size(); i++) {
+      ByteRange range = ranges.get(i);
+      outputStream.write(partHeaders.get(i));
+      uploadStorageService.copyUploadTo(info, range.getFirst(), range.getLength(), outputStream);
+    }
+    outputStream.write(end);
+    outputStream.flush();
   }
 }
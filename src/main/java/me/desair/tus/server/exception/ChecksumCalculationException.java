@@ -0,0 +1,11 @@
+package me.desair.tus.server.exception;
+
+/**
+ * Exception thrown when the server was unable to calculate the checksum of the upload content. Like
+ * a checksum mismatch, this removes the bytes that were saved by the request.
+ */
+public class ChecksumCalculationException extends TusException {
+  public ChecksumCalculationException(String message, Throwable cause) {
+    super(500, message, cause);
+  }
+}
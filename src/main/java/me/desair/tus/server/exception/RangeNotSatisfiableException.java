@@ -0,0 +1,10 @@
+package me.desair.tus.server.exception;
+
+/** Exception thrown when none of the byte ranges requested in a Range header can be served. */
+public class RangeNotSatisfiableException extends TusException {
+  /** Constructor. */
+  public RangeNotSatisfiableException(String message) {
+    // 416 Range Not Satisfiable
+    super(416, message);
+  }
+}
@@ -0,0 +1,86 @@
+package me.desair.tus.server.expiration;
+
+/** Metrics of a single pass of the {@link ExpiredUploadCleaner}. */
+public class CleanupStatistics {
+
+  private final long expiredUploads;
+  private final long deletedUploads;
+  private final long skippedUploads;
+  private final long reclaimedBytes;
+  private final long durationMillis;
+
+  public CleanupStatistics(
+      long expiredUploads,
+      long deletedUploads,
+      long skippedUploads,
+      long reclaimedBytes,
+      long durationMillis) {
+    this.expiredUploads = expiredUploads;
+    this.deletedUploads = deletedUploads;
+    this.skippedUploads = skippedUploads;
+    this.reclaimedBytes = reclaimedBytes;
+    this.durationMillis = durationMillis;
+  }
+
+  /**
+   * The number of expired uploads that were found by the storage service during this pass.
+   *
+   * @return The number of expired uploads
+   */
+  public long getExpiredUploads() {
+    return expiredUploads;
+  }
+
+  /**
+   * The number of expired uploads that were deleted during this pass.
+   *
+   * @return The number of deleted uploads
+   */
+  public long getDeletedUploads() {
+    return deletedUploads;
+  }
+
+  /**
+   * The number of expired uploads that were not deleted because they were locked, no longer expired
+   * or could not be deleted. Locked uploads and uploads that could not be deleted are retried in
+   * the next pass.
+   *
+   * @return The number of skipped uploads
+   */
+  public long getSkippedUploads() {
+    return skippedUploads;
+  }
+
+  /**
+   * The number of uploaded bytes of the deleted uploads.
+   *
+   * @return The number of bytes that were freed
+   */
+  public long getReclaimedBytes() {
+    return reclaimedBytes;
+  }
+
+  /**
+   * The time it took to complete this pass.
+   *
+   * @return The duration in milliseconds
+   */
+  public long getDurationMillis() {
+    return durationMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "CleanupStatistics{expiredUploads="
+        + expiredUploads
+        + ", deletedUploads="
+        + deletedUploads
+        + ", skippedUploads="
+        + skippedUploads
+        + ", reclaimedBytes="
+        + reclaimedBytes
+        + ", durationMillis="
+        + durationMillis
+        + "}";
+  }
+}
@@ -0,0 +1,326 @@
+package me.desair.tus.server.expiration;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.metrics.TusMetrics;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadLock;
+import me.desair.tus.server.upload.UploadLockingService;
+import me.desair.tus.server.upload.UploadStorageService;
+import me.desair.tus.server.upload.UploadType;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes expired uploads in passes. Each pass asks the {@link UploadStorageService} for a limited
+ * number of expired uploads and terminates them using a pool of worker threads, so that a large
+ * backlog of expired uploads is removed in parallel. The number of deletes and the number of bytes
+ * that are deleted per second can be limited, so that a cleanup does not use all I/O capacity of
+ * the storage backend that is needed to process upload requests. <br>
+ * An upload is locked while it is removed. Uploads that are not removed in a pass (because of the
+ * limit, or because they are locked) are returned again by the storage service in the next pass.
+ * Only one pass runs at a time.
+ */
+public class ExpiredUploadCleaner {
+
+  private static final Logger log = LoggerFactory.getLogger(ExpiredUploadCleaner.class);
+
+  private static final AtomicInteger WORKER_COUNT = new AtomicInteger();
+
+  private final ReentrantLock passLock = new ReentrantLock();
+
+  private int workerCount = 1;
+  private int maxUploadsPerPass = Integer.MAX_VALUE;
+  private double maxDeletesPerSecond = 0;
+  private long maxBytesPerSecond = 0;
+  private volatile CleanupStatistics lastStatistics;
+  private TusMetrics metrics = TusMetrics.NOOP;
+
+  /**
+   * Set the number of threads that delete expired uploads in parallel. By default expired uploads
+   * are deleted one by one on the thread that runs the cleanup.
+   *
+   * @param workerCount The number of worker threads
+   */
+  public void setWorkerCount(int workerCount) {
+    Validate.isTrue(workerCount > 0, "The number of cleanup workers must be bigger than 0");
+    this.workerCount = workerCount;
+  }
+
+  public int getWorkerCount() {
+    return workerCount;
+  }
+
+  /**
+   * Set the maximum number of expired uploads that are deleted in a single pass. By default there
+   * is no limit.
+   *
+   * @param maxUploadsPerPass The maximum number of uploads per pass
+   */
+  public void setMaxUploadsPerPass(int maxUploadsPerPass) {
+    Validate.isTrue(maxUploadsPerPass > 0, "The number of uploads per pass must be bigger than 0");
+    this.maxUploadsPerPass = maxUploadsPerPass;
+  }
+
+  public int getMaxUploadsPerPass() {
+    return maxUploadsPerPass;
+  }
+
+  /**
+   * Limit the I/O of a cleanup pass. The limits apply to all workers together.
+   *
+   * @param maxDeletesPerSecond The maximum number of uploads that are deleted per second, zero or
+   *     less means no limit
+   * @param maxBytesPerSecond The maximum number of uploaded bytes that are deleted per second, zero
+   *     or less means no limit
+   */
+  public void setRateLimit(double maxDeletesPerSecond, long maxBytesPerSecond) {
+    this.maxDeletesPerSecond = maxDeletesPerSecond;
+    this.maxBytesPerSecond = maxBytesPerSecond;
+  }
+
+  public double getMaxDeletesPerSecond() {
+    return maxDeletesPerSecond;
+  }
+
+  public long getMaxBytesPerSecond() {
+    return maxBytesPerSecond;
+  }
+
+  /**
+   * Set the listener that is notified of the statistics of every completed cleanup pass.
+   *
+   * @param metrics The {@link TusMetrics} to notify
+   */
+  public void setMetrics(TusMetrics metrics) {
+    Validate.notNull(metrics, "The TusMetrics cannot be null");
+    this.metrics = metrics;
+  }
+
+  /**
+   * Get the metrics of the last completed cleanup pass.
+   *
+   * @return The statistics of the last pass, or null if no pass has completed yet
+   */
+  public CleanupStatistics getLastStatistics() {
+    return lastStatistics;
+  }
+
+  /**
+   * Run a single cleanup pass. If another pass is running, this method waits until it completes.
+   *
+   * @param storageService The storage service that contains the uploads
+   * @param lockingService The locking service used to skip uploads that are being processed
+   * @return The statistics of this pass
+   * @throws IOException When the expired uploads cannot be listed, or when the pass is interrupted
+   */
+  public CleanupStatistics cleanup(
+      UploadStorageService storageService, UploadLockingService lockingService) throws IOException {
+    passLock.lock();
+    try {
+      long start = System.nanoTime();
+      Pass pass = new Pass(storageService, lockingService);
+      List<UploadInfo> expiredUploads = storageService.getExpiredUploads(maxUploadsPerPass);
+      pass.queue.addAll(expiredUploads);
+
+      int workers = Math.min(workerCount, expiredUploads.size());
+      if (workers <= 1) {
+        pass.call();
+      } else {
+        runInParallel(pass, workers);
+      }
+
+      CleanupStatistics statistics =
+          new CleanupStatistics(
+              expiredUploads.size(),
+              pass.deletedUploads.get(),
+              expiredUploads.size() - pass.deletedUploads.get(),
+              pass.reclaimedBytes.get(),
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      lastStatistics = statistics;
+      metrics.cleanupCompleted(statistics);
+
+      if (statistics.getExpiredUploads() > 0) {
+        log.info("Removed expired uploads: {}", statistics);
+      } else {
+        log.debug("No expired uploads found in {} ms", statistics.getDurationMillis());
+      }
+      return statistics;
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("The cleanup of expired uploads was interrupted");
+    } finally {
+      passLock.unlock();
+    }
+  }
+
+  private void runInParallel(Pass pass, int workers) throws IOException, InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(workers, new WorkerThreadFactory());
+    try {
+      List<Callable<Void>> tasks = new ArrayList<>();
+      for (int i = 0; i < workers; i++) {
+        tasks.add(pass);
+      }
+      for (Future<Void> result : executor.invokeAll(tasks)) {
+        result.get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Unable to remove expired uploads", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** The work of a single cleanup pass, which can be executed by multiple workers at once. */
+  private class Pass implements Callable<Void> {
+
+    private final UploadStorageService storageService;
+    private final UploadLockingService lockingService;
+    private final Queue<UploadInfo> queue = new ConcurrentLinkedQueue<>();
+    private final Throttle deleteThrottle = new Throttle(maxDeletesPerSecond);
+    private final Throttle byteThrottle = new Throttle(maxBytesPerSecond);
+    private final AtomicLong deletedUploads = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    Pass(UploadStorageService storageService, UploadLockingService lockingService) {
+      this.storageService = storageService;
+      this.lockingService = lockingService;
+    }
+
+    @Override
+    public Void call() throws InterruptedException {
+      UploadInfo expiredUpload;
+      while ((expiredUpload = queue.poll()) != null) {
+        try {
+          delete(expiredUpload);
+        } catch (IOException | TusException e) {
+          log.warn("Unable to remove expired upload {}", expiredUpload.getId(), e);
+        }
+      }
+      return null;
+    }
+
+    private void delete(UploadInfo expiredUpload)
+        throws IOException, TusException, InterruptedException {
+      // Hold the lock while removing the upload, so no request can extend or append to it meanwhile
+      UploadLock lock;
+      try {
+        lock = lockingService.lockUploadByUri(getUploadUri(expiredUpload));
+      } catch (TusException e) {
+        // The upload is being processed, we will retry in the next pass
+        return;
+      }
+
+      try {
+        if (lock == null && lockingService.isLocked(expiredUpload.getId())) {
+          // The upload URI contains regex parameters, so the upload cannot be locked by its URI
+          return;
+        }
+
+        // The upload could have been extended or removed since it was found
+        UploadInfo info = storageService.getUploadInfo(expiredUpload.getId());
+        if (info == null || !info.isExpired()) {
+          return;
+        }
+
+        long size = getStoredBytes(info);
+        deleteThrottle.acquire(1);
+        byteThrottle.acquire(size);
+
+        storageService.terminateUpload(info);
+        deletedUploads.incrementAndGet();
+        reclaimedBytes.addAndGet(size);
+      } finally {
+        if (lock != null) {
+          lock.release();
+        }
+      }
+    }
+
+    private String getUploadUri(UploadInfo upload) {
+      return StringUtils.appendIfMissing(storageService.getUploadUri(), "/") + upload.getId();
+    }
+
+    private long getStoredBytes(UploadInfo info) {
+      if (info.getOffset() == null || UploadType.CONCATENATED.equals(info.getUploadType())) {
+        // The bytes of a concatenated upload belong to its partial uploads
+        return 0L;
+      }
+      return info.getOffset();
+    }
+  }
+
+  /**
+   * Spreads permits evenly over time. Each caller reserves the next free time slot for its permits
+   * and sleeps until that slot starts, so the workers never wait while holding a monitor.
+   */
+  static class Throttle {
+
+    /** The time a single reservation can take at most, so that the slots cannot overflow. */
+    private static final long MAX_COST_NANOS = TimeUnit.DAYS.toNanos(1);
+
+    private final double permitsPerSecond;
+    private final AtomicLong nextFreeNanos = new AtomicLong(System.nanoTime());
+
+    Throttle(double permitsPerSecond) {
+      this.permitsPerSecond = permitsPerSecond;
+    }
+
+    void acquire(long permits) throws InterruptedException {
+      long wait = reserve(permits);
+      if (wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+    }
+
+    /**
+     * Reserve a slot for the given permits and return the number of nanoseconds until it starts.
+     */
+    long reserve(long permits) {
+      if (permitsPerSecond <= 0 || permits <= 0) {
+        return 0L;
+      }
+
+      // Calculate in double, the number of nanoseconds for a large upload does not fit in a long
+      long cost =
+          (long)
+              Math.min(
+                  permits * (double) TimeUnit.SECONDS.toNanos(1) / permitsPerSecond,
+                  MAX_COST_NANOS);
+      long now = System.nanoTime();
+      long slot = nextFreeNanos.getAndAccumulate(cost, (next, c) -> Math.max(next, now) + c);
+      return Math.max(slot, now) - now;
+    }
+  }
+
+  private static class WorkerThreadFactory implements ThreadFactory {
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "tus-cleanup-worker-" + WORKER_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
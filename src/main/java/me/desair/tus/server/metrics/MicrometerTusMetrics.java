@@ -0,0 +1,253 @@
+package me.desair.tus.server.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.HttpMethod;
+import me.desair.tus.server.checksum.ChecksumAlgorithm;
+import me.desair.tus.server.expiration.CleanupStatistics;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * {@link TusMetrics} implementation that records the events in a Micrometer {@link MeterRegistry}.
+ * Micrometer is an optional dependency of this library, so it must be added to the application to
+ * use this class. The following meters are registered:
+ *
+ * <ul>
+ *   <li>tus.requests: timer with a percentile histogram of all requests, by method and status
+ *   <li>tus.requests.validation and tus.requests.processing: timers of the validation and the
+ *       processing of the requests, by method
+ *   <li>tus.lock.wait: timer of acquiring upload locks, by result (acquired or failed)
+ *   <li>tus.lock.contended: number of lock attempts that found the upload locked
+ *   <li>tus.append.bytes: number of appended bytes
+ *   <li>tus.append.write: timer of receiving and writing appended bytes
+ *   <li>tus.append.sync: timer of forcing appended bytes to the storage device, by mode (inline or
+ *       periodic)
+ *   <li>tus.checksum: timer of the checksum calculations, by algorithm
+ *   <li>tus.checksum.bytes: number of bytes included in a checksum, by algorithm
+ *   <li>tus.cleanup: timer of the cleanup passes
+ *   <li>tus.cleanup.uploads and tus.cleanup.bytes: number of deleted expired uploads and bytes
+ *   <li>tus.cache.requests: number of upload information cache lookups, by result (hit or miss)
+ * </ul>
+ *
+ * All meters are registered up front or on first use, so recording an event does not look up the
+ * meter in the registry.
+ */
+public class MicrometerTusMetrics implements TusMetrics {
+
+  private static final String UNKNOWN_METHOD = "UNKNOWN";
+  private static final int STATUS_CLASSES = 6;
+  private static final HttpMethod[] METHODS = HttpMethod.values();
+
+  private final MeterRegistry registry;
+
+  /** Request timers by method ordinal (the last index is used for unknown methods). */
+  private final Timer[][] requestTimers = new Timer[METHODS.length + 1][];
+
+  private final Timer[] validationTimers = new Timer[METHODS.length + 1];
+  private final Timer[] processingTimers = new Timer[METHODS.length + 1];
+  private final Timer lockAcquiredTimer;
+  private final Timer lockFailedTimer;
+  private final Counter lockContendedCounter;
+  private final Counter appendBytesCounter;
+  private final Timer appendWriteTimer;
+  private final Timer inlineSyncTimer;
+  private final Timer periodicSyncTimer;
+  private final Map<ChecksumAlgorithm, Timer> checksumTimers =
+      new EnumMap<>(ChecksumAlgorithm.class);
+  private final Map<ChecksumAlgorithm, Counter> checksumBytesCounters =
+      new EnumMap<>(ChecksumAlgorithm.class);
+  private final Timer cleanupTimer;
+  private final Counter cleanupUploadsCounter;
+  private final Counter cleanupBytesCounter;
+  private final Counter cacheHitCounter;
+  private final Counter cacheMissCounter;
+
+  /**
+   * Create a new metrics listener that registers its meters in the given registry.
+   *
+   * @param registry The registry of the meters
+   */
+  public MicrometerTusMetrics(MeterRegistry registry) {
+    Validate.notNull(registry, "The MeterRegistry cannot be null");
+    this.registry = registry;
+
+    for (int i = 0; i < requestTimers.length; i++) {
+      String method = getMethodName(i);
+      requestTimers[i] = new Timer[STATUS_CLASSES];
+      validationTimers[i] =
+          Timer.builder("tus.requests.validation")
+              .description("Time to validate tus requests")
+              .tag("method", method)
+              .register(registry);
+      processingTimers[i] =
+          Timer.builder("tus.requests.processing")
+              .description("Time to process validated tus requests")
+              .tag("method", method)
+              .register(registry);
+    }
+
+    lockAcquiredTimer = lockTimer("acquired");
+    lockFailedTimer = lockTimer("failed");
+    lockContendedCounter =
+        Counter.builder("tus.lock.contended")
+            .description("Number of lock attempts that found the upload locked")
+            .register(registry);
+
+    appendBytesCounter =
+        Counter.builder("tus.append.bytes")
+            .description("Number of bytes appended to uploads")
+            .baseUnit("bytes")
+            .register(registry);
+    appendWriteTimer =
+        Timer.builder("tus.append.write")
+            .description("Time to receive and write appended bytes")
+            .register(registry);
+    inlineSyncTimer = syncTimer("inline");
+    periodicSyncTimer = syncTimer("periodic");
+
+    for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+      checksumTimers.put(
+          algorithm,
+          Timer.builder("tus.checksum")
+              .description("Time to calculate upload checksums")
+              .tag("algorithm", algorithm.getTusName())
+              .register(registry));
+      checksumBytesCounters.put(
+          algorithm,
+          Counter.builder("tus.checksum.bytes")
+              .description("Number of bytes included in upload checksums")
+              .tag("algorithm", algorithm.getTusName())
+              .baseUnit("bytes")
+              .register(registry));
+    }
+
+    cleanupTimer =
+        Timer.builder("tus.cleanup")
+            .description("Time to clean up expired uploads")
+            .register(registry);
+    cleanupUploadsCounter =
+        Counter.builder("tus.cleanup.uploads")
+            .description("Number of deleted expired uploads")
+            .register(registry);
+    cleanupBytesCounter =
+        Counter.builder("tus.cleanup.bytes")
+            .description("Number of bytes reclaimed by deleting expired uploads")
+            .baseUnit("bytes")
+            .register(registry);
+
+    cacheHitCounter = cacheCounter("hit");
+    cacheMissCounter = cacheCounter("miss");
+  }
+
+  @Override
+  public void requestCompleted(HttpMethod method, int status, long durationNanos) {
+    int statusClass = status / 100;
+    if (statusClass < 0 || statusClass >= STATUS_CLASSES) {
+      statusClass = 0;
+    }
+
+    Timer[] timers = requestTimers[getMethodIndex(method)];
+    Timer timer = timers[statusClass];
+    if (timer == null) {
+      // Registering the same timer twice returns the existing timer, so this race is harmless
+      timer =
+          Timer.builder("tus.requests")
+              .description("Time to process tus requests")
+              .tag("method", getMethodName(getMethodIndex(method)))
+              .tag("status", statusClass == 0 ? "UNKNOWN" : statusClass + "xx")
+              .publishPercentileHistogram()
+              .register(registry);
+      timers[statusClass] = timer;
+    }
+    timer.record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void requestValidated(HttpMethod method, long durationNanos) {
+    validationTimers[getMethodIndex(method)].record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void requestProcessed(HttpMethod method, long durationNanos) {
+    processingTimers[getMethodIndex(method)].record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void lockAcquired(long waitNanos, int retries) {
+    lockAcquiredTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+    if (retries > 0) {
+      lockContendedCounter.increment(retries);
+    }
+  }
+
+  @Override
+  public void lockFailed(long waitNanos, int retries) {
+    lockFailedTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+    lockContendedCounter.increment(retries + 1.0);
+  }
+
+  @Override
+  public void bytesAppended(long bytes, long writeNanos, long syncNanos) {
+    appendBytesCounter.increment(bytes);
+    appendWriteTimer.record(writeNanos, TimeUnit.NANOSECONDS);
+    if (syncNanos > 0) {
+      inlineSyncTimer.record(syncNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public void dataSynced(int uploads, long durationNanos) {
+    periodicSyncTimer.record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void checksumCalculated(ChecksumAlgorithm algorithm, long bytes, long durationNanos) {
+    checksumTimers.get(algorithm).record(durationNanos, TimeUnit.NANOSECONDS);
+    checksumBytesCounters.get(algorithm).increment(bytes);
+  }
+
+  @Override
+  public void cleanupCompleted(CleanupStatistics statistics) {
+    cleanupTimer.record(statistics.getDurationMillis(), TimeUnit.MILLISECONDS);
+    cleanupUploadsCounter.increment(statistics.getDeletedUploads());
+    cleanupBytesCounter.increment(statistics.getReclaimedBytes());
+  }
+
+  @Override
+  public void uploadInfoCacheAccessed(boolean hit) {
+    (hit ? cacheHitCounter : cacheMissCounter).increment();
+  }
+
+  private Timer lockTimer(String result) {
+    return Timer.builder("tus.lock.wait")
+        .description("Time to acquire the lock of an upload")
+        .tag("result", result)
+        .register(registry);
+  }
+
+  private Timer syncTimer(String mode) {
+    return Timer.builder("tus.append.sync")
+        .description("Time to force appended bytes to the storage device")
+        .tag("mode", mode)
+        .register(registry);
+  }
+
+  private Counter cacheCounter(String result) {
+    return Counter.builder("tus.cache.requests")
+        .description("Number of upload information cache lookups")
+        .tag("result", result)
+        .register(registry);
+  }
+
+  private static int getMethodIndex(HttpMethod method) {
+    return method == null ? METHODS.length : method.ordinal();
+  }
+
+  private static String getMethodName(int index) {
+    return index < METHODS.length ? METHODS[index].name() : UNKNOWN_METHOD;
+  }
+}
@@ -0,0 +1,105 @@
+package me.desair.tus.server.metrics;
+
+import me.desair.tus.server.HttpMethod;
+import me.desair.tus.server.checksum.ChecksumAlgorithm;
+import me.desair.tus.server.expiration.CleanupStatistics;
+
+/**
+ * Listener that is notified of the work done while processing tus requests, so that it can be
+ * recorded as metrics. Register an implementation with {@link
+ * me.desair.tus.server.TusFileUploadService#withMetrics(TusMetrics)}, for example a {@link
+ * MicrometerTusMetrics}. <br>
+ * All methods have an empty default implementation, so an implementation only needs to override the
+ * events it is interested in. The methods are called on the threads that process the requests and
+ * only receive primitive values and enums, so that nothing needs to be allocated when the metrics
+ * are disabled ({@link #NOOP}). Implementations must be thread safe and should return quickly.
+ */
+public interface TusMetrics {
+
+  /** Metrics implementation that ignores all events, this is the default. */
+  TusMetrics NOOP = new TusMetrics() {};
+
+  /**
+   * A request was completed, including the time spent waiting for the lock of the upload.
+   *
+   * @param method The HTTP method of the request, or null if the method is not supported
+   * @param status The HTTP status of the response
+   * @param durationNanos The time it took to process the request in nanoseconds
+   */
+  default void requestCompleted(HttpMethod method, int status, long durationNanos) {}
+
+  /**
+   * A request was successfully validated by all tus extensions. Requests that fail the validation
+   * are only reported by {@link #requestCompleted(HttpMethod, int, long)} with an error status.
+   *
+   * @param method The HTTP method of the request, or null if the method is not supported
+   * @param durationNanos The time it took to validate the request in nanoseconds
+   */
+  default void requestValidated(HttpMethod method, long durationNanos) {}
+
+  /**
+   * A validated request was successfully processed by all tus extensions.
+   *
+   * @param method The HTTP method of the request, or null if the method is not supported
+   * @param durationNanos The time it took to process the request in nanoseconds
+   */
+  default void requestProcessed(HttpMethod method, long durationNanos) {}
+
+  /**
+   * The lock of an upload was acquired.
+   *
+   * @param waitNanos The time it took to acquire the lock in nanoseconds
+   * @param retries The number of times the lock was already held by another request, 0 if the lock
+   *     was acquired immediately
+   */
+  default void lockAcquired(long waitNanos, int retries) {}
+
+  /**
+   * The lock of an upload could not be acquired because another request kept holding it.
+   *
+   * @param waitNanos The time spent trying to acquire the lock in nanoseconds
+   * @param retries The number of retries after the first attempt
+   */
+  default void lockFailed(long waitNanos, int retries) {}
+
+  /**
+   * Bytes were appended to an upload.
+   *
+   * @param bytes The number of bytes appended
+   * @param writeNanos The time it took to receive and write the bytes in nanoseconds
+   * @param syncNanos The time it took to force the bytes to the storage device in nanoseconds, 0 if
+   *     the bytes are not forced while appending
+   */
+  default void bytesAppended(long bytes, long writeNanos, long syncNanos) {}
+
+  /**
+   * Appended bytes were forced to the storage device in the background.
+   *
+   * @param uploads The number of uploads that were forced
+   * @param durationNanos The time it took to force the uploads in nanoseconds
+   */
+  default void dataSynced(int uploads, long durationNanos) {}
+
+  /**
+   * The checksum of the content of a request was calculated.
+   *
+   * @param algorithm The checksum algorithm
+   * @param bytes The number of bytes included in the checksum
+   * @param durationNanos The time spent updating the checksum in nanoseconds
+   */
+  default void checksumCalculated(ChecksumAlgorithm algorithm, long bytes, long durationNanos) {}
+
+  /**
+   * A cleanup pass of expired uploads was completed.
+   *
+   * @param statistics The statistics of the cleanup pass
+   */
+  default void cleanupCompleted(CleanupStatistics statistics) {}
+
+  /**
+   * The upload information cache was used to look up an upload.
+   *
+   * @param hit True if the upload information was found in the cache
+   */
+  default void uploadInfoCacheAccessed(boolean hit) {}
+}
@@ -0,0 +1,17 @@
+package me.desair.tus.server.metrics;
+
+/**
+ * Service that can record metrics through a {@link TusMetrics} listener. Services that do not
+ * record any metrics can ignore the listener, which is the default.
+ */
+public interface TusMetricsAware {
+
+  /**
+   * Set the listener that records the metrics of this service.
+   *
+   * @param metrics The {@link TusMetrics} to notify
+   */
+  default void setMetrics(TusMetrics metrics) {
+    // No metrics by default
+  }
+}
@@ -1,15 +1,19 @@
 package me.desair.tus.server.upload;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.lang3.StringUtils;
 
 /**
  * Alternative {@link UploadIdFactory} implementation that uses the current system time to generate
- * ID's. Since time is not unique, this upload ID factory should not be used in busy, clustered
- * production systems.
+ * ID's. Within one application instance every generated ID is unique, but since time is not unique
+ * across instances, this upload ID factory should not be used in busy, clustered production
+ * systems.
  */
 public class TimeBasedUploadIdFactory extends UploadIdFactory {
 
+  private final AtomicLong lastId = new AtomicLong();
+
   @Override
   protected Serializable getIdValueIfValid(String extractedUrlId) {
     Long id = null;
@@ -26,7 +30,9 @@ public class TimeBasedUploadIdFactory extends UploadIdFactory {
   }
 
   @Override
-  public synchronized UploadId createId() {
-    return new UploadId(System.currentTimeMillis());
+  public UploadId createId() {
+    long now = System.currentTimeMillis();
+    // Never hand out the same value twice, even when multiple IDs are created within a millisecond
+    return new UploadId(lastId.updateAndGet(last -> Math.max(last + 1, now)));
   }
 }
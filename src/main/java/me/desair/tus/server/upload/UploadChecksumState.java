@@ -0,0 +1,93 @@
+package me.desair.tus.server.upload;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import me.desair.tus.server.checksum.ChecksumAlgorithm;
+import me.desair.tus.server.checksum.ResumableChecksumCalculator;
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * The intermediate state of the checksum of all bytes of an upload up to a given offset. This state
+ * is persisted together with the {@link UploadInfo} so that the checksum calculation can be
+ * continued by the next request that appends bytes to the upload.
+ */
+public class UploadChecksumState implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final ChecksumAlgorithm algorithm;
+  private final long offset;
+  private final byte[] state;
+
+  /**
+   * Create a new checksum state.
+   *
+   * @param algorithm The checksum algorithm
+   * @param offset The number of upload bytes that are included in the state
+   * @param state The state as exported by {@link ResumableChecksumCalculator#getState()}
+   */
+  public UploadChecksumState(ChecksumAlgorithm algorithm, long offset, byte[] state) {
+    this.algorithm = algorithm;
+    this.offset = offset;
+    this.state = state.clone();
+  }
+
+  public ChecksumAlgorithm getAlgorithm() {
+    return algorithm;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public byte[] getState() {
+    return state.clone();
+  }
+
+  /**
+   * Create a calculator that continues from this state.
+   *
+   * @return The calculator or null if the state cannot be restored
+   */
+  public ResumableChecksumCalculator restoreCalculator() {
+    ResumableChecksumCalculator calculator =
+        algorithm == null ? null : algorithm.getResumableChecksumCalculator();
+    if (calculator != null) {
+      try {
+        calculator.setState(state);
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+    return calculator;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+
+    if (!(o instanceof UploadChecksumState)) {
+      return false;
+    }
+
+    UploadChecksumState that = (UploadChecksumState) o;
+
+    return new EqualsBuilder()
+        .append(getAlgorithm(), that.getAlgorithm())
+        .append(getOffset(), that.getOffset())
+        .append(state, that.state)
+        .isEquals();
+  }
+
+  @Override
+  public int hashCode() {
+    return new HashCodeBuilder(17, 37)
+        .append(getAlgorithm())
+        .append(getOffset())
+        .append(Arrays.hashCode(state))
+        .toHashCode();
+  }
+}
@@ -8,6 +8,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import me.desair.tus.server.checksum.ChecksumAlgorithm;
+import me.desair.tus.server.checksum.ResumableChecksumCalculator;
 import me.desair.tus.server.util.Utils;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.StringUtils;
@@ -20,6 +22,9 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  */
 public class UploadInfo implements Serializable {
 
+  /** Keep the identifier of the first release so that previously serialized uploads stay valid. */
+  private static final long serialVersionUID = -8751200491586638308L;
+
   private static final String APPLICATION_OCTET_STREAM = "application/octet-stream";
   private static List<String> fileNameKeys = Arrays.asList("filename", "name");
   private static List<String> mimeTypeKeys = Arrays.asList("mimetype", "filetype", "type");
@@ -35,6 +40,8 @@ public class UploadInfo implements Serializable {
   private Long expirationTimestamp;
   private List<String> concatenationPartIds;
   private String uploadConcatHeaderValue;
+  private UploadChecksumState checksumState;
+  private UploadChecksumState previousChecksumState;
 
   /** Default constructor to use if an upload is created without HTTP request. */
   public UploadInfo() {
@@ -230,6 +237,17 @@ public class UploadInfo implements Serializable {
     return expirationTimestamp;
   }
 
+  /**
+   * Set the timestamp after which the upload expires in milliseconds since January 1, 1970,
+   * 00:00:00 GMT.
+   *
+   * @param expirationTimestamp The expiration timestamp in milliseconds, or null if the upload does
+   *     not expire
+   */
+  public void setExpirationTimestamp(Long expirationTimestamp) {
+    this.expirationTimestamp = expirationTimestamp;
+  }
+
   /**
    * Calculate the expiration timestamp based on the provided expiration period.
    *
@@ -249,6 +267,16 @@ public class UploadInfo implements Serializable {
     return creationTimestamp;
   }
 
+  /**
+   * Set the timestamp this upload was created in number of milliseconds since January 1, 1970,
+   * 00:00:00 GMT.
+   *
+   * @param creationTimestamp The creation timestamp of this upload
+   */
+  public void setCreationTimestamp(Long creationTimestamp) {
+    this.creationTimestamp = creationTimestamp;
+  }
+
   /**
    * Get the ip-addresses that were involved when this upload was created. The returned value is a
    * comma-separated list based on the remote address of the request and the X-Forwareded-For
@@ -260,6 +288,15 @@ public class UploadInfo implements Serializable {
     return creatorIpAddresses;
   }
 
+  /**
+   * Set the comma-separated list of ip-addresses that were involved when this upload was created.
+   *
+   * @param creatorIpAddresses A comma-separated list of ip-addresses
+   */
+  public void setCreatorIpAddresses(String creatorIpAddresses) {
+    this.creatorIpAddresses = creatorIpAddresses;
+  }
+
   /**
    * Return the type of this upload. An upload can have types specified in {@link UploadType}. The
    * type of an upload depends on the Tus concatenation extension:
@@ -318,6 +355,68 @@ public class UploadInfo implements Serializable {
     return uploadConcatHeaderValue;
   }
 
+  /**
+   * Get the intermediate state of the checksum of all bytes of this upload, if the storage service
+   * keeps track of it.
+   *
+   * @return The checksum state or null if not available
+   */
+  public UploadChecksumState getChecksumState() {
+    return checksumState;
+  }
+
+  /**
+   * Set the intermediate state of the checksum of all bytes of this upload.
+   *
+   * @param checksumState The checksum state or null if not available
+   */
+  public void setChecksumState(UploadChecksumState checksumState) {
+    this.checksumState = checksumState;
+  }
+
+  /**
+   * Get the checksum state from before the last append, which is used to roll back the checksum
+   * when the bytes of that append are removed.
+   *
+   * @return The previous checksum state or null if not available
+   */
+  public UploadChecksumState getPreviousChecksumState() {
+    return previousChecksumState;
+  }
+
+  /**
+   * Set the checksum state from before the last append.
+   *
+   * @param previousChecksumState The previous checksum state or null if not available
+   */
+  public void setPreviousChecksumState(UploadChecksumState previousChecksumState) {
+    this.previousChecksumState = previousChecksumState;
+  }
+
+  /**
+   * Get the checksum of all bytes of this completed upload, in the same format as the value of an
+   * Upload-Checksum header: the name of the checksum algorithm and the Base64 encoded checksum,
+   * separated by a space. The checksum is only available if the storage service was configured to
+   * keep track of it.
+   *
+   * @return The checksum of the full upload or null if the upload is still in progress or the
+   *     checksum is not available
+   */
+  public String getUploadChecksum() {
+    if (checksumState == null
+        || isUploadInProgress()
+        || !offset.equals(checksumState.getOffset())) {
+      return null;
+    }
+
+    ResumableChecksumCalculator calculator = checksumState.restoreCalculator();
+    return calculator == null
+        ? null
+        : checksumState.getAlgorithm().getTusName()
+            + ChecksumAlgorithm.CHECKSUM_VALUE_SEPARATOR
+            + Base64.encodeBase64String(calculator.digest());
+  }
+
   /**
    * Try to guess the filename of the uploaded data. If we cannot guess the name we fall back to the
    * ID. <br>
@@ -385,6 +484,8 @@ public class UploadInfo implements Serializable {
         .append(getExpirationTimestamp(), that.getExpirationTimestamp())
         .append(getConcatenationPartIds(), that.getConcatenationPartIds())
         .append(getUploadConcatHeaderValue(), that.getUploadConcatHeaderValue())
+        .append(getChecksumState(), that.getChecksumState())
+        .append(getPreviousChecksumState(), that.getPreviousChecksumState())
         .isEquals();
   }
 
@@ -401,6 +502,8 @@ public class UploadInfo implements Serializable {
         .append(getExpirationTimestamp())
         .append(getConcatenationPartIds())
         .append(getUploadConcatHeaderValue())
+        .append(getChecksumState())
+        .append(getPreviousChecksumState())
         .toHashCode();
   }
 
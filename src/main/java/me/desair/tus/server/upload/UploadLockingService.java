@@ -2,12 +2,13 @@ package me.desair.tus.server.upload;
 
 import java.io.IOException;
 import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.metrics.TusMetricsAware;
 
 /**
  * Service interface that can lock a specific upload so that it cannot be modified by other
  * requests/threads.
  */
-public interface UploadLockingService {
+public interface UploadLockingService extends TusMetricsAware {
 
   /**
    * If the given URI represents a valid upload, lock that upload for processing.
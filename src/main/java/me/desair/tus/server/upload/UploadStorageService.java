@@ -1,14 +1,21 @@
 package me.desair.tus.server.upload;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
 import me.desair.tus.server.exception.TusException;
 import me.desair.tus.server.exception.UploadNotFoundException;
+import me.desair.tus.server.metrics.TusMetricsAware;
 import me.desair.tus.server.upload.concatenation.UploadConcatenationService;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
 
 /** Interface to a service that is able to store the (partially) uploaded files. */
-public interface UploadStorageService {
+public interface UploadStorageService extends TusMetricsAware {
 
   /**
    * Method to retrieve the upload info by its upload URL.
@@ -28,6 +35,21 @@ public interface UploadStorageService {
    */
   UploadInfo getUploadInfo(UploadId id) throws IOException;
 
+  /**
+   * Get a value that changes every time the stored upload info of the given upload is written, by
+   * any application instance. Caches use it to check if an upload info they hold is still current,
+   * which must be cheaper than reading the upload info itself.
+   *
+   * @param id The ID of the upload
+   * @return The current version of the upload info, or null if the upload does not exist or the
+   *     version cannot be determined (in which case the upload info must not be cached). By default
+   *     no version is known, so the upload info of this service is never cached.
+   * @throws IOException When the service is not able to retrieve the version
+   */
+  default String getUploadInfoVersion(UploadId id) throws IOException {
+    return null;
+  }
+
   /**
    * The URI which is configured as the upload endpoint.
    *
@@ -106,6 +128,43 @@ public interface UploadStorageService {
   void copyUploadTo(UploadInfo info, OutputStream outputStream)
       throws UploadNotFoundException, IOException;
 
+  /**
+   * Copy a range of the uploaded bytes to the given output stream. For concatenated uploads the
+   * range can span multiple partial uploads. The output stream is not closed, so that multiple
+   * ranges can be written to the same stream. By default the range is read from {@link
+   * #getUploadedBytes(UploadId)}, skipping all bytes before the range.
+   *
+   * @param info The upload of which we should copy the bytes
+   * @param position The position of the first byte to copy
+   * @param count The number of bytes to copy
+   * @param outputStream The output stream where we have to copy the bytes to
+   */
+  default void copyUploadTo(UploadInfo info, long position, long count, OutputStream outputStream)
+      throws UploadNotFoundException, IOException {
+    Validate.isTrue(position >= 0 && count >= 0, "The byte range cannot be negative");
+
+    try (InputStream inputStream = getUploadedBytes(info.getId())) {
+      if (inputStream == null) {
+        throw new UploadNotFoundException("The upload with id " + info.getId() + " was not found.");
+      }
+      if (IOUtils.copyLarge(inputStream, outputStream, position, count) < count) {
+        throw new EOFException("The upload is smaller than the requested byte range");
+      }
+    }
+  }
+
+  /**
+   * Get the local file that contains all uploaded bytes of a completed upload, so that it can be
+   * sent to a client without copying its bytes through the JVM (e.g. using sendfile).
+   *
+   * @param info The upload of which we need the file
+   * @return The path of the file or null if the bytes of this upload are not stored in a single
+   *     local file, which is the default
+   */
+  default Path getUploadedBytesPath(UploadInfo info) throws IOException, UploadNotFoundException {
+    return null;
+  }
+
   /**
    * Clean up any upload data that is expired according to the configured expiration time.
    *
@@ -114,6 +173,21 @@ public interface UploadStorageService {
    */
   void cleanupExpiredUploads(UploadLockingService uploadLockingService) throws IOException;
 
+  /**
+   * Find uploads that are expired according to their expiration timestamp, without removing them.
+   * Implementations should avoid reading uploads that cannot be expired yet. Calling this method
+   * again returns the uploads that have not been terminated in the meantime, so that a large number
+   * of expired uploads can be removed in multiple smaller passes. <br>
+   * Storage services that do not implement this method return no uploads, and are cleaned up by
+   * calling {@link #cleanupExpiredUploads(UploadLockingService)} instead.
+   *
+   * @param maxUploads The maximum number of expired uploads to return
+   * @return The expired uploads, which may still be locked by a request
+   */
+  default List<UploadInfo> getExpiredUploads(int maxUploads) throws IOException {
+    return Collections.emptyList();
+  }
+
   /**
    * Remove the given last amount of bytes from the uploaded data.
    *
@@ -165,4 +239,14 @@ public interface UploadStorageService {
    * @param idFactory The {@link UploadIdFactory} to use within this storage service
    */
   void setIdFactory(UploadIdFactory idFactory);
+
+  /**
+   * Release the resources held by this storage service, like background threads or open files. This
+   * service should not be used anymore after it is closed. By default nothing is released.
+   *
+   * @throws IOException When the resources cannot be released
+   */
+  default void close() throws IOException {
+    // Nothing to release
+  }
 }
@@ -0,0 +1,312 @@
+package me.desair.tus.server.upload.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.exception.UploadNotFoundException;
+import me.desair.tus.server.metrics.TusMetrics;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadIdFactory;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadLock;
+import me.desair.tus.server.upload.UploadLockingService;
+import me.desair.tus.server.upload.UploadStorageService;
+import me.desair.tus.server.upload.concatenation.UploadConcatenationService;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Combined implementation of {@link UploadStorageService} and {@link UploadLockingService} that
+ * keeps the {@link UploadInfo} of recently used uploads in a shared {@link UploadInfoCache}, so
+ * that consecutive requests for the same upload (e.g. HEAD, PATCH, PATCH) do not read the upload
+ * info from the storage backend every time. <br>
+ * Every change made through this service is written to the delegate first and then cached. Before a
+ * cached upload info is used, its version is compared with the {@link
+ * UploadStorageService#getUploadInfoVersion(UploadId)} of the delegate, so changes made by other
+ * application instances are never missed. While this service holds the lock on an upload, nobody
+ * else can change it, so an entry that was validated after the lock was obtained is used without
+ * checking the version again.
+ */
+public class CachedStorageAndLockingService implements UploadLockingService, UploadStorageService {
+
+  private final UploadLockingService lockingServiceDelegate;
+  private final UploadStorageService storageServiceDelegate;
+  private final UploadInfoCache cache;
+  private final Map<UploadId, Long> lockedUploads = new ConcurrentHashMap<>();
+  private UploadIdFactory idFactory;
+
+  /** Constructor of CachedStorageAndLockingService. */
+  public CachedStorageAndLockingService(
+      UploadStorageService storageServiceDelegate,
+      UploadLockingService lockingServiceDelegate,
+      UploadInfoCache cache) {
+    Validate.notNull(cache, "The UploadInfoCache cannot be null");
+    if (storageServiceDelegate instanceof CachedStorageAndLockingService) {
+      this.storageServiceDelegate =
+          ((CachedStorageAndLockingService) storageServiceDelegate).storageServiceDelegate;
+    } else {
+      this.storageServiceDelegate = storageServiceDelegate;
+    }
+    if (lockingServiceDelegate instanceof CachedStorageAndLockingService) {
+      this.lockingServiceDelegate =
+          ((CachedStorageAndLockingService) lockingServiceDelegate).lockingServiceDelegate;
+    } else {
+      this.lockingServiceDelegate = lockingServiceDelegate;
+    }
+    this.cache = cache;
+  }
+
+  public UploadInfoCache getCache() {
+    return cache;
+  }
+
+  @Override
+  public UploadInfo getUploadInfo(UploadId id) throws IOException {
+    if (id == null) {
+      return storageServiceDelegate.getUploadInfo(id);
+    }
+
+    UploadInfoCache.Entry entry = cache.get(id);
+    Long lockStamp = lockedUploads.get(id);
+    if (entry != null && lockStamp != null && entry.getStamp() > lockStamp) {
+      cache.recordHit();
+      return cache.decode(entry);
+    }
+
+    // Take the stamp before checking the version, so a concurrent write always wins
+    long stamp = cache.nextStamp();
+    String version = storageServiceDelegate.getUploadInfoVersion(id);
+    if (entry != null && version != null && version.equals(entry.getVersion())) {
+      cache.put(id, entry.withStamp(stamp));
+      cache.recordHit();
+      return cache.decode(entry);
+    }
+
+    cache.recordMiss();
+    UploadInfo uploadInfo = storageServiceDelegate.getUploadInfo(id);
+    if (uploadInfo == null || version == null) {
+      cache.invalidate(id);
+    } else {
+      cache.put(id, cache.newEntry(uploadInfo, version, stamp));
+    }
+    return uploadInfo;
+  }
+
+  @Override
+  public UploadInfo getUploadInfo(String uploadUrl, String ownerKey) throws IOException {
+    UploadInfo uploadInfo = getUploadInfo(idFactory.readUploadId(uploadUrl));
+    if (uploadInfo == null || !Objects.equals(uploadInfo.getOwnerKey(), ownerKey)) {
+      // Let the storage service decide how to handle uploads of a different owner
+      uploadInfo = storageServiceDelegate.getUploadInfo(uploadUrl, ownerKey);
+    }
+    return uploadInfo;
+  }
+
+  @Override
+  public String getUploadInfoVersion(UploadId id) throws IOException {
+    return storageServiceDelegate.getUploadInfoVersion(id);
+  }
+
+  @Override
+  public void update(UploadInfo uploadInfo) throws IOException, UploadNotFoundException {
+    storageServiceDelegate.update(uploadInfo);
+    writeThrough(uploadInfo);
+  }
+
+  @Override
+  public void setIdFactory(UploadIdFactory idFactory) {
+    this.idFactory = idFactory;
+    this.storageServiceDelegate.setIdFactory(idFactory);
+    this.lockingServiceDelegate.setIdFactory(idFactory);
+  }
+
+  @Override
+  public void setMetrics(TusMetrics metrics) {
+    this.storageServiceDelegate.setMetrics(metrics);
+    this.lockingServiceDelegate.setMetrics(metrics);
+    this.cache.setMetrics(metrics);
+  }
+
+  @Override
+  public void close() throws IOException {
+    storageServiceDelegate.close();
+  }
+
+  @Override
+  public String getUploadUri() {
+    return storageServiceDelegate.getUploadUri();
+  }
+
+  @Override
+  public UploadInfo append(UploadInfo upload, InputStream inputStream)
+      throws IOException, TusException {
+    UploadInfo info = storageServiceDelegate.append(upload, inputStream);
+    writeThrough(info);
+    return info;
+  }
+
+  @Override
+  public void setMaxUploadSize(Long maxUploadSize) {
+    storageServiceDelegate.setMaxUploadSize(maxUploadSize);
+  }
+
+  @Override
+  public long getMaxUploadSize() {
+    return storageServiceDelegate.getMaxUploadSize();
+  }
+
+  @Override
+  public UploadInfo create(UploadInfo info, String ownerKey) throws IOException {
+    UploadInfo uploadInfo = storageServiceDelegate.create(info, ownerKey);
+    writeThrough(uploadInfo);
+    return uploadInfo;
+  }
+
+  @Override
+  public InputStream getUploadedBytes(String uploadUri, String ownerKey)
+      throws IOException, UploadNotFoundException {
+    return storageServiceDelegate.getUploadedBytes(uploadUri, ownerKey);
+  }
+
+  @Override
+  public InputStream getUploadedBytes(UploadId id) throws IOException, UploadNotFoundException {
+    return storageServiceDelegate.getUploadedBytes(id);
+  }
+
+  @Override
+  public void copyUploadTo(UploadInfo info, OutputStream outputStream)
+      throws UploadNotFoundException, IOException {
+    storageServiceDelegate.copyUploadTo(info, outputStream);
+  }
+
+  @Override
+  public void copyUploadTo(UploadInfo info, long position, long count, OutputStream outputStream)
+      throws UploadNotFoundException, IOException {
+    storageServiceDelegate.copyUploadTo(info, position, count, outputStream);
+  }
+
+  @Override
+  public Path getUploadedBytesPath(UploadInfo info) throws IOException, UploadNotFoundException {
+    return storageServiceDelegate.getUploadedBytesPath(info);
+  }
+
+  @Override
+  public void cleanupExpiredUploads(UploadLockingService uploadLockingService) throws IOException {
+    // Removed uploads no longer have a version, so their cached entries will not be used
+    storageServiceDelegate.cleanupExpiredUploads(uploadLockingService);
+  }
+
+  @Override
+  public List<UploadInfo> getExpiredUploads(int maxUploads) throws IOException {
+    return storageServiceDelegate.getExpiredUploads(maxUploads);
+  }
+
+  @Override
+  public void removeLastNumberOfBytes(UploadInfo uploadInfo, long byteCount)
+      throws UploadNotFoundException, IOException {
+    storageServiceDelegate.removeLastNumberOfBytes(uploadInfo, byteCount);
+    writeThrough(uploadInfo);
+  }
+
+  @Override
+  public void terminateUpload(UploadInfo uploadInfo) throws UploadNotFoundException, IOException {
+    storageServiceDelegate.terminateUpload(uploadInfo);
+    if (uploadInfo != null && uploadInfo.getId() != null) {
+      cache.invalidate(uploadInfo.getId());
+    }
+  }
+
+  @Override
+  public Long getUploadExpirationPeriod() {
+    return storageServiceDelegate.getUploadExpirationPeriod();
+  }
+
+  @Override
+  public void setUploadExpirationPeriod(Long uploadExpirationPeriod) {
+    storageServiceDelegate.setUploadExpirationPeriod(uploadExpirationPeriod);
+  }
+
+  @Override
+  public void setUploadConcatenationService(UploadConcatenationService concatenationService) {
+    storageServiceDelegate.setUploadConcatenationService(concatenationService);
+  }
+
+  @Override
+  public UploadConcatenationService getUploadConcatenationService() {
+    return storageServiceDelegate.getUploadConcatenationService();
+  }
+
+  @Override
+  public UploadLock lockUploadByUri(String requestUri) throws TusException, IOException {
+    UploadLock uploadLock = lockingServiceDelegate.lockUploadByUri(requestUri);
+    UploadId id = uploadLock == null ? null : idFactory.readUploadId(requestUri);
+    if (id == null) {
+      return uploadLock;
+    }
+
+    // Only entries validated from now on can be trusted while we hold the lock
+    long lockStamp = cache.nextStamp();
+    lockedUploads.put(id, lockStamp);
+    return new CachedLock(uploadLock, id, lockStamp);
+  }
+
+  @Override
+  public void cleanupStaleLocks() throws IOException {
+    lockingServiceDelegate.cleanupStaleLocks();
+  }
+
+  @Override
+  public boolean isLocked(UploadId id) {
+    return lockingServiceDelegate.isLocked(id);
+  }
+
+  private void writeThrough(UploadInfo uploadInfo) throws IOException {
+    if (uploadInfo == null || uploadInfo.getId() == null) {
+      return;
+    }
+
+    // Take the stamp after the write, so that slower readers cannot overwrite this entry
+    long stamp = cache.nextStamp();
+    String version = storageServiceDelegate.getUploadInfoVersion(uploadInfo.getId());
+    if (version == null) {
+      cache.invalidate(uploadInfo.getId());
+    } else {
+      cache.put(uploadInfo.getId(), cache.newEntry(uploadInfo, version, stamp));
+    }
+  }
+
+  class CachedLock implements UploadLock {
+
+    private final UploadLock delegate;
+    private final UploadId id;
+    private final long lockStamp;
+
+    CachedLock(UploadLock delegate, UploadId id, long lockStamp) {
+      this.delegate = delegate;
+      this.id = id;
+      this.lockStamp = lockStamp;
+    }
+
+    @Override
+    public String getUploadUri() {
+      return delegate.getUploadUri();
+    }
+
+    @Override
+    public void release() {
+      lockedUploads.remove(id, lockStamp);
+      delegate.release();
+    }
+
+    @Override
+    public void close() throws IOException {
+      lockedUploads.remove(id, lockStamp);
+      delegate.close();
+    }
+  }
+}
@@ -4,9 +4,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Objects;
 import me.desair.tus.server.exception.TusException;
 import me.desair.tus.server.exception.UploadNotFoundException;
+import me.desair.tus.server.metrics.TusMetrics;
 import me.desair.tus.server.upload.UploadId;
 import me.desair.tus.server.upload.UploadIdFactory;
 import me.desair.tus.server.upload.UploadInfo;
@@ -20,7 +23,11 @@ import me.desair.tus.server.upload.concatenation.UploadConcatenationService;
  * both of them as delegates but allowing to reduce disk operations during a request processing by
  * caching UploadInfo in the memory. UploadLockingService service is used as a delegate to cleanup
  * cached data on releasing a lock.
+ *
+ * @deprecated The cache of this service is cleared at the end of every request. Use {@link
+ *     CachedStorageAndLockingService} instead, which shares a bounded cache between requests.
  */
+@Deprecated
 public class ThreadLocalCachedStorageAndLockingService
     implements UploadLockingService, UploadStorageService {
 
@@ -59,6 +66,11 @@ public class ThreadLocalCachedStorageAndLockingService
     return uploadInfo;
   }
 
+  @Override
+  public String getUploadInfoVersion(UploadId id) throws IOException {
+    return storageServiceDelegate.getUploadInfoVersion(id);
+  }
+
   @Override
   public UploadInfo getUploadInfo(String uploadUrl, String ownerKey) throws IOException {
     UploadInfo uploadInfo = getUploadInfo(idFactory.readUploadId(uploadUrl));
@@ -82,6 +94,17 @@ public class ThreadLocalCachedStorageAndLockingService
     this.lockingServiceDelegate.setIdFactory(idFactory);
   }
 
+  @Override
+  public void setMetrics(TusMetrics metrics) {
+    this.storageServiceDelegate.setMetrics(metrics);
+    this.lockingServiceDelegate.setMetrics(metrics);
+  }
+
+  @Override
+  public void close() throws IOException {
+    storageServiceDelegate.close();
+  }
+
   @Override
   public String getUploadUri() {
     return storageServiceDelegate.getUploadUri();
@@ -130,6 +153,18 @@ public class ThreadLocalCachedStorageAndLockingService
     uploadInfoCache.set(new WeakReference<>(info));
   }
 
+  @Override
+  public void copyUploadTo(UploadInfo info, long position, long count, OutputStream outputStream)
+      throws UploadNotFoundException, IOException {
+    storageServiceDelegate.copyUploadTo(info, position, count, outputStream);
+    uploadInfoCache.set(new WeakReference<>(info));
+  }
+
+  @Override
+  public Path getUploadedBytesPath(UploadInfo info) throws IOException, UploadNotFoundException {
+    return storageServiceDelegate.getUploadedBytesPath(info);
+  }
+
   @Override
   public void cleanupExpiredUploads(UploadLockingService uploadLockingService) throws IOException {
     storageServiceDelegate.cleanupExpiredUploads(uploadLockingService);
@@ -138,6 +173,11 @@ public class ThreadLocalCachedStorageAndLockingService
     cleanupCache();
   }
 
+  @Override
+  public List<UploadInfo> getExpiredUploads(int maxUploads) throws IOException {
+    return storageServiceDelegate.getExpiredUploads(maxUploads);
+  }
+
   @Override
   public void removeLastNumberOfBytes(UploadInfo uploadInfo, long byteCount)
       throws UploadNotFoundException, IOException {
@@ -0,0 +1,280 @@
+package me.desair.tus.server.upload.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import me.desair.tus.server.metrics.TusMetrics;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.codec.BinaryUploadInfoCodec;
+import me.desair.tus.server.upload.codec.UploadInfoCodec;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Size-bounded cache of {@link UploadInfo} objects that is shared by all requests. The entries are
+ * spread over a number of segments, each guarded by its own {@link ReentrantLock} and evicting its
+ * least recently used entry when it is full. <br>
+ * An entry holds the encoded upload info together with the version reported by the storage service
+ * when it was cached, so that every reader decodes its own copy and the version can be checked
+ * before an entry is used (see {@link CachedStorageAndLockingService}). Every entry also carries a
+ * stamp that increases with the moment it was validated, so that a slow reader can never replace an
+ * entry that a writer has cached after it. The upload info of a storage service that does not
+ * report versions is never cached.
+ */
+public class UploadInfoCache {
+
+  /** The default maximum number of cached uploads. */
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+
+  /** Maximum number of segments, this MUST be a power of two. */
+  private static final int MAX_SEGMENT_COUNT = 16;
+
+  private final Segment[] segments;
+  private final int maxSize;
+  private final UploadInfoCodec codec = new BinaryUploadInfoCodec();
+  private final AtomicLong stamps = new AtomicLong();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private volatile TusMetrics metrics = TusMetrics.NOOP;
+
+  public UploadInfoCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Create a cache that holds at most the given number of uploads.
+   *
+   * @param maxSize The maximum number of cached uploads
+   */
+  public UploadInfoCache(int maxSize) {
+    this(maxSize, Integer.highestOneBit(Math.min(Math.max(maxSize, 1), MAX_SEGMENT_COUNT)));
+  }
+
+  UploadInfoCache(int maxSize, int segmentCount) {
+    Validate.isTrue(maxSize > 0, "The maximum cache size must be bigger than 0");
+    Validate.isTrue(
+        Integer.bitCount(segmentCount) == 1 && segmentCount <= maxSize,
+        "The number of segments must be a power of two and not bigger than the cache size");
+    this.maxSize = maxSize;
+    this.segments = new Segment[segmentCount];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment(maxSize / segmentCount);
+    }
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Set the listener that is notified of every cache hit and miss.
+   *
+   * @param metrics The {@link TusMetrics} to notify
+   */
+  public void setMetrics(TusMetrics metrics) {
+    Validate.notNull(metrics, "The TusMetrics cannot be null");
+    this.metrics = metrics;
+  }
+
+  /**
+   * Get the number of uploads that are currently cached.
+   *
+   * @return The number of cached uploads
+   */
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      segment.lock.lock();
+      try {
+        size += segment.entries.size();
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    return size;
+  }
+
+  /** Remove all cached uploads. The hit and miss counters are not reset. */
+  public void clear() {
+    for (Segment segment : segments) {
+      segment.lock.lock();
+      try {
+        segment.entries.clear();
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Get the number of upload info lookups that were answered from the cache.
+   *
+   * @return The number of cache hits
+   */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of upload info lookups that had to read the upload info from the storage
+   * service, because it was not cached or the cached version was outdated.
+   *
+   * @return The number of cache misses
+   */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * Get the number of uploads that were removed from the cache to make room for other uploads.
+   *
+   * @return The number of evictions
+   */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * Get the fraction of lookups that were answered from the cache.
+   *
+   * @return The hit ratio between 0 and 1, or 0 when there were no lookups yet
+   */
+  public double getHitRatio() {
+    long hitCount = getHitCount();
+    long lookups = hitCount + getMissCount();
+    return lookups == 0 ? 0.0 : (double) hitCount / lookups;
+  }
+
+  @Override
+  public String toString() {
+    return "UploadInfoCache{"
+        + "size="
+        + size()
+        + ", maxSize="
+        + maxSize
+        + ", hits="
+        + getHitCount()
+        + ", misses="
+        + getMissCount()
+        + ", evictions="
+        + getEvictionCount()
+        + '}';
+  }
+
+  long nextStamp() {
+    return stamps.incrementAndGet();
+  }
+
+  void recordHit() {
+    hits.increment();
+    metrics.uploadInfoCacheAccessed(true);
+  }
+
+  void recordMiss() {
+    misses.increment();
+    metrics.uploadInfoCacheAccessed(false);
+  }
+
+  Entry get(UploadId id) {
+    Segment segment = getSegment(id);
+    segment.lock.lock();
+    try {
+      return segment.entries.get(id);
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  /**
+   * Cache the given entry, unless the cached entry of the same upload has a more recent stamp. An
+   * entry without a version cannot be validated, so it removes the cached entry instead.
+   */
+  void put(UploadId id, Entry entry) {
+    Segment segment = getSegment(id);
+    segment.lock.lock();
+    try {
+      Entry current = segment.entries.get(id);
+      if (entry.version == null) {
+        segment.entries.remove(id);
+      } else if (current == null || current.stamp < entry.stamp) {
+        segment.entries.put(id, entry);
+      }
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  void invalidate(UploadId id) {
+    Segment segment = getSegment(id);
+    segment.lock.lock();
+    try {
+      segment.entries.remove(id);
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  Entry newEntry(UploadInfo info, String version, long stamp) throws IOException {
+    return new Entry(codec.encode(info).asReadOnlyBuffer(), version, stamp);
+  }
+
+  UploadInfo decode(Entry entry) throws IOException {
+    return codec.decode(entry.encodedInfo.duplicate());
+  }
+
+  private Segment getSegment(UploadId id) {
+    int hash = id.hashCode();
+    return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+  }
+
+  /** An immutable snapshot of a cached upload info. */
+  static final class Entry {
+
+    private final ByteBuffer encodedInfo;
+    private final String version;
+    private final long stamp;
+
+    private Entry(ByteBuffer encodedInfo, String version, long stamp) {
+      this.encodedInfo = encodedInfo;
+      this.version = version;
+      this.stamp = stamp;
+    }
+
+    String getVersion() {
+      return version;
+    }
+
+    long getStamp() {
+      return stamp;
+    }
+
+    Entry withStamp(long newStamp) {
+      return new Entry(encodedInfo, version, newStamp);
+    }
+  }
+
+  private class Segment {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<UploadId, Entry> entries;
+
+    Segment(int capacity) {
+      entries =
+          new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UploadId, Entry> eldest) {
+              if (size() > capacity) {
+                evictions.increment();
+                return true;
+              }
+              return false;
+            }
+          };
+    }
+  }
+}
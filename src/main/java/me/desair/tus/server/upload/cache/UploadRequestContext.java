@@ -0,0 +1,348 @@
+package me.desair.tus.server.upload.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.exception.UploadNotFoundException;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadIdFactory;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadLockingService;
+import me.desair.tus.server.upload.UploadStorageService;
+import me.desair.tus.server.upload.UploadType;
+import me.desair.tus.server.upload.concatenation.UploadConcatenationService;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Request-scoped {@link UploadStorageService} that is created once per request after the upload
+ * lock has been obtained and that is passed to all validators and request handlers. The {@link
+ * UploadInfo} of an upload is loaded from the delegate at most once during the request. Calls to
+ * {@link #update(UploadInfo)} are only recorded and written back to the delegate once when {@link
+ * #flush()} is called before the response is committed. <br>
+ * A merge of a concatenated upload saves the upload information in the delegate directly. The
+ * concatenation service of this context therefore replaces the cached information of the
+ * concatenated upload by the merged one and forgets its partial uploads, so that a later {@link
+ * #flush()} cannot overwrite the result of the merge. <br>
+ * Instances of this class are not thread-safe and must not outlive the request (and lock) for which
+ * they were created.
+ */
+public class UploadRequestContext implements UploadStorageService {
+
+  private static final Logger log = LoggerFactory.getLogger(UploadRequestContext.class);
+
+  private final UploadStorageService storageServiceDelegate;
+  private UploadIdFactory idFactory;
+
+  private final Map<UploadId, UploadInfo> uploadInfoCache = new HashMap<>();
+  private final Set<UploadId> dirtyUploads = new LinkedHashSet<>();
+  private boolean readOnly = false;
+
+  /** Constructor of UploadRequestContext. */
+  public UploadRequestContext(
+      UploadStorageService storageServiceDelegate, UploadIdFactory idFactory) {
+    Validate.notNull(storageServiceDelegate, "The UploadStorageService cannot be null");
+    Validate.notNull(idFactory, "The IdFactory cannot be null");
+    this.storageServiceDelegate = storageServiceDelegate;
+    this.idFactory = idFactory;
+  }
+
+  /**
+   * Write all upload information that was updated during this request back to the underlying
+   * storage service. Each modified upload is written only once, regardless of the number of times
+   * it was updated. Upload information that cannot be saved is logged and not retried.
+   *
+   * @throws IOException When the upload information cannot be saved
+   */
+  public void flush() throws IOException {
+    if (readOnly && !dirtyUploads.isEmpty()) {
+      log.warn("Discarding the updates of uploads {} made without holding a lock", dirtyUploads);
+      dirtyUploads.clear();
+    }
+
+    IOException failure = null;
+    try {
+      for (UploadId id : dirtyUploads) {
+        UploadInfo uploadInfo = uploadInfoCache.get(id);
+        if (uploadInfo != null) {
+          try {
+            storageServiceDelegate.update(uploadInfo);
+          } catch (UploadNotFoundException e) {
+            log.error("Unable to save upload info with ID " + id + " since it no longer exists", e);
+          } catch (IOException e) {
+            log.error("Unable to save upload info with ID " + id, e);
+            failure = failure == null ? e : failure;
+          }
+        }
+      }
+    } finally {
+      dirtyUploads.clear();
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Make this context read-only, for a request that is processed without holding the upload lock.
+   * Upload information that is updated anyway is never written back by {@link #flush()}.
+   *
+   * @param readOnly True if the updates must be discarded, false otherwise
+   */
+  public void setReadOnly(boolean readOnly) {
+    this.readOnly = readOnly;
+  }
+
+  /**
+   * Check if this context holds upload information that still needs to be written back.
+   *
+   * @return True if there are pending updates, false otherwise
+   */
+  public boolean hasPendingUpdates() {
+    return !dirtyUploads.isEmpty();
+  }
+
+  @Override
+  public UploadInfo getUploadInfo(UploadId id) throws IOException {
+    if (id == null) {
+      return null;
+    }
+
+    if (!uploadInfoCache.containsKey(id)) {
+      uploadInfoCache.put(id, storageServiceDelegate.getUploadInfo(id));
+    }
+    return uploadInfoCache.get(id);
+  }
+
+  @Override
+  public String getUploadInfoVersion(UploadId id) throws IOException {
+    return storageServiceDelegate.getUploadInfoVersion(id);
+  }
+
+  @Override
+  public UploadInfo getUploadInfo(String uploadUrl, String ownerKey) throws IOException {
+    UploadInfo uploadInfo = getUploadInfo(idFactory.readUploadId(uploadUrl));
+    if (uploadInfo != null && !Objects.equals(uploadInfo.getOwnerKey(), ownerKey)) {
+      // Let the storage service decide how to handle uploads of a different owner
+      uploadInfo = storageServiceDelegate.getUploadInfo(uploadUrl, ownerKey);
+    }
+    return uploadInfo;
+  }
+
+  @Override
+  public void update(UploadInfo uploadInfo) throws IOException, UploadNotFoundException {
+    uploadInfoCache.put(uploadInfo.getId(), uploadInfo);
+    dirtyUploads.add(uploadInfo.getId());
+  }
+
+  @Override
+  public UploadInfo append(UploadInfo upload, InputStream inputStream)
+      throws IOException, TusException {
+    UploadInfo uploadInfo = storageServiceDelegate.append(upload, inputStream);
+    if (uploadInfo != null) {
+      // The storage service has saved the new offset together with the rest of the upload info
+      uploadInfoCache.put(uploadInfo.getId(), uploadInfo);
+      dirtyUploads.remove(uploadInfo.getId());
+    }
+    return uploadInfo;
+  }
+
+  @Override
+  public UploadInfo create(UploadInfo info, String ownerKey) throws IOException {
+    UploadInfo uploadInfo = storageServiceDelegate.create(info, ownerKey);
+    if (uploadInfo != null) {
+      uploadInfoCache.put(uploadInfo.getId(), uploadInfo);
+    }
+    return uploadInfo;
+  }
+
+  @Override
+  public void removeLastNumberOfBytes(UploadInfo uploadInfo, long byteCount)
+      throws UploadNotFoundException, IOException {
+    storageServiceDelegate.removeLastNumberOfBytes(uploadInfo, byteCount);
+    if (uploadInfo != null && byteCount > 0) {
+      uploadInfoCache.put(uploadInfo.getId(), uploadInfo);
+      dirtyUploads.remove(uploadInfo.getId());
+    }
+  }
+
+  @Override
+  public void terminateUpload(UploadInfo uploadInfo) throws UploadNotFoundException, IOException {
+    storageServiceDelegate.terminateUpload(uploadInfo);
+    if (uploadInfo != null) {
+      // Remember that this upload no longer exists
+      uploadInfoCache.put(uploadInfo.getId(), null);
+      dirtyUploads.remove(uploadInfo.getId());
+    }
+  }
+
+  @Override
+  public void cleanupExpiredUploads(UploadLockingService uploadLockingService) throws IOException {
+    storageServiceDelegate.cleanupExpiredUploads(uploadLockingService);
+    // Any of the uploads we know could have been removed
+    uploadInfoCache.keySet().retainAll(dirtyUploads);
+  }
+
+  @Override
+  public List<UploadInfo> getExpiredUploads(int maxUploads) throws IOException {
+    return storageServiceDelegate.getExpiredUploads(maxUploads);
+  }
+
+  @Override
+  public String getUploadUri() {
+    return storageServiceDelegate.getUploadUri();
+  }
+
+  @Override
+  public void setMaxUploadSize(Long maxUploadSize) {
+    storageServiceDelegate.setMaxUploadSize(maxUploadSize);
+  }
+
+  @Override
+  public long getMaxUploadSize() {
+    return storageServiceDelegate.getMaxUploadSize();
+  }
+
+  @Override
+  public InputStream getUploadedBytes(String uploadUri, String ownerKey)
+      throws IOException, UploadNotFoundException {
+    InputStream uploadedBytes = storageServiceDelegate.getUploadedBytes(uploadUri, ownerKey);
+    forgetMerge(idFactory.readUploadId(uploadUri));
+    return uploadedBytes;
+  }
+
+  @Override
+  public InputStream getUploadedBytes(UploadId id) throws IOException, UploadNotFoundException {
+    InputStream uploadedBytes = storageServiceDelegate.getUploadedBytes(id);
+    forgetMerge(id);
+    return uploadedBytes;
+  }
+
+  @Override
+  public void copyUploadTo(UploadInfo info, OutputStream outputStream)
+      throws UploadNotFoundException, IOException {
+    storageServiceDelegate.copyUploadTo(info, outputStream);
+    rememberMerge(info);
+  }
+
+  @Override
+  public void copyUploadTo(UploadInfo info, long position, long count, OutputStream outputStream)
+      throws UploadNotFoundException, IOException {
+    storageServiceDelegate.copyUploadTo(info, position, count, outputStream);
+    rememberMerge(info);
+  }
+
+  @Override
+  public Path getUploadedBytesPath(UploadInfo info) throws IOException, UploadNotFoundException {
+    return storageServiceDelegate.getUploadedBytesPath(info);
+  }
+
+  @Override
+  public Long getUploadExpirationPeriod() {
+    return storageServiceDelegate.getUploadExpirationPeriod();
+  }
+
+  @Override
+  public void setUploadExpirationPeriod(Long uploadExpirationPeriod) {
+    storageServiceDelegate.setUploadExpirationPeriod(uploadExpirationPeriod);
+  }
+
+  @Override
+  public void setUploadConcatenationService(UploadConcatenationService concatenationService) {
+    storageServiceDelegate.setUploadConcatenationService(concatenationService);
+  }
+
+  @Override
+  public UploadConcatenationService getUploadConcatenationService() {
+    UploadConcatenationService concatenationService =
+        storageServiceDelegate.getUploadConcatenationService();
+    return concatenationService == null
+        ? null
+        : new RequestConcatenationService(concatenationService);
+  }
+
+  @Override
+  public void setIdFactory(UploadIdFactory idFactory) {
+    Validate.notNull(idFactory, "The IdFactory cannot be null");
+    this.idFactory = idFactory;
+  }
+
+  /**
+   * Use the given concatenated upload, which a merge has just saved in the delegate, from now on.
+   */
+  private void rememberMerge(UploadInfo uploadInfo) {
+    if (uploadInfo != null
+        && uploadInfo.getId() != null
+        && UploadType.CONCATENATED.equals(uploadInfo.getUploadType())) {
+      uploadInfoCache.put(uploadInfo.getId(), uploadInfo);
+      forgetPartialUploads(uploadInfo);
+    }
+  }
+
+  /**
+   * Read the given concatenated upload from the delegate again, since a merge in the delegate may
+   * have changed it.
+   */
+  private void forgetMerge(UploadId id) {
+    UploadInfo uploadInfo = id == null ? null : uploadInfoCache.get(id);
+    if (uploadInfo != null && UploadType.CONCATENATED.equals(uploadInfo.getUploadType())) {
+      if (!dirtyUploads.contains(id)) {
+        uploadInfoCache.remove(id);
+      }
+      forgetPartialUploads(uploadInfo);
+    }
+  }
+
+  private void forgetPartialUploads(UploadInfo uploadInfo) {
+    if (uploadInfo.getConcatenationPartIds() != null) {
+      // A merge may have extended the expiration of the partial uploads or removed them
+      for (String partUri : uploadInfo.getConcatenationPartIds()) {
+        UploadId partId = idFactory.readUploadId(partUri);
+        if (partId != null) {
+          uploadInfoCache.remove(partId);
+          dirtyUploads.remove(partId);
+        }
+      }
+    }
+  }
+
+  /** Concatenation service that keeps this context in sync with the merges of the delegate. */
+  private class RequestConcatenationService implements UploadConcatenationService {
+
+    private final UploadConcatenationService concatenationServiceDelegate;
+
+    RequestConcatenationService(UploadConcatenationService concatenationServiceDelegate) {
+      this.concatenationServiceDelegate = concatenationServiceDelegate;
+    }
+
+    @Override
+    public void merge(UploadInfo uploadInfo) throws IOException, UploadNotFoundException {
+      concatenationServiceDelegate.merge(uploadInfo);
+      rememberMerge(uploadInfo);
+    }
+
+    @Override
+    public InputStream getConcatenatedBytes(UploadInfo uploadInfo)
+        throws IOException, UploadNotFoundException {
+      InputStream concatenatedBytes = concatenationServiceDelegate.getConcatenatedBytes(uploadInfo);
+      rememberMerge(uploadInfo);
+      return concatenatedBytes;
+    }
+
+    @Override
+    public List<UploadInfo> getPartialUploads(UploadInfo info)
+        throws IOException, UploadNotFoundException {
+      return concatenationServiceDelegate.getPartialUploads(info);
+    }
+  }
+}
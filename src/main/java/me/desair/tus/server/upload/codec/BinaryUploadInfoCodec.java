@@ -0,0 +1,389 @@
+package me.desair.tus.server.upload.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import me.desair.tus.server.checksum.ChecksumAlgorithm;
+import me.desair.tus.server.upload.UploadChecksumState;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadType;
+
+/**
+ * Default {@link UploadInfoCodec} implementation that uses a compact, versioned binary format with
+ * a fixed layout. Each upload information object is written using a single {@link ByteBuffer}. <br>
+ * Upload information that was persisted with Java serialization (see {@link
+ * SerializableUploadInfoCodec}) is still read transparently, so existing uploads are migrated to
+ * the binary format the next time they are updated. <br>
+ * The layout of version 1 is: a 4 byte magic number, a 1 byte version, a 1 byte bitmap indicating
+ * which of the numeric fields are present, a 1 byte upload type, the offset, length, creation and
+ * expiration timestamps as 8 byte values, the upload ID, and finally the owner key, metadata,
+ * creator ip-addresses, Upload-Concat header value and concatenation part IDs as length-prefixed
+ * UTF-8 strings. <br>
+ * Version 2 appends the current and previous {@link UploadChecksumState} of the upload, each as the
+ * length-prefixed checksum algorithm name followed by the 8 byte offset and the length-prefixed
+ * state (only the null length if the state is absent). Upload information without checksum state is
+ * still written as version 1.
+ */
+public class BinaryUploadInfoCodec implements UploadInfoCodec {
+
+  /** The ASCII characters "TUSI". */
+  static final int MAGIC = 0x54555349;
+
+  static final byte VERSION = 2;
+
+  private static final byte VERSION_1 = 1;
+
+  private static final int HEADER_SIZE = 4 + 1 + 1 + 1 + 4 * 8;
+
+  private static final byte HAS_OFFSET = 0x01;
+  private static final byte HAS_LENGTH = 0x02;
+  private static final byte HAS_CREATION_TIMESTAMP = 0x04;
+  private static final byte HAS_EXPIRATION_TIMESTAMP = 0x08;
+
+  /** Upload types are persisted by their index in this array, new types MUST be appended. */
+  private static final UploadType[] UPLOAD_TYPES = {
+    UploadType.REGULAR, UploadType.PARTIAL, UploadType.CONCATENATED
+  };
+
+  private static final byte ID_NONE = 0;
+  private static final byte ID_STRING = 1;
+  private static final byte ID_UUID = 2;
+  private static final byte ID_LONG = 3;
+  private static final byte ID_SERIALIZED = 4;
+
+  private static final int NULL_LENGTH = -1;
+
+  private final UploadInfoCodec legacyCodec = new SerializableUploadInfoCodec();
+
+  @Override
+  public ByteBuffer encode(UploadInfo uploadInfo) throws IOException {
+    byte[] idBytes = encodeIdValue(uploadInfo.getId());
+    byte[] ownerKey = toBytes(uploadInfo.getOwnerKey());
+    byte[] metadata = toBytes(uploadInfo.getEncodedMetadata());
+    byte[] ipAddresses = toBytes(uploadInfo.getCreatorIpAddresses());
+    byte[] concatHeader = toBytes(uploadInfo.getUploadConcatHeaderValue());
+
+    List<String> partIds = uploadInfo.getConcatenationPartIds();
+    byte[][] parts = null;
+    int partsSize = 4;
+    if (partIds != null) {
+      parts = new byte[partIds.size()][];
+      for (int i = 0; i < parts.length; i++) {
+        parts[i] = toBytes(partIds.get(i));
+        partsSize += sizeOf(parts[i]);
+      }
+    }
+
+    UploadChecksumState checksumState = uploadInfo.getChecksumState();
+    UploadChecksumState previousChecksumState = uploadInfo.getPreviousChecksumState();
+    boolean hasChecksumState = checksumState != null || previousChecksumState != null;
+
+    int size =
+        HEADER_SIZE
+            + 1
+            + (idBytes == null ? 0 : idBytes.length)
+            + sizeOf(ownerKey)
+            + sizeOf(metadata)
+            + sizeOf(ipAddresses)
+            + sizeOf(concatHeader)
+            + partsSize
+            + (hasChecksumState ? sizeOf(checksumState) + sizeOf(previousChecksumState) : 0);
+
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putInt(MAGIC);
+    buffer.put(hasChecksumState ? VERSION : VERSION_1);
+    buffer.put(presenceFlags(uploadInfo));
+    buffer.put(encodeUploadType(uploadInfo.getUploadType()));
+    buffer.putLong(valueOf(uploadInfo.getOffset()));
+    buffer.putLong(valueOf(uploadInfo.getLength()));
+    buffer.putLong(valueOf(uploadInfo.getCreationTimestamp()));
+    buffer.putLong(valueOf(uploadInfo.getExpirationTimestamp()));
+
+    buffer.put(idType(uploadInfo.getId()));
+    if (idBytes != null) {
+      buffer.put(idBytes);
+    }
+
+    putBytes(buffer, ownerKey);
+    putBytes(buffer, metadata);
+    putBytes(buffer, ipAddresses);
+    putBytes(buffer, concatHeader);
+
+    if (parts == null) {
+      buffer.putInt(NULL_LENGTH);
+    } else {
+      buffer.putInt(parts.length);
+      for (byte[] part : parts) {
+        putBytes(buffer, part);
+      }
+    }
+
+    if (hasChecksumState) {
+      putChecksumState(buffer, checksumState);
+      putChecksumState(buffer, previousChecksumState);
+    }
+
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public UploadInfo decode(ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() >= 2
+        && buffer.getShort(buffer.position()) == SerializableUploadInfoCodec.STREAM_MAGIC) {
+      return legacyCodec.decode(buffer);
+    }
+
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new StreamCorruptedException("The upload info does not start with the magic number");
+      }
+
+      byte version = buffer.get();
+      if (version != VERSION && version != VERSION_1) {
+        throw new StreamCorruptedException("Unsupported upload info version " + version);
+      }
+
+      byte flags = buffer.get();
+      byte uploadType = buffer.get();
+      long offset = buffer.getLong();
+      long length = buffer.getLong();
+      long creationTimestamp = buffer.getLong();
+      long expirationTimestamp = buffer.getLong();
+
+      UploadInfo info = new UploadInfo();
+      info.setUploadType(decodeUploadType(uploadType));
+      info.setOffset(isSet(flags, HAS_OFFSET) ? offset : null);
+      info.setLength(isSet(flags, HAS_LENGTH) ? length : null);
+      info.setCreationTimestamp(isSet(flags, HAS_CREATION_TIMESTAMP) ? creationTimestamp : null);
+      info.setExpirationTimestamp(
+          isSet(flags, HAS_EXPIRATION_TIMESTAMP) ? expirationTimestamp : null);
+      info.setId(decodeId(buffer));
+      info.setOwnerKey(getString(buffer));
+      info.setEncodedMetadata(getString(buffer));
+      info.setCreatorIpAddresses(getString(buffer));
+      info.setUploadConcatHeaderValue(getString(buffer));
+
+      int partCount = buffer.getInt();
+      if (partCount > buffer.remaining() / 4) {
+        // Every part ID needs at least a length, so this count cannot be correct
+        throw new StreamCorruptedException("Invalid number of concatenation parts " + partCount);
+      } else if (partCount >= 0) {
+        List<String> partIds = new ArrayList<>(partCount);
+        for (int i = 0; i < partCount; i++) {
+          partIds.add(getString(buffer));
+        }
+        info.setConcatenationPartIds(partIds);
+      }
+
+      if (version >= VERSION) {
+        info.setChecksumState(getChecksumState(buffer));
+        info.setPreviousChecksumState(getChecksumState(buffer));
+      }
+
+      return info;
+
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new StreamCorruptedException("The upload info is truncated or corrupted");
+    }
+  }
+
+  private byte presenceFlags(UploadInfo uploadInfo) {
+    byte flags = 0;
+    if (uploadInfo.getOffset() != null) {
+      flags |= HAS_OFFSET;
+    }
+    if (uploadInfo.getLength() != null) {
+      flags |= HAS_LENGTH;
+    }
+    if (uploadInfo.getCreationTimestamp() != null) {
+      flags |= HAS_CREATION_TIMESTAMP;
+    }
+    if (uploadInfo.getExpirationTimestamp() != null) {
+      flags |= HAS_EXPIRATION_TIMESTAMP;
+    }
+    return flags;
+  }
+
+  private boolean isSet(byte flags, byte flag) {
+    return (flags & flag) != 0;
+  }
+
+  private long valueOf(Long value) {
+    return value == null ? 0L : value;
+  }
+
+  private byte encodeUploadType(UploadType uploadType) {
+    for (int i = 0; i < UPLOAD_TYPES.length; i++) {
+      if (UPLOAD_TYPES[i].equals(uploadType)) {
+        return (byte) (i + 1);
+      }
+    }
+    return 0;
+  }
+
+  private UploadType decodeUploadType(byte value) throws StreamCorruptedException {
+    if (value == 0) {
+      return null;
+    } else if (value > 0 && value <= UPLOAD_TYPES.length) {
+      return UPLOAD_TYPES[value - 1];
+    } else {
+      throw new StreamCorruptedException("Unknown upload type " + value);
+    }
+  }
+
+  private byte idType(UploadId id) {
+    if (id == null) {
+      return ID_NONE;
+    }
+
+    Serializable value = id.getOriginalObject();
+    if (value instanceof String) {
+      return ID_STRING;
+    } else if (value instanceof UUID) {
+      return ID_UUID;
+    } else if (value instanceof Long) {
+      return ID_LONG;
+    } else {
+      return ID_SERIALIZED;
+    }
+  }
+
+  private byte[] encodeIdValue(UploadId id) throws IOException {
+    switch (idType(id)) {
+      case ID_STRING:
+        return withLength(toBytes((String) id.getOriginalObject()));
+      case ID_UUID:
+        UUID uuid = (UUID) id.getOriginalObject();
+        return ByteBuffer.allocate(16)
+            .putLong(uuid.getMostSignificantBits())
+            .putLong(uuid.getLeastSignificantBits())
+            .array();
+      case ID_LONG:
+        return ByteBuffer.allocate(8).putLong((Long) id.getOriginalObject()).array();
+      case ID_SERIALIZED:
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+          output.writeObject(id.getOriginalObject());
+        }
+        return withLength(bytes.toByteArray());
+      default:
+        return null;
+    }
+  }
+
+  private UploadId decodeId(ByteBuffer buffer) throws IOException {
+    byte type = buffer.get();
+    switch (type) {
+      case ID_NONE:
+        return null;
+      case ID_STRING:
+        return new UploadId(new String(getRequiredBytes(buffer), StandardCharsets.UTF_8));
+      case ID_UUID:
+        return new UploadId(new UUID(buffer.getLong(), buffer.getLong()));
+      case ID_LONG:
+        return new UploadId(buffer.getLong());
+      case ID_SERIALIZED:
+        byte[] bytes = getRequiredBytes(buffer);
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+          return new UploadId((Serializable) input.readObject());
+        } catch (ClassNotFoundException | ClassCastException e) {
+          throw new StreamCorruptedException("Unable to deserialize upload ID: " + e.getMessage());
+        }
+      default:
+        throw new StreamCorruptedException("Unknown upload ID type " + type);
+    }
+  }
+
+  private static int sizeOf(UploadChecksumState state) {
+    return state == null
+        ? sizeOf((byte[]) null)
+        : sizeOf(toBytes(state.getAlgorithm().getTusName())) + 8 + sizeOf(state.getState());
+  }
+
+  private static void putChecksumState(ByteBuffer buffer, UploadChecksumState state) {
+    if (state == null) {
+      buffer.putInt(NULL_LENGTH);
+    } else {
+      putBytes(buffer, toBytes(state.getAlgorithm().getTusName()));
+      buffer.putLong(state.getOffset());
+      putBytes(buffer, state.getState());
+    }
+  }
+
+  private static UploadChecksumState getChecksumState(ByteBuffer buffer)
+      throws StreamCorruptedException {
+    String algorithmName = getString(buffer);
+    if (algorithmName == null) {
+      return null;
+    }
+
+    ChecksumAlgorithm algorithm = ChecksumAlgorithm.forTusName(algorithmName);
+    if (algorithm == null) {
+      throw new StreamCorruptedException("Unknown checksum algorithm " + algorithmName);
+    }
+    long offset = buffer.getLong();
+    return new UploadChecksumState(algorithm, offset, getRequiredBytes(buffer));
+  }
+
+  private byte[] withLength(byte[] value) {
+    return ByteBuffer.allocate(sizeOf(value)).putInt(value.length).put(value).array();
+  }
+
+  private static byte[] toBytes(String value) {
+    return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int sizeOf(byte[] value) {
+    return 4 + (value == null ? 0 : value.length);
+  }
+
+  private static void putBytes(ByteBuffer buffer, byte[] value) {
+    if (value == null) {
+      buffer.putInt(NULL_LENGTH);
+    } else {
+      buffer.putInt(value.length);
+      buffer.put(value);
+    }
+  }
+
+  private static byte[] getBytes(ByteBuffer buffer) throws StreamCorruptedException {
+    int length = buffer.getInt();
+    if (length < NULL_LENGTH) {
+      throw new StreamCorruptedException("Negative length " + length);
+    } else if (length == NULL_LENGTH) {
+      return null;
+    } else if (length > buffer.remaining()) {
+      // Do not allocate a (huge) array for a length that was read from a corrupt file
+      throw new StreamCorruptedException(
+          "Length " + length + " exceeds the " + buffer.remaining() + " remaining bytes");
+    }
+    byte[] value = new byte[length];
+    buffer.get(value);
+    return value;
+  }
+
+  private static byte[] getRequiredBytes(ByteBuffer buffer) throws StreamCorruptedException {
+    byte[] value = getBytes(buffer);
+    if (value == null) {
+      throw new StreamCorruptedException("Missing required value");
+    }
+    return value;
+  }
+
+  private static String getString(ByteBuffer buffer) throws StreamCorruptedException {
+    byte[] value = getBytes(buffer);
+    return value == null ? null : new String(value, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,41 @@
+package me.desair.tus.server.upload.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import me.desair.tus.server.upload.UploadInfo;
+
+/**
+ * {@link UploadInfoCodec} implementation that uses standard Java serialization. This was the only
+ * supported format before the introduction of {@link BinaryUploadInfoCodec}.
+ */
+public class SerializableUploadInfoCodec implements UploadInfoCodec {
+
+  /** Java serialization streams always start with these two bytes. */
+  static final short STREAM_MAGIC = (short) 0xACED;
+
+  @Override
+  public ByteBuffer encode(UploadInfo uploadInfo) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      output.writeObject(uploadInfo);
+    }
+    return ByteBuffer.wrap(bytes.toByteArray());
+  }
+
+  @Override
+  public UploadInfo decode(ByteBuffer buffer) throws IOException {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+
+    try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return (UploadInfo) input.readObject();
+    } catch (ClassNotFoundException | ClassCastException e) {
+      throw new StreamCorruptedException("Unable to deserialize upload info: " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package me.desair.tus.server.upload.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import me.desair.tus.server.upload.UploadInfo;
+
+/**
+ * Interface for a codec that is able to convert {@link UploadInfo} objects to and from their
+ * persisted binary representation.
+ */
+public interface UploadInfoCodec {
+
+  /**
+   * Encode the given upload information.
+   *
+   * @param uploadInfo The upload information to encode
+   * @return A buffer, ready to be read, that contains the encoded upload information
+   * @throws IOException When the upload information cannot be encoded
+   */
+  ByteBuffer encode(UploadInfo uploadInfo) throws IOException;
+
+  /**
+   * Decode the upload information contained in the given buffer.
+   *
+   * @param buffer The buffer to read the encoded upload information from
+   * @return The decoded upload information
+   * @throws IOException When the buffer does not contain valid upload information
+   */
+  UploadInfo decode(ByteBuffer buffer) throws IOException;
+}
@@ -0,0 +1,434 @@
+package me.desair.tus.server.upload.concatenation;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import me.desair.tus.server.exception.UploadNotFoundException;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadStorageService;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * {@link InputStream} that reads the bytes of a list of (partial) uploads as one continuous stream.
+ * <br>
+ * Uploads that are stored in a local file (see {@link
+ * UploadStorageService#getUploadedBytesPath(UploadInfo)}) are read through a {@link FileChannel},
+ * so that {@link #skip(long)} does not read the skipped bytes and {@link #transferTo(OutputStream)}
+ * can send the bytes to a {@link WritableByteChannel} without copying them through the JVM. The
+ * bytes of the other uploads are read from {@link
+ * UploadStorageService#getUploadedBytes(me.desair.tus.server.upload.UploadId)}. While an upload is
+ * read, the next upload is already opened on the prefetch {@link Executor}. <br>
+ * Every upload must contain the number of bytes given by its length. A missing upload or an upload
+ * with less bytes results in an {@link IOException}, instead of a stream that silently ends early.
+ */
+public class ConcatenatedUploadInputStream extends InputStream {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final List<UploadInfo> uploads;
+  private final UploadStorageService uploadStorageService;
+  private final Executor prefetchExecutor;
+  private final long[] uploadStarts;
+  private final long size;
+
+  private long position = 0;
+  private int uploadIndex = -1;
+  private Part current;
+  private int prefetchIndex = -1;
+  private CompletableFuture<Part> prefetch;
+  private boolean closed = false;
+
+  public ConcatenatedUploadInputStream(
+      List<UploadInfo> uploads, UploadStorageService uploadStorageService) {
+    this(uploads, uploadStorageService, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Create a stream that reads the bytes of the given uploads.
+   *
+   * @param uploads The uploads to read, which must all be completed
+   * @param uploadStorageService The storage service that stores the uploads
+   * @param prefetchExecutor The executor on which the next upload is opened
+   */
+  public ConcatenatedUploadInputStream(
+      List<UploadInfo> uploads,
+      UploadStorageService uploadStorageService,
+      Executor prefetchExecutor) {
+    Validate.notNull(uploads, "The uploads cannot be null");
+    Validate.notNull(uploadStorageService, "The UploadStorageService cannot be null");
+    Validate.notNull(prefetchExecutor, "The prefetch Executor cannot be null");
+    this.uploads = new ArrayList<>(uploads);
+    this.uploadStorageService = uploadStorageService;
+    this.prefetchExecutor = prefetchExecutor;
+    this.uploadStarts = new long[this.uploads.size() + 1];
+    for (int i = 0; i < this.uploads.size(); i++) {
+      UploadInfo upload = this.uploads.get(i);
+      uploadStarts[i + 1] =
+          uploadStarts[i] + (upload == null || upload.getLength() == null ? 0 : upload.getLength());
+    }
+    this.size = uploadStarts[this.uploads.size()];
+  }
+
+  /**
+   * Get the total number of bytes of all uploads.
+   *
+   * @return The size of this stream
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Get the number of bytes that have been read or skipped.
+   *
+   * @return The current position in this stream
+   */
+  public long position() {
+    return position;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    int read = read(single, 0, 1);
+    return read < 0 ? -1 : single[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    ensureOpen();
+    Objects.checkFromIndexSize(offset, length, bytes.length);
+    if (length == 0) {
+      return 0;
+    }
+
+    Part part = currentPart();
+    if (part == null) {
+      return -1;
+    }
+    int count = (int) Math.min(length, part.remaining);
+    int read = part.channel.read(ByteBuffer.wrap(bytes, offset, count));
+    if (read < 0) {
+      throw truncated(part.upload);
+    }
+    part.remaining -= read;
+    position += read;
+    return read;
+  }
+
+  /**
+   * Read bytes starting at the given position in this stream, without changing the position of the
+   * stream. Like {@link FileChannel#read(ByteBuffer, long)}, this may read less bytes than the
+   * buffer can hold, but it never reads beyond the end of a single upload.
+   *
+   * @param buffer The buffer to read the bytes into
+   * @param streamPosition The position of the first byte to read
+   * @return The number of bytes read, or -1 if the position is at or beyond the end of the stream
+   * @throws IOException When one of the uploads cannot be read
+   */
+  public int read(ByteBuffer buffer, long streamPosition) throws IOException {
+    ensureOpen();
+    Validate.isTrue(streamPosition >= 0, "The position cannot be negative");
+    if (streamPosition >= size) {
+      return -1;
+    }
+
+    int index = findUpload(streamPosition);
+    long offset = streamPosition - uploadStarts[index];
+    long remaining = uploadStarts[index + 1] - streamPosition;
+    ByteBuffer target = buffer;
+    if (buffer.remaining() > remaining) {
+      target = buffer.slice().limit((int) remaining);
+    }
+
+    int read;
+    if (index == uploadIndex && current != null && current.file != null) {
+      read = current.file.read(target, offset);
+    } else {
+      try (Part part = open(index)) {
+        if (part.file != null) {
+          read = part.file.read(target, offset);
+        } else {
+          part.skip(offset);
+          read = part.channel.read(target);
+        }
+      }
+    }
+    if (read < 0) {
+      throw truncated(uploads.get(index));
+    }
+    if (target != buffer) {
+      buffer.position(buffer.position() + read);
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long count) throws IOException {
+    ensureOpen();
+    if (count <= 0) {
+      return 0;
+    }
+
+    long target = Math.min(size, position + count);
+    long skipped = target - position;
+    if (current != null && target < uploadStarts[uploadIndex + 1]) {
+      current.skip(target - position);
+    } else if (target < size) {
+      // Do not open the uploads that are skipped completely
+      int index = findUpload(target);
+      switchTo(index);
+      current.skip(target - uploadStarts[index]);
+    } else {
+      switchTo(uploads.size());
+    }
+    position = target;
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    ensureOpen();
+    return current == null || current.file == null
+        ? 0
+        : (int) Math.min(current.remaining, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public long transferTo(OutputStream outputStream) throws IOException {
+    ensureOpen();
+    if (!(outputStream instanceof WritableByteChannel)) {
+      return super.transferTo(outputStream);
+    }
+
+    // Let the operating system copy the bytes of uploads that are stored in a file
+    WritableByteChannel target = (WritableByteChannel) outputStream;
+    long transferred = 0;
+    byte[] bytes = null;
+    Part part;
+    while ((part = currentPart()) != null) {
+      long count;
+      if (part.file != null) {
+        long filePosition = part.file.position();
+        if (part.file.size() < filePosition + part.remaining) {
+          throw truncated(part.upload);
+        }
+        count = part.file.transferTo(filePosition, part.remaining, target);
+        part.file.position(filePosition + count);
+      } else {
+        bytes = bytes == null ? new byte[BUFFER_SIZE] : bytes;
+        count =
+            part.channel.read(
+                ByteBuffer.wrap(bytes, 0, (int) Math.min(BUFFER_SIZE, part.remaining)));
+        if (count < 0) {
+          throw truncated(part.upload);
+        }
+        outputStream.write(bytes, 0, (int) count);
+      }
+      part.remaining -= count;
+      position += count;
+      transferred += count;
+    }
+    return transferred;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (current != null) {
+        current.close();
+      }
+    } finally {
+      current = null;
+      discardPrefetch();
+    }
+  }
+
+  /** Get the upload that is being read, opening the next one when the current one is finished. */
+  private Part currentPart() throws IOException {
+    while (current == null || current.remaining == 0) {
+      if (uploadIndex + 1 >= uploads.size()) {
+        if (current != null) {
+          switchTo(uploads.size());
+        }
+        return null;
+      }
+      switchTo(uploadIndex + 1);
+    }
+    return current;
+  }
+
+  private void switchTo(int index) throws IOException {
+    if (current != null) {
+      current.close();
+      current = null;
+    }
+    uploadIndex = index;
+    if (index < 0 || index >= uploads.size()) {
+      discardPrefetch();
+      return;
+    }
+
+    if (prefetch != null && prefetchIndex == index) {
+      CompletableFuture<Part> opened = prefetch;
+      prefetch = null;
+      current = join(opened);
+    } else {
+      discardPrefetch();
+      current = open(index);
+    }
+
+    if (index + 1 < uploads.size()) {
+      int next = index + 1;
+      prefetchIndex = next;
+      prefetch =
+          CompletableFuture.supplyAsync(
+              () -> {
+                try {
+                  return open(next);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              },
+              prefetchExecutor);
+    }
+  }
+
+  private Part open(int index) throws IOException {
+    UploadInfo upload = uploads.get(index);
+    if (upload == null || upload.getId() == null) {
+      throw new IOException("Part " + index + " of the concatenated upload does not exist");
+    }
+
+    try {
+      long length = uploadStarts[index + 1] - uploadStarts[index];
+      Path path = uploadStorageService.getUploadedBytesPath(upload);
+      if (path != null) {
+        return new Part(upload, FileChannel.open(path, READ), length);
+      }
+
+      InputStream inputStream = uploadStorageService.getUploadedBytes(upload.getId());
+      if (inputStream == null) {
+        throw new IOException("The bytes of upload " + upload.getId() + " are not available");
+      }
+      return new Part(upload, Channels.newChannel(inputStream), length);
+    } catch (UploadNotFoundException e) {
+      throw new IOException("Upload " + upload.getId() + " was not found", e);
+    }
+  }
+
+  private void discardPrefetch() {
+    if (prefetch != null) {
+      // Close the upload once it has been opened, ignoring any error
+      prefetch.whenComplete((part, error) -> closeQuietly(part));
+      prefetch = null;
+    }
+  }
+
+  private int findUpload(long streamPosition) {
+    int index = Arrays.binarySearch(uploadStarts, streamPosition);
+    if (index < 0) {
+      index = -index - 2;
+    }
+    // Skip empty uploads that start at the same position
+    while (index + 1 < uploads.size() && uploadStarts[index + 1] <= streamPosition) {
+      index++;
+    }
+    return index;
+  }
+
+  private static EOFException truncated(UploadInfo upload) {
+    return new EOFException("Upload " + upload.getId() + " is smaller than its length");
+  }
+
+  private static Part join(CompletableFuture<Part> future) throws IOException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      throw new IOException("Unable to open the next upload", e.getCause());
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("The stream is closed");
+    }
+  }
+
+  /** A single opened upload. */
+  private static final class Part implements AutoCloseable {
+
+    private final UploadInfo upload;
+    private final ReadableByteChannel channel;
+    private final FileChannel file;
+    private long remaining;
+
+    private Part(UploadInfo upload, ReadableByteChannel channel, long length) {
+      this.upload = upload;
+      this.channel = channel;
+      this.file = channel instanceof FileChannel ? (FileChannel) channel : null;
+      this.remaining = length;
+    }
+
+    private void skip(long count) throws IOException {
+      if (file != null) {
+        if (file.position() + count > file.size()) {
+          throw truncated(upload);
+        }
+        file.position(file.position() + count);
+      } else {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, BUFFER_SIZE));
+        long skipped = 0;
+        while (skipped < count) {
+          buffer.clear().limit((int) Math.min(buffer.capacity(), count - skipped));
+          int read = channel.read(buffer);
+          if (read < 0) {
+            throw truncated(upload);
+          }
+          skipped += read;
+        }
+      }
+      remaining -= count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  private static void closeQuietly(Part part) {
+    if (part != null) {
+      try {
+        part.close();
+      } catch (IOException e) {
+        // Nothing left to do
+      }
+    }
+  }
+}
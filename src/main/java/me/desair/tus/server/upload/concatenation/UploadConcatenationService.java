@@ -42,4 +42,16 @@ public interface UploadConcatenationService {
    * @throws UploadNotFoundException When one of the partial uploads cannot be found
    */
   List<UploadInfo> getPartialUploads(UploadInfo info) throws IOException, UploadNotFoundException;
+
+  /**
+   * Check if the given concatenated upload has been merged, so that reading it does not change any
+   * upload. By default a concatenated upload is merged once all its partial uploads are completed.
+   *
+   * @param uploadInfo The concatenated upload
+   * @return True if the upload does not need to be merged anymore, false otherwise
+   * @throws IOException When checking the upload fails
+   */
+  default boolean isMerged(UploadInfo uploadInfo) throws IOException {
+    return uploadInfo != null && !uploadInfo.isUploadInProgress();
+  }
 }
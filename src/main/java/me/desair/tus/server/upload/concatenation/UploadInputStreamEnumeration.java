@@ -14,7 +14,11 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Enumeration class that enumerates all input streams associated with with given list of uploads
+ *
+ * @deprecated Use {@link ConcatenatedUploadInputStream}, which does not silently skip uploads that
+ *     cannot be read
  */
+@Deprecated
 public class UploadInputStreamEnumeration implements Enumeration<InputStream> {
 
   private static final Logger log = LoggerFactory.getLogger(UploadInputStreamEnumeration.class);
@@ -2,11 +2,14 @@ package me.desair.tus.server.upload.concatenation;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.SequenceInputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 import me.desair.tus.server.exception.UploadNotFoundException;
+import me.desair.tus.server.upload.UploadId;
 import me.desair.tus.server.upload.UploadInfo;
 import me.desair.tus.server.upload.UploadStorageService;
 import org.slf4j.Logger;
@@ -15,13 +18,30 @@ import org.slf4j.LoggerFactory;
 /**
  * {@link UploadConcatenationService} implementation that uses the file system to keep track of
  * concatenated uploads. The concatenation is executed "virtually" meaning that upload bytes are not
- * duplicated to the upload but "concatenated" on the fly.
+ * duplicated to the upload but "concatenated" on the fly. <br>
+ * While a concatenated upload is in progress, the lengths of its completed partial uploads are
+ * remembered, so that merging it again only reads the partial uploads that were still in progress.
+ * A remembered partial upload is only trusted as long as the version of its upload info (see {@link
+ * UploadStorageService#getUploadInfoVersion(UploadId)}) did not change, so a partial upload that
+ * was terminated or has expired in the meantime is noticed. The expiration of the completed partial
+ * uploads is only extended again once half of the expiration period has passed.
  */
 public class VirtualConcatenationService implements UploadConcatenationService {
 
   private static final Logger log = LoggerFactory.getLogger(VirtualConcatenationService.class);
 
+  /** Maximum number of concatenated uploads in progress of which the merge state is kept. */
+  private static final int MAX_MERGE_STATES = 1000;
+
   private UploadStorageService uploadStorageService;
+  private final ReentrantLock mergeStatesLock = new ReentrantLock();
+  private final Map<UploadId, MergeState> mergeStates =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UploadId, MergeState> eldest) {
+          return size() > MAX_MERGE_STATES;
+        }
+      };
 
   public VirtualConcatenationService(UploadStorageService uploadStorageService) {
     this.uploadStorageService = uploadStorageService;
@@ -34,13 +54,54 @@ public class VirtualConcatenationService implements UploadConcatenationService {
         && uploadInfo.getConcatenationPartIds() != null) {
 
       Long expirationPeriod = uploadStorageService.getUploadExpirationPeriod();
+      List<String> partIds = uploadInfo.getConcatenationPartIds();
+      MergeState previousState = getMergeState(uploadInfo);
+      long now = System.currentTimeMillis();
+      boolean refreshExpiration =
+          expirationPeriod != null
+              && (previousState == null
+                  || now - previousState.expirationRefreshTime >= expirationPeriod / 2);
+
+      // Only the partial uploads that were not completed before need to be read again
+      MergeState state = new MergeState(partIds.size(), previousState, refreshExpiration, now);
+      Long totalLength = 0L;
+      boolean completed = true;
+      for (int i = 0; i < partIds.size(); i++) {
+        Long length = state.completedLengths[i];
+        if (length == null || (!refreshExpiration && !isUnchanged(state, i))) {
+          UploadInfo childInfo = getPartialUpload(partIds.get(i), uploadInfo.getOwnerKey());
+          length = childInfo.getLength();
+          if (childInfo.isUploadInProgress()) {
+            completed = false;
+            state.completedLengths[i] = null;
+          } else {
+            refreshExpiration(expirationPeriod, childInfo);
+            state.setCompleted(i, childInfo.getId(), length, getVersion(childInfo.getId()));
+          }
+        } else if (refreshExpiration) {
+          UploadInfo childInfo = getPartialUpload(partIds.get(i), uploadInfo.getOwnerKey());
+          refreshExpiration(expirationPeriod, childInfo);
+          state.completedVersions[i] = getVersion(childInfo.getId());
+        }
 
-      List<UploadInfo> partialUploads = getPartialUploads(uploadInfo);
+        if (length == null) {
+          // One of our partial uploads does not have a length, we can't calculate the total
+          // length yet
+          totalLength = null;
+        } else if (totalLength != null) {
+          totalLength += length;
+        }
+      }
 
-      Long totalLength = calculateTotalLength(partialUploads);
-      boolean completed = checkAllCompleted(expirationPeriod, partialUploads);
+      if (completed) {
+        removeMergeState(uploadInfo);
+      } else {
+        putMergeState(uploadInfo, state);
+      }
 
-      if (totalLength != null && totalLength > 0) {
+      if (totalLength != null
+          && totalLength > 0
+          && (completed || refreshExpiration || !totalLength.equals(uploadInfo.getLength()))) {
         uploadInfo.setLength(totalLength);
 
         if (completed) {
@@ -65,8 +126,7 @@ public class VirtualConcatenationService implements UploadConcatenationService {
       return null;
     } else {
       List<UploadInfo> uploads = getPartialUploads(uploadInfo);
-      return new SequenceInputStream(
-          new UploadInputStreamEnumeration(uploads, uploadStorageService));
+      return new ConcatenatedUploadInputStream(uploads, uploadStorageService);
     }
   }
 
@@ -80,53 +140,73 @@ public class VirtualConcatenationService implements UploadConcatenationService {
     } else {
       List<UploadInfo> output = new ArrayList<>(concatenationParts.size());
       for (String childUri : concatenationParts) {
-        UploadInfo childInfo = uploadStorageService.getUploadInfo(childUri, info.getOwnerKey());
-        if (childInfo == null) {
-          throw new UploadNotFoundException(
-              "Upload with URI " + childUri + " was not found for owner " + info.getOwnerKey());
-        } else {
-          output.add(childInfo);
-        }
+        output.add(getPartialUpload(childUri, info.getOwnerKey()));
       }
       return output;
     }
   }
 
-  private Long calculateTotalLength(List<UploadInfo> partialUploads) {
-    Long totalLength = 0L;
-
-    for (UploadInfo childInfo : partialUploads) {
-      if (childInfo.getLength() == null) {
-        // One of our partial uploads does not have a length, we can't calculate the total
-        // length
-        // yet
-        totalLength = null;
-      } else if (totalLength != null) {
-        totalLength += childInfo.getLength();
-      }
+  private UploadInfo getPartialUpload(String childUri, String ownerKey)
+      throws IOException, UploadNotFoundException {
+    UploadInfo childInfo = uploadStorageService.getUploadInfo(childUri, ownerKey);
+    if (childInfo == null) {
+      throw new UploadNotFoundException(
+          "Upload with URI " + childUri + " was not found for owner " + ownerKey);
     }
+    return childInfo;
+  }
 
-    return totalLength;
+  /**
+   * Check if the remembered partial upload at the given index still exists and did not change since
+   * it was remembered. Without a known version the partial upload has to be read again.
+   */
+  private boolean isUnchanged(MergeState state, int index) throws IOException {
+    String version = state.completedVersions[index];
+    return version != null && version.equals(getVersion(state.completedIds[index]));
   }
 
-  private boolean checkAllCompleted(Long expirationPeriod, List<UploadInfo> partialUploads)
-      throws IOException {
+  private String getVersion(UploadId id) throws IOException {
+    return uploadStorageService.getUploadInfoVersion(id);
+  }
 
-    boolean completed = true;
+  private void refreshExpiration(Long expirationPeriod, UploadInfo childInfo) throws IOException {
+    if (expirationPeriod != null) {
+      // Make sure our child uploads do not expire
+      // since the partial child upload is complete, it's safe to update it.
+      childInfo.updateExpiration(expirationPeriod);
+      updateUpload(childInfo);
+    }
+  }
 
-    for (UploadInfo childInfo : partialUploads) {
-      if (childInfo.isUploadInProgress()) {
-        completed = false;
+  private MergeState getMergeState(UploadInfo uploadInfo) {
+    mergeStatesLock.lock();
+    try {
+      MergeState state = mergeStates.get(uploadInfo.getId());
+      return state != null
+              && state.completedLengths.length == uploadInfo.getConcatenationPartIds().size()
+          ? state
+          : null;
+    } finally {
+      mergeStatesLock.unlock();
+    }
+  }
 
-      } else if (expirationPeriod != null) {
-        // Make sure our child uploads do not expire
-        // since the partial child upload is complete, it's safe to update it.
-        childInfo.updateExpiration(expirationPeriod);
-        updateUpload(childInfo);
-      }
+  private void putMergeState(UploadInfo uploadInfo, MergeState state) {
+    mergeStatesLock.lock();
+    try {
+      mergeStates.put(uploadInfo.getId(), state);
+    } finally {
+      mergeStatesLock.unlock();
     }
+  }
 
-    return completed;
+  private void removeMergeState(UploadInfo uploadInfo) {
+    mergeStatesLock.lock();
+    try {
+      mergeStates.remove(uploadInfo.getId());
+    } finally {
+      mergeStatesLock.unlock();
+    }
   }
 
   private void updateUpload(UploadInfo uploadInfo) throws IOException {
@@ -138,4 +218,35 @@ public class VirtualConcatenationService implements UploadConcatenationService {
           e);
     }
   }
+
+  /**
+   * What we know about the partial uploads of a concatenated upload that is still in progress. A
+   * completed partial upload cannot change anymore, so its length is remembered together with the
+   * version of its upload info.
+   */
+  private static final class MergeState {
+
+    private final Long[] completedLengths;
+    private final UploadId[] completedIds;
+    private final String[] completedVersions;
+    private final long expirationRefreshTime;
+
+    private MergeState(
+        int partCount, MergeState previousState, boolean refreshExpiration, long now) {
+      this.completedLengths =
+          previousState == null ? new Long[partCount] : previousState.completedLengths.clone();
+      this.completedIds =
+          previousState == null ? new UploadId[partCount] : previousState.completedIds.clone();
+      this.completedVersions =
+          previousState == null ? new String[partCount] : previousState.completedVersions.clone();
+      this.expirationRefreshTime =
+          refreshExpiration || previousState == null ? now : previousState.expirationRefreshTime;
+    }
+
+    private void setCompleted(int index, UploadId id, Long length, String version) {
+      completedLengths[index] = length;
+      completedIds[index] = id;
+      completedVersions[index] = version;
+    }
+  }
 }
@@ -1,6 +1,7 @@
 package me.desair.tus.server.upload.disk;
 
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -10,18 +11,56 @@ import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Common abstract super class to implement service that use the disk file system */
+/**
+ * Common abstract super class to implement service that use the disk file system. <br>
+ * By default every upload has an entry directly in the storage directory. When sharding is enabled,
+ * the entries are spread over nested shard directories instead, named after two hexadecimal
+ * characters of a hash of the upload ID (e.g. {@code 3f/a2/<upload-id>} for two levels). This keeps
+ * the directories small enough for fast lookups and directory listings when there are millions of
+ * uploads. Entries that are still in the flat layout (see {@link DirectoryShardingMigration}) are
+ * found as well, also when the ID of the upload looks like the name of a shard directory.
+ */
 public class AbstractDiskBasedService {
 
+  /** The maximum number of shard directory levels. */
+  public static final int MAX_SHARDING_LEVELS = 3;
+
   private static final Logger log = LoggerFactory.getLogger(TusFileUploadService.class);
 
+  private static final String[] SHARD_NAMES = new String[256];
+
+  static {
+    for (int i = 0; i < SHARD_NAMES.length; i++) {
+      SHARD_NAMES[i] = String.format("%02x", i);
+    }
+  }
+
   private Path storagePath;
+  private int shardingLevels = 0;
 
   public AbstractDiskBasedService(String path) {
     Validate.notBlank(path, "The storage path cannot be blank");
     this.storagePath = Paths.get(path);
   }
 
+  /**
+   * Set the number of shard directory levels between the storage directory and the entry of an
+   * upload. Each level has 256 directories. All services (and application instances) that use the
+   * same storage directory must use the same number of levels. By default no sharding is used.
+   *
+   * @param shardingLevels The number of levels, from 0 (no sharding) to {@value
+   *     #MAX_SHARDING_LEVELS}
+   */
+  public void setShardingLevels(int shardingLevels) {
+    Validate.inclusiveBetween(
+        0, MAX_SHARDING_LEVELS, shardingLevels, "The number of sharding levels is not supported");
+    this.shardingLevels = shardingLevels;
+  }
+
+  public int getShardingLevels() {
+    return shardingLevels;
+  }
+
   protected Path getStoragePath() {
     if (!Files.exists(storagePath)) {
       init();
@@ -37,13 +76,129 @@ public class AbstractDiskBasedService {
     if (id == null) {
       return null;
     } else {
-      return storagePath.resolve(id.toString());
+      return getShardPath(id).resolve(id.toString());
+    }
+  }
+
+  /**
+   * Get the path of an existing entry of an upload. Unlike {@link
+   * #getPathInStorageDirectory(UploadId)}, this also returns entries that were created before
+   * sharding was enabled and are not migrated yet.
+   *
+   * @param id The ID of the upload
+   * @return The path of the entry, which does not exist if the upload does not exist
+   */
+  protected Path findPathInStorageDirectory(UploadId id) {
+    Path path = getPathInStorageDirectory(id);
+    if (path == null || shardingLevels == 0 || Files.exists(path)) {
+      return path;
+    }
+
+    Path flatPath = storagePath.resolve(id.toString());
+    // If the entry is not there either, it could just have been moved by a migration
+    return Files.exists(flatPath) && !isShardDirectory(flatPath) ? flatPath : path;
+  }
+
+  /**
+   * Create the shard directories that will contain the given entry, if they do not exist yet.
+   *
+   * @param path The path of an entry returned by {@link #getPathInStorageDirectory(UploadId)}
+   * @throws IOException When the directories cannot be created
+   */
+  protected void createShardDirectories(Path path) throws IOException {
+    // Checking first is cheaper than the exception thrown by createDirectories for existing shards
+    if (shardingLevels > 0 && !Files.isDirectory(path.getParent())) {
+      Files.createDirectories(path.getParent());
+    }
+  }
+
+  /**
+   * Visit the entries of all uploads in the storage directory, in both the flat and the sharded
+   * layout. Entries that are created or moved while visiting may or may not be visited.
+   *
+   * @param visitor The visitor to call for every entry
+   * @throws IOException When the storage directory cannot be read, or the visitor fails
+   */
+  protected void visitEntries(EntryVisitor visitor) throws IOException {
+    visitEntries(getStoragePath(), shardingLevels, visitor);
+  }
+
+  private void visitEntries(Path directory, int levels, EntryVisitor visitor) throws IOException {
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+      for (Path entry : entries) {
+        // Only the storage directory itself can contain both shards and entries of the flat layout
+        boolean shard =
+            levels == shardingLevels
+                ? isShardDirectory(entry)
+                : levels > 0 && isShardName(entry.getFileName().toString());
+        if (shard) {
+          visitEntries(entry, levels - 1, visitor);
+        } else {
+          visitor.visit(entry);
+        }
+      }
     }
   }
 
-  private synchronized void init() {
+  /**
+   * Check if the given entry of the storage directory is a shard directory. An entry of the flat
+   * layout can have the name of a shard as well, so a directory is only a shard if it is not the
+   * entry of an upload.
+   *
+   * @param entry The entry in the storage directory
+   * @return True if the entry is a shard directory
+   */
+  boolean isShardDirectory(Path entry) {
+    return shardingLevels > 0
+        && isShardName(entry.getFileName().toString())
+        && Files.isDirectory(entry)
+        && !isUploadDirectory(entry);
+  }
+
+  /**
+   * Check if the given directory is the entry of an upload. Services whose entries are directories
+   * should override this, since the entry of an upload in the flat layout can have the name of a
+   * shard directory.
+   *
+   * @param directory A directory with the name of a shard
+   * @return True if the directory is the entry of an upload. By default entries are files.
+   */
+  protected boolean isUploadDirectory(Path directory) {
+    return false;
+  }
+
+  static boolean isShardName(String name) {
+    return name.length() == 2
+        && isShardCharacter(name.charAt(0))
+        && isShardCharacter(name.charAt(1));
+  }
+
+  private static boolean isShardCharacter(char character) {
+    return (character >= '0' && character <= '9') || (character >= 'a' && character <= 'f');
+  }
+
+  private Path getShardPath(UploadId id) {
+    Path path = storagePath;
+    if (shardingLevels > 0) {
+      // Spread the bits of the (stable) string hash so that similar IDs end up in different shards
+      int hash = id.toString().hashCode();
+      hash ^= hash >>> 16;
+      hash *= 0x85ebca6b;
+      hash ^= hash >>> 13;
+      hash *= 0xc2b2ae35;
+      hash ^= hash >>> 16;
+
+      for (int level = 0; level < shardingLevels; level++) {
+        path = path.resolve(SHARD_NAMES[(hash >>> (24 - 8 * level)) & 0xFF]);
+      }
+    }
+    return path;
+  }
+
+  private void init() {
     if (!Files.exists(storagePath)) {
       try {
+        // This is safe without locking since creating a directory that already exists is a no-op
         Files.createDirectories(storagePath);
       } catch (IOException e) {
         String message =
@@ -53,4 +208,17 @@ public class AbstractDiskBasedService {
       }
     }
   }
+
+  /** Callback for every entry in the storage directory. */
+  @FunctionalInterface
+  protected interface EntryVisitor {
+
+    /**
+     * Visit a single entry.
+     *
+     * @param entry The path of the entry, the file name of which is the upload ID
+     * @throws IOException When processing the entry fails
+     */
+    void visit(Path entry) throws IOException;
+  }
 }
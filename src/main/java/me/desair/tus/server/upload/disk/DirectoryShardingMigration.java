@@ -0,0 +1,144 @@
+package me.desair.tus.server.upload.disk;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadLock;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves the uploads of a {@link DiskStorageService} from the flat layout (all uploads directly in
+ * the uploads directory) to the sharded layout that is configured with {@link
+ * AbstractDiskBasedService#setShardingLevels(int)}. <br>
+ * The migration can run while the application is processing requests, as long as all application
+ * instances already use the sharded configuration: the storage service also finds uploads that are
+ * not moved yet. Each upload is locked while it is moved with a single atomic rename, so uploads
+ * that are locked by a request are skipped and can be moved by running the migration again. Stale
+ * lock files of the flat layout are removed as well.
+ */
+public class DirectoryShardingMigration {
+
+  private static final Logger log = LoggerFactory.getLogger(DirectoryShardingMigration.class);
+
+  private final DiskStorageService storageService;
+  private final DiskLockingService lockingService;
+
+  private long movedUploads = 0;
+  private long skippedUploads = 0;
+
+  /**
+   * Create a migration for the given services, which must use the same storage path.
+   *
+   * @param storageService The storage service with the target sharding configuration
+   * @param lockingService The locking service with the target sharding configuration
+   */
+  public DirectoryShardingMigration(
+      DiskStorageService storageService, DiskLockingService lockingService) {
+    Validate.notNull(storageService, "The storage service cannot be null");
+    Validate.notNull(lockingService, "The locking service cannot be null");
+    Validate.isTrue(
+        storageService.getShardingLevels() > 0, "The storage service does not use sharding");
+    this.storageService = storageService;
+    this.lockingService = lockingService;
+  }
+
+  /**
+   * Move all uploads that are still in the flat layout.
+   *
+   * @return The number of uploads that could not be moved because they were locked
+   * @throws IOException When the uploads directory cannot be read or an upload cannot be moved
+   */
+  public long migrate() throws IOException {
+    for (Path uploadPath : getFlatEntries()) {
+      UploadId id = new UploadId(uploadPath.getFileName().toString());
+      try (UploadLock lock = lockingService.lockUpload(id, id.toString())) {
+        move(uploadPath, storageService.getPathInStorageDirectory(id));
+      } catch (TusException e) {
+        log.info("Upload {} is locked, it will be moved by the next migration", id);
+        skippedUploads++;
+      }
+    }
+
+    // Lock files are not moved, they are only used while an upload is being processed
+    lockingService.cleanupStaleLocks();
+
+    log.info(
+        "Moved {} uploads to the sharded layout, {} were skipped", movedUploads, skippedUploads);
+    return skippedUploads;
+  }
+
+  public long getMovedUploads() {
+    return movedUploads;
+  }
+
+  public long getSkippedUploads() {
+    return skippedUploads;
+  }
+
+  private List<Path> getFlatEntries() throws IOException {
+    // Collect the entries first, since we are moving entries out of the directory we are listing
+    List<Path> entries = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(storageService.getStoragePath())) {
+      for (Path entry : stream) {
+        if (!storageService.isShardDirectory(entry)) {
+          entries.add(entry);
+        }
+      }
+    }
+    return entries;
+  }
+
+  private void move(Path source, Path target) throws IOException {
+    storageService.createShardDirectories(target);
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+      movedUploads++;
+    } catch (NoSuchFileException e) {
+      // The upload was removed in the meantime
+      log.debug("Upload {} no longer exists", source.getFileName());
+    } catch (AtomicMoveNotSupportedException e) {
+      throw new IOException("Shard directories must be on the same file system as " + source, e);
+    }
+  }
+
+  /**
+   * Migrate the uploads in the given storage path from the command line.
+   *
+   * @param args The storage path (as used by {@link DiskStorageService#DiskStorageService(String)})
+   *     and the number of sharding levels
+   * @throws IOException When the migration fails
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println(
+          "Usage: java " + DirectoryShardingMigration.class.getName() + " <storage path> <levels>");
+      System.exit(1);
+    }
+
+    int shardingLevels = Integer.parseInt(args[1]);
+    DiskStorageService storageService = new DiskStorageService(args[0]);
+    storageService.setShardingLevels(shardingLevels);
+    DiskLockingService lockingService = new DiskLockingService(args[0]);
+    lockingService.setShardingLevels(shardingLevels);
+
+    DirectoryShardingMigration migration =
+        new DirectoryShardingMigration(storageService, lockingService);
+    migration.migrate();
+    System.out.println(
+        "Moved "
+            + migration.getMovedUploads()
+            + " uploads, "
+            + migration.getSkippedUploads()
+            + " locked uploads were skipped");
+  }
+}
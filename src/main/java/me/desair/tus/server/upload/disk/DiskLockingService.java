@@ -2,12 +2,19 @@ package me.desair.tus.server.upload.disk;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import me.desair.tus.server.exception.TusException;
 import me.desair.tus.server.exception.UploadAlreadyLockedException;
+import me.desair.tus.server.metrics.TusMetrics;
 import me.desair.tus.server.upload.UploadId;
 import me.desair.tus.server.upload.UploadIdFactory;
 import me.desair.tus.server.upload.UploadLock;
@@ -22,7 +29,10 @@ import org.slf4j.LoggerFactory;
  * File locking can also apply to shared network drives. This way the framework supports clustering
  * as long as the upload storage directory is mounted as a shared (network) drive. <br>
  * File locks are also automatically released on application (JVM) shutdown. This means the file
- * locking is not persistent and prevents cleanup and stale lock issues.
+ * locking is not persistent and prevents cleanup and stale lock issues. <br>
+ * When lock retries are configured, a request waiting for a lock that is held by a request in the
+ * same JVM is notified as soon as that lock is released. Only locks held by other processes are
+ * polled using the retry interval.
  */
 public class DiskLockingService extends AbstractDiskBasedService implements UploadLockingService {
 
@@ -31,6 +41,14 @@ public class DiskLockingService extends AbstractDiskBasedService implements Uplo
   private static final String LOCK_SUB_DIRECTORY = "locks";
 
   private UploadIdFactory idFactory;
+  private TusMetrics metrics = TusMetrics.NOOP;
+
+  /**
+   * Locks held by requests of this JVM. The future of a lock completes when it is released, so that
+   * local requests waiting for the same upload can retry immediately instead of polling.
+   */
+  private final ConcurrentMap<UploadId, CompletableFuture<Void>> localLocks =
+      new ConcurrentHashMap<>();
 
   /** Number of retry attempts when lock acquisition fails. Default is 0 (no retry). */
   private int lockRetryCount = 0;
@@ -64,7 +82,10 @@ public class DiskLockingService extends AbstractDiskBasedService implements Uplo
    * @param lockRetryMaxIntervalMs Maximum retry interval for exponential backoff
    */
   public DiskLockingService(
-      String storagePath, int lockRetryCount, long lockRetryIntervalMs, long lockRetryMaxIntervalMs) {
+      String storagePath,
+      int lockRetryCount,
+      long lockRetryIntervalMs,
+      long lockRetryMaxIntervalMs) {
     this(storagePath);
     this.lockRetryCount = lockRetryCount;
     this.lockRetryIntervalMs = lockRetryIntervalMs;
@@ -93,9 +114,17 @@ public class DiskLockingService extends AbstractDiskBasedService implements Uplo
 
   @Override
   public UploadLock lockUploadByUri(String requestUri) throws TusException, IOException {
+    return lockUpload(idFactory.readUploadId(requestUri), requestUri);
+  }
 
-    UploadId id = idFactory.readUploadId(requestUri);
-
+  /**
+   * Lock the upload with the given ID, like {@link #lockUploadByUri(String)}.
+   *
+   * @param id The ID of the upload to lock
+   * @param requestUri The URI of the upload, which is only used in log and error messages
+   * @return The lock of the upload or null if the ID is not valid
+   */
+  UploadLock lockUpload(UploadId id, String requestUri) throws TusException, IOException {
     Path lockPath = getLockPath(id);
     // If lockPath is null, this is not a valid Upload URI
     if (lockPath == null) {
@@ -103,27 +132,26 @@ public class DiskLockingService extends AbstractDiskBasedService implements Uplo
     }
 
     // Try to acquire lock with optional retry
+    long start = System.nanoTime();
     UploadAlreadyLockedException lastException = null;
     long currentInterval = lockRetryIntervalMs;
 
     for (int attempt = 0; attempt <= lockRetryCount; attempt++) {
+      CompletableFuture<Void> localHolder = localLocks.get(id);
       try {
-        return new FileBasedLock(requestUri, lockPath);
+        UploadLock lock = registerLocalLock(id, new FileBasedLock(requestUri, lockPath));
+        metrics.lockAcquired(System.nanoTime() - start, attempt);
+        return lock;
       } catch (UploadAlreadyLockedException e) {
         lastException = e;
         if (attempt < lockRetryCount) {
           log.info(
-              "Lock acquisition failed, retrying in {}ms ({}/{}): {}",
+              "Lock acquisition failed, retrying in at most {}ms ({}/{}): {}",
               currentInterval,
               attempt + 1,
               lockRetryCount,
               requestUri);
-          try {
-            Thread.sleep(currentInterval);
-          } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-            throw e;
-          }
+          awaitRelease(id, localHolder, currentInterval, e);
           // Exponential backoff with max interval
           currentInterval = Math.min(currentInterval * 2, lockRetryMaxIntervalMs);
         }
@@ -131,8 +159,8 @@ public class DiskLockingService extends AbstractDiskBasedService implements Uplo
     }
 
     if (lastException != null) {
-      log.warn(
-          "Lock acquisition failed after {} retries: {}", lockRetryCount, requestUri);
+      metrics.lockFailed(System.nanoTime() - start, lockRetryCount);
+      log.warn("Lock acquisition failed after {} retries: {}", lockRetryCount, requestUri);
       throw lastException;
     }
 
@@ -141,29 +169,32 @@ public class DiskLockingService extends AbstractDiskBasedService implements Uplo
 
   @Override
   public void cleanupStaleLocks() throws IOException {
-    try (DirectoryStream<Path> locksStream = Files.newDirectoryStream(getStoragePath())) {
-      for (Path path : locksStream) {
-
-        FileTime lastModifiedTime = Files.getLastModifiedTime(path);
-        if (lastModifiedTime.toMillis() < System.currentTimeMillis() - 10000L) {
-          UploadId id = new UploadId(path.getFileName().toString());
+    visitEntries(
+        path -> {
+          FileTime lastModifiedTime = Files.getLastModifiedTime(path);
+          if (lastModifiedTime.toMillis() < System.currentTimeMillis() - 10000L) {
+            UploadId id = new UploadId(path.getFileName().toString());
 
-          if (!isLocked(id)) {
-            Files.deleteIfExists(path);
+            if (!isLocked(id)) {
+              Files.deleteIfExists(path);
+            }
           }
-        }
-      }
-    }
+        });
   }
 
   @Override
   public boolean isLocked(UploadId id) {
+    CompletableFuture<Void> localHolder = id == null ? null : localLocks.get(id);
+    if (localHolder != null && !localHolder.isDone()) {
+      // Locked by a request of this JVM, no need to check the file system
+      return true;
+    }
+
     boolean locked = false;
-    Path lockPath = getLockPath(id);
 
-    if (lockPath != null) {
+    if (id != null) {
       // Try to obtain a lock to see if the upload is currently locked
-      try (UploadLock lock = new FileBasedLock(id.toString(), lockPath)) {
+      try (UploadLock lock = new FileBasedLock(id.toString(), getLockPath(id))) {
 
         // We got the lock, so it means no one else is locking it.
         locked = false;
@@ -183,7 +214,89 @@ public class DiskLockingService extends AbstractDiskBasedService implements Uplo
     this.idFactory = idFactory;
   }
 
-  private Path getLockPath(UploadId id) {
-    return getPathInStorageDirectory(id);
+  @Override
+  public void setMetrics(TusMetrics metrics) {
+    Validate.notNull(metrics, "The TusMetrics cannot be null");
+    this.metrics = metrics;
+  }
+
+  private Path getLockPath(UploadId id) throws IOException {
+    Path lockPath = getPathInStorageDirectory(id);
+    if (lockPath != null) {
+      createShardDirectories(lockPath);
+    }
+    return lockPath;
+  }
+
+  private UploadLock registerLocalLock(UploadId id, FileBasedLock fileLock) {
+    CompletableFuture<Void> released = new CompletableFuture<>();
+    localLocks.put(id, released);
+    return new LocalFileLock(id, fileLock, released);
+  }
+
+  /**
+   * Wait until the upload is released by the request of this JVM that holds it, or until the given
+   * interval has passed. If the lock is held by another process, we cannot be notified and simply
+   * wait for the full interval.
+   */
+  private void awaitRelease(
+      UploadId id,
+      CompletableFuture<Void> previousHolder,
+      long intervalMs,
+      UploadAlreadyLockedException cause)
+      throws UploadAlreadyLockedException {
+    // If the holder we saw before our attempt is gone, it released the lock in the meantime
+    CompletableFuture<Void> localHolder = localLocks.getOrDefault(id, previousHolder);
+    try {
+      if (localHolder == null) {
+        Thread.sleep(intervalMs);
+      } else {
+        localHolder.get(intervalMs, TimeUnit.MILLISECONDS);
+      }
+    } catch (TimeoutException | ExecutionException e) {
+      // Try again, the lock might also be released in the mean time by another process
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw cause;
+    }
+  }
+
+  /**
+   * Lock that notifies the local requests that are waiting for it once it has been released. The
+   * waiters are only notified after the lock file has been removed, so that a waiter never locks a
+   * lock file that is about to be deleted.
+   */
+  private class LocalFileLock implements UploadLock {
+
+    private final UploadId id;
+    private final FileBasedLock delegate;
+    private final CompletableFuture<Void> released;
+    private final AtomicBoolean isReleased = new AtomicBoolean(false);
+
+    LocalFileLock(UploadId id, FileBasedLock delegate, CompletableFuture<Void> released) {
+      this.id = id;
+      this.delegate = delegate;
+      this.released = released;
+    }
+
+    @Override
+    public String getUploadUri() {
+      return delegate.getUploadUri();
+    }
+
+    @Override
+    public void release() {
+      // Only release once, so that we never remove a lock file that another request locked since
+      if (isReleased.compareAndSet(false, true)) {
+        delegate.release();
+        localLocks.remove(id, released);
+        released.complete(null);
+      }
+    }
+
+    @Override
+    public void close() {
+      release();
+    }
   }
 }
@@ -3,33 +3,52 @@ package me.desair.tus.server.upload.disk;
 import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import me.desair.tus.server.checksum.ChecksumAlgorithm;
+import me.desair.tus.server.checksum.ChecksumInputStream;
+import me.desair.tus.server.checksum.ResumableChecksumCalculator;
 import me.desair.tus.server.exception.InvalidUploadOffsetException;
 import me.desair.tus.server.exception.TusException;
 import me.desair.tus.server.exception.UploadNotFoundException;
+import me.desair.tus.server.metrics.TusMetrics;
+import me.desair.tus.server.upload.UploadChecksumState;
 import me.desair.tus.server.upload.UploadId;
 import me.desair.tus.server.upload.UploadIdFactory;
 import me.desair.tus.server.upload.UploadInfo;
 import me.desair.tus.server.upload.UploadLockingService;
 import me.desair.tus.server.upload.UploadStorageService;
 import me.desair.tus.server.upload.UploadType;
+import me.desair.tus.server.upload.codec.BinaryUploadInfoCodec;
+import me.desair.tus.server.upload.codec.UploadInfoCodec;
 import me.desair.tus.server.upload.concatenation.UploadConcatenationService;
 import me.desair.tus.server.upload.concatenation.VirtualConcatenationService;
+import me.desair.tus.server.upload.disk.PeriodicDataSync.PendingUpload;
+import me.desair.tus.server.util.ByteBufferPool;
 import me.desair.tus.server.util.Utils;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +59,7 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
   private static final Logger log = LoggerFactory.getLogger(DiskStorageService.class);
 
   private static final String UPLOAD_SUB_DIRECTORY = "uploads";
+  private static final String EXPIRATION_SUB_DIRECTORY = "expirations";
   private static final String INFO_FILE = "info";
   private static final String DATA_FILE = "data";
 
@@ -47,9 +67,25 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
   private Long uploadExpirationPeriod = null;
   private UploadIdFactory idFactory;
   private UploadConcatenationService uploadConcatenationService;
+  private UploadInfoCodec uploadInfoCodec = new BinaryUploadInfoCodec();
+  private UploadInfoStore uploadInfoStore = new InfoFileStore();
+  private DurabilityPolicy durabilityPolicy = DurabilityPolicy.ALWAYS;
+  private long periodicSyncIntervalMs = 1000L;
+  private long periodicSyncMaxBytes = 64L * 1024 * 1024;
+  private PeriodicDataSync periodicDataSync;
+  private ByteBufferPool bufferPool = new ByteBufferPool();
+  private ChecksumAlgorithm uploadChecksumAlgorithm = null;
+  private TusMetrics metrics = TusMetrics.NOOP;
+  private final ExpirationIndex expirationIndex;
+  private final long startTimestamp = System.currentTimeMillis();
+  private final AtomicBoolean temporaryFilesRemoved = new AtomicBoolean();
 
   public DiskStorageService(String storagePath) {
     super(storagePath + File.separator + UPLOAD_SUB_DIRECTORY);
+    this.expirationIndex =
+        new ExpirationIndex(
+            Paths.get(storagePath, EXPIRATION_SUB_DIRECTORY),
+            ExpirationIndex.DEFAULT_EXPIRATION_BUCKET_DURATION);
     setUploadConcatenationService(new VirtualConcatenationService(this));
   }
 
@@ -65,6 +101,165 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
     this.idFactory = idFactory;
   }
 
+  @Override
+  public void setMetrics(TusMetrics metrics) {
+    Validate.notNull(metrics, "The TusMetrics cannot be null");
+    this.metrics = metrics;
+  }
+
+  public TusMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Set the {@link UploadInfoCodec} that is used to read and write the upload information files. By
+   * default the {@link BinaryUploadInfoCodec} is used.
+   *
+   * @param uploadInfoCodec The codec to use
+   */
+  public void setUploadInfoCodec(UploadInfoCodec uploadInfoCodec) {
+    Validate.notNull(uploadInfoCodec, "The UploadInfoCodec cannot be null");
+    this.uploadInfoCodec = uploadInfoCodec;
+  }
+
+  public UploadInfoCodec getUploadInfoCodec() {
+    return uploadInfoCodec;
+  }
+
+  /**
+   * Set the {@link UploadInfoStore} in which the upload information is stored. By default every
+   * upload info is stored in an {@code info} file in the directory of its upload. The upload info
+   * files of existing uploads are moved into the new store.
+   *
+   * @param uploadInfoStore The store to use, or null to use the upload info files again
+   * @throws IOException When the existing upload info files cannot be moved into the new store
+   */
+  public void setUploadInfoStore(UploadInfoStore uploadInfoStore) throws IOException {
+    if (uploadInfoStore == null) {
+      this.uploadInfoStore = new InfoFileStore();
+      return;
+    }
+
+    if (Files.exists(getStoragePath())) {
+      InfoFileStore infoFiles = new InfoFileStore();
+      visitEntries(
+          path -> {
+            UploadId id = new UploadId(path.getFileName().toString());
+            UploadInfo info = infoFiles.read(id);
+            if (info != null) {
+              uploadInfoStore.write(info);
+              Files.delete(path.resolve(INFO_FILE));
+            }
+          });
+    }
+    this.uploadInfoStore = uploadInfoStore;
+  }
+
+  public UploadInfoStore getUploadInfoStore() {
+    return uploadInfoStore;
+  }
+
+  /**
+   * Set the pool of buffers that is used to write uploaded bytes to disk. By default a pool of
+   * {@value ByteBufferPool#DEFAULT_BUFFER_SIZE} byte buffers is used.
+   *
+   * @param bufferPool The buffer pool to use
+   */
+  public void setBufferPool(ByteBufferPool bufferPool) {
+    Validate.notNull(bufferPool, "The ByteBufferPool cannot be null");
+    this.bufferPool = bufferPool;
+  }
+
+  public ByteBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  /**
+   * Keep track of the checksum of all bytes of each upload using the given algorithm. The
+   * intermediate state of this checksum is saved in the upload information after each append, so
+   * that the checksum of a completed upload is available through {@link
+   * UploadInfo#getUploadChecksum()} without reading the uploaded bytes again. By default no upload
+   * checksum is calculated.
+   *
+   * @param uploadChecksumAlgorithm The checksum algorithm, which must support saving its state (see
+   *     {@link ChecksumAlgorithm#getResumableChecksumCalculator()}), or null to disable the upload
+   *     checksum
+   */
+  public void setUploadChecksumAlgorithm(ChecksumAlgorithm uploadChecksumAlgorithm) {
+    Validate.isTrue(
+        uploadChecksumAlgorithm == null
+            || uploadChecksumAlgorithm.getResumableChecksumCalculator() != null,
+        "The state of checksum algorithm %s cannot be saved",
+        uploadChecksumAlgorithm);
+    this.uploadChecksumAlgorithm = uploadChecksumAlgorithm;
+  }
+
+  public ChecksumAlgorithm getUploadChecksumAlgorithm() {
+    return uploadChecksumAlgorithm;
+  }
+
+  /**
+   * Set the {@link DurabilityPolicy} that determines when appended bytes are forced to the storage
+   * device. By default {@link DurabilityPolicy#ALWAYS} is used.
+   *
+   * @param durabilityPolicy The durability policy to use
+   */
+  public void setDurabilityPolicy(DurabilityPolicy durabilityPolicy) {
+    Validate.notNull(durabilityPolicy, "The DurabilityPolicy cannot be null");
+    this.durabilityPolicy = durabilityPolicy;
+    restartPeriodicDataSync();
+  }
+
+  public DurabilityPolicy getDurabilityPolicy() {
+    return durabilityPolicy;
+  }
+
+  /**
+   * Configure when the data of uploads is forced to the storage device when the {@link
+   * DurabilityPolicy#PERIODIC} policy is used. By default this happens every second or as soon as
+   * 64 MB is waiting to be forced.
+   *
+   * @param syncIntervalMs The interval in milliseconds at which data is forced
+   * @param maxUnsyncedBytes The number of appended bytes after which data is forced immediately
+   */
+  public void setPeriodicSync(long syncIntervalMs, long maxUnsyncedBytes) {
+    Validate.isTrue(syncIntervalMs > 0, "The sync interval must be bigger than 0");
+    Validate.isTrue(maxUnsyncedBytes > 0, "The maximum number of unsynced bytes must be positive");
+    this.periodicSyncIntervalMs = syncIntervalMs;
+    this.periodicSyncMaxBytes = maxUnsyncedBytes;
+    restartPeriodicDataSync();
+  }
+
+  /**
+   * Force all bytes that were appended but are not durable yet to the storage device and persist
+   * the corresponding upload offsets. This only has an effect when the {@link
+   * DurabilityPolicy#PERIODIC} policy is used. Call this method before shutting down the
+   * application.
+   */
+  public void syncPendingData() {
+    if (periodicDataSync != null) {
+      periodicDataSync.syncAll();
+    }
+  }
+
+  /**
+   * Stop the background thread of the {@link DurabilityPolicy#PERIODIC} policy after forcing all
+   * pending bytes to the storage device one last time, and close the {@link UploadInfoStore} if it
+   * holds any resources. This storage service should not be used anymore afterwards.
+   *
+   * @throws IOException When the upload info store cannot be closed
+   */
+  @Override
+  public void close() throws IOException {
+    if (periodicDataSync != null) {
+      periodicDataSync.close();
+      periodicDataSync = null;
+    }
+    if (uploadInfoStore instanceof Closeable) {
+      ((Closeable) uploadInfoStore).close();
+    }
+  }
+
   @Override
   public void setMaxUploadSize(Long maxUploadSize) {
     this.maxUploadSize = (maxUploadSize != null && maxUploadSize > 0 ? maxUploadSize : 0);
@@ -87,10 +282,42 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
 
   @Override
   public UploadInfo getUploadInfo(UploadId id) throws IOException {
+    UploadInfo info = readUploadInfo(id);
+    if (info == null || info.getOffset() == null) {
+      return info;
+    }
+
+    PendingUpload pending = getPendingUpload(id);
+    if (pending != null) {
+      // The persisted offset is the durable one, but we have already written more bytes
+      info.setOffset(pending.getWrittenOffset());
+
+    } else if (durabilityPolicy == DurabilityPolicy.NONE
+        && !UploadType.CONCATENATED.equals(info.getUploadType())) {
+      // After a crash the persisted offset can be ahead of the bytes that were actually stored
+      try {
+        long size = Files.size(getBytesPath(id));
+        if (info.getOffset() > size) {
+          info.setOffset(size);
+        }
+      } catch (UploadNotFoundException | NoSuchFileException e) {
+        return null;
+      }
+    }
+    return info;
+  }
+
+  @Override
+  public String getUploadInfoVersion(UploadId id) throws IOException {
+    return uploadInfoStore.getVersion(id);
+  }
+
+  private UploadInfo readUploadInfo(UploadId id) throws IOException {
     try {
-      Path infoPath = getInfoPath(id);
-      return Utils.readSerializable(infoPath, UploadInfo.class);
-    } catch (UploadNotFoundException e) {
+      return uploadInfoStore.read(id);
+    } catch (StreamCorruptedException | EOFException e) {
+      // File may be corrupted due to unexpected server shutdown
+      log.warn("Unable to read upload info of upload {}: {}", id, e.getMessage());
       return null;
     }
   }
@@ -102,9 +329,7 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
 
   @Override
   public UploadInfo create(UploadInfo info, String ownerKey) throws IOException {
-    UploadId id = createNewId();
-
-    createUploadDirectory(id);
+    UploadId id = createNewUploadDirectory();
 
     try {
       Path bytesPath = getBytesPath(id);
@@ -129,8 +354,49 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
 
   @Override
   public void update(UploadInfo uploadInfo) throws IOException, UploadNotFoundException {
-    Path infoPath = getInfoPath(uploadInfo.getId());
-    Utils.writeSerializable(uploadInfo, infoPath);
+    PendingUpload pending = getPendingUpload(uploadInfo.getId());
+    if (pending == null) {
+      writeUploadInfo(uploadInfo);
+      return;
+    }
+
+    pending.lock();
+    try {
+      // Never persist an offset that is ahead of the bytes that are durably stored
+      Long offset = uploadInfo.getOffset();
+      if (offset != null && offset > pending.getDurableOffset()) {
+        uploadInfo.setOffset(pending.getDurableOffset());
+        try {
+          writeUploadInfo(uploadInfo);
+        } finally {
+          uploadInfo.setOffset(offset);
+        }
+      } else {
+        writeUploadInfo(uploadInfo);
+      }
+    } finally {
+      pending.unlock();
+    }
+  }
+
+  private void writeUploadInfo(UploadInfo uploadInfo) throws IOException, UploadNotFoundException {
+    Path uploadDir = getInfoPath(uploadInfo.getId()).getParent();
+    uploadInfoStore.write(uploadInfo);
+    if (!Files.exists(uploadDir)) {
+      // The upload was removed while we were writing, do not leave its upload info behind
+      uploadInfoStore.remove(uploadInfo.getId());
+      throw new UploadNotFoundException(
+          "The upload for id " + uploadInfo.getId() + " was removed.");
+    }
+    // Index the expiration only after the upload information is written, see cleanupIndexedUpload
+    expirationIndex.add(uploadInfo.getId(), uploadInfo.getExpirationTimestamp());
+  }
+
+  /** Persist the given offset after the corresponding bytes have been forced by the flusher. */
+  void writeDurableOffset(UploadId id, long offset) throws IOException, UploadNotFoundException {
+    // Fails when the upload was removed in the meantime
+    getInfoPath(id);
+    uploadInfoStore.writeOffset(id, offset);
   }
 
   @Override
@@ -143,25 +409,51 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
       long transferred = 0;
       Long offset = info.getOffset();
       long newOffset = offset;
+      ChecksumAlgorithm checksumAlgorithm = uploadChecksumAlgorithm;
+      ResumableChecksumCalculator checksum = null;
+      byte[] checksumStateBefore = null;
+      CountingInputStream checksumStream = null;
 
-      try (ReadableByteChannel uploadedBytes = Channels.newChannel(inputStream);
-          FileChannel file = FileChannel.open(bytesPath, WRITE)) {
+      try (FileChannel file = FileChannel.open(bytesPath, READ, WRITE)) {
 
         try {
           // Lock will be released when the channel closes
           file.lock();
 
           // Validate that the given offset is at the end of the file
-          if (!offset.equals(file.size())) {
+          if (offset < file.size() && canDiscardBytesAfter(info.getId(), offset)) {
+            // The bytes after the persisted offset were never acknowledged (e.g. because of a
+            // crash before their offset was persisted), so we can safely discard them
+            log.warn(
+                "Discarding {} bytes of upload {} that were written after its last persisted"
+                    + " offset",
+                file.size() - offset,
+                info.getId());
+            file.truncate(offset);
+          } else if (offset != file.size()) {
             throw new InvalidUploadOffsetException(
                 "The upload offset does not correspond to the written"
                     + " bytes. You can only append to the end of an upload");
           }
 
+          InputStream source = inputStream;
+          if (checksumAlgorithm != null) {
+            checksum = resumeUploadChecksum(info, checksumAlgorithm, file, offset);
+            checksumStateBefore = checksum.getState();
+            checksumStream =
+                new CountingInputStream(
+                    new ChecksumInputStream(inputStream, checksumAlgorithm, checksum));
+            source = checksumStream;
+          }
+
           // write all bytes in the channel up to the configured maximum
-          transferred = file.transferFrom(uploadedBytes, offset, max - offset);
-          file.force(true);
+          long writeStart = System.nanoTime();
+          transferred = Utils.transferFrom(source, file, offset, max - offset, bufferPool);
+          long syncStart = System.nanoTime();
+          boolean isForced = forceData(file);
           newOffset = offset + transferred;
+          metrics.bytesAppended(
+              transferred, syncStart - writeStart, isForced ? System.nanoTime() - syncStart : 0);
 
         } catch (Exception ex) {
           // An error occurred, try to write as much data as possible
@@ -170,6 +462,17 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
         }
 
       } finally {
+        if (checksum != null) {
+          saveUploadChecksum(
+              info,
+              new UploadChecksumState(checksumAlgorithm, offset, checksumStateBefore),
+              checksum,
+              newOffset,
+              offset + checksumStream.getByteCount());
+        }
+        if (periodicDataSync != null) {
+          periodicDataSync.dataWritten(info.getId(), offset, newOffset);
+        }
         info.setOffset(newOffset);
         update(info);
       }
@@ -184,6 +487,11 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
 
     if (info != null && byteCount > 0) {
       Path bytesPath = getBytesPath(info.getId());
+      PendingUpload pending = getPendingUpload(info.getId());
+      if (pending != null) {
+        // Make sure the flusher does not persist an offset beyond the truncated size
+        pending.lock();
+      }
 
       try (FileChannel file = FileChannel.open(bytesPath, WRITE)) {
 
@@ -193,8 +501,16 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
         file.truncate(file.size() - byteCount);
         file.force(true);
 
+        if (periodicDataSync != null) {
+          periodicDataSync.forget(info.getId());
+        }
         info.setOffset(file.size());
+        rollbackUploadChecksum(info, file.size());
         update(info);
+      } finally {
+        if (pending != null) {
+          pending.unlock();
+        }
       }
     }
   }
@@ -202,8 +518,17 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
   @Override
   public void terminateUpload(UploadInfo info) throws UploadNotFoundException, IOException {
     if (info != null) {
-      Path uploadPath = getPathInStorageDirectory(info.getId());
-      FileUtils.deleteDirectory(uploadPath.toFile());
+      deleteUpload(info);
+    }
+  }
+
+  private void deleteUpload(UploadInfo info) throws IOException {
+    Path uploadPath = findPathInStorageDirectory(info.getId());
+    FileUtils.deleteDirectory(uploadPath.toFile());
+    uploadInfoStore.remove(info.getId());
+    expirationIndex.remove(info.getId(), info.getExpirationTimestamp());
+    if (periodicDataSync != null) {
+      periodicDataSync.forget(info.getId());
     }
   }
 
@@ -268,36 +593,167 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
 
     List<UploadInfo> uploads = getUploads(info);
 
-    try (WritableByteChannel outputChannel = Channels.newChannel(outputStream)) {
+    try (OutputStream output = outputStream) {
+      copyBytes(uploads, 0, Long.MAX_VALUE, output);
+    }
+  }
+
+  @Override
+  public void copyUploadTo(UploadInfo info, long position, long count, OutputStream outputStream)
+      throws UploadNotFoundException, IOException {
+    Validate.isTrue(position >= 0 && count >= 0, "The byte range cannot be negative");
 
-      for (UploadInfo upload : uploads) {
-        if (upload == null) {
-          log.warn("We cannot copy the bytes of an upload that does not exist");
+    List<UploadInfo> uploads = getUploads(info);
 
-        } else if (upload.isUploadInProgress()) {
-          log.warn(
-              "We cannot copy the bytes of upload {} because it is still in progress",
-              upload.getId());
+    copyBytes(uploads, position, count, outputStream);
+  }
 
-        } else {
-          Path bytesPath = getBytesPath(upload.getId());
-          try (FileChannel file = FileChannel.open(bytesPath, READ)) {
-            // Efficiently copy the bytes to the output stream
-            file.transferTo(0, upload.getLength(), outputChannel);
-          }
-        }
-      }
+  @Override
+  public Path getUploadedBytesPath(UploadInfo info) throws IOException, UploadNotFoundException {
+    if (info == null || info.isUploadInProgress()) {
+      return null;
+    } else if (UploadType.CONCATENATED.equals(info.getUploadType())
+        && !(uploadConcatenationService instanceof PhysicalConcatenationService
+            && ((PhysicalConcatenationService) uploadConcatenationService).isMerged(info))) {
+      // The bytes of a virtual concatenated upload are spread over the files of its partial uploads
+      return null;
     }
+    return getBytesPath(info.getId());
   }
 
   @Override
   public void cleanupExpiredUploads(UploadLockingService uploadLockingService) throws IOException {
-    try (DirectoryStream<Path> expiredUploadsStream =
-        Files.newDirectoryStream(
-            getStoragePath(), new ExpiredUploadFilter(this, uploadLockingService))) {
+    for (UploadInfo info : getExpiredUploads(Integer.MAX_VALUE)) {
+      if (!uploadLockingService.isLocked(info.getId())) {
+        deleteUpload(info);
+      }
+    }
+  }
+
+  @Override
+  public List<UploadInfo> getExpiredUploads(int maxUploads) throws IOException {
+    if (temporaryFilesRemoved.compareAndSet(false, true)) {
+      removeTemporaryFiles();
+    }
+    if (!expirationIndex.isComplete()) {
+      // Uploads that were created before the expiration index existed still need to be indexed
+      indexAllUploads();
+      expirationIndex.markComplete();
+    }
 
-      for (Path path : expiredUploadsStream) {
-        FileUtils.deleteDirectory(path.toFile());
+    // Only the uploads that expire in a bucket that has started can be expired
+    List<UploadInfo> expiredUploads = new ArrayList<>();
+    long now = System.currentTimeMillis();
+    for (long bucket : expirationIndex.getDueBuckets(now)) {
+      for (UploadId id : expirationIndex.getUploadIds(bucket)) {
+        if (expiredUploads.size() >= maxUploads) {
+          // The remaining uploads stay indexed for the next call
+          return expiredUploads;
+        }
+
+        UploadInfo info = getIndexedUploadInfo(bucket, id);
+        if (info != null && info.isExpired()) {
+          expiredUploads.add(info);
+        }
+      }
+      expirationIndex.removeBucketIfEmpty(bucket, now);
+    }
+    return expiredUploads;
+  }
+
+  private UploadInfo getIndexedUploadInfo(long bucket, UploadId id) throws IOException {
+    UploadInfo info = getUploadInfo(id);
+    if (isIndexedInBucket(info, bucket)) {
+      return info;
+    }
+
+    // The upload was terminated or its expiration changed after it was added to this bucket
+    expirationIndex.removeMarker(bucket, id);
+
+    // The upload information is always written before the index, so a concurrent update that
+    // moved the expiration (back) into this bucket is visible when we read it again
+    info = getUploadInfo(id);
+    if (isIndexedInBucket(info, bucket)) {
+      expirationIndex.add(id, info.getExpirationTimestamp());
+      return info;
+    }
+    return null;
+  }
+
+  private boolean isIndexedInBucket(UploadInfo info, long bucket) {
+    return info != null
+        && info.getExpirationTimestamp() != null
+        && expirationIndex.getBucket(info.getExpirationTimestamp()) == bucket;
+  }
+
+  /**
+   * Remove the temporary upload info files that a crash left behind in the upload directories,
+   * which is done by the first cleanup after this service was started. Files of writes that are
+   * still in progress are never older than this service.
+   */
+  private void removeTemporaryFiles() throws IOException {
+    visitEntries(
+        path -> {
+          if (!Files.isDirectory(path)) {
+            return;
+          }
+          try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+            for (Path file : files) {
+              if (Utils.isTemporaryFile(file)
+                  && Files.getLastModifiedTime(file).toMillis() < startTimestamp) {
+                log.info("Removing temporary file {} left behind by a crash", file);
+                Files.deleteIfExists(file);
+              }
+            }
+          } catch (NoSuchFileException e) {
+            // The upload was removed in the meantime
+          }
+        });
+  }
+
+  private void indexAllUploads() throws IOException {
+    visitEntries(
+        path -> {
+          UploadId id = new UploadId(path.getFileName().toString());
+          UploadInfo info = getUploadInfo(id);
+          if (info != null) {
+            expirationIndex.add(id, info.getExpirationTimestamp());
+          }
+        });
+  }
+
+  private void copyBytes(
+      List<UploadInfo> uploads, long position, long count, OutputStream outputStream)
+      throws UploadNotFoundException, IOException {
+    // Wrapping the output stream with Channels.newChannel would copy all bytes through small
+    // temporary buffers, so we copy them through pooled direct buffers instead
+    long skip = position;
+    long remaining = count;
+
+    for (UploadInfo upload : uploads) {
+      if (remaining <= 0) {
+        break;
+
+      } else if (upload == null) {
+        log.warn("We cannot copy the bytes of an upload that does not exist");
+
+      } else if (upload.isUploadInProgress()) {
+        log.warn(
+            "We cannot copy the bytes of upload {} because it is still in progress",
+            upload.getId());
+
+      } else if (skip >= upload.getLength()) {
+        // The range starts in one of the next partial uploads
+        skip -= upload.getLength();
+
+      } else {
+        long partCount = Math.min(remaining, upload.getLength() - skip);
+        Path bytesPath = getBytesPath(upload.getId());
+        try (FileChannel file = FileChannel.open(bytesPath, READ)) {
+          Utils.transferTo(file, skip, partCount, outputStream, bufferPool);
+        }
+        remaining -= partCount;
+        skip = 0;
       }
     }
   }
@@ -316,7 +772,12 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
     return uploads;
   }
 
-  private Path getBytesPath(UploadId id) throws UploadNotFoundException {
+  @Override
+  protected boolean isUploadDirectory(Path directory) {
+    return Files.exists(directory.resolve(DATA_FILE)) || Files.exists(directory.resolve(INFO_FILE));
+  }
+
+  Path getBytesPath(UploadId id) throws UploadNotFoundException {
     return getPathInUploadDir(id, DATA_FILE);
   }
 
@@ -324,13 +785,9 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
     return getPathInUploadDir(id, INFO_FILE);
   }
 
-  private Path createUploadDirectory(UploadId id) throws IOException {
-    return Files.createDirectories(getPathInStorageDirectory(id));
-  }
-
   private Path getPathInUploadDir(UploadId id, String fileName) throws UploadNotFoundException {
     // Get the upload directory
-    Path uploadDir = getPathInStorageDirectory(id);
+    Path uploadDir = findPathInStorageDirectory(id);
     if (uploadDir != null && Files.exists(uploadDir)) {
       return uploadDir.resolve(fileName);
     } else {
@@ -338,13 +795,135 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
     }
   }
 
-  private synchronized UploadId createNewId() throws IOException {
-    UploadId id;
-    do {
-      id = idFactory.createId();
-      // For extra safety, double check that this ID is not in use yet
-    } while (getUploadInfo(id) != null);
-    return id;
+  private UploadId createNewUploadDirectory() throws IOException {
+    while (true) {
+      UploadId id = idFactory.createId();
+      try {
+        // Creating the directory atomically reserves the ID, also for other application instances
+        Path uploadDir = getPathInStorageDirectory(id);
+        createShardDirectories(uploadDir);
+        Files.createDirectory(uploadDir);
+        return id;
+      } catch (FileAlreadyExistsException e) {
+        log.debug("Upload ID {} is already in use, generating a new one", id);
+      }
+    }
+  }
+
+  /**
+   * Check if the bytes of an upload after the given offset can be discarded because they were
+   * written without ever being acknowledged. That can only happen when the offset is persisted
+   * after the data is stored without forcing the data first, so with the {@link
+   * DurabilityPolicy#PERIODIC} and {@link DurabilityPolicy#NONE} policies. With the other policies
+   * a smaller offset means that the offset of the request is wrong.
+   */
+  private boolean canDiscardBytesAfter(UploadId id, long offset) throws IOException {
+    if (durabilityPolicy != DurabilityPolicy.PERIODIC
+        && durabilityPolicy != DurabilityPolicy.NONE) {
+      return false;
+    }
+
+    PendingUpload pending = getPendingUpload(id);
+    if (pending != null) {
+      // All bytes up to the written offset were acknowledged by this instance
+      return offset >= pending.getWrittenOffset();
+    }
+    UploadInfo persisted = readUploadInfo(id);
+    return persisted != null && persisted.getOffset() != null && offset >= persisted.getOffset();
+  }
+
+  private boolean forceData(FileChannel file) throws IOException {
+    switch (durabilityPolicy) {
+      case ALWAYS:
+        file.force(true);
+        return true;
+      case DATA_ONLY:
+        file.force(false);
+        return true;
+      default:
+        // The data is forced by the periodic flusher or left to the operating system
+        return false;
+    }
+  }
+
+  private PendingUpload getPendingUpload(UploadId id) {
+    return periodicDataSync == null ? null : periodicDataSync.getPendingUpload(id);
+  }
+
+  private void restartPeriodicDataSync() {
+    if (periodicDataSync != null) {
+      periodicDataSync.close();
+      periodicDataSync = null;
+    }
+    if (durabilityPolicy == DurabilityPolicy.PERIODIC) {
+      periodicDataSync = new PeriodicDataSync(this, periodicSyncIntervalMs, periodicSyncMaxBytes);
+    }
+  }
+
+  private ResumableChecksumCalculator resumeUploadChecksum(
+      UploadInfo info, ChecksumAlgorithm algorithm, FileChannel file, long offset)
+      throws IOException {
+    for (UploadChecksumState state :
+        new UploadChecksumState[] {info.getChecksumState(), info.getPreviousChecksumState()}) {
+      if (state != null && state.getAlgorithm() == algorithm && state.getOffset() == offset) {
+        ResumableChecksumCalculator calculator = state.restoreCalculator();
+        if (calculator != null) {
+          return calculator;
+        }
+      }
+    }
+
+    // The saved state is missing or does not match the stored bytes (e.g. after a crash)
+    ResumableChecksumCalculator calculator = algorithm.getResumableChecksumCalculator();
+    if (offset > 0) {
+      log.debug("Recalculating the {} checksum of upload {}", algorithm, info.getId());
+      byte[] staging = bufferPool.acquireStagingArray();
+      try {
+        ByteBuffer buffer = ByteBuffer.wrap(staging);
+        long position = 0;
+        while (position < offset) {
+          buffer.clear().limit((int) Math.min(staging.length, offset - position));
+          int read = file.read(buffer, position);
+          if (read < 0) {
+            throw new EOFException("Upload " + info.getId() + " is smaller than its offset");
+          }
+          calculator.update(staging, 0, read);
+          position += read;
+        }
+      } finally {
+        bufferPool.releaseStagingArray(staging);
+      }
+    }
+    return calculator;
+  }
+
+  private void saveUploadChecksum(
+      UploadInfo info,
+      UploadChecksumState stateBefore,
+      ResumableChecksumCalculator checksum,
+      long newOffset,
+      long checksumOffset) {
+    if (checksumOffset == newOffset) {
+      if (newOffset != stateBefore.getOffset()) {
+        info.setPreviousChecksumState(stateBefore);
+      }
+      info.setChecksumState(
+          new UploadChecksumState(stateBefore.getAlgorithm(), newOffset, checksum.getState()));
+    } else {
+      // Not all bytes that were read have been stored, recalculate the checksum on the next append
+      info.setPreviousChecksumState(stateBefore);
+      info.setChecksumState(null);
+    }
+  }
+
+  private void rollbackUploadChecksum(UploadInfo info, long offset) {
+    UploadChecksumState state = info.getChecksumState();
+    UploadChecksumState previousState = info.getPreviousChecksumState();
+    if (state == null || state.getOffset() != offset) {
+      info.setChecksumState(
+          previousState != null && previousState.getOffset() == offset ? previousState : null);
+      info.setPreviousChecksumState(null);
+    }
   }
 
   private long writeAsMuchAsPossible(FileChannel file) throws IOException {
@@ -355,4 +934,72 @@ public class DiskStorageService extends AbstractDiskBasedService implements Uplo
     }
     return offset;
   }
+
+  /** The default {@link UploadInfoStore}, which stores the upload info in the upload directory. */
+  private class InfoFileStore implements UploadInfoStore {
+
+    @Override
+    public UploadInfo read(UploadId id) throws IOException {
+      try {
+        ByteBuffer buffer = Utils.readFile(getInfoPath(id));
+        return buffer == null ? null : uploadInfoCodec.decode(buffer);
+      } catch (UploadNotFoundException | NoSuchFileException e) {
+        // The upload does not exist (anymore)
+        return null;
+      }
+    }
+
+    @Override
+    public void write(UploadInfo uploadInfo) throws IOException {
+      try {
+        // A rename of an info file that is not forced can survive an OS crash without its content
+        Path infoPath = getInfoPath(uploadInfo.getId());
+        Utils.writeFile(
+            uploadInfoCodec.encode(uploadInfo),
+            infoPath,
+            durabilityPolicy != DurabilityPolicy.NONE);
+        if (durabilityPolicy == DurabilityPolicy.ALWAYS) {
+          // Make the rename itself durable, so the acknowledged offset survives an OS crash
+          Utils.forceDirectory(infoPath.getParent());
+        }
+      } catch (UploadNotFoundException e) {
+        throw new NoSuchFileException(e.getMessage());
+      }
+    }
+
+    @Override
+    public void writeOffset(UploadId id, long offset) throws IOException {
+      UploadInfo info = read(id);
+      if (info != null) {
+        info.setOffset(offset);
+        write(info);
+      }
+    }
+
+    @Override
+    public void remove(UploadId id) {
+      // The info file is removed together with the upload directory
+    }
+
+    /**
+     * {@inheritDoc} <br>
+     * The upload info is always replaced by renaming a new file, so the version combines the file
+     * key (inode), modification time and size of the info file. This still detects a change when
+     * the file system only stores the modification time with a coarse precision.
+     */
+    @Override
+    public String getVersion(UploadId id) throws IOException {
+      try {
+        BasicFileAttributes attributes =
+            Files.readAttributes(getInfoPath(id), BasicFileAttributes.class);
+        return attributes.fileKey()
+            + "/"
+            + attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+            + "/"
+            + attributes.size();
+      } catch (UploadNotFoundException | NoSuchFileException e) {
+        return null;
+      }
+    }
+  }
 }
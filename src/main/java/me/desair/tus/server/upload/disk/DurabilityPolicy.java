@@ -0,0 +1,44 @@
+package me.desair.tus.server.upload.disk;
+
+/**
+ * Policy that determines when the {@link DiskStorageService} forces the bytes of an upload to the
+ * storage device. With every policy except {@link #NONE}, the offset that is persisted in the
+ * upload information never runs ahead of the bytes that are durably stored, and the upload
+ * information itself is forced before it replaces the previous version. This applies to the upload
+ * info files, a custom {@link UploadInfoStore} decides itself when its writes are forced (see
+ * {@link MappedUploadInfoStore#setSyncOnWrite(boolean)}).
+ */
+public enum DurabilityPolicy {
+
+  /**
+   * Force both the data and the file metadata to the storage device after every append. The upload
+   * information is forced together with the directory that contains it before a request completes,
+   * so an acknowledged offset survives an operating system crash.
+   */
+  ALWAYS,
+
+  /**
+   * Only force the data (and the metadata needed to read it back, like the file size) to the
+   * storage device after every append. The new upload information is forced before it replaces the
+   * previous version, but that replacement is not, so after an operating system crash the upload
+   * can return to an earlier offset for which all bytes are stored.
+   */
+  DATA_ONLY,
+
+  /**
+   * Force the data of all uploads that were appended to from a background thread, either at a fixed
+   * interval or as soon as a configured number of bytes has not been forced yet. Until then, the
+   * persisted upload information keeps the last durable offset while the current offset is kept in
+   * memory. Only use this policy when the storage directory is not shared between multiple
+   * application instances.
+   */
+  PERIODIC,
+
+  /**
+   * Never force data to the storage device, but leave it up to the operating system. After a crash
+   * the last appended bytes of an upload may be lost, in which case the upload offset is reduced to
+   * the number of bytes that are actually present. The upload information is not forced either, so
+   * after an operating system crash or power loss an upload can be lost completely.
+   */
+  NONE
+}
@@ -0,0 +1,212 @@
+package me.desair.tus.server.upload.disk;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import me.desair.tus.server.upload.UploadId;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk index of the expiration timestamps of uploads, used by the {@link DiskStorageService} to
+ * find the expired uploads without reading the information of every upload. <br>
+ * Expiration timestamps are grouped in buckets of a fixed duration. Each bucket is a directory
+ * named after its start timestamp, containing an empty marker file per upload that expires within
+ * the bucket. Markers are only added, never moved: when the expiration of an upload changes, the
+ * marker in the old bucket becomes stale and is removed when that bucket is cleaned up. A marker is
+ * therefore a hint that must always be verified against the upload information.
+ */
+class ExpirationIndex {
+
+  /** Default duration of a bucket, which is 10 minutes. */
+  static final long DEFAULT_EXPIRATION_BUCKET_DURATION = 10L * 60 * 1000;
+
+  private static final Logger log = LoggerFactory.getLogger(ExpirationIndex.class);
+
+  /** Present once all uploads in the storage directory have been added to this index. */
+  private static final String COMPLETE_FILE = ".complete";
+
+  private final Path indexPath;
+  private final long bucketDuration;
+
+  ExpirationIndex(Path indexPath, long bucketDuration) {
+    Validate.notNull(indexPath, "The index path cannot be null");
+    Validate.isTrue(bucketDuration > 0, "The bucket duration must be bigger than 0");
+    this.indexPath = indexPath;
+    this.bucketDuration = bucketDuration;
+  }
+
+  /**
+   * Get the bucket that contains the given expiration timestamp.
+   *
+   * @param expirationTimestamp The expiration timestamp in milliseconds
+   * @return The start timestamp of the bucket
+   */
+  long getBucket(long expirationTimestamp) {
+    return Math.floorDiv(expirationTimestamp, bucketDuration) * bucketDuration;
+  }
+
+  /**
+   * Add an upload to the bucket of its expiration timestamp. Adding an upload that is already in
+   * that bucket is a no-op that costs a single file system call.
+   *
+   * @param id The ID of the upload
+   * @param expirationTimestamp The expiration timestamp of the upload, or null if it never expires
+   * @throws IOException When the marker of the upload cannot be created
+   */
+  void add(UploadId id, Long expirationTimestamp) throws IOException {
+    if (id == null || expirationTimestamp == null) {
+      return;
+    }
+
+    Path bucketPath = getBucketPath(getBucket(expirationTimestamp));
+    Path markerPath = bucketPath.resolve(id.toString());
+    while (true) {
+      try {
+        Files.createFile(markerPath);
+        return;
+      } catch (FileAlreadyExistsException e) {
+        // The upload was already indexed for this bucket
+        return;
+      } catch (NoSuchFileException e) {
+        // This is the first upload that expires in this bucket
+        Files.createDirectories(bucketPath);
+      }
+    }
+  }
+
+  /**
+   * Remove an upload from the bucket of the given expiration timestamp.
+   *
+   * @param id The ID of the upload
+   * @param expirationTimestamp The expiration timestamp the upload was indexed with
+   */
+  void remove(UploadId id, Long expirationTimestamp) {
+    if (id != null && expirationTimestamp != null) {
+      removeMarker(getBucket(expirationTimestamp), id);
+    }
+  }
+
+  /**
+   * Remove the marker of an upload from the given bucket.
+   *
+   * @param bucket The start timestamp of the bucket
+   * @param id The ID of the upload
+   */
+  void removeMarker(long bucket, UploadId id) {
+    try {
+      Files.deleteIfExists(getBucketPath(bucket).resolve(id.toString()));
+    } catch (IOException e) {
+      log.warn("Unable to remove upload {} from the expiration index", id, e);
+    }
+  }
+
+  /**
+   * Get the buckets that start at or before the given time, so that they can contain expired
+   * uploads.
+   *
+   * @param now The current time in milliseconds
+   * @return The start timestamps of the buckets in ascending order
+   * @throws IOException When the index cannot be read
+   */
+  List<Long> getDueBuckets(long now) throws IOException {
+    if (!Files.exists(indexPath)) {
+      return Collections.emptyList();
+    }
+
+    List<Long> buckets = new ArrayList<>();
+    try (DirectoryStream<Path> bucketStream = Files.newDirectoryStream(indexPath)) {
+      for (Path bucketPath : bucketStream) {
+        Long bucket = parseBucket(bucketPath.getFileName().toString());
+        if (bucket != null && bucket <= now) {
+          buckets.add(bucket);
+        }
+      }
+    }
+    Collections.sort(buckets);
+    return buckets;
+  }
+
+  /**
+   * Get the IDs of all uploads that were added to the given bucket.
+   *
+   * @param bucket The start timestamp of the bucket
+   * @return The upload IDs in the bucket
+   * @throws IOException When the bucket cannot be read
+   */
+  List<UploadId> getUploadIds(long bucket) throws IOException {
+    List<UploadId> ids = new ArrayList<>();
+    try (DirectoryStream<Path> markerStream = Files.newDirectoryStream(getBucketPath(bucket))) {
+      for (Path markerPath : markerStream) {
+        ids.add(new UploadId(markerPath.getFileName().toString()));
+      }
+    } catch (NoSuchFileException e) {
+      // The bucket was removed in the meantime
+    }
+    return ids;
+  }
+
+  /**
+   * Remove the given bucket if it has ended before the given time and no longer contains any
+   * uploads. Uploads are never added to such a bucket, unless they expire in the past.
+   *
+   * @param bucket The start timestamp of the bucket
+   * @param now The current time in milliseconds
+   */
+  void removeBucketIfEmpty(long bucket, long now) {
+    if (bucket + bucketDuration > now) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(getBucketPath(bucket));
+    } catch (DirectoryNotEmptyException e) {
+      // Some uploads in this bucket are not expired or are still locked
+    } catch (IOException e) {
+      log.debug("Unable to remove expiration bucket {}", bucket, e);
+    }
+  }
+
+  /**
+   * Check if all uploads in the storage directory have been added to this index. This is not the
+   * case for uploads that were created before the index existed.
+   *
+   * @return True if the index contains all uploads, false otherwise
+   */
+  boolean isComplete() {
+    return Files.exists(indexPath.resolve(COMPLETE_FILE));
+  }
+
+  /**
+   * Record that all uploads in the storage directory have been added to this index.
+   *
+   * @throws IOException When the index directory cannot be written
+   */
+  void markComplete() throws IOException {
+    Files.createDirectories(indexPath);
+    try {
+      Files.createFile(indexPath.resolve(COMPLETE_FILE));
+    } catch (FileAlreadyExistsException e) {
+      // Another cleanup run finished first
+    }
+  }
+
+  private Path getBucketPath(long bucket) {
+    return indexPath.resolve(Long.toString(bucket));
+  }
+
+  private Long parseBucket(String name) {
+    try {
+      return Long.parseLong(name);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -11,7 +11,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import me.desair.tus.server.exception.UploadAlreadyLockedException;
 import me.desair.tus.server.upload.UploadLock;
-import me.desair.tus.server.util.Utils;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,9 +45,9 @@ public class FileBasedLock implements UploadLock {
     String message = "The upload " + getUploadUri() + " is already locked";
 
     try {
-      // Try to acquire a lock
+      // Try to acquire a lock, waiting for it is up to the locking service
       fileChannel = createFileChannel();
-      FileLock fileLock = Utils.lockFileExclusively(fileChannel);
+      FileLock fileLock = fileChannel.tryLock(0L, Long.MAX_VALUE, false);
 
       // If the upload is already locked, our lock will be null
       if (fileLock == null) {
@@ -0,0 +1,634 @@
+package me.desair.tus.server.upload.disk;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.codec.BinaryUploadInfoCodec;
+import me.desair.tus.server.upload.codec.UploadInfoCodec;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link UploadInfoStore} that keeps all upload info records in a single memory-mapped file, so
+ * that reading an upload info or updating its offset does not need any system call. <br>
+ * The file consists of fixed-size slots. Every upload has one record slot that holds its offset and
+ * the first bytes of its encoded upload info. The rest of a large upload info (like long metadata
+ * or the IDs of the parts of a concatenated upload) is stored in a chain of overflow slots. When
+ * only the offset of an upload changes, only that offset is written in place. Any other change is
+ * written to a new record slot, after which the upload is switched to the new slot and the previous
+ * slot is freed, so the previous record is never lost when the application stops while a record is
+ * being written. If both records survive, the one with the highest generation is kept. <br>
+ * Each record slot has a sequence number that is odd while the slot is being written, so that
+ * readers never need a lock: they retry when the sequence number changed while they were reading.
+ * Every record also has a checksum, so a record that was only partially written when the
+ * application stopped is discarded when the file is opened again. The slots of an upload are found
+ * using an in-memory index that is built when the file is opened. Therefore this store MUST NOT be
+ * shared by multiple application instances. <br>
+ * By default written records are left to the operating system to be written to the storage device,
+ * which means they survive a crash of the application but not of the operating system. Use {@link
+ * #setSyncOnWrite(boolean)} to force every write to the storage device.
+ */
+public class MappedUploadInfoStore implements UploadInfoStore, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(MappedUploadInfoStore.class);
+
+  static final int SLOT_SIZE = 512;
+  static final int SLOTS_PER_SEGMENT = 8192;
+  private static final long SEGMENT_SIZE = (long) SLOT_SIZE * SLOTS_PER_SEGMENT;
+
+  private static final int MAGIC = 0x54555349;
+  private static final int FORMAT_VERSION = 1;
+
+  private static final int FREE = 0;
+  private static final int RECORD = 1;
+  private static final int OVERFLOW = 2;
+
+  // Layout of a record slot
+  private static final int SEQUENCE = 0;
+  private static final int STATE = 4;
+  private static final int OFFSET = 8;
+  private static final int RECORD_LENGTH = 16;
+  private static final int FIRST_OVERFLOW = 20;
+  private static final int RECORD_CHECKSUM = 24;
+  private static final int GENERATION = 28;
+  private static final int RECORD_DATA = 32;
+  static final int RECORD_CAPACITY = SLOT_SIZE - RECORD_DATA;
+
+  // Layout of an overflow slot, which shares the STATE field with a record slot
+  private static final int NEXT_OVERFLOW = 8;
+  private static final int OVERFLOW_LENGTH = 12;
+  private static final int OVERFLOW_DATA = 16;
+  static final int OVERFLOW_CAPACITY = SLOT_SIZE - OVERFLOW_DATA;
+
+  private static final int NO_SLOT = -1;
+  private static final long NO_OFFSET = Long.MIN_VALUE;
+
+  /** Number of write lock stripes, this MUST be a power of two. */
+  private static final int STRIPE_COUNT = 64;
+
+  private static final VarHandle INT_VIEW =
+      MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+  private final Path path;
+  private final FileChannel channel;
+  private final UploadInfoCodec codec;
+  private final Map<UploadId, Integer> index = new ConcurrentHashMap<>();
+  private final Queue<Integer> freeSlots = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger nextSlot = new AtomicInteger(1);
+  private final ReentrantLock[] stripes = new ReentrantLock[STRIPE_COUNT];
+  private final ReentrantLock growLock = new ReentrantLock();
+  private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+  private volatile boolean syncOnWrite = false;
+
+  /**
+   * Open (or create) a store in the given file, using the {@link BinaryUploadInfoCodec}.
+   *
+   * @param path The path of the file
+   * @throws IOException When the file cannot be opened or is not a valid store
+   */
+  public MappedUploadInfoStore(Path path) throws IOException {
+    this(path, new BinaryUploadInfoCodec());
+  }
+
+  /**
+   * Open (or create) a store in the given file.
+   *
+   * @param path The path of the file
+   * @param codec The codec used to encode the upload info records
+   * @throws IOException When the file cannot be opened or is not a valid store
+   */
+  public MappedUploadInfoStore(Path path, UploadInfoCodec codec) throws IOException {
+    Validate.notNull(path, "The path cannot be null");
+    Validate.notNull(codec, "The UploadInfoCodec cannot be null");
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new ReentrantLock();
+    }
+    this.path = path;
+    this.codec = codec;
+    this.channel = FileChannel.open(path, CREATE, READ, WRITE);
+    try {
+      open();
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Force every write to the storage device before the write returns. This makes writes
+   * considerably slower.
+   *
+   * @param syncOnWrite True to force every write, false to leave it to the operating system
+   */
+  public void setSyncOnWrite(boolean syncOnWrite) {
+    this.syncOnWrite = syncOnWrite;
+  }
+
+  public boolean isSyncOnWrite() {
+    return syncOnWrite;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Get the number of uploads of which the upload info is stored.
+   *
+   * @return The number of uploads
+   */
+  public int size() {
+    return index.size();
+  }
+
+  @Override
+  public UploadInfo read(UploadId id) throws IOException {
+    Integer slot = index.get(id);
+    while (slot != null) {
+      UploadInfo info = read(id, slot);
+      Integer current = index.get(id);
+      if (info != null || slot.equals(current)) {
+        return info;
+      }
+      // The record was moved to another slot while we were reading it
+      slot = current;
+    }
+    return null;
+  }
+
+  private UploadInfo read(UploadId id, int slot) throws IOException {
+    ByteBuffer buffer = getSlot(slot);
+    while (true) {
+      int sequence = (int) INT_VIEW.getAcquire(buffer, SEQUENCE);
+      if ((sequence & 1) != 0) {
+        Thread.onSpinWait();
+        continue;
+      }
+
+      byte[] record = null;
+      long offset = NO_OFFSET;
+      if (buffer.getInt(STATE) == RECORD) {
+        offset = buffer.getLong(OFFSET);
+        record = readRecord(buffer);
+      }
+
+      VarHandle.loadLoadFence();
+      if ((int) INT_VIEW.getVolatile(buffer, SEQUENCE) == sequence) {
+        return record == null ? null : decode(id, record, offset);
+      }
+    }
+  }
+
+  @Override
+  public void write(UploadInfo uploadInfo) throws IOException {
+    byte[] record = encode(uploadInfo);
+    long offset = uploadInfo.getOffset() == null ? NO_OFFSET : uploadInfo.getOffset();
+
+    while (true) {
+      int slot = index.computeIfAbsent(uploadInfo.getId(), id -> allocateSlot());
+      ReentrantLock lock = getStripe(slot);
+      lock.lock();
+      try {
+        if (!Integer.valueOf(slot).equals(index.get(uploadInfo.getId()))) {
+          // The upload was removed while we were waiting for the lock
+          continue;
+        }
+
+        ByteBuffer buffer = getSlot(slot);
+        if (buffer.getInt(STATE) != RECORD) {
+          // A new upload, there is no previous record that could be lost
+          writeRecord(buffer, record, offset, 0);
+          sync(slot);
+        } else if (Arrays.equals(readRecord(buffer), record)) {
+          // Only the offset changed
+          writeOffset(buffer, offset);
+          sync(slot);
+        } else {
+          replaceRecord(uploadInfo.getId(), slot, buffer, record, offset);
+        }
+        return;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  @Override
+  public void writeOffset(UploadId id, long offset) throws IOException {
+    while (true) {
+      Integer slot = index.get(id);
+      if (slot == null) {
+        return;
+      }
+
+      ReentrantLock lock = getStripe(slot);
+      lock.lock();
+      try {
+        if (!slot.equals(index.get(id))) {
+          // The record was moved to another slot or removed while we were waiting for the lock
+          continue;
+        }
+
+        ByteBuffer buffer = getSlot(slot);
+        if (buffer.getInt(STATE) == RECORD) {
+          writeOffset(buffer, offset);
+          sync(slot);
+        }
+        return;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  @Override
+  public void remove(UploadId id) throws IOException {
+    Integer slot = index.remove(id);
+    if (slot == null) {
+      return;
+    }
+
+    ReentrantLock lock = getStripe(slot);
+    lock.lock();
+    try {
+      freeRecord(slot);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public String getVersion(UploadId id) {
+    Integer slot = index.get(id);
+    if (slot == null) {
+      return null;
+    }
+
+    ByteBuffer buffer = getSlot(slot);
+    int sequence;
+    while (((sequence = (int) INT_VIEW.getAcquire(buffer, SEQUENCE)) & 1) != 0) {
+      Thread.onSpinWait();
+    }
+    // Sequence numbers are never reset, so they also differ when a slot is reused
+    return slot + "-" + sequence;
+  }
+
+  /**
+   * Force all records to the storage device.
+   *
+   * @throws IOException When the records cannot be forced
+   */
+  public void sync() throws IOException {
+    for (MappedByteBuffer segment : segments) {
+      segment.force();
+    }
+  }
+
+  /** Force all records to the storage device and close the file. */
+  @Override
+  public void close() throws IOException {
+    try {
+      sync();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void open() throws IOException {
+    long size = channel.size();
+    if (size == 0) {
+      ensureCapacity(0);
+      ByteBuffer header = getSlot(0);
+      header.putInt(0, MAGIC);
+      header.putInt(4, FORMAT_VERSION);
+      header.putInt(8, SLOT_SIZE);
+      segments[0].force();
+      return;
+    }
+
+    if (size % SEGMENT_SIZE != 0) {
+      throw new StreamCorruptedException("The size of " + path + " is not a multiple of a segment");
+    }
+    ensureCapacity((int) (size / SLOT_SIZE) - 1);
+    ByteBuffer header = getSlot(0);
+    if (header.getInt(0) != MAGIC
+        || header.getInt(4) != FORMAT_VERSION
+        || header.getInt(8) != SLOT_SIZE) {
+      throw new StreamCorruptedException(path + " is not a valid upload info store");
+    }
+
+    int capacity = (int) (size / SLOT_SIZE);
+    boolean[] referenced = new boolean[capacity];
+    int lastUsed = 0;
+    for (int slot = 1; slot < capacity; slot++) {
+      ByteBuffer buffer = getSlot(slot);
+      int sequence = buffer.getInt(SEQUENCE);
+      if ((sequence & 1) != 0) {
+        // The application stopped while this slot was being written
+        buffer.putInt(SEQUENCE, sequence + 1);
+      }
+      if (buffer.getInt(STATE) != RECORD) {
+        continue;
+      }
+
+      UploadInfo info = recover(slot, buffer);
+      if (info == null) {
+        log.warn("Discarding the incomplete upload info record in slot {} of {}", slot, path);
+        buffer.putInt(STATE, FREE);
+        continue;
+      }
+
+      Integer previous = index.put(info.getId(), slot);
+      if (previous != null) {
+        // The application stopped before the replaced record of this upload was freed
+        ByteBuffer previousBuffer = getSlot(previous);
+        int discarded =
+            buffer.getInt(GENERATION) - previousBuffer.getInt(GENERATION) > 0 ? previous : slot;
+        log.warn(
+            "Discarding the replaced upload info record of upload {} in slot {} of {}",
+            info.getId(),
+            discarded,
+            path);
+        index.put(info.getId(), discarded == slot ? previous : slot);
+        getSlot(discarded).putInt(STATE, FREE);
+      }
+    }
+
+    for (int slot : index.values()) {
+      referenced[slot] = true;
+      lastUsed = Math.max(lastUsed, slot);
+      for (int overflow = getSlot(slot).getInt(FIRST_OVERFLOW);
+          overflow != NO_SLOT;
+          overflow = getSlot(overflow).getInt(NEXT_OVERFLOW)) {
+        referenced[overflow] = true;
+        lastUsed = Math.max(lastUsed, overflow);
+      }
+    }
+
+    // Overflow slots of records that were being replaced when the application stopped are free
+    for (int slot = 1; slot <= lastUsed; slot++) {
+      if (!referenced[slot]) {
+        getSlot(slot).putInt(STATE, FREE);
+        freeSlots.add(slot);
+      }
+    }
+    nextSlot.set(lastUsed + 1);
+    log.debug("Opened {} with the upload info of {} uploads", path, index.size());
+  }
+
+  private UploadInfo recover(int slot, ByteBuffer buffer) {
+    try {
+      int length = buffer.getInt(RECORD_LENGTH);
+      int overflowSlots = 0;
+      for (int overflow = buffer.getInt(FIRST_OVERFLOW);
+          overflow != NO_SLOT;
+          overflow = getSlot(overflow).getInt(NEXT_OVERFLOW)) {
+        if (overflow <= 0
+            || overflow >= nextCapacity()
+            || getSlot(overflow).getInt(STATE) != OVERFLOW
+            || ++overflowSlots > length / OVERFLOW_CAPACITY + 1) {
+          return null;
+        }
+      }
+      byte[] record = readRecord(buffer);
+      if (record.length != length || checksum(record) != buffer.getInt(RECORD_CHECKSUM)) {
+        return null;
+      }
+
+      long offset = buffer.getLong(OFFSET);
+      UploadInfo info = codec.decode(ByteBuffer.wrap(record));
+      if (info.getId() != null) {
+        info.setOffset(offset == NO_OFFSET ? null : offset);
+      }
+      return info.getId() == null ? null : info;
+    } catch (IOException | RuntimeException e) {
+      log.debug("Unable to decode the upload info record in slot {} of {}", slot, path, e);
+      return null;
+    }
+  }
+
+  private byte[] encode(UploadInfo uploadInfo) throws IOException {
+    // The offset is stored separately, so that it can be updated in place
+    Long offset = uploadInfo.getOffset();
+    uploadInfo.setOffset(null);
+    try {
+      ByteBuffer encoded = codec.encode(uploadInfo);
+      byte[] record = new byte[encoded.remaining()];
+      encoded.get(record);
+      return record;
+    } finally {
+      uploadInfo.setOffset(offset);
+    }
+  }
+
+  private UploadInfo decode(UploadId id, byte[] record, long offset) throws IOException {
+    UploadInfo info = codec.decode(ByteBuffer.wrap(record));
+    if (!id.equals(info.getId())) {
+      // The slot was reused for another upload after our upload was removed
+      return null;
+    }
+    info.setOffset(offset == NO_OFFSET ? null : offset);
+    return info;
+  }
+
+  /**
+   * Copy the record bytes of a record slot. This can return garbage when the slot is being written
+   * concurrently, in which case the caller will notice a changed sequence number.
+   */
+  private byte[] readRecord(ByteBuffer buffer) {
+    int length = buffer.getInt(RECORD_LENGTH);
+    if (length < 0 || length > (long) nextCapacity() * SLOT_SIZE) {
+      return new byte[0];
+    }
+
+    byte[] record = new byte[length];
+    int position = Math.min(length, RECORD_CAPACITY);
+    buffer.get(RECORD_DATA, record, 0, position);
+
+    int overflow = buffer.getInt(FIRST_OVERFLOW);
+    while (position < length && overflow > 0 && overflow < nextCapacity()) {
+      ByteBuffer overflowBuffer = getSlot(overflow);
+      int count = Math.min(length - position, OVERFLOW_CAPACITY);
+      overflowBuffer.get(OVERFLOW_DATA, record, position, count);
+      position += count;
+      overflow = overflowBuffer.getInt(NEXT_OVERFLOW);
+    }
+    return record;
+  }
+
+  /**
+   * Write the record of an upload to a new slot, switch the upload to that slot and only then free
+   * the slot with the previous record. The caller holds the lock of the previous slot.
+   */
+  private void replaceRecord(UploadId id, int slot, ByteBuffer buffer, byte[] record, long offset)
+      throws IOException {
+    int newSlot = allocateSlot();
+    writeRecord(getSlot(newSlot), record, offset, buffer.getInt(GENERATION) + 1);
+    sync(newSlot);
+
+    if (index.replace(id, slot, newSlot)) {
+      freeRecord(slot);
+    } else {
+      // The upload was removed while we were writing, the previous slot is freed by the removal
+      freeRecord(newSlot);
+    }
+  }
+
+  /** Free a record slot and its overflow chain. */
+  private void freeRecord(int slot) {
+    ByteBuffer buffer = getSlot(slot);
+    int firstOverflow = buffer.getInt(STATE) == RECORD ? buffer.getInt(FIRST_OVERFLOW) : NO_SLOT;
+    beginWrite(buffer);
+    buffer.putInt(STATE, FREE);
+    endWrite(buffer);
+    sync(slot);
+    freeChain(firstOverflow);
+    freeSlots.add(slot);
+  }
+
+  /** Write a record to a slot that does not contain a record yet. */
+  private void writeRecord(ByteBuffer buffer, byte[] record, long offset, int generation)
+      throws IOException {
+    // Write the new overflow chain before it is linked, so readers never see a partial chain
+    List<Integer> chain = new ArrayList<>();
+    for (int position = RECORD_CAPACITY; position < record.length; position += OVERFLOW_CAPACITY) {
+      chain.add(allocateSlot());
+    }
+    for (int i = 0; i < chain.size(); i++) {
+      int position = RECORD_CAPACITY + i * OVERFLOW_CAPACITY;
+      int count = Math.min(record.length - position, OVERFLOW_CAPACITY);
+      ByteBuffer overflowBuffer = getSlot(chain.get(i));
+      overflowBuffer.putInt(NEXT_OVERFLOW, i + 1 < chain.size() ? chain.get(i + 1) : NO_SLOT);
+      overflowBuffer.putInt(OVERFLOW_LENGTH, count);
+      overflowBuffer.put(OVERFLOW_DATA, record, position, count);
+      overflowBuffer.putInt(STATE, OVERFLOW);
+      sync(chain.get(i));
+    }
+
+    beginWrite(buffer);
+    buffer.putInt(STATE, RECORD);
+    buffer.putLong(OFFSET, offset);
+    buffer.putInt(RECORD_LENGTH, record.length);
+    buffer.putInt(FIRST_OVERFLOW, chain.isEmpty() ? NO_SLOT : chain.get(0));
+    buffer.putInt(RECORD_CHECKSUM, checksum(record));
+    buffer.putInt(GENERATION, generation);
+    buffer.put(RECORD_DATA, record, 0, Math.min(record.length, RECORD_CAPACITY));
+    endWrite(buffer);
+  }
+
+  private static int checksum(byte[] record) {
+    CRC32C crc = new CRC32C();
+    crc.update(record);
+    return (int) crc.getValue();
+  }
+
+  private void writeOffset(ByteBuffer buffer, long offset) {
+    beginWrite(buffer);
+    buffer.putLong(OFFSET, offset);
+    endWrite(buffer);
+  }
+
+  private void beginWrite(ByteBuffer buffer) {
+    int sequence = buffer.getInt(SEQUENCE);
+    INT_VIEW.setOpaque(buffer, SEQUENCE, sequence + 1);
+    VarHandle.storeStoreFence();
+  }
+
+  private void endWrite(ByteBuffer buffer) {
+    int sequence = buffer.getInt(SEQUENCE);
+    INT_VIEW.setRelease(buffer, SEQUENCE, sequence + 1);
+  }
+
+  private void freeChain(int firstOverflow) {
+    int overflow = firstOverflow;
+    while (overflow != NO_SLOT) {
+      ByteBuffer overflowBuffer = getSlot(overflow);
+      int next = overflowBuffer.getInt(NEXT_OVERFLOW);
+      overflowBuffer.putInt(STATE, FREE);
+      freeSlots.add(overflow);
+      overflow = next;
+    }
+  }
+
+  private int allocateSlot() {
+    Integer free = freeSlots.poll();
+    if (free != null) {
+      return free;
+    }
+
+    int slot = nextSlot.getAndIncrement();
+    try {
+      ensureCapacity(slot);
+    } catch (IOException e) {
+      throw new StoragePathNotAvailableException("Unable to extend " + path, e);
+    }
+    return slot;
+  }
+
+  private void ensureCapacity(int slot) throws IOException {
+    if (slot < nextCapacity()) {
+      return;
+    }
+
+    growLock.lock();
+    try {
+      MappedByteBuffer[] current = segments;
+      int required = slot / SLOTS_PER_SEGMENT + 1;
+      if (current.length >= required) {
+        return;
+      }
+
+      MappedByteBuffer[] extended = Arrays.copyOf(current, required);
+      for (int i = current.length; i < required; i++) {
+        extended[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * SEGMENT_SIZE, SEGMENT_SIZE);
+      }
+      segments = extended;
+    } finally {
+      growLock.unlock();
+    }
+  }
+
+  private int nextCapacity() {
+    return segments.length * SLOTS_PER_SEGMENT;
+  }
+
+  /** Get a view on a single slot, with position 0 at the start of the slot. */
+  private ByteBuffer getSlot(int slot) {
+    MappedByteBuffer segment = segments[slot / SLOTS_PER_SEGMENT];
+    return segment.slice((slot % SLOTS_PER_SEGMENT) * SLOT_SIZE, SLOT_SIZE);
+  }
+
+  private void sync(int slot) {
+    if (syncOnWrite) {
+      segments[slot / SLOTS_PER_SEGMENT].force((slot % SLOTS_PER_SEGMENT) * SLOT_SIZE, SLOT_SIZE);
+    }
+  }
+
+  private ReentrantLock getStripe(int slot) {
+    return stripes[slot & (STRIPE_COUNT - 1)];
+  }
+}
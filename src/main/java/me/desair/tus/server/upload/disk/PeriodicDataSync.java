@@ -0,0 +1,192 @@
+package me.desair.tus.server.upload.disk;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import me.desair.tus.server.exception.UploadNotFoundException;
+import me.desair.tus.server.upload.UploadId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background flusher used by the {@link DiskStorageService} for the {@link
+ * DurabilityPolicy#PERIODIC} policy. It keeps track of the uploads that have bytes which are not
+ * forced to the storage device yet, and forces them as a group at a fixed interval or as soon as
+ * too many bytes are pending. Only after the data of an upload has been forced, its new offset is
+ * written to the upload information.
+ */
+class PeriodicDataSync {
+
+  private static final Logger log = LoggerFactory.getLogger(PeriodicDataSync.class);
+
+  private final DiskStorageService storageService;
+  private final long maxUnsyncedBytes;
+  private final ScheduledExecutorService executor;
+
+  private final Map<UploadId, PendingUpload> pendingUploads = new ConcurrentHashMap<>();
+  private final AtomicLong unsyncedBytes = new AtomicLong();
+  private final AtomicBoolean syncRequested = new AtomicBoolean(false);
+
+  PeriodicDataSync(DiskStorageService storageService, long syncIntervalMs, long maxUnsyncedBytes) {
+    this.storageService = storageService;
+    this.maxUnsyncedBytes = maxUnsyncedBytes;
+    this.executor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "tus-periodic-data-sync");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.scheduleWithFixedDelay(
+        this::syncAll, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Register that bytes were appended to the given upload without forcing them to the storage
+   * device.
+   *
+   * @param id The ID of the upload
+   * @param previousOffset The durable offset of the upload before the append
+   * @param newOffset The offset of the upload after the append
+   */
+  void dataWritten(UploadId id, long previousOffset, long newOffset) {
+    if (newOffset <= previousOffset) {
+      return;
+    }
+
+    pendingUploads.compute(
+        id,
+        (key, pending) -> {
+          PendingUpload result = pending == null ? new PendingUpload(previousOffset) : pending;
+          result.writtenOffset = newOffset;
+          return result;
+        });
+
+    if (unsyncedBytes.addAndGet(newOffset - previousOffset) >= maxUnsyncedBytes
+        && syncRequested.compareAndSet(false, true)) {
+      try {
+        executor.execute(this::syncAll);
+      } catch (RejectedExecutionException e) {
+        // We are shutting down, the pending uploads are synced by close()
+        syncRequested.set(false);
+      }
+    }
+  }
+
+  /**
+   * Get the pending state of the given upload.
+   *
+   * @param id The ID of the upload
+   * @return The pending state or null if all bytes of this upload are durable
+   */
+  PendingUpload getPendingUpload(UploadId id) {
+    return pendingUploads.get(id);
+  }
+
+  /**
+   * Stop tracking the given upload, for example because it was truncated or removed. The caller
+   * should hold the lock of the pending upload, if any.
+   *
+   * @param id The ID of the upload
+   */
+  void forget(UploadId id) {
+    pendingUploads.remove(id);
+  }
+
+  /** Force the data of all pending uploads and persist their new offsets. */
+  void syncAll() {
+    syncRequested.set(false);
+    unsyncedBytes.set(0);
+
+    for (Map.Entry<UploadId, PendingUpload> entry : pendingUploads.entrySet()) {
+      sync(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /** Stop the background flusher after syncing all pending uploads one last time. */
+  void close() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        log.warn("Timed out while waiting for the periodic data sync to finish");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    syncAll();
+  }
+
+  private void sync(UploadId id, PendingUpload pending) {
+    pending.lock();
+    try {
+      if (pendingUploads.get(id) != pending) {
+        // The upload was truncated or removed in the meantime
+        return;
+      }
+
+      long offset = pending.writtenOffset;
+      long start = System.nanoTime();
+      try (FileChannel file = FileChannel.open(storageService.getBytesPath(id), WRITE)) {
+        file.force(false);
+      }
+      storageService.getMetrics().dataSynced(1, System.nanoTime() - start);
+      pending.durableOffset = offset;
+
+      storageService.writeDurableOffset(id, offset);
+
+      pendingUploads.computeIfPresent(
+          id, (key, value) -> value == pending && value.writtenOffset == offset ? null : value);
+
+    } catch (UploadNotFoundException | NoSuchFileException e) {
+      // The upload was removed in the meantime
+      pendingUploads.remove(id, pending);
+    } catch (IOException e) {
+      log.warn("Unable to sync the data of upload " + id, e);
+    } finally {
+      pending.unlock();
+    }
+  }
+
+  /**
+   * The state of an upload that has bytes that are not durable yet. The lock of this object
+   * serializes all writes of the upload information of that upload.
+   */
+  static class PendingUpload {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile long durableOffset;
+    private volatile long writtenOffset;
+
+    PendingUpload(long durableOffset) {
+      this.durableOffset = durableOffset;
+      this.writtenOffset = durableOffset;
+    }
+
+    long getDurableOffset() {
+      return durableOffset;
+    }
+
+    long getWrittenOffset() {
+      return writtenOffset;
+    }
+
+    void lock() {
+      lock.lock();
+    }
+
+    void unlock() {
+      lock.unlock();
+    }
+  }
+}
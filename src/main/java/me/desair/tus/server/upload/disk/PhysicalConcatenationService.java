@@ -0,0 +1,357 @@
+package me.desair.tus.server.upload.disk;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.exception.UploadNotFoundException;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadLock;
+import me.desair.tus.server.upload.UploadLockingService;
+import me.desair.tus.server.upload.UploadType;
+import me.desair.tus.server.upload.concatenation.UploadConcatenationService;
+import me.desair.tus.server.upload.concatenation.VirtualConcatenationService;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link UploadConcatenationService} implementation that copies the bytes of all partial uploads
+ * into the data file of the concatenated upload as soon as all partial uploads are completed, so
+ * that downloading a concatenated upload only needs to read a single file. <br>
+ * The partial uploads are copied into their own region of a new file in parallel. This new file
+ * atomically replaces the (empty) data file of the concatenated upload. Until then the concatenated
+ * upload is served "virtually" by a {@link VirtualConcatenationService}, which is also used for
+ * concatenated uploads that were completed before this service was configured. <br>
+ * The partial uploads are kept until they expire, unless their removal is enabled with {@link
+ * #setRemovePartialUploads(boolean)}. <br>
+ * {@link #merge(UploadInfo)} must be called while holding the lock of the concatenated upload, like
+ * {@link me.desair.tus.server.TusFileUploadService} does. The partial uploads are locked with an
+ * {@link UploadLockingService} while they are copied and removed, so that they cannot be removed by
+ * another request or by the cleanup of expired uploads in the meantime. If one of them is locked,
+ * the concatenated upload is served virtually and copied again by a later merge.
+ */
+public class PhysicalConcatenationService implements UploadConcatenationService {
+
+  private static final Logger log = LoggerFactory.getLogger(PhysicalConcatenationService.class);
+
+  /** Number of merge lock stripes, this MUST be a power of two. */
+  private static final int STRIPE_COUNT = 16;
+
+  /** The default number of bytes that is copied by a single copy task. */
+  static final long DEFAULT_COPY_CHUNK_SIZE = 64L * 1024 * 1024;
+
+  private final DiskStorageService storageService;
+  private final VirtualConcatenationService virtualConcatenationService;
+  private final ReentrantLock[] stripes = new ReentrantLock[STRIPE_COUNT];
+  private final DiskLockingService diskLockingService;
+  private UploadLockingService uploadLockingService;
+  private Executor copyExecutor = ForkJoinPool.commonPool();
+  private boolean removePartialUploads = false;
+  private long copyChunkSize = DEFAULT_COPY_CHUNK_SIZE;
+
+  /**
+   * Constructor of PhysicalConcatenationService.
+   *
+   * @param storageService The disk storage service that stores the uploads
+   */
+  public PhysicalConcatenationService(DiskStorageService storageService) {
+    Validate.notNull(storageService, "The DiskStorageService cannot be null");
+    this.storageService = storageService;
+    this.virtualConcatenationService = new VirtualConcatenationService(storageService);
+    // Uses the same lock files as a DiskLockingService on the same storage path
+    this.diskLockingService =
+        new DiskLockingService(storageService.getStoragePath().getParent().toString());
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Set the {@link Executor} that copies the partial uploads. By default the common {@link
+   * ForkJoinPool} is used.
+   *
+   * @param copyExecutor The executor to use
+   */
+  public void setCopyExecutor(Executor copyExecutor) {
+    Validate.notNull(copyExecutor, "The copy Executor cannot be null");
+    this.copyExecutor = copyExecutor;
+  }
+
+  public Executor getCopyExecutor() {
+    return copyExecutor;
+  }
+
+  /**
+   * Set the {@link UploadLockingService} that locks the partial uploads while they are copied. This
+   * MUST be the locking service that the {@link me.desair.tus.server.TusFileUploadService} uses. By
+   * default the partial uploads are locked by a {@link DiskLockingService} on the storage path of
+   * the {@link DiskStorageService}, which only needs to be replaced when a different locking
+   * service is used.
+   *
+   * @param uploadLockingService The locking service to use
+   */
+  public void setUploadLockingService(UploadLockingService uploadLockingService) {
+    Validate.notNull(uploadLockingService, "The UploadLockingService cannot be null");
+    this.uploadLockingService = uploadLockingService;
+  }
+
+  /**
+   * Remove the partial uploads once their bytes have been copied into the concatenated upload, to
+   * free their disk space right away instead of when they expire. By default the partial uploads
+   * are kept. <br>
+   * Only enable this when a partial upload is never used in more than one concatenated upload: a
+   * removed partial upload can no longer be concatenated, so creating another final upload with it
+   * fails.
+   *
+   * @param removePartialUploads True to remove the partial uploads, false to keep them until they
+   *     expire
+   */
+  public void setRemovePartialUploads(boolean removePartialUploads) {
+    this.removePartialUploads = removePartialUploads;
+  }
+
+  public boolean isRemovePartialUploads() {
+    return removePartialUploads;
+  }
+
+  void setCopyChunkSize(long copyChunkSize) {
+    Validate.isTrue(copyChunkSize > 0, "The copy chunk size must be bigger than 0");
+    this.copyChunkSize = copyChunkSize;
+  }
+
+  @Override
+  public void merge(UploadInfo uploadInfo) throws IOException, UploadNotFoundException {
+    if (uploadInfo == null || isMerged(uploadInfo)) {
+      return;
+    }
+
+    virtualConcatenationService.merge(uploadInfo);
+    if (!isComplete(uploadInfo)) {
+      return;
+    }
+
+    ReentrantLock lock = getStripe(uploadInfo);
+    lock.lock();
+    try {
+      // Another thread may have merged the upload while we were waiting for the lock
+      if (!isMerged(uploadInfo)) {
+        List<UploadInfo> partialUploads = virtualConcatenationService.getPartialUploads(uploadInfo);
+        List<UploadLock> partialLocks = lockPartialUploads(uploadInfo, partialUploads);
+        if (partialLocks == null) {
+          return;
+        }
+        try {
+          copyPartialUploads(uploadInfo, partialUploads);
+          if (removePartialUploads) {
+            removePartialUploads(partialUploads);
+          }
+        } finally {
+          releaseLocks(partialLocks);
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public InputStream getConcatenatedBytes(UploadInfo uploadInfo)
+      throws IOException, UploadNotFoundException {
+    merge(uploadInfo);
+
+    if (isMerged(uploadInfo)) {
+      return Channels.newInputStream(
+          FileChannel.open(storageService.getBytesPath(uploadInfo.getId()), READ));
+    } else {
+      return virtualConcatenationService.getConcatenatedBytes(uploadInfo);
+    }
+  }
+
+  /**
+   * {@inheritDoc} <br>
+   * Once the bytes of the partial uploads have been copied into the concatenated upload, the
+   * concatenated upload itself is returned as its only part, since the partial uploads might not
+   * exist anymore.
+   */
+  @Override
+  public List<UploadInfo> getPartialUploads(UploadInfo info)
+      throws IOException, UploadNotFoundException {
+    if (isMerged(info)) {
+      return Collections.singletonList(info);
+    } else {
+      return virtualConcatenationService.getPartialUploads(info);
+    }
+  }
+
+  /**
+   * {@inheritDoc} <br>
+   * A concatenated upload is only merged once the bytes of its partial uploads have been copied
+   * into its data file.
+   */
+  @Override
+  public boolean isMerged(UploadInfo uploadInfo) throws IOException {
+    if (!isComplete(uploadInfo) || uploadInfo.getLength() == 0) {
+      return false;
+    }
+    try {
+      // The data file of a concatenated upload stays empty until all bytes have been copied
+      return Files.size(storageService.getBytesPath(uploadInfo.getId())) == uploadInfo.getLength();
+    } catch (UploadNotFoundException | NoSuchFileException e) {
+      return false;
+    }
+  }
+
+  private boolean isComplete(UploadInfo uploadInfo) {
+    return uploadInfo != null
+        && UploadType.CONCATENATED.equals(uploadInfo.getUploadType())
+        && uploadInfo.getId() != null
+        && !uploadInfo.isUploadInProgress();
+  }
+
+  private void copyPartialUploads(UploadInfo uploadInfo, List<UploadInfo> partialUploads)
+      throws IOException, UploadNotFoundException {
+    Path bytesPath = storageService.getBytesPath(uploadInfo.getId());
+    Path tempPath = bytesPath.resolveSibling(bytesPath.getFileName() + "." + UUID.randomUUID());
+    long start = System.currentTimeMillis();
+    try {
+      try (FileChannel target = FileChannel.open(tempPath, CREATE_NEW, READ, WRITE)) {
+        // Allocate the whole file up front, so every partial upload is copied into its own region
+        target.write(ByteBuffer.allocate(1), uploadInfo.getLength() - 1);
+
+        List<CompletableFuture<Void>> copies = new ArrayList<>();
+        long position = 0;
+        for (UploadInfo partialUpload : partialUploads) {
+          Path partialPath = storageService.getBytesPath(partialUpload.getId());
+          for (long offset = 0; offset < partialUpload.getLength(); offset += copyChunkSize) {
+            long count = Math.min(copyChunkSize, partialUpload.getLength() - offset);
+            copies.add(copyAsync(partialPath, offset, count, target, position + offset));
+          }
+          position += partialUpload.getLength();
+        }
+        awaitCopies(copies);
+        target.force(true);
+      }
+
+      // Readers either see the empty data file or the complete one
+      Files.move(tempPath, bytesPath, ATOMIC_MOVE, REPLACE_EXISTING);
+      log.debug(
+          "Copied {} partial uploads of upload {} in {} ms",
+          partialUploads.size(),
+          uploadInfo.getId(),
+          System.currentTimeMillis() - start);
+    } finally {
+      Files.deleteIfExists(tempPath);
+    }
+  }
+
+  private CompletableFuture<Void> copyAsync(
+      Path source, long sourcePosition, long count, FileChannel target, long targetPosition) {
+    return CompletableFuture.runAsync(
+        () -> {
+          try (FileChannel sourceChannel = FileChannel.open(source, READ)) {
+            sourceChannel.position(sourcePosition);
+            long copied = 0;
+            while (copied < count) {
+              long bytes =
+                  target.transferFrom(sourceChannel, targetPosition + copied, count - copied);
+              if (bytes <= 0) {
+                throw new EOFException("Partial upload " + source + " is smaller than its length");
+              }
+              copied += bytes;
+            }
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        },
+        copyExecutor);
+  }
+
+  private void awaitCopies(List<CompletableFuture<Void>> copies) throws IOException {
+    try {
+      CompletableFuture.allOf(copies.toArray(new CompletableFuture[0])).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      throw new IOException("Unable to copy the partial uploads", e.getCause());
+    }
+  }
+
+  /**
+   * Lock all partial uploads of the given concatenated upload, or none of them.
+   *
+   * @return The locks of the partial uploads, or null if one of them is already locked
+   */
+  private List<UploadLock> lockPartialUploads(
+      UploadInfo uploadInfo, List<UploadInfo> partialUploads) throws IOException {
+    List<String> partUris = uploadInfo.getConcatenationPartIds();
+    List<UploadLock> locks = new ArrayList<>(partialUploads.size());
+    try {
+      for (int i = 0; i < partialUploads.size(); i++) {
+        UploadLock lock =
+            uploadLockingService == null
+                ? diskLockingService.lockUpload(partialUploads.get(i).getId(), partUris.get(i))
+                : uploadLockingService.lockUploadByUri(partUris.get(i));
+        if (lock != null) {
+          locks.add(lock);
+        }
+      }
+      return locks;
+    } catch (TusException e) {
+      log.debug(
+          "Not copying the partial uploads of upload {} since one of them is locked",
+          uploadInfo.getId(),
+          e);
+      releaseLocks(locks);
+      return null;
+    } catch (IOException | RuntimeException e) {
+      releaseLocks(locks);
+      throw e;
+    }
+  }
+
+  private void releaseLocks(List<UploadLock> locks) {
+    for (UploadLock lock : locks) {
+      lock.release();
+    }
+  }
+
+  private void removePartialUploads(List<UploadInfo> partialUploads) {
+    for (UploadInfo partialUpload : partialUploads) {
+      try {
+        storageService.terminateUpload(partialUpload);
+      } catch (IOException | TusException e) {
+        // The partial upload will be removed when it expires
+        log.warn("Unable to remove partial upload {}", partialUpload.getId(), e);
+      }
+    }
+  }
+
+  private ReentrantLock getStripe(UploadInfo uploadInfo) {
+    int hash = uploadInfo.getId().hashCode();
+    return stripes[(hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1)];
+  }
+}
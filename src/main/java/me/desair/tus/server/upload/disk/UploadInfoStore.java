@@ -0,0 +1,61 @@
+package me.desair.tus.server.upload.disk;
+
+import java.io.IOException;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadInfo;
+
+/**
+ * Persists the {@link UploadInfo} of the uploads of a {@link DiskStorageService}, while the
+ * uploaded bytes stay in the upload directories. By default every upload info is stored in an
+ * {@code info} file in the directory of its upload, see {@link MappedUploadInfoStore} for an
+ * alternative. <br>
+ * Implementations must be thread-safe. The {@link DiskStorageService} checks that an upload exists
+ * before its upload info is written and removes the upload info when the upload is removed.
+ */
+public interface UploadInfoStore {
+
+  /**
+   * Read the upload info of an upload.
+   *
+   * @param id The ID of the upload
+   * @return The upload info, or null if no upload info is stored for this upload
+   * @throws IOException When the upload info cannot be read
+   */
+  UploadInfo read(UploadId id) throws IOException;
+
+  /**
+   * Store the upload info of an upload, replacing the previous upload info of that upload.
+   *
+   * @param uploadInfo The upload info to store
+   * @throws IOException When the upload info cannot be stored
+   */
+  void write(UploadInfo uploadInfo) throws IOException;
+
+  /**
+   * Only update the offset of the stored upload info of an upload. Nothing happens if no upload
+   * info is stored for the upload.
+   *
+   * @param id The ID of the upload
+   * @param offset The new offset
+   * @throws IOException When the offset cannot be stored
+   */
+  void writeOffset(UploadId id, long offset) throws IOException;
+
+  /**
+   * Remove the upload info of an upload.
+   *
+   * @param id The ID of the upload
+   * @throws IOException When the upload info cannot be removed
+   */
+  void remove(UploadId id) throws IOException;
+
+  /**
+   * Get a value that changes every time the upload info of an upload is written, see {@link
+   * me.desair.tus.server.upload.UploadStorageService#getUploadInfoVersion(UploadId)}.
+   *
+   * @param id The ID of the upload
+   * @return The version, or null if no upload info is stored for this upload
+   * @throws IOException When the version cannot be determined
+   */
+  String getVersion(UploadId id) throws IOException;
+}
@@ -0,0 +1,240 @@
+package me.desair.tus.server.upload.memory;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.exception.UploadAlreadyLockedException;
+import me.desair.tus.server.metrics.TusMetrics;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadIdFactory;
+import me.desair.tus.server.upload.UploadLock;
+import me.desair.tus.server.upload.UploadLockingService;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link UploadLockingService} implementation that keeps all locks in the memory of the current
+ * JVM. This avoids the lock file creation, file locking and deletion that {@link
+ * me.desair.tus.server.upload.disk.DiskLockingService} performs on every request, but it only
+ * protects uploads against concurrent requests that are processed by the same JVM. Do NOT use this
+ * implementation when multiple application instances share the same upload storage. <br>
+ * The IDs of the locked uploads are spread over a fixed number of stripes, each guarded by its own
+ * {@link ReentrantLock}. A stripe lock is only held while the lock table is updated, so requests
+ * for unrelated uploads never block each other. Since a lock on an upload is not bound to the
+ * thread that acquired it, it can be released by any thread.
+ */
+public class StripedInMemoryLockingService implements UploadLockingService {
+
+  private static final Logger log = LoggerFactory.getLogger(StripedInMemoryLockingService.class);
+
+  /** Number of lock stripes, this MUST be a power of two. */
+  private static final int STRIPE_COUNT = 64;
+
+  private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+  private UploadIdFactory idFactory;
+  private TusMetrics metrics = TusMetrics.NOOP;
+
+  /** Number of retry attempts when lock acquisition fails. Default is 0 (no retry). */
+  private int lockRetryCount = 0;
+
+  /** Initial retry interval in milliseconds. Default is 50ms. */
+  private long lockRetryIntervalMs = 50;
+
+  /** Maximum retry interval in milliseconds (for exponential backoff). Default is 500ms. */
+  private long lockRetryMaxIntervalMs = 500;
+
+  public StripedInMemoryLockingService() {
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /** Constructor to use custom UploadIdFactory. */
+  public StripedInMemoryLockingService(UploadIdFactory idFactory) {
+    this();
+    setIdFactory(idFactory);
+  }
+
+  /**
+   * Constructor with lock retry configuration. The retry behaviour is the same as the one of {@link
+   * me.desair.tus.server.upload.disk.DiskLockingService}, except that a waiting request is woken up
+   * as soon as the lock it is waiting for is released.
+   *
+   * @param lockRetryCount Number of retry attempts (0 means no retry)
+   * @param lockRetryIntervalMs Initial retry interval in milliseconds
+   * @param lockRetryMaxIntervalMs Maximum retry interval for exponential backoff
+   */
+  public StripedInMemoryLockingService(
+      int lockRetryCount, long lockRetryIntervalMs, long lockRetryMaxIntervalMs) {
+    this();
+    this.lockRetryCount = lockRetryCount;
+    this.lockRetryIntervalMs = lockRetryIntervalMs;
+    this.lockRetryMaxIntervalMs = lockRetryMaxIntervalMs;
+  }
+
+  /**
+   * Constructor with lock retry configuration and custom UploadIdFactory.
+   *
+   * @param idFactory The UploadIdFactory to use
+   * @param lockRetryCount Number of retry attempts (0 means no retry)
+   * @param lockRetryIntervalMs Initial retry interval in milliseconds
+   * @param lockRetryMaxIntervalMs Maximum retry interval for exponential backoff
+   */
+  public StripedInMemoryLockingService(
+      UploadIdFactory idFactory,
+      int lockRetryCount,
+      long lockRetryIntervalMs,
+      long lockRetryMaxIntervalMs) {
+    this(lockRetryCount, lockRetryIntervalMs, lockRetryMaxIntervalMs);
+    setIdFactory(idFactory);
+  }
+
+  @Override
+  public UploadLock lockUploadByUri(String requestUri) throws TusException {
+
+    UploadId id = idFactory.readUploadId(requestUri);
+    // If the ID is null, this is not a valid Upload URI
+    if (id == null) {
+      return null;
+    }
+
+    Stripe stripe = getStripe(id);
+    long start = System.nanoTime();
+    long currentInterval = lockRetryIntervalMs;
+
+    for (int attempt = 0; attempt <= lockRetryCount; attempt++) {
+      boolean acquired;
+      stripe.lock.lock();
+      try {
+        acquired = stripe.lockedIds.add(id);
+
+        if (!acquired && attempt < lockRetryCount) {
+          log.info(
+              "Lock acquisition failed, retrying in {}ms ({}/{}): {}",
+              currentInterval,
+              attempt + 1,
+              lockRetryCount,
+              requestUri);
+          awaitRelease(stripe, id, currentInterval, requestUri);
+          // Exponential backoff with max interval
+          currentInterval = Math.min(currentInterval * 2, lockRetryMaxIntervalMs);
+        }
+      } finally {
+        stripe.lock.unlock();
+      }
+
+      if (acquired) {
+        metrics.lockAcquired(System.nanoTime() - start, attempt);
+        return new InMemoryLock(requestUri, id, stripe);
+      }
+    }
+
+    metrics.lockFailed(System.nanoTime() - start, lockRetryCount);
+    if (lockRetryCount > 0) {
+      log.warn("Lock acquisition failed after {} retries: {}", lockRetryCount, requestUri);
+    }
+    throw new UploadAlreadyLockedException("The upload " + requestUri + " is already locked");
+  }
+
+  @Override
+  public void cleanupStaleLocks() {
+    // In-memory locks are always released by the request that holds them and do not survive a JVM
+    // restart, so there are never any stale locks to clean up.
+  }
+
+  @Override
+  public boolean isLocked(UploadId id) {
+    if (id == null) {
+      return false;
+    }
+
+    Stripe stripe = getStripe(id);
+    stripe.lock.lock();
+    try {
+      return stripe.lockedIds.contains(id);
+    } finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  @Override
+  public void setIdFactory(UploadIdFactory idFactory) {
+    Validate.notNull(idFactory, "The IdFactory cannot be null");
+    this.idFactory = idFactory;
+  }
+
+  @Override
+  public void setMetrics(TusMetrics metrics) {
+    Validate.notNull(metrics, "The TusMetrics cannot be null");
+    this.metrics = metrics;
+  }
+
+  private Stripe getStripe(UploadId id) {
+    int hash = id.hashCode();
+    return stripes[(hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1)];
+  }
+
+  /** Wait (with the stripe lock held) until the given upload is released or the interval passed. */
+  private void awaitRelease(Stripe stripe, UploadId id, long intervalMs, String requestUri)
+      throws UploadAlreadyLockedException {
+    long remainingNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+    try {
+      while (remainingNanos > 0 && stripe.lockedIds.contains(id)) {
+        remainingNanos = stripe.released.awaitNanos(remainingNanos);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UploadAlreadyLockedException("The upload " + requestUri + " is already locked");
+    }
+  }
+
+  private static class Stripe {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Set<UploadId> lockedIds = new HashSet<>();
+  }
+
+  private static class InMemoryLock implements UploadLock {
+
+    private final String uploadUri;
+    private final UploadId id;
+    private final Stripe stripe;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    InMemoryLock(String uploadUri, UploadId id, Stripe stripe) {
+      this.uploadUri = uploadUri;
+      this.id = id;
+      this.stripe = stripe;
+    }
+
+    @Override
+    public String getUploadUri() {
+      return uploadUri;
+    }
+
+    @Override
+    public void release() {
+      // Only release once, so that we never release a lock that another request acquired since
+      if (released.compareAndSet(false, true)) {
+        stripe.lock.lock();
+        try {
+          stripe.lockedIds.remove(id);
+          stripe.released.signalAll();
+        } finally {
+          stripe.lock.unlock();
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      release();
+    }
+  }
+}
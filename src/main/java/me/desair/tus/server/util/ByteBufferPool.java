@@ -0,0 +1,116 @@
+package me.desair.tus.server.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Pool of reusable direct {@link ByteBuffer}s that are used to transfer bytes between streams and
+ * file channels without allocating new buffers for every request. <br>
+ * Since an {@link java.io.InputStream} can only read into a byte array, the pool also keeps smaller
+ * heap staging arrays that are used to fill the direct buffers. When the pool is empty, new buffers
+ * are allocated. At most maxPooledBuffers buffers (and staging arrays) are kept for reuse, any
+ * additional released buffers are left to the garbage collector.
+ */
+public class ByteBufferPool {
+
+  public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+  public static final int DEFAULT_MAX_POOLED_BUFFERS = 16;
+
+  private static final int MAX_STAGING_SIZE = 64 * 1024;
+
+  private final int bufferSize;
+  private final int stagingSize;
+  private final int maxPooledBuffers;
+
+  private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pooledBufferCount = new AtomicInteger();
+  private final Queue<byte[]> stagingArrays = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pooledStagingCount = new AtomicInteger();
+
+  /** Create a pool with the default buffer size and number of pooled buffers. */
+  public ByteBufferPool() {
+    this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED_BUFFERS);
+  }
+
+  /**
+   * Create a new buffer pool.
+   *
+   * @param bufferSize The capacity of each direct buffer in bytes
+   * @param maxPooledBuffers The maximum number of buffers that are kept for reuse
+   */
+  public ByteBufferPool(int bufferSize, int maxPooledBuffers) {
+    Validate.isTrue(bufferSize > 0, "The buffer size must be bigger than 0");
+    Validate.isTrue(maxPooledBuffers >= 0, "The number of pooled buffers cannot be negative");
+    this.bufferSize = bufferSize;
+    this.stagingSize = Math.min(bufferSize, MAX_STAGING_SIZE);
+    this.maxPooledBuffers = maxPooledBuffers;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * Take a direct buffer from the pool, or allocate a new one if the pool is empty.
+   *
+   * @return A cleared direct buffer with a capacity of {@link #getBufferSize()} bytes
+   */
+  public ByteBuffer acquire() {
+    ByteBuffer buffer = buffers.poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(bufferSize);
+    } else {
+      pooledBufferCount.decrementAndGet();
+      buffer.clear();
+    }
+    return buffer;
+  }
+
+  /**
+   * Return a buffer that was acquired from this pool so that it can be reused.
+   *
+   * @param buffer The buffer to return, this buffer must no longer be used by the caller
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer != null && buffer.isDirect() && buffer.capacity() == bufferSize) {
+      offer(buffers, pooledBufferCount, buffer);
+    }
+  }
+
+  /**
+   * Take a staging array from the pool, or allocate a new one if the pool is empty.
+   *
+   * @return A byte array that can be used to read from an input stream
+   */
+  public byte[] acquireStagingArray() {
+    byte[] array = stagingArrays.poll();
+    if (array == null) {
+      array = new byte[stagingSize];
+    } else {
+      pooledStagingCount.decrementAndGet();
+    }
+    return array;
+  }
+
+  /**
+   * Return a staging array that was acquired from this pool so that it can be reused.
+   *
+   * @param array The array to return, this array must no longer be used by the caller
+   */
+  public void releaseStagingArray(byte[] array) {
+    if (array != null && array.length == stagingSize) {
+      offer(stagingArrays, pooledStagingCount, array);
+    }
+  }
+
+  private <T> void offer(Queue<T> queue, AtomicInteger count, T value) {
+    if (count.incrementAndGet() <= maxPooledBuffers) {
+      queue.offer(value);
+    } else {
+      count.decrementAndGet();
+    }
+  }
+}
@@ -4,31 +4,33 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletRequestWrapper;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Executor;
 import me.desair.tus.server.HttpHeader;
 import me.desair.tus.server.TusExtension;
 import me.desair.tus.server.checksum.ChecksumAlgorithm;
-import org.apache.commons.codec.binary.Base64;
+import me.desair.tus.server.checksum.ChecksumInputStream;
+import me.desair.tus.server.metrics.TusMetrics;
 import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
 
 public class TusServletRequest extends HttpServletRequestWrapper {
 
   private CountingInputStream countingInputStream;
-  private Map<ChecksumAlgorithm, DigestInputStream> digestInputStreamMap =
-      new EnumMap<>(ChecksumAlgorithm.class);
+  private ChecksumInputStream checksumInputStream;
 
   private InputStream contentInputStream = null;
   private boolean isChunkedTransferDecodingEnabled = true;
+  private Set<ChecksumAlgorithm> checksumTrailerAlgorithms = EnumSet.allOf(ChecksumAlgorithm.class);
+  private Executor checksumExecutor = null;
+  private TusMetrics metrics = TusMetrics.NOOP;
 
   private Map<String, List<String>> trailerHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
   private Set<String> processedBySet = new TreeSet<>();
@@ -39,11 +41,33 @@ public class TusServletRequest extends HttpServletRequestWrapper {
    * @param request The upload request we need to wrap
    * @param isChunkedTransferDecodingEnabled Should this request wrapper decode a chunked input
    *     stream
+   * @param checksumTrailerAlgorithms The checksum algorithms that are calculated for a chunked
+   *     request without an Upload-Checksum header, since that header can still be sent as a
+   *     trailer. If empty, the checksum header must be sent up front.
    * @throws IllegalArgumentException if the request is null
    */
-  public TusServletRequest(HttpServletRequest request, boolean isChunkedTransferDecodingEnabled) {
+  public TusServletRequest(
+      HttpServletRequest request,
+      boolean isChunkedTransferDecodingEnabled,
+      Set<ChecksumAlgorithm> checksumTrailerAlgorithms) {
     super(request);
     this.isChunkedTransferDecodingEnabled = isChunkedTransferDecodingEnabled;
+    this.checksumTrailerAlgorithms =
+        checksumTrailerAlgorithms.isEmpty()
+            ? EnumSet.noneOf(ChecksumAlgorithm.class)
+            : EnumSet.copyOf(checksumTrailerAlgorithms);
+  }
+
+  /**
+   * Constructs a request object wrapping the given request.
+   *
+   * @param request The upload request we need to wrap
+   * @param isChunkedTransferDecodingEnabled Should this request wrapper decode a chunked input
+   *     stream
+   * @throws IllegalArgumentException if the request is null
+   */
+  public TusServletRequest(HttpServletRequest request, boolean isChunkedTransferDecodingEnabled) {
+    this(request, isChunkedTransferDecodingEnabled, EnumSet.allOf(ChecksumAlgorithm.class));
   }
 
   /**
@@ -73,40 +97,61 @@ public class TusServletRequest extends HttpServletRequestWrapper {
       ChecksumAlgorithm checksumAlgorithm =
           ChecksumAlgorithm.forUploadChecksumHeader(getHeader(HttpHeader.UPLOAD_CHECKSUM));
 
-      List<ChecksumAlgorithm> algorithms;
+      Set<ChecksumAlgorithm> algorithms;
 
-      if (isChunked) {
-        // Since the Checksum header can still come at the end, keep track of all checksums
-        algorithms = Arrays.asList(ChecksumAlgorithm.values());
-      } else if (checksumAlgorithm != null) {
-        algorithms = Collections.singletonList(checksumAlgorithm);
+      if (checksumAlgorithm != null) {
+        // A checksum header that is present up front always takes precedence over a trailer
+        algorithms = EnumSet.of(checksumAlgorithm);
+      } else if (isChunked) {
+        // Since the Checksum header can still come at the end, keep track of the allowed checksums
+        algorithms = checksumTrailerAlgorithms;
       } else {
-        algorithms = Collections.emptyList();
+        algorithms = EnumSet.noneOf(ChecksumAlgorithm.class);
       }
 
-      for (ChecksumAlgorithm algorithm : algorithms) {
-        DigestInputStream is =
-            new DigestInputStream(contentInputStream, algorithm.getMessageDigest());
-        digestInputStreamMap.put(algorithm, is);
-
-        contentInputStream = is;
+      if (!algorithms.isEmpty()) {
+        checksumInputStream =
+            new ChecksumInputStream(contentInputStream, algorithms, checksumExecutor);
+        checksumInputStream.setMetrics(metrics);
+        contentInputStream = checksumInputStream;
       }
     }
 
     return contentInputStream;
   }
 
+  /**
+   * Calculate the checksums of the content of this request on worker threads of the given executor
+   * instead of on the thread that reads the content. This method must be called before the content
+   * input stream is requested.
+   *
+   * @param checksumExecutor The executor to use or null to calculate the checksums while reading
+   */
+  public void setChecksumExecutor(Executor checksumExecutor) {
+    this.checksumExecutor = checksumExecutor;
+  }
+
+  /**
+   * Set the listener that is notified of the checksum calculations of the content of this request.
+   * This method must be called before the content input stream is requested.
+   *
+   * @param metrics The {@link TusMetrics} to notify
+   */
+  public void setMetrics(TusMetrics metrics) {
+    Validate.notNull(metrics, "The TusMetrics cannot be null");
+    this.metrics = metrics;
+  }
+
   public long getBytesRead() {
     return countingInputStream == null ? 0 : countingInputStream.getByteCount();
   }
 
   public boolean hasCalculatedChecksum() {
-    return !digestInputStreamMap.isEmpty();
+    return checksumInputStream != null;
   }
 
-  public String getCalculatedChecksum(ChecksumAlgorithm algorithm) {
-    MessageDigest messageDigest = getMessageDigest(algorithm);
-    return messageDigest == null ? null : Base64.encodeBase64String(messageDigest.digest());
+  public String getCalculatedChecksum(ChecksumAlgorithm algorithm) throws IOException {
+    return checksumInputStream == null ? null : checksumInputStream.getChecksum(algorithm);
   }
 
   /**
@@ -115,7 +160,19 @@ public class TusServletRequest extends HttpServletRequestWrapper {
    * @return The set of active checksum algorithms
    */
   public Set<ChecksumAlgorithm> getEnabledChecksums() {
-    return digestInputStreamMap.keySet();
+    return checksumInputStream == null
+        ? Collections.emptySet()
+        : checksumInputStream.getAlgorithms();
+  }
+
+  /**
+   * Get the set of checksum algorithms that are allowed in an Upload-Checksum trailer. If empty,
+   * the Upload-Checksum header must be sent before the content.
+   *
+   * @return The set of allowed trailer checksum algorithms
+   */
+  public Set<ChecksumAlgorithm> getChecksumTrailerAlgorithms() {
+    return Collections.unmodifiableSet(checksumTrailerAlgorithms);
   }
 
   @Override
@@ -143,12 +200,4 @@ public class TusServletRequest extends HttpServletRequestWrapper {
   private boolean hasChunkedTransferEncoding() {
     return StringUtils.equalsIgnoreCase("chunked", getHeader(HttpHeader.TRANSFER_ENCODING));
   }
-
-  private MessageDigest getMessageDigest(ChecksumAlgorithm algorithm) {
-    if (digestInputStreamMap.containsKey(algorithm)) {
-      return digestInputStreamMap.get(algorithm).getMessageDigest();
-    } else {
-      return null;
-    }
-  }
 }
@@ -1,24 +1,33 @@
 package me.desair.tus.server.util;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
 import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 import jakarta.servlet.http.HttpServletRequest;
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.UUID;
 import me.desair.tus.server.HttpHeader;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -28,8 +37,7 @@ import org.slf4j.LoggerFactory;
 public class Utils {
 
   private static final Logger log = LoggerFactory.getLogger(Utils.class);
-  private static final int LOCK_FILE_RETRY_COUNT = 3;
-  private static final long LOCK_FILE_SLEEP_TIME = 500;
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
 
   private Utils() {
     // This is a utility class that only holds static utility methods
@@ -82,7 +90,9 @@ public class Utils {
 
           try (ObjectInputStream ois = new ObjectInputStream(Channels.newInputStream(channel))) {
             info = clazz.cast(ois.readObject());
-          } catch (ClassNotFoundException | java.io.EOFException | java.io.StreamCorruptedException e) {
+          } catch (ClassNotFoundException
+              | java.io.EOFException
+              | java.io.StreamCorruptedException e) {
             // File may be corrupted due to unexpected server shutdown
             log.warn("Unable to read serializable file {}: {}", path, e.getMessage());
             info = null;
@@ -113,12 +123,245 @@ public class Utils {
     }
   }
 
+  /**
+   * Transfer at most count bytes from the input stream to the file channel, starting at the given
+   * position in the file. The bytes are read in large batches into a direct buffer from the pool,
+   * which is written using positional writes as soon as it is full. When reading from the input
+   * stream fails, the bytes that were already received are still written to the file before the
+   * exception is rethrown.
+   *
+   * @param inputStream The stream to read the bytes from
+   * @param file The file to write the bytes to
+   * @param position The position in the file where the first byte should be written
+   * @param count The maximum number of bytes to transfer
+   * @param bufferPool The pool to take the transfer buffers from
+   * @return The number of bytes that were transferred
+   * @throws IOException When reading from the stream or writing to the file fails
+   */
+  public static long transferFrom(
+      InputStream inputStream,
+      FileChannel file,
+      long position,
+      long count,
+      ByteBufferPool bufferPool)
+      throws IOException {
+    ByteBuffer buffer = bufferPool.acquire();
+    byte[] staging = bufferPool.acquireStagingArray();
+    long written = 0;
+    try {
+      int read = 0;
+      while (read >= 0 && written + buffer.position() < count) {
+        int length =
+            (int)
+                Math.min(
+                    Math.min(staging.length, buffer.remaining()),
+                    count - written - buffer.position());
+        read = inputStream.read(staging, 0, length);
+        if (read > 0) {
+          buffer.put(staging, 0, read);
+        }
+        if (!buffer.hasRemaining()) {
+          written += writeBuffer(buffer, file, position + written);
+        }
+      }
+      written += writeBuffer(buffer, file, position + written);
+      return written;
+
+    } catch (IOException | RuntimeException e) {
+      // Do not lose the bytes that we already received
+      try {
+        writeBuffer(buffer, file, position + written);
+      } catch (IOException writeException) {
+        e.addSuppressed(writeException);
+      }
+      throw e;
+    } finally {
+      bufferPool.release(buffer);
+      bufferPool.releaseStagingArray(staging);
+    }
+  }
+
+  /**
+   * Transfer count bytes from the file channel, starting at the given position, to the output
+   * stream. The bytes are read in large batches into a direct buffer from the pool and written to
+   * the stream through a staging array, so no buffers are allocated per call.
+   *
+   * @param file The file to read the bytes from
+   * @param position The position in the file of the first byte to transfer
+   * @param count The number of bytes to transfer
+   * @param outputStream The stream to write the bytes to
+   * @param bufferPool The pool to take the transfer buffers from
+   * @throws IOException When reading from the file or writing to the stream fails, or when the file
+   *     ends before count bytes were transferred
+   */
+  public static void transferTo(
+      FileChannel file,
+      long position,
+      long count,
+      OutputStream outputStream,
+      ByteBufferPool bufferPool)
+      throws IOException {
+    ByteBuffer buffer = bufferPool.acquire();
+    byte[] staging = bufferPool.acquireStagingArray();
+    try {
+      long transferred = 0;
+      while (transferred < count) {
+        buffer.clear();
+        if (buffer.remaining() > count - transferred) {
+          buffer.limit((int) (count - transferred));
+        }
+        int read = file.read(buffer, position + transferred);
+        if (read < 0) {
+          throw new EOFException("The file ended before all requested bytes were transferred");
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          int length = Math.min(staging.length, buffer.remaining());
+          buffer.get(staging, 0, length);
+          outputStream.write(staging, 0, length);
+        }
+        transferred += read;
+      }
+    } finally {
+      bufferPool.release(buffer);
+      bufferPool.releaseStagingArray(staging);
+    }
+  }
+
+  private static int writeBuffer(ByteBuffer buffer, FileChannel file, long position)
+      throws IOException {
+    buffer.flip();
+    int written = 0;
+    while (buffer.hasRemaining()) {
+      written += file.write(buffer, position + written);
+    }
+    buffer.clear();
+    return written;
+  }
+
+  /**
+   * Read the full content of the given file. Since {@link #writeFile(ByteBuffer, Path)} atomically
+   * replaces files, no lock is needed to get a consistent snapshot of the content.
+   *
+   * @param path The file to read
+   * @return A buffer, ready to be read, containing the file content or null if path is null
+   * @throws IOException When the file cannot be read
+   */
+  public static ByteBuffer readFile(Path path) throws IOException {
+    ByteBuffer buffer = null;
+    if (path != null) {
+      try (FileChannel channel = FileChannel.open(path, READ)) {
+        buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+          // Keep reading until the buffer is full or we reached the end of the file
+        }
+        buffer.flip();
+      }
+    }
+    return buffer;
+  }
+
+  /**
+   * Replace the content of the given file with the content of the buffer, without forcing it to the
+   * storage device. See {@link #writeFile(ByteBuffer, Path, boolean)}.
+   *
+   * @param buffer The buffer containing the new file content
+   * @param path The file to write
+   * @throws IOException When the file cannot be written
+   */
+  public static void writeFile(ByteBuffer buffer, Path path) throws IOException {
+    writeFile(buffer, path, false);
+  }
+
+  /**
+   * Replace the content of the given file with the content of the buffer. The content is first
+   * written to a temporary file in the same directory which is then atomically moved over the
+   * target file, so concurrent readers either see the old or the new content but never a partially
+   * written file. <br>
+   * When the content is forced, it is on the storage device before the temporary file is moved, so
+   * that a power loss cannot leave an empty or truncated file behind. A crash before the move can
+   * leave the temporary file behind (see {@link #isTemporaryFile(Path)}).
+   *
+   * @param buffer The buffer containing the new file content
+   * @param path The file to write
+   * @param force True if the content must be forced to the storage device before the move
+   * @throws IOException When the file cannot be written
+   */
+  public static void writeFile(ByteBuffer buffer, Path path, boolean force) throws IOException {
+    if (path != null) {
+      Path tempPath =
+          path.resolveSibling(path.getFileName() + "." + UUID.randomUUID() + TEMP_FILE_SUFFIX);
+      try {
+        try (FileChannel channel = FileChannel.open(tempPath, WRITE, CREATE_NEW)) {
+          while (buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+          if (force) {
+            channel.force(true);
+          }
+        }
+        Files.move(tempPath, path, ATOMIC_MOVE, REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(tempPath);
+      }
+    }
+  }
+
+  /**
+   * Force the entries of the given directory to the storage device, so that a file that was
+   * created, moved or removed in it survives an operating system crash. File systems that cannot
+   * force a directory (like the ones on Windows) already store directory entries synchronously.
+   *
+   * @param directory The directory to force
+   * @throws IOException When the directory cannot be forced
+   */
+  public static void forceDirectory(Path directory) throws IOException {
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(directory, READ);
+    } catch (AccessDeniedException e) {
+      log.trace("Directory {} cannot be opened to force it", directory, e);
+      return;
+    }
+    try (FileChannel directoryChannel = channel) {
+      directoryChannel.force(true);
+    }
+  }
+
+  /**
+   * Check if the given file is a temporary file of {@link #writeFile(ByteBuffer, Path, boolean)}.
+   *
+   * @param path The file to check
+   * @return True if the file is a temporary file, false otherwise
+   */
+  public static boolean isTemporaryFile(Path path) {
+    return path.getFileName().toString().endsWith(TEMP_FILE_SUFFIX);
+  }
+
+  /**
+   * Obtain an exclusive lock on the given file channel. If the file is locked by another process,
+   * this method waits until that lock is released. Only use this method for locks that are held for
+   * a short time, like the lock on a file that is being read or written.
+   *
+   * @param channel The channel to lock
+   * @return The obtained lock
+   * @throws IOException When the lock cannot be obtained
+   */
   public static FileLock lockFileExclusively(FileChannel channel) throws IOException {
-    return lockFile(channel, false);
+    return channel.lock(0L, Long.MAX_VALUE, false);
   }
 
+  /**
+   * Obtain a shared lock on the given file channel. If the file is exclusively locked by another
+   * process, this method waits until that lock is released. Only use this method for locks that are
+   * held for a short time, like the lock on a file that is being read.
+   *
+   * @param channel The channel to lock
+   * @return The obtained lock
+   * @throws IOException When the lock cannot be obtained
+   */
   public static FileLock lockFileShared(FileChannel channel) throws IOException {
-    return lockFile(channel, true);
+    return channel.lock(0L, Long.MAX_VALUE, true);
   }
 
   /**
@@ -135,20 +378,4 @@ public class Utils {
       Thread.currentThread().interrupt();
     }
   }
-
-  private static FileLock lockFile(FileChannel channel, boolean shared) throws IOException {
-    int i = 0;
-    FileLock lock = null;
-    do {
-      if (i > 0) {
-        sleep(LOCK_FILE_SLEEP_TIME);
-      }
-
-      lock = channel.tryLock(0L, Long.MAX_VALUE, shared);
-
-      i++;
-    } while (lock == null && i < LOCK_FILE_RETRY_COUNT);
-
-    return lock;
-  }
 }
@@ -81,7 +81,7 @@ public abstract class AbstractTusExtensionIntegrationTest {
   protected void executeCall(HttpMethod method, boolean readContent)
       throws TusException, IOException {
     tusFeature.validate(method, servletRequest, uploadStorageService, null);
-    TusServletRequest tusServletRequest = new TusServletRequest(this.servletRequest, true);
+    TusServletRequest tusServletRequest = createTusServletRequest();
 
     if (readContent) {
       StringWriter writer = new StringWriter();
@@ -96,6 +96,10 @@ public abstract class AbstractTusExtensionIntegrationTest {
         null);
   }
 
+  protected TusServletRequest createTusServletRequest() {
+    return new TusServletRequest(this.servletRequest, true);
+  }
+
   protected void assertResponseHeader(String header, String value) {
     assertThat(servletResponse.getHeader(header), is(value));
   }
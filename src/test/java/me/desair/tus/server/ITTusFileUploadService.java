@@ -2,16 +2,26 @@ package me.desair.tus.server;
 
 import static me.desair.tus.server.util.MapMatcher.hasSize;
 import static org.hamcrest.CoreMatchers.allOf;
+import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.collection.IsMapContaining.hasEntry;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
@@ -25,9 +35,26 @@ import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.UUID;
+import me.desair.tus.server.checksum.ChecksumAlgorithm;
 import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.exception.UploadNotFoundException;
+import me.desair.tus.server.expiration.CleanupStatistics;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadIdFactory;
 import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadLock;
+import me.desair.tus.server.upload.UploadLockingService;
+import me.desair.tus.server.upload.UploadStorageService;
+import me.desair.tus.server.upload.UuidUploadIdFactory;
+import me.desair.tus.server.upload.cache.UploadRequestContext;
+import me.desair.tus.server.upload.disk.DiskLockingService;
+import me.desair.tus.server.upload.disk.DiskStorageService;
+import me.desair.tus.server.upload.disk.DurabilityPolicy;
+import me.desair.tus.server.util.TusServletRequest;
+import me.desair.tus.server.util.TusServletResponse;
 import me.desair.tus.server.util.Utils;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -35,6 +62,7 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 
@@ -78,6 +106,23 @@ public class ITTusFileUploadService {
             .withChunkedTransferDecoding(true);
   }
 
+  protected UploadIdFactory createUploadIdFactory() {
+    return new UuidUploadIdFactory();
+  }
+
+  /**
+   * Only storage services that can list their expired uploads are cleaned up by the cleaner of the
+   * {@link TusFileUploadService}, which records the cleanup statistics.
+   */
+  protected boolean hasCleanupStatistics() {
+    return true;
+  }
+
+  /** Only storage services that store an upload in a single local file support sendfile. */
+  protected boolean hasLocalUploadFiles() {
+    return true;
+  }
+
   protected void reset() {
     servletRequest = new MockHttpServletRequest();
     servletRequest.setRemoteAddr("192.168.1.1");
@@ -109,6 +154,53 @@ public class ITTusFileUploadService {
             "concatenation"));
   }
 
+  @Test
+  public void testShutdownSyncsPendingData() throws Exception {
+    String content = "This upload is only durable after the shutdown";
+    DiskStorageService storageService = new DiskStorageService(storagePath.toString());
+    storageService.setDurabilityPolicy(DurabilityPolicy.PERIODIC);
+    storageService.setPeriodicSync(3600000L, Long.MAX_VALUE);
+    tusFileUploadService.withUploadStorageService(storageService);
+
+    UploadInfo info = new UploadInfo();
+    info.setLength((long) content.length());
+    info = storageService.create(info, null);
+    storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+
+    tusFileUploadService.shutdown();
+
+    // A new storage service only sees the offsets that were persisted
+    UploadInfo persisted =
+        new DiskStorageService(storagePath.toString()).getUploadInfo(info.getId());
+    assertThat(persisted.getOffset(), is((long) content.length()));
+  }
+
+  @Test
+  public void testUploadInfoSavedBeforeErrorResponse() throws Exception {
+    UploadStorageService storageService = mock(UploadStorageService.class);
+    UploadRequestContext context =
+        new UploadRequestContext(storageService, createUploadIdFactory());
+    UploadInfo info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+    context.update(info);
+    TusServletResponse response = spy(new TusServletResponse(servletResponse));
+
+    servletRequest.setMethod("PATCH");
+    servletRequest.setRequestURI(UPLOAD_URI + "/" + info.getId());
+    tusFileUploadService.processTusException(
+        HttpMethod.PATCH,
+        new TusServletRequest(servletRequest),
+        response,
+        context,
+        null,
+        new UploadNotFoundException("The upload could not be found."));
+
+    InOrder inOrder = inOrder(storageService, response);
+    inOrder.verify(storageService).update(info);
+    inOrder.verify(response).sendError(404, "The upload could not be found.");
+    assertResponseStatus(HttpServletResponse.SC_NOT_FOUND);
+  }
+
   @Test
   public void testDisableFeature() throws Exception {
     tusFileUploadService.disableTusExtension("download");
@@ -783,6 +875,143 @@ public class ITTusFileUploadService {
     assertResponseHeader(HttpHeader.CONTENT_LENGTH, "0");
   }
 
+  @Test
+  public void testUploadChecksumAfterInvalidPart() throws Exception {
+    String part1 = "This is the first part of my test upload ";
+    String part2 = "and this is the second part.";
+    DiskStorageService storageService =
+        new DiskStorageService(storagePath.toAbsolutePath().toString());
+    storageService.setUploadChecksumAlgorithm(ChecksumAlgorithm.SHA256);
+    tusFileUploadService.withUploadStorageService(storageService);
+
+    // Create upload
+    servletRequest.setMethod("POST");
+    servletRequest.setRequestURI(UPLOAD_URI);
+    servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+    servletRequest.addHeader(HttpHeader.UPLOAD_LENGTH, "69");
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+    tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+    assertResponseStatus(HttpServletResponse.SC_CREATED);
+
+    String location =
+        UPLOAD_URI
+            + StringUtils.substringAfter(
+                servletResponse.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+
+    // Upload part 1 bytes
+    reset();
+    servletRequest.setMethod("PATCH");
+    servletRequest.setRequestURI(location);
+    servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+    servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, 0);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+    servletRequest.setContent(part1.getBytes());
+
+    tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+    assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+    assertThat(
+        tusFileUploadService.getUploadInfo(location, OWNER_KEY).getUploadChecksum(), nullValue());
+
+    // Upload part 2 bytes with an invalid checksum
+    reset();
+    servletRequest.setMethod("PATCH");
+    servletRequest.setRequestURI(location);
+    servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+    servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, "41");
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+    servletRequest.addHeader(HttpHeader.UPLOAD_CHECKSUM, "sha1 invalid");
+    servletRequest.setContent("and this is an invalid second part".getBytes());
+
+    tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+    assertResponseStatus(460);
+    assertThat(
+        tusFileUploadService.getUploadInfo(location, OWNER_KEY).getUploadChecksum(), nullValue());
+
+    // Upload the correct part 2 bytes
+    reset();
+    servletRequest.setMethod("PATCH");
+    servletRequest.setRequestURI(location);
+    servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+    servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, "41");
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+    servletRequest.setContent(part2.getBytes());
+
+    tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+    assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+    assertResponseHeader(HttpHeader.UPLOAD_OFFSET, "69");
+
+    // The checksum of the full upload is available without reading the bytes again
+    assertThat(
+        tusFileUploadService.getUploadInfo(location, OWNER_KEY).getUploadChecksum(),
+        is("sha256 " + Base64.encodeBase64String(DigestUtils.sha256(part1 + part2))));
+  }
+
+  @Test
+  public void testChecksumHeaderRequired() throws Exception {
+    tusFileUploadService.withChecksumTrailerAlgorithms();
+
+    String part1 =
+        "29\r\nThis is the first part of my test upload "
+            + "\r\n0\r\nUpload-Checksum: sha1 n5RQbRwM6UVAD+9iuHEmnN6HCGQ=";
+
+    // Create upload
+    servletRequest.setMethod("POST");
+    servletRequest.setRequestURI(UPLOAD_URI);
+    servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+    servletRequest.addHeader(HttpHeader.UPLOAD_LENGTH, "41");
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+    tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+    assertResponseStatus(HttpServletResponse.SC_CREATED);
+
+    String location =
+        UPLOAD_URI
+            + StringUtils.substringAfter(
+                servletResponse.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+
+    // A checksum trailer is not accepted
+    reset();
+    servletRequest.setMethod("PATCH");
+    servletRequest.setRequestURI(location);
+    servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+    servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, 0);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+    servletRequest.addHeader(HttpHeader.TRANSFER_ENCODING, "chunked");
+    servletRequest.setContent(part1.getBytes());
+
+    tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+    assertResponseStatus(HttpServletResponse.SC_BAD_REQUEST);
+    assertThat(tusFileUploadService.getUploadInfo(location, OWNER_KEY).getOffset(), is(0L));
+
+    // The same checksum as a header up front is accepted
+    reset();
+    servletRequest.setMethod("PATCH");
+    servletRequest.setRequestURI(location);
+    servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+    servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, 0);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+    servletRequest.addHeader(HttpHeader.TRANSFER_ENCODING, "chunked");
+    servletRequest.addHeader(HttpHeader.UPLOAD_CHECKSUM, "sha1 n5RQbRwM6UVAD+9iuHEmnN6HCGQ=");
+    servletRequest.setContent(
+        (StringUtils.substringBefore(part1, "Upload-Checksum") + "\r\n").getBytes());
+
+    tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+    assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+    assertResponseHeader(HttpHeader.UPLOAD_OFFSET, "41");
+
+    // Trailer support is no longer advertised
+    reset();
+    servletRequest.setMethod("OPTIONS");
+    servletRequest.setRequestURI(UPLOAD_URI);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+    tusFileUploadService.process(servletRequest, servletResponse);
+    assertThat(
+        Arrays.asList(servletResponse.getHeader(HttpHeader.TUS_EXTENSION).split(",")),
+        allOf(hasItem("checksum"), not(hasItem("checksum-trailer"))));
+  }
+
   @Test
   public void testCleanupExpiredUpload() throws Exception {
     // Set the expiration period to 500 ms
@@ -849,6 +1078,46 @@ public class ITTusFileUploadService {
     assertResponseStatus(HttpServletResponse.SC_NOT_FOUND);
   }
 
+  @Test
+  public void testScheduledCleanupExpiredUpload() throws Exception {
+    tusFileUploadService
+        .withUploadExpirationPeriod(200L)
+        .withCleanupWorkers(2)
+        .withScheduledCleanup(100L);
+
+    try {
+      // Create upload
+      servletRequest.setMethod("POST");
+      servletRequest.setRequestURI(UPLOAD_URI);
+      servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+      servletRequest.addHeader(HttpHeader.UPLOAD_LENGTH, 20L);
+      servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+      tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+      assertResponseStatus(HttpServletResponse.SC_CREATED);
+
+      String location =
+          UPLOAD_URI
+              + StringUtils.substringAfter(
+                  servletResponse.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+
+      // Wait until the background cleanup removed the expired upload. The cleanup locks the
+      // upload while removing it, so read the upload information without locking it.
+      UploadStorageService storageService = tusFileUploadService.getUploadStorageService();
+      long deadline = System.currentTimeMillis() + 10000L;
+      while (storageService.getUploadInfo(location, OWNER_KEY) != null
+          && System.currentTimeMillis() < deadline) {
+        Utils.sleep(50L);
+      }
+      assertNull(storageService.getUploadInfo(location, OWNER_KEY));
+
+      CleanupStatistics statistics = tusFileUploadService.getLastCleanupStatistics();
+      assertThat(statistics != null, is(hasCleanupStatistics()));
+    } finally {
+      tusFileUploadService.stopScheduledCleanup();
+    }
+  }
+
   @Test
   public void testConcatenationCompleted() throws Exception {
     String part1 =
@@ -1013,6 +1282,18 @@ public class ITTusFileUploadService {
         servletResponse.getContentAsString(),
         is("This is the first part of my test upload and this is the second part."));
 
+    // Download a byte range that spans both partial uploads
+    reset();
+    servletRequest.setMethod("GET");
+    servletRequest.setRequestURI(location);
+    servletRequest.addHeader(HttpHeader.RANGE, "bytes=34-44");
+
+    tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+    assertResponseStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    assertResponseHeader(HttpHeader.CONTENT_LENGTH, "11");
+    assertResponseHeader(HttpHeader.CONTENT_RANGE, "bytes 34-44/69");
+    assertThat(servletResponse.getContentAsString(), is("upload and "));
+
     // Get uploaded bytes from service
     try (InputStream uploadedBytes = tusFileUploadService.getUploadedBytes(location, OWNER_KEY)) {
       assertThat(
@@ -1021,6 +1302,93 @@ public class ITTusFileUploadService {
     }
   }
 
+  @Test
+  public void testConcurrentHeadAndPatchOnFinalUpload() throws Exception {
+    String part1 = "The first part is complete before the final upload is created. ";
+    String part2 = "The second part completes the final upload.";
+
+    // Create the partial uploads, of which only the first one is complete
+    String location1 = createPartialUpload(part1.getBytes().length);
+    patchUpload(location1, part1);
+    String location2 = createPartialUpload(part2.getBytes().length);
+
+    reset();
+    servletRequest.setMethod("POST");
+    servletRequest.setRequestURI(UPLOAD_URI);
+    servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+    servletRequest.addHeader(HttpHeader.UPLOAD_CONCAT, "final;" + location1 + " " + location2);
+
+    tusFileUploadService.process(servletRequest, servletResponse);
+    assertResponseStatus(HttpServletResponse.SC_CREATED);
+    String locationFinal =
+        UPLOAD_URI
+            + StringUtils.substringAfter(
+                servletResponse.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+
+    // Completing the second part means the final upload has to be merged
+    patchUpload(location2, part2);
+
+    // A PATCH request of the final upload that is still in progress holds its lock
+    try (UploadLock lock =
+        tusFileUploadService.getUploadLockingService().lockUploadByUri(locationFinal)) {
+      reset();
+      servletRequest.setMethod("HEAD");
+      servletRequest.setRequestURI(locationFinal);
+      servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+      tusFileUploadService.process(servletRequest, servletResponse);
+      assertResponseHeaderNull(HttpHeader.UPLOAD_OFFSET);
+
+      // The HEAD request did not merge the final upload without the lock
+      UploadInfo info =
+          tusFileUploadService.getUploadStorageService().getUploadInfo(locationFinal, null);
+      assertThat(info.isUploadInProgress(), is(true));
+    }
+
+    reset();
+    servletRequest.setMethod("HEAD");
+    servletRequest.setRequestURI(locationFinal);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+    tusFileUploadService.process(servletRequest, servletResponse);
+    assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+    assertResponseHeader(HttpHeader.UPLOAD_OFFSET, "" + (part1 + part2).getBytes().length);
+
+    try (InputStream uploadedBytes = tusFileUploadService.getUploadedBytes(locationFinal)) {
+      assertThat(IOUtils.toString(uploadedBytes, StandardCharsets.UTF_8), is(part1 + part2));
+    }
+  }
+
+  private String createPartialUpload(int length) throws Exception {
+    reset();
+    servletRequest.setMethod("POST");
+    servletRequest.setRequestURI(UPLOAD_URI);
+    servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+    servletRequest.addHeader(HttpHeader.UPLOAD_LENGTH, length);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+    servletRequest.addHeader(HttpHeader.UPLOAD_CONCAT, "partial");
+
+    tusFileUploadService.process(servletRequest, servletResponse);
+    assertResponseStatus(HttpServletResponse.SC_CREATED);
+    return UPLOAD_URI
+        + StringUtils.substringAfter(servletResponse.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+  }
+
+  private void patchUpload(String location, String content) throws Exception {
+    reset();
+    servletRequest.setMethod("PATCH");
+    servletRequest.setRequestURI(location);
+    servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+    servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, content.getBytes().length);
+    servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, 0);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+    servletRequest.setContent(content.getBytes());
+
+    tusFileUploadService.process(servletRequest, servletResponse);
+    assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+  }
+
   @Test
   public void testConcatenationUnfinished() throws Exception {
     String part1 = "When sending this part, the final upload was already created. ";
@@ -1337,7 +1705,14 @@ public class ITTusFileUploadService {
     assertResponseHeader(HttpHeader.TUS_VERSION, "1.0.0");
     assertResponseHeader(HttpHeader.TUS_MAX_SIZE, "1073741824");
     assertResponseHeader(
-        HttpHeader.TUS_CHECKSUM_ALGORITHM, "md5", "sha1", "sha256", "sha384", "sha512");
+        HttpHeader.TUS_CHECKSUM_ALGORITHM,
+        "md5",
+        "sha1",
+        "sha256",
+        "sha384",
+        "sha512",
+        "crc32c",
+        "xxh64");
     assertResponseHeader(
         HttpHeader.TUS_EXTENSION,
         "creation",
@@ -1363,6 +1738,131 @@ public class ITTusFileUploadService {
     assertResponseHeader(HttpHeader.CONTENT_LENGTH, "0");
   }
 
+  @Test
+  public void testHeadAndDownloadWhileUploadLocked() throws Exception {
+    String uploadContent = "This is my locked upload content";
+
+    // Create upload
+    servletRequest.setMethod("POST");
+    servletRequest.setRequestURI(UPLOAD_URI);
+    servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+    servletRequest.addHeader(HttpHeader.UPLOAD_LENGTH, uploadContent.getBytes().length);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+    tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+    assertResponseStatus(HttpServletResponse.SC_CREATED);
+
+    String location =
+        UPLOAD_URI
+            + StringUtils.substringAfter(
+                servletResponse.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+
+    // Upload bytes
+    reset();
+    servletRequest.setMethod("PATCH");
+    servletRequest.setRequestURI(location);
+    servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+    servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, uploadContent.getBytes().length);
+    servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, 0);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+    servletRequest.setContent(uploadContent.getBytes());
+
+    tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+    assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+
+    // Simulate another request that is still processing this upload
+    UploadIdFactory idFactory = createUploadIdFactory();
+    idFactory.setUploadUri(UPLOAD_URI);
+    UploadLockingService lockingService =
+        new DiskLockingService(idFactory, storagePath.toAbsolutePath().toString());
+
+    try (UploadLock lock = lockingService.lockUploadByUri(location)) {
+
+      // A HEAD request does not need the lock
+      reset();
+      servletRequest.setMethod("HEAD");
+      servletRequest.setRequestURI(location);
+      servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+      tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+      assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+      assertResponseHeader(HttpHeader.UPLOAD_OFFSET, "" + uploadContent.getBytes().length);
+
+      // By default a download request does need the lock
+      reset();
+      servletRequest.setMethod("GET");
+      servletRequest.setRequestURI(location);
+
+      tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+      assertThat(servletResponse.getContentAsString(), is(""));
+
+      // Unless lock-free downloads are enabled
+      tusFileUploadService.withLockFreeDownloads(true);
+      reset();
+      servletRequest.setMethod("GET");
+      servletRequest.setRequestURI(location);
+
+      tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+      assertResponseStatus(HttpServletResponse.SC_OK);
+      assertThat(servletResponse.getContentAsString(), is(uploadContent));
+    }
+  }
+
+  @Test
+  public void testSendfileDownloadsOnlyWhenEnabled() throws Exception {
+    String uploadContent = "This upload can be sent from disk";
+    String location = createPartialUpload(uploadContent.getBytes().length);
+    patchUpload(location, uploadContent);
+
+    // By default the bytes are copied, the upload could be removed before the container sends it
+    reset();
+    servletRequest.setMethod("GET");
+    servletRequest.setRequestURI(location);
+    servletRequest.setAttribute("org.apache.tomcat.sendfile.support", true);
+
+    tusFileUploadService.process(servletRequest, servletResponse);
+    assertResponseStatus(HttpServletResponse.SC_OK);
+    assertThat(servletResponse.getContentAsString(), is(uploadContent));
+    assertNull(servletRequest.getAttribute("org.apache.tomcat.sendfile.filename"));
+
+    tusFileUploadService.withSendfileDownloads(true);
+    reset();
+    servletRequest.setMethod("GET");
+    servletRequest.setRequestURI(location);
+    servletRequest.setAttribute("org.apache.tomcat.sendfile.support", true);
+
+    tusFileUploadService.process(servletRequest, servletResponse);
+    assertResponseStatus(HttpServletResponse.SC_OK);
+    if (hasLocalUploadFiles()) {
+      assertThat(servletResponse.getContentAsString(), is(""));
+      assertNotNull(servletRequest.getAttribute("org.apache.tomcat.sendfile.filename"));
+    } else {
+      assertThat(servletResponse.getContentAsString(), is(uploadContent));
+    }
+  }
+
+  @Test
+  public void testLockFreeHeadReadsUploadInfoOnce() throws Exception {
+    DiskStorageService storageService = spy(new DiskStorageService(storagePath.toString()));
+    tusFileUploadService.withUploadStorageService(storageService);
+    String uploadContent = "Read me once";
+    String location = createPartialUpload(uploadContent.getBytes().length);
+    patchUpload(location, uploadContent);
+    clearInvocations(storageService);
+
+    reset();
+    servletRequest.setMethod("HEAD");
+    servletRequest.setRequestURI(location);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+    tusFileUploadService.process(servletRequest, servletResponse);
+    assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+    assertResponseHeader(HttpHeader.UPLOAD_OFFSET, "" + uploadContent.getBytes().length);
+
+    // The lock check and the request handlers share the upload information of the request
+    verify(storageService, atMost(1)).getUploadInfo(any(UploadId.class));
+  }
+
   @Test
   public void testInvalidTusResumable() throws Exception {
     servletRequest.setMethod("POST");
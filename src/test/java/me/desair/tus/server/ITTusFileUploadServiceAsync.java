@@ -0,0 +1,323 @@
+package me.desair.tus.server;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import me.desair.tus.server.exception.UploadAlreadyLockedException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/** Test cases for the asynchronous processing of PATCH requests by {@link TusFileUploadService}. */
+public class ITTusFileUploadServiceAsync {
+
+  private static final String UPLOAD_URI = "/test/upload";
+  private static final String OWNER_KEY = "JOHN_DOE";
+  private static final String UPLOAD_CONTENT = "This is my test upload content";
+
+  private static Path storagePath;
+
+  private NonBlockingRequest servletRequest;
+  private MockHttpServletResponse servletResponse;
+
+  private TusFileUploadService tusFileUploadService;
+
+  @BeforeClass
+  public static void setupDataFolder() throws IOException {
+    storagePath = Paths.get("target", "tus", "async-data").toAbsolutePath();
+    Files.createDirectories(storagePath);
+  }
+
+  @AfterClass
+  public static void destroyDataFolder() throws IOException {
+    FileUtils.deleteDirectory(storagePath.toFile());
+  }
+
+  @Before
+  public void setUp() {
+    reset();
+    tusFileUploadService =
+        new TusFileUploadService()
+            .withUploadUri(UPLOAD_URI)
+            .withStoragePath(storagePath.toString())
+            .withDownloadFeature()
+            .withAsyncBufferSize(8);
+  }
+
+  @Test
+  public void testAsyncUploadInMultipleReads() throws Exception {
+    String location = createUpload();
+
+    preparePatch(location, 0);
+    servletRequest.addHeader(HttpHeader.UPLOAD_CHECKSUM, "sha1 Mfhm5HaSPUf+pUakdMxARo4rvfQ=");
+    tusFileUploadService.processAsync(servletRequest, servletResponse, OWNER_KEY);
+
+    // The response is not completed until all content is received
+    assertThat(servletRequest.isAsyncStarted(), is(true));
+    NonBlockingInputStream input = servletRequest.input;
+    assertThat(input.listener, notNullValue());
+
+    // Every full buffer is appended as soon as it is received
+    input.receive("This is my test ");
+    assertThat(getOffset(location), is(16L));
+
+    // While we wait for more bytes, the upload stays locked
+    try {
+      tusFileUploadService.getUploadInfo(location, OWNER_KEY);
+      fail();
+    } catch (UploadAlreadyLockedException e) {
+      // expected
+    }
+
+    input.receive("upload content");
+    assertThat(getOffset(location), is(24L));
+
+    input.end();
+    assertThat(servletRequest.isAsyncStarted(), is(false));
+    assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_NO_CONTENT));
+    assertThat(servletResponse.getHeader(HttpHeader.UPLOAD_OFFSET), is("30"));
+    assertThat(servletResponse.getHeader(HttpHeader.TUS_RESUMABLE), is("1.0.0"));
+    assertThat(tusFileUploadService.getUploadInfo(location, OWNER_KEY).getOffset(), is(30L));
+
+    assertThat(download(location), is(UPLOAD_CONTENT));
+  }
+
+  @Test
+  public void testAsyncChecksumMismatchRemovesAllBytes() throws Exception {
+    String location = createUpload();
+
+    preparePatch(location, 0);
+    servletRequest.addHeader(HttpHeader.UPLOAD_CHECKSUM, "sha1 invalidChecksumDSd8MdKxM4Iy1EY=");
+    tusFileUploadService.processAsync(servletRequest, servletResponse, OWNER_KEY);
+
+    servletRequest.input.receive(UPLOAD_CONTENT.substring(0, 20));
+    assertThat(getOffset(location), is(16L));
+    servletRequest.input.receive(UPLOAD_CONTENT.substring(20));
+    servletRequest.input.end();
+
+    assertThat(servletRequest.isAsyncStarted(), is(false));
+    assertThat(servletResponse.getStatus(), is(460));
+    assertThat(getOffset(location), is(0L));
+
+    // The client can upload the content again
+    reset();
+    preparePatch(location, 0);
+    tusFileUploadService.processAsync(servletRequest, servletResponse, OWNER_KEY);
+    servletRequest.input.receive(UPLOAD_CONTENT);
+    servletRequest.input.end();
+
+    assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_NO_CONTENT));
+    assertThat(download(location), is(UPLOAD_CONTENT));
+  }
+
+  @Test
+  public void testAsyncConnectionFailureKeepsReceivedBytes() throws Exception {
+    String location = createUpload();
+
+    preparePatch(location, 0);
+    tusFileUploadService.processAsync(servletRequest, servletResponse, OWNER_KEY);
+
+    servletRequest.input.receive("This is my te");
+    servletRequest.input.fail(new IOException("Connection reset"));
+
+    assertThat(servletRequest.isAsyncStarted(), is(false));
+    assertThat(getOffset(location), is(13L));
+
+    // Resume the upload where the connection failed
+    reset();
+    preparePatch(location, 13);
+    tusFileUploadService.processAsync(servletRequest, servletResponse, OWNER_KEY);
+    servletRequest.input.receive(UPLOAD_CONTENT.substring(13));
+    servletRequest.input.end();
+
+    assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_NO_CONTENT));
+    assertThat(download(location), is(UPLOAD_CONTENT));
+  }
+
+  @Test
+  public void testAsyncInvalidOffsetIsProcessedImmediately() throws Exception {
+    String location = createUpload();
+
+    preparePatch(location, 5);
+    tusFileUploadService.processAsync(servletRequest, servletResponse, OWNER_KEY);
+
+    assertThat(servletRequest.isAsyncStarted(), is(false));
+    assertThat(servletRequest.input.listener, nullValue());
+    assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_CONFLICT));
+
+    // The upload is not locked anymore
+    reset();
+    preparePatch(location, 0);
+    tusFileUploadService.processAsync(servletRequest, servletResponse, OWNER_KEY);
+    servletRequest.input.receive(UPLOAD_CONTENT);
+    servletRequest.input.end();
+    assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_NO_CONTENT));
+  }
+
+  @Test
+  public void testAsyncNotSupportedFallsBackToBlocking() throws Exception {
+    String location = createUpload();
+
+    preparePatch(location, 0);
+    servletRequest.setAsyncSupported(false);
+    servletRequest.setContent(UPLOAD_CONTENT.getBytes(StandardCharsets.UTF_8));
+    tusFileUploadService.processAsync(servletRequest, servletResponse, OWNER_KEY);
+
+    assertThat(servletRequest.isAsyncStarted(), is(false));
+    assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_NO_CONTENT));
+    assertThat(servletResponse.getHeader(HttpHeader.UPLOAD_OFFSET), is("30"));
+    assertThat(download(location), is(UPLOAD_CONTENT));
+  }
+
+  private String createUpload() throws IOException {
+    servletRequest.setMethod("POST");
+    servletRequest.setRequestURI(UPLOAD_URI);
+    servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+    servletRequest.addHeader(HttpHeader.UPLOAD_LENGTH, UPLOAD_CONTENT.length());
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+    // Requests without content are always processed synchronously
+    tusFileUploadService.processAsync(servletRequest, servletResponse, OWNER_KEY);
+    assertThat(servletRequest.isAsyncStarted(), is(false));
+    assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_CREATED));
+
+    String location =
+        UPLOAD_URI
+            + StringUtils.substringAfter(
+                servletResponse.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+    reset();
+    return location;
+  }
+
+  private void preparePatch(String location, long offset) {
+    servletRequest.setMethod("PATCH");
+    servletRequest.setRequestURI(location);
+    servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+    servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, UPLOAD_CONTENT.length() - offset);
+    servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, offset);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+  }
+
+  private long getOffset(String location) throws Exception {
+    // A HEAD request does not need the lock that is held by the PATCH request
+    MockHttpServletRequest headRequest = new MockHttpServletRequest("HEAD", location);
+    headRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+    MockHttpServletResponse headResponse = new MockHttpServletResponse();
+    tusFileUploadService.process(headRequest, headResponse, OWNER_KEY);
+    return Long.parseLong(headResponse.getHeader(HttpHeader.UPLOAD_OFFSET));
+  }
+
+  private String download(String location) throws Exception {
+    try (InputStream uploadedBytes = tusFileUploadService.getUploadedBytes(location, OWNER_KEY)) {
+      return IOUtils.toString(uploadedBytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  private void reset() {
+    servletRequest = new NonBlockingRequest();
+    servletRequest.setAsyncSupported(true);
+    servletResponse = new MockHttpServletResponse();
+  }
+
+  /** Mock request with a non-blocking input stream. */
+  private static class NonBlockingRequest extends MockHttpServletRequest {
+
+    private final NonBlockingInputStream input = new NonBlockingInputStream();
+
+    @Override
+    public ServletInputStream getInputStream() {
+      return isAsyncStarted() ? input : super.getInputStream();
+    }
+  }
+
+  /**
+   * Input stream that only returns the bytes that were "received" and calls the read listener like
+   * a web container would.
+   */
+  private static class NonBlockingInputStream extends ServletInputStream {
+
+    private final Deque<byte[]> received = new ArrayDeque<>();
+    private ReadListener listener;
+    private boolean isEnded = false;
+    private IOException failure;
+
+    void receive(String content) throws IOException {
+      received.add(content.getBytes(StandardCharsets.UTF_8));
+      listener.onDataAvailable();
+    }
+
+    void end() throws IOException {
+      isEnded = true;
+      listener.onDataAvailable();
+      listener.onAllDataRead();
+    }
+
+    void fail(IOException exception) {
+      failure = exception;
+      listener.onError(exception);
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (failure != null) {
+        throw failure;
+      }
+      byte[] next = received.poll();
+      if (next == null) {
+        if (isEnded) {
+          return -1;
+        }
+        throw new IllegalStateException("Read while the stream is not ready");
+      }
+
+      int count = Math.min(length, next.length);
+      System.arraycopy(next, 0, bytes, offset, count);
+      if (count < next.length) {
+        received.push(Arrays.copyOfRange(next, count, next.length));
+      }
+      return count;
+    }
+
+    @Override
+    public boolean isFinished() {
+      return isEnded && received.isEmpty();
+    }
+
+    @Override
+    public boolean isReady() {
+      return !received.isEmpty() || isEnded;
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+      this.listener = readListener;
+    }
+  }
+}
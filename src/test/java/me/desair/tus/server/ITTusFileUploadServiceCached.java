@@ -2,12 +2,18 @@ package me.desair.tus.server;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.sameInstance;
 
 import jakarta.servlet.http.HttpServletResponse;
+import java.util.Arrays;
 import me.desair.tus.server.upload.TimeBasedUploadIdFactory;
+import me.desair.tus.server.upload.UploadIdFactory;
 import me.desair.tus.server.upload.UploadLockingService;
 import me.desair.tus.server.upload.UploadStorageService;
-import me.desair.tus.server.upload.cache.ThreadLocalCachedStorageAndLockingService;
+import me.desair.tus.server.upload.cache.CachedStorageAndLockingService;
+import me.desair.tus.server.upload.cache.UploadInfoCache;
 import me.desair.tus.server.upload.concatenation.VirtualConcatenationService;
 import me.desair.tus.server.upload.disk.DiskLockingService;
 import me.desair.tus.server.upload.disk.DiskStorageService;
@@ -22,9 +28,12 @@ public class ITTusFileUploadServiceCached extends ITTusFileUploadService {
   public void setUp() {
     super.setUp();
     tusFileUploadService =
-        tusFileUploadService
-            .withThreadLocalCache(true)
-            .withUploadIdFactory(new TimeBasedUploadIdFactory());
+        tusFileUploadService.withUploadInfoCache(100).withUploadIdFactory(createUploadIdFactory());
+  }
+
+  @Override
+  protected UploadIdFactory createUploadIdFactory() {
+    return new TimeBasedUploadIdFactory();
   }
 
   @Test
@@ -33,8 +42,9 @@ public class ITTusFileUploadServiceCached extends ITTusFileUploadService {
     UploadStorageService uploadStorageService = new DiskStorageService(path);
     UploadLockingService uploadLockingService = new DiskLockingService(path);
 
-    ThreadLocalCachedStorageAndLockingService service2 =
-        new ThreadLocalCachedStorageAndLockingService(uploadStorageService, uploadLockingService);
+    CachedStorageAndLockingService service2 =
+        new CachedStorageAndLockingService(
+            uploadStorageService, uploadLockingService, new UploadInfoCache());
 
     service2.setUploadConcatenationService(new VirtualConcatenationService(service2));
 
@@ -47,6 +57,38 @@ public class ITTusFileUploadServiceCached extends ITTusFileUploadService {
     testConcatenationCompleted();
   }
 
+  @Test
+  public void testCacheWrapsConfiguredServicesInAnyOrder() throws Exception {
+    String path = storagePath.toAbsolutePath().toString();
+    UploadStorageService uploadStorageService = new DiskStorageService(path);
+    UploadLockingService uploadLockingService = new DiskLockingService(path);
+
+    // Enable the cache before and after setting the services
+    TusFileUploadService cacheFirst =
+        new TusFileUploadService()
+            .withUploadInfoCache(10)
+            .withUploadStorageService(uploadStorageService)
+            .withUploadLockingService(uploadLockingService)
+            .withUploadInfoCache(20);
+    TusFileUploadService cacheLast =
+        new TusFileUploadService()
+            .withUploadStorageService(uploadStorageService)
+            .withUploadLockingService(uploadLockingService)
+            .withUploadInfoCache(10);
+
+    for (TusFileUploadService service : Arrays.asList(cacheFirst, cacheLast)) {
+      assertThat(
+          service.getUploadStorageService(), instanceOf(CachedStorageAndLockingService.class));
+      assertThat(
+          service.getUploadLockingService(), sameInstance(service.getUploadStorageService()));
+
+      // Disabling the cache restores the configured services, so they were never wrapped twice
+      service.withUploadInfoCache(0);
+      assertThat(service.getUploadStorageService(), sameInstance(uploadStorageService));
+      assertThat(service.getUploadLockingService(), sameInstance(uploadLockingService));
+    }
+  }
+
   @Test
   public void testCachedUploadDifferentKey() throws Exception {
     String uploadContent = "This is an upload of someone else";
@@ -108,4 +150,68 @@ public class ITTusFileUploadServiceCached extends ITTusFileUploadService {
     assertResponseHeader(HttpHeader.CONTENT_LENGTH, "0");
     assertResponseStatus(HttpServletResponse.SC_NOT_FOUND);
   }
+
+  @Test
+  public void testCacheSharedBetweenRequestsAndInstances() throws Exception {
+    // Create upload
+    servletRequest.setMethod("POST");
+    servletRequest.setRequestURI(UPLOAD_URI);
+    servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+    servletRequest.addHeader(HttpHeader.UPLOAD_LENGTH, 8);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+    tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+    assertResponseStatus(HttpServletResponse.SC_CREATED);
+
+    String location =
+        UPLOAD_URI
+            + StringUtils.substringAfter(
+                servletResponse.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+
+    // Consecutive requests use the cached upload info
+    UploadInfoCache cache = tusFileUploadService.getUploadInfoCache();
+    long hits = cache.getHitCount();
+    for (int i = 0; i < 2; i++) {
+      reset();
+      servletRequest.setMethod("HEAD");
+      servletRequest.setRequestURI(location);
+      servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+      tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+      assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+      assertResponseHeader(HttpHeader.UPLOAD_OFFSET, "0");
+    }
+    assertThat(cache.getHitCount(), greaterThan(hits));
+
+    // Another application instance that shares the storage appends bytes
+    TusFileUploadService otherInstance =
+        new TusFileUploadService()
+            .withUploadUri(UPLOAD_URI)
+            .withStoragePath(storagePath.toAbsolutePath().toString())
+            .withUploadIdFactory(createUploadIdFactory());
+
+    reset();
+    servletRequest.setMethod("PATCH");
+    servletRequest.setRequestURI(location);
+    servletRequest.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+    servletRequest.addHeader(HttpHeader.CONTENT_LENGTH, 4);
+    servletRequest.addHeader(HttpHeader.UPLOAD_OFFSET, 0);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+    servletRequest.setContent("tus!".getBytes());
+
+    otherInstance.process(servletRequest, servletResponse, OWNER_KEY);
+    assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+
+    // The outdated cache entry is detected
+    long misses = cache.getMissCount();
+    reset();
+    servletRequest.setMethod("HEAD");
+    servletRequest.setRequestURI(location);
+    servletRequest.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+
+    tusFileUploadService.process(servletRequest, servletResponse, OWNER_KEY);
+    assertResponseStatus(HttpServletResponse.SC_NO_CONTENT);
+    assertResponseHeader(HttpHeader.UPLOAD_OFFSET, "4");
+    assertThat(cache.getMissCount(), greaterThan(misses));
+  }
 }
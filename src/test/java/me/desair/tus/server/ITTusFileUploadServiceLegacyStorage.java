@@ -0,0 +1,28 @@
+package me.desair.tus.server;
+
+import me.desair.tus.server.upload.LegacyUploadStorageService;
+import me.desair.tus.server.upload.disk.DiskStorageService;
+import org.junit.Before;
+
+/** Run all tests with a custom storage service that only implements the required methods. */
+public class ITTusFileUploadServiceLegacyStorage extends ITTusFileUploadService {
+
+  @Override
+  @Before
+  public void setUp() {
+    super.setUp();
+    tusFileUploadService =
+        tusFileUploadService.withUploadStorageService(
+            new LegacyUploadStorageService(new DiskStorageService(storagePath.toString())));
+  }
+
+  @Override
+  protected boolean hasCleanupStatistics() {
+    return false;
+  }
+
+  @Override
+  protected boolean hasLocalUploadFiles() {
+    return false;
+  }
+}
@@ -0,0 +1,24 @@
+package me.desair.tus.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+
+public class ITTusFileUploadServiceParallelChecksums extends ITTusFileUploadService {
+
+  private ExecutorService checksumExecutor;
+
+  @Override
+  @Before
+  public void setUp() {
+    super.setUp();
+    checksumExecutor = Executors.newFixedThreadPool(2);
+    tusFileUploadService = tusFileUploadService.withParallelChecksums(checksumExecutor);
+  }
+
+  @After
+  public void tearDown() {
+    checksumExecutor.shutdownNow();
+  }
+}
@@ -0,0 +1,17 @@
+package me.desair.tus.server;
+
+import me.desair.tus.server.upload.disk.DiskStorageService;
+import me.desair.tus.server.upload.disk.PhysicalConcatenationService;
+import org.junit.Before;
+
+public class ITTusFileUploadServicePhysicalConcatenation extends ITTusFileUploadService {
+
+  @Override
+  @Before
+  public void setUp() {
+    super.setUp();
+    DiskStorageService storageService = new DiskStorageService(storagePath.toString());
+    storageService.setUploadConcatenationService(new PhysicalConcatenationService(storageService));
+    tusFileUploadService = tusFileUploadService.withUploadStorageService(storageService);
+  }
+}
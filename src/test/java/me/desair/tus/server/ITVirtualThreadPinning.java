@@ -0,0 +1,152 @@
+package me.desair.tus.server;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Load test that processes many concurrent uploads on virtual threads and verifies with JFR that no
+ * virtual thread was pinned to its carrier thread while running code of this library. This test
+ * requires JDK 21 or newer and is skipped on older JVMs. The number of concurrent uploads can be
+ * changed with the system property "tus.loadtest.uploads".
+ */
+public class ITVirtualThreadPinning {
+
+  private static final String UPLOAD_URI = "/test/upload";
+  private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+  private static final int CHUNK_COUNT = 4;
+  private static final String CHUNK = StringUtils.repeat("tus-", 256);
+
+  private Path storagePath;
+  private TusFileUploadService tusFileUploadService;
+
+  @Before
+  public void setUp() throws IOException {
+    assumeTrue("Virtual threads require JDK 21 or newer", Runtime.version().feature() >= 21);
+
+    storagePath = Paths.get("target", "tus", "virtual-threads").toAbsolutePath();
+    Files.createDirectories(storagePath);
+    tusFileUploadService =
+        new TusFileUploadService()
+            .withUploadUri(UPLOAD_URI)
+            .withStoragePath(storagePath.toString());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (storagePath != null) {
+      FileUtils.deleteDirectory(storagePath.toFile());
+    }
+  }
+
+  @Test
+  public void testNoCarrierPinningUnderLoad() throws Exception {
+    int uploads = Integer.getInteger("tus.loadtest.uploads", 2000);
+    Path recordingPath = storagePath.resolve("pinning.jfr");
+
+    try (Recording recording = new Recording()) {
+      recording.enable(PINNED_EVENT).withThreshold(Duration.ZERO).withStackTrace();
+      recording.start();
+
+      ExecutorService executor =
+          (ExecutorService)
+              Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      List<Future<Long>> results = new ArrayList<>();
+      for (int i = 0; i < uploads; i++) {
+        results.add(executor.submit(this::upload));
+      }
+      executor.shutdown();
+      assertThat(executor.awaitTermination(5, TimeUnit.MINUTES), is(true));
+
+      for (Future<Long> result : results) {
+        assertThat(result.get(), is((long) CHUNK_COUNT * CHUNK.length()));
+      }
+
+      recording.stop();
+      recording.dump(recordingPath);
+    }
+
+    List<String> pinnedStacks = new ArrayList<>();
+    for (RecordedEvent event : RecordingFile.readAllEvents(recordingPath)) {
+      if (PINNED_EVENT.equals(event.getEventType().getName()) && isPinnedInLibrary(event)) {
+        pinnedStacks.add(event.getStackTrace().toString());
+      }
+    }
+    assertThat(String.join("\n\n", pinnedStacks), pinnedStacks.isEmpty(), is(true));
+  }
+
+  private long upload() throws IOException {
+    int length = CHUNK_COUNT * CHUNK.length();
+
+    MockHttpServletRequest request = newRequest("POST", UPLOAD_URI);
+    request.addHeader(HttpHeader.CONTENT_LENGTH, 0);
+    request.addHeader(HttpHeader.UPLOAD_LENGTH, length);
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    tusFileUploadService.process(request, response);
+    assertThat(response.getStatus(), is(HttpServletResponse.SC_CREATED));
+
+    String location =
+        UPLOAD_URI
+            + StringUtils.substringAfter(response.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+
+    for (int i = 0; i < CHUNK_COUNT; i++) {
+      request = newRequest("PATCH", location);
+      request.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+      request.addHeader(HttpHeader.CONTENT_LENGTH, CHUNK.length());
+      request.addHeader(HttpHeader.UPLOAD_OFFSET, (long) i * CHUNK.length());
+      request.setContent(CHUNK.getBytes(StandardCharsets.UTF_8));
+      response = new MockHttpServletResponse();
+      tusFileUploadService.process(request, response);
+      assertThat(response.getStatus(), is(HttpServletResponse.SC_NO_CONTENT));
+    }
+
+    request = newRequest("HEAD", location);
+    response = new MockHttpServletResponse();
+    tusFileUploadService.process(request, response);
+    return Long.parseLong(response.getHeader(HttpHeader.UPLOAD_OFFSET));
+  }
+
+  private MockHttpServletRequest newRequest(String method, String uri) {
+    MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+    request.addHeader(HttpHeader.TUS_RESUMABLE, "1.0.0");
+    return request;
+  }
+
+  private boolean isPinnedInLibrary(RecordedEvent event) {
+    if (event.getStackTrace() == null) {
+      return false;
+    }
+    for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+      String type = frame.getMethod().getType().getName();
+      if (type.startsWith("me.desair.tus.server.") && !type.endsWith("ITVirtualThreadPinning")) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
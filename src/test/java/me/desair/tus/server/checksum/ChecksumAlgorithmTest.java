@@ -1,8 +1,14 @@
 package me.desair.tus.server.checksum;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
+import me.desair.tus.server.checksum.calculator.Crc32cCalculator;
+import me.desair.tus.server.checksum.calculator.MessageDigestCalculator;
+import me.desair.tus.server.checksum.calculator.XxHash64Calculator;
 import org.junit.Test;
 
 public class ChecksumAlgorithmTest {
@@ -14,6 +20,21 @@ public class ChecksumAlgorithmTest {
     assertNotNull(ChecksumAlgorithm.SHA256.getMessageDigest());
     assertNotNull(ChecksumAlgorithm.SHA384.getMessageDigest());
     assertNotNull(ChecksumAlgorithm.SHA512.getMessageDigest());
+    assertNull(ChecksumAlgorithm.CRC32C.getMessageDigest());
+    assertNull(ChecksumAlgorithm.XXH64.getMessageDigest());
+  }
+
+  @Test
+  public void getChecksumCalculator() throws Exception {
+    for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+      assertNotNull(algorithm.getChecksumCalculator());
+    }
+    assertThat(
+        ChecksumAlgorithm.SHA1.getChecksumCalculator(), instanceOf(MessageDigestCalculator.class));
+    assertThat(
+        ChecksumAlgorithm.CRC32C.getChecksumCalculator(), instanceOf(Crc32cCalculator.class));
+    assertThat(
+        ChecksumAlgorithm.XXH64.getChecksumCalculator(), instanceOf(XxHash64Calculator.class));
   }
 
   @Test
@@ -23,6 +44,8 @@ public class ChecksumAlgorithmTest {
     assertEquals(ChecksumAlgorithm.SHA256, ChecksumAlgorithm.forTusName("sha256"));
     assertEquals(ChecksumAlgorithm.SHA384, ChecksumAlgorithm.forTusName("sha384"));
     assertEquals(ChecksumAlgorithm.SHA512, ChecksumAlgorithm.forTusName("sha512"));
+    assertEquals(ChecksumAlgorithm.CRC32C, ChecksumAlgorithm.forTusName("crc32c"));
+    assertEquals(ChecksumAlgorithm.XXH64, ChecksumAlgorithm.forTusName("xxh64"));
     assertEquals(null, ChecksumAlgorithm.forTusName("test"));
   }
 
@@ -48,5 +71,7 @@ public class ChecksumAlgorithmTest {
     assertEquals("sha256", ChecksumAlgorithm.SHA256.toString());
     assertEquals("sha384", ChecksumAlgorithm.SHA384.toString());
     assertEquals("sha512", ChecksumAlgorithm.SHA512.toString());
+    assertEquals("crc32c", ChecksumAlgorithm.CRC32C.toString());
+    assertEquals("xxh64", ChecksumAlgorithm.XXH64.toString());
   }
 }
@@ -0,0 +1,114 @@
+package me.desair.tus.server.checksum;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class ChecksumInputStreamTest {
+
+  private static final byte[] CONTENT =
+      "Mozilla Developer Network".getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void calculateAllChecksums() throws Exception {
+    ChecksumInputStream inputStream =
+        new ChecksumInputStream(
+            new ByteArrayInputStream(CONTENT), EnumSet.allOf(ChecksumAlgorithm.class));
+
+    assertThat(IOUtils.toByteArray(inputStream), is(CONTENT));
+
+    for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+      assertThat(inputStream.getChecksum(algorithm), is(expectedChecksum(algorithm)));
+    }
+  }
+
+  @Test
+  public void calculateSelectedChecksums() throws Exception {
+    ChecksumInputStream inputStream =
+        new ChecksumInputStream(
+            new ByteArrayInputStream(CONTENT),
+            Arrays.asList(ChecksumAlgorithm.SHA1, ChecksumAlgorithm.MD5));
+
+    IOUtils.toByteArray(inputStream);
+
+    assertThat(
+        inputStream.getAlgorithms(),
+        containsInAnyOrder(ChecksumAlgorithm.MD5, ChecksumAlgorithm.SHA1));
+    assertThat(inputStream.getChecksum(ChecksumAlgorithm.SHA1), is("zYR9iS5Rya+WoH1fEyfKqqdPWWE="));
+    assertThat(
+        inputStream.getChecksum(ChecksumAlgorithm.MD5),
+        is(expectedChecksum(ChecksumAlgorithm.MD5)));
+    assertThat(inputStream.getChecksum(ChecksumAlgorithm.SHA256), nullValue());
+  }
+
+  @Test
+  public void singleByteReadsAndSkip() throws Exception {
+    ChecksumInputStream inputStream =
+        new ChecksumInputStream(
+            new ByteArrayInputStream(CONTENT), EnumSet.of(ChecksumAlgorithm.SHA256));
+
+    assertThat(inputStream.read(), is((int) 'M'));
+    assertThat(inputStream.skip(7), is(7L));
+    while (inputStream.read() != -1) {
+      // Read the remaining bytes one by one
+    }
+    assertThat(inputStream.skip(10), is(0L));
+
+    assertThat(
+        inputStream.getChecksum(ChecksumAlgorithm.SHA256),
+        is(expectedChecksum(ChecksumAlgorithm.SHA256)));
+  }
+
+  @Test
+  public void noAlgorithms() throws Exception {
+    ChecksumInputStream inputStream =
+        new ChecksumInputStream(new ByteArrayInputStream(CONTENT), Collections.emptyList());
+
+    assertThat(IOUtils.toByteArray(inputStream), is(CONTENT));
+    assertThat(inputStream.getAlgorithms(), empty());
+    assertThat(inputStream.getChecksum(ChecksumAlgorithm.SHA1), nullValue());
+    assertThat(inputStream.markSupported(), is(false));
+  }
+
+  @Test
+  public void calculateChecksumsInParallel() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      ChecksumInputStream inputStream =
+          new ChecksumInputStream(
+              new ByteArrayInputStream(CONTENT),
+              EnumSet.of(ChecksumAlgorithm.SHA1, ChecksumAlgorithm.SHA512),
+              executor);
+
+      assertThat(inputStream.read(), is((int) 'M'));
+      assertThat(IOUtils.toByteArray(inputStream).length, is(CONTENT.length - 1));
+
+      assertThat(
+          inputStream.getChecksum(ChecksumAlgorithm.SHA1), is("zYR9iS5Rya+WoH1fEyfKqqdPWWE="));
+      assertThat(
+          inputStream.getChecksum(ChecksumAlgorithm.SHA512),
+          is(expectedChecksum(ChecksumAlgorithm.SHA512)));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private String expectedChecksum(ChecksumAlgorithm algorithm) {
+    ChecksumCalculator calculator = algorithm.getChecksumCalculator();
+    calculator.update(CONTENT, 0, CONTENT.length);
+    return Base64.encodeBase64String(calculator.digest());
+  }
+}
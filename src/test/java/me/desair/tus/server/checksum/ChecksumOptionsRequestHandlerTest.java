@@ -5,6 +5,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 
 import java.util.Arrays;
+import java.util.EnumSet;
 import me.desair.tus.server.HttpHeader;
 import me.desair.tus.server.HttpMethod;
 import me.desair.tus.server.util.TusServletRequest;
@@ -45,7 +46,24 @@ public class ChecksumOptionsRequestHandlerTest {
 
     assertThat(
         Arrays.asList(servletResponse.getHeader(HttpHeader.TUS_CHECKSUM_ALGORITHM).split(",")),
-        containsInAnyOrder("md5", "sha1", "sha256", "sha384", "sha512"));
+        containsInAnyOrder("md5", "sha1", "sha256", "sha384", "sha512", "crc32c", "xxh64"));
+  }
+
+  @Test
+  public void processChecksumHeaderRequired() throws Exception {
+
+    handler.process(
+        HttpMethod.OPTIONS,
+        new TusServletRequest(servletRequest, false, EnumSet.noneOf(ChecksumAlgorithm.class)),
+        new TusServletResponse(servletResponse),
+        null,
+        null);
+
+    assertThat(servletResponse.getHeader(HttpHeader.TUS_EXTENSION), is("checksum"));
+
+    assertThat(
+        Arrays.asList(servletResponse.getHeader(HttpHeader.TUS_CHECKSUM_ALGORITHM).split(",")),
+        containsInAnyOrder("md5", "sha1", "sha256", "sha384", "sha512", "crc32c", "xxh64"));
   }
 
   @Test
@@ -9,9 +9,11 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.IOException;
 import me.desair.tus.server.HttpHeader;
 import me.desair.tus.server.HttpMethod;
 import me.desair.tus.server.exception.ChecksumAlgorithmNotSupportedException;
+import me.desair.tus.server.exception.ChecksumCalculationException;
 import me.desair.tus.server.exception.UploadChecksumMismatchException;
 import me.desair.tus.server.upload.UploadInfo;
 import me.desair.tus.server.upload.UploadStorageService;
@@ -77,6 +79,16 @@ public class ChecksumPatchRequestHandlerTest {
     handler.process(HttpMethod.PATCH, servletRequest, null, uploadStorageService, null);
   }
 
+  @Test(expected = ChecksumCalculationException.class)
+  public void testFailedChecksumCalculation() throws Exception {
+    when(servletRequest.getHeader(HttpHeader.UPLOAD_CHECKSUM)).thenReturn("sha1 1234567890");
+    when(servletRequest.getCalculatedChecksum(ArgumentMatchers.any(ChecksumAlgorithm.class)))
+        .thenThrow(new IOException("Unable to calculate the checksum"));
+    when(servletRequest.hasCalculatedChecksum()).thenReturn(true);
+
+    handler.process(HttpMethod.PATCH, servletRequest, null, uploadStorageService, null);
+  }
+
   @Test
   public void testNoHeader() throws Exception {
     when(servletRequest.getHeader(HttpHeader.UPLOAD_CHECKSUM)).thenReturn(null);
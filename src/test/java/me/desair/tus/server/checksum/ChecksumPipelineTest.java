@@ -0,0 +1,111 @@
+package me.desair.tus.server.checksum;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChecksumPipelineTest {
+
+  private ExecutorService executor;
+  private byte[] content;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(2);
+    content = new byte[100000];
+    new Random(42).nextBytes(content);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void calculateChecksumsWithSmallRing() throws Exception {
+    ChecksumCalculator sha256 = ChecksumAlgorithm.SHA256.getChecksumCalculator();
+    ChecksumCalculator xxh64 = ChecksumAlgorithm.XXH64.getChecksumCalculator();
+    ChecksumPipeline pipeline =
+        new ChecksumPipeline(Arrays.asList(sha256, xxh64), executor, 100, 2);
+
+    // Update with varying sizes so that the chunks are filled in multiple steps
+    int position = 0;
+    int length = 1;
+    while (position < content.length) {
+      int count = Math.min(length, content.length - position);
+      pipeline.update(content, position, count);
+      position += count;
+      length = (length * 7) % 313 + 1;
+    }
+    pipeline.finish();
+
+    assertThat(pipeline.isFinished(), is(true));
+    assertThat(sha256.digest(), is(expectedChecksum(ChecksumAlgorithm.SHA256)));
+    assertThat(xxh64.digest(), is(expectedChecksum(ChecksumAlgorithm.XXH64)));
+  }
+
+  @Test
+  public void calculateChecksumsWhenExecutorRejects() throws Exception {
+    ChecksumCalculator sha1 = ChecksumAlgorithm.SHA1.getChecksumCalculator();
+    ChecksumPipeline pipeline =
+        new ChecksumPipeline(
+            Collections.singletonList(sha1),
+            command -> {
+              throw new RejectedExecutionException("Shut down");
+            },
+            1000,
+            1);
+
+    pipeline.update(content, 0, content.length);
+    pipeline.finish();
+
+    assertThat(sha1.digest(), is(expectedChecksum(ChecksumAlgorithm.SHA1)));
+  }
+
+  @Test
+  public void finishWithoutContent() throws Exception {
+    ChecksumCalculator sha1 = ChecksumAlgorithm.SHA1.getChecksumCalculator();
+    ChecksumPipeline pipeline = new ChecksumPipeline(Collections.singletonList(sha1), executor);
+
+    pipeline.finish();
+
+    assertThat(sha1.digest(), is(ChecksumAlgorithm.SHA1.getMessageDigest().digest()));
+  }
+
+  @Test(expected = IOException.class)
+  public void finishAfterCalculatorFailure() throws Exception {
+    ChecksumCalculator failing =
+        new ChecksumCalculator() {
+          @Override
+          public void update(byte[] buffer, int offset, int length) {
+            throw new IllegalStateException("Calculator failure");
+          }
+
+          @Override
+          public byte[] digest() {
+            return new byte[0];
+          }
+        };
+    ChecksumPipeline pipeline =
+        new ChecksumPipeline(Collections.singletonList(failing), executor, 100, 2);
+
+    pipeline.update(content, 0, 1000);
+    pipeline.finish();
+  }
+
+  private byte[] expectedChecksum(ChecksumAlgorithm algorithm) {
+    ChecksumCalculator calculator = algorithm.getChecksumCalculator();
+    calculator.update(content, 0, content.length);
+    return calculator.digest();
+  }
+}
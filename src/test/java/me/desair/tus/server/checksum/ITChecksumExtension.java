@@ -5,11 +5,14 @@ import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 
+import java.util.EnumSet;
+import java.util.Set;
 import me.desair.tus.server.AbstractTusExtensionIntegrationTest;
 import me.desair.tus.server.HttpHeader;
 import me.desair.tus.server.HttpMethod;
 import me.desair.tus.server.exception.ChecksumAlgorithmNotSupportedException;
 import me.desair.tus.server.exception.UploadChecksumMismatchException;
+import me.desair.tus.server.util.TusServletRequest;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -17,12 +20,23 @@ import org.springframework.mock.web.MockHttpServletResponse;
 
 public class ITChecksumExtension extends AbstractTusExtensionIntegrationTest {
 
+  private static final String CHUNKED_CONTENT =
+      "8\r\n" + "Mozilla \r\n" + "A\r\n" + "Developer \r\n" + "7\r\n" + "Network\r\n" + "0\r\n";
+
+  private Set<ChecksumAlgorithm> trailerAlgorithms;
+
   @Before
   public void setUp() throws Exception {
     servletRequest = spy(new MockHttpServletRequest());
     servletResponse = new MockHttpServletResponse();
     tusFeature = new ChecksumExtension();
     uploadInfo = null;
+    trailerAlgorithms = EnumSet.allOf(ChecksumAlgorithm.class);
+  }
+
+  @Override
+  protected TusServletRequest createTusServletRequest() {
+    return new TusServletRequest(servletRequest, true, trailerAlgorithms);
   }
 
   @Test
@@ -33,7 +47,14 @@ public class ITChecksumExtension extends AbstractTusExtensionIntegrationTest {
 
     assertResponseHeader(HttpHeader.TUS_EXTENSION, "checksum", "checksum-trailer");
     assertResponseHeader(
-        HttpHeader.TUS_CHECKSUM_ALGORITHM, "md5", "sha1", "sha256", "sha384", "sha512");
+        HttpHeader.TUS_CHECKSUM_ALGORITHM,
+        "md5",
+        "sha1",
+        "sha256",
+        "sha384",
+        "sha512",
+        "crc32c",
+        "xxh64");
   }
 
   @Test(expected = ChecksumAlgorithmNotSupportedException.class)
@@ -120,4 +141,107 @@ public class ITChecksumExtension extends AbstractTusExtensionIntegrationTest {
       fail();
     }
   }
+
+  @Test
+  public void testOptionsChecksumHeaderRequired() throws Exception {
+    trailerAlgorithms = EnumSet.noneOf(ChecksumAlgorithm.class);
+    setRequestHeaders();
+
+    executeCall(HttpMethod.OPTIONS, false);
+
+    assertResponseHeader(HttpHeader.TUS_EXTENSION, "checksum");
+    assertResponseHeader(
+        HttpHeader.TUS_CHECKSUM_ALGORITHM,
+        "md5",
+        "sha1",
+        "sha256",
+        "sha384",
+        "sha512",
+        "crc32c",
+        "xxh64");
+  }
+
+  @Test
+  public void testAllowedChecksumTrailerHeader() throws Exception {
+    trailerAlgorithms = EnumSet.of(ChecksumAlgorithm.SHA1);
+    String content =
+        CHUNKED_CONTENT + "Upload-Checksum: sha1 zYR9iS5Rya+WoH1fEyfKqqdPWWE=\r\n" + "\r\n";
+
+    servletRequest.addHeader(HttpHeader.TRANSFER_ENCODING, "chunked");
+    servletRequest.setContent(content.getBytes());
+
+    executeCall(HttpMethod.PATCH, true);
+  }
+
+  @Test(expected = ChecksumAlgorithmNotSupportedException.class)
+  public void testNotAllowedChecksumTrailerHeader() throws Exception {
+    trailerAlgorithms = EnumSet.of(ChecksumAlgorithm.MD5, ChecksumAlgorithm.SHA256);
+    String content =
+        CHUNKED_CONTENT + "Upload-Checksum: sha1 zYR9iS5Rya+WoH1fEyfKqqdPWWE=\r\n" + "\r\n";
+
+    servletRequest.addHeader(HttpHeader.TRANSFER_ENCODING, "chunked");
+    servletRequest.setContent(content.getBytes());
+
+    executeCall(HttpMethod.PATCH, true);
+  }
+
+  @Test(expected = ChecksumAlgorithmNotSupportedException.class)
+  public void testChecksumTrailerHeaderWhenHeaderRequired() throws Exception {
+    trailerAlgorithms = EnumSet.noneOf(ChecksumAlgorithm.class);
+    String content =
+        CHUNKED_CONTENT + "Upload-Checksum: sha1 zYR9iS5Rya+WoH1fEyfKqqdPWWE=\r\n" + "\r\n";
+
+    servletRequest.addHeader(HttpHeader.TRANSFER_ENCODING, "chunked");
+    servletRequest.setContent(content.getBytes());
+
+    executeCall(HttpMethod.PATCH, true);
+  }
+
+  @Test
+  public void testChunkedChecksumHeaderWhenHeaderRequired() throws Exception {
+    trailerAlgorithms = EnumSet.noneOf(ChecksumAlgorithm.class);
+    String content = CHUNKED_CONTENT + "\r\n";
+
+    servletRequest.addHeader(HttpHeader.TRANSFER_ENCODING, "chunked");
+    servletRequest.addHeader(HttpHeader.UPLOAD_CHECKSUM, "sha1 zYR9iS5Rya+WoH1fEyfKqqdPWWE=");
+    servletRequest.setContent(content.getBytes());
+
+    executeCall(HttpMethod.PATCH, true);
+  }
+
+  @Test(expected = UploadChecksumMismatchException.class)
+  public void testInvalidChunkedChecksumHeaderWhenHeaderRequired() throws Exception {
+    trailerAlgorithms = EnumSet.noneOf(ChecksumAlgorithm.class);
+    String content = CHUNKED_CONTENT + "\r\n";
+
+    servletRequest.addHeader(HttpHeader.TRANSFER_ENCODING, "chunked");
+    servletRequest.addHeader(HttpHeader.UPLOAD_CHECKSUM, "sha1 zYR9iS5Rya+WoH1fEyfKqqdPWW=");
+    servletRequest.setContent(content.getBytes());
+
+    executeCall(HttpMethod.PATCH, true);
+  }
+
+  @Test
+  public void testValidFastChecksumHeaders() throws Exception {
+    String content = "Mozilla Developer Network";
+
+    servletRequest.addHeader(HttpHeader.UPLOAD_CHECKSUM, "crc32c 9OSNEg==");
+    servletRequest.setContent(content.getBytes());
+    executeCall(HttpMethod.PATCH, true);
+
+    setUp();
+    servletRequest.addHeader(HttpHeader.UPLOAD_CHECKSUM, "xxh64 B4kzvw0g9qk=");
+    servletRequest.setContent(content.getBytes());
+    executeCall(HttpMethod.PATCH, true);
+  }
+
+  @Test(expected = UploadChecksumMismatchException.class)
+  public void testInvalidFastChecksumTrailerHeader() throws Exception {
+    String content = CHUNKED_CONTENT + "Upload-Checksum: xxh64 B4kzvw0g9qI=\r\n" + "\r\n";
+
+    servletRequest.addHeader(HttpHeader.TRANSFER_ENCODING, "chunked");
+    servletRequest.setContent(content.getBytes());
+
+    executeCall(HttpMethod.PATCH, true);
+  }
 }
@@ -0,0 +1,33 @@
+package me.desair.tus.server.checksum.calculator;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+public class Crc32cCalculatorTest {
+
+  @Test
+  public void digestKnownValue() throws Exception {
+    Crc32cCalculator calculator = new Crc32cCalculator();
+    byte[] bytes = "123456789".getBytes(StandardCharsets.UTF_8);
+
+    calculator.update(bytes, 0, 4);
+    calculator.update(bytes, 4, bytes.length - 4);
+
+    assertThat(Hex.encodeHexString(calculator.digest()), is("e3069283"));
+  }
+
+  @Test
+  public void digestResetsCalculator() throws Exception {
+    Crc32cCalculator calculator = new Crc32cCalculator();
+    byte[] bytes = "123456789".getBytes(StandardCharsets.UTF_8);
+
+    calculator.update(bytes, 0, bytes.length);
+    calculator.digest();
+
+    assertThat(Hex.encodeHexString(calculator.digest()), is("00000000"));
+  }
+}
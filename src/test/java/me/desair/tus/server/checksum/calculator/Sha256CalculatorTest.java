@@ -0,0 +1,67 @@
+package me.desair.tus.server.checksum.calculator;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Random;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+public class Sha256CalculatorTest {
+
+  @Test
+  public void digestKnownValues() throws Exception {
+    assertThat(hash(""), is("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855"));
+    assertThat(hash("abc"), is("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad"));
+  }
+
+  @Test
+  public void digestMatchesMessageDigest() throws Exception {
+    Random random = new Random(42);
+    for (int length : new int[] {1, 55, 56, 63, 64, 65, 119, 120, 128, 1000, 4099}) {
+      byte[] content = new byte[length];
+      random.nextBytes(content);
+
+      Sha256Calculator calculator = new Sha256Calculator();
+      int position = 0;
+      while (position < length) {
+        int count = Math.min(length - position, 1 + random.nextInt(100));
+        calculator.update(content, position, count);
+        position += count;
+      }
+
+      assertThat(calculator.digest(), is(MessageDigest.getInstance("SHA-256").digest(content)));
+    }
+  }
+
+  @Test
+  public void restoreState() throws Exception {
+    byte[] content = new byte[1000];
+    new Random(42).nextBytes(content);
+
+    for (int split : new int[] {0, 10, 64, 100, 999}) {
+      Sha256Calculator first = new Sha256Calculator();
+      first.update(content, 0, split);
+
+      Sha256Calculator second = new Sha256Calculator();
+      second.setState(first.getState());
+      second.update(content, split, content.length - split);
+
+      assertThat(second.digest(), is(MessageDigest.getInstance("SHA-256").digest(content)));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void restoreInvalidState() throws Exception {
+    new Sha256Calculator().setState(new byte[3]);
+  }
+
+  private String hash(String value) {
+    Sha256Calculator calculator = new Sha256Calculator();
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    calculator.update(bytes, 0, bytes.length);
+    return Hex.encodeHexString(calculator.digest());
+  }
+}
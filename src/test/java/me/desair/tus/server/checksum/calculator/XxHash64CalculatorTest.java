@@ -0,0 +1,131 @@
+package me.desair.tus.server.checksum.calculator;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+public class XxHash64CalculatorTest {
+
+  @Test
+  public void digestKnownValues() throws Exception {
+    assertThat(hash(""), is("ef46db3751d8e999"));
+    assertThat(hash("abc"), is("44bc2cf5ad770999"));
+  }
+
+  @Test
+  public void digestReferenceValues() throws Exception {
+    // Reference values of the inputs 0, 1, 2, ... calculated with the XXH64 implementation of
+    // lz4-java, covering the stripe loop and the 8-byte, 4-byte and 1-byte tails
+    assertThat(hash(sequence(0)), is("ef46db3751d8e999"));
+    assertThat(hash(sequence(1)), is("e934a84adb052768"));
+    assertThat(hash(sequence(4)), is("ffced8604453cc1e"));
+    assertThat(hash(sequence(7)), is("14cc643f630c72d2"));
+    assertThat(hash(sequence(8)), is("884a173614b81b8d"));
+    assertThat(hash(sequence(12)), is("424af23f1f08dca5"));
+    assertThat(hash(sequence(31)), is("c346d2b59b4d8ee1"));
+    assertThat(hash(sequence(32)), is("cbf59c5116ff32b4"));
+    assertThat(hash(sequence(33)), is("0c535d1acafb8ead"));
+    assertThat(hash(sequence(63)), is("e26aa9e2a95f8e4f"));
+    assertThat(hash(sequence(64)), is("f7c67301db6713f0"));
+    assertThat(hash(sequence(100)), is("6ac1e58032166597"));
+    assertThat(hash(sequence(1000)), is("6ef436b00eba4078"));
+    assertThat(hash("The quick brown fox jumps over the lazy dog"), is("0b242d361fda71bc"));
+  }
+
+  @Test
+  public void digestReferenceValueInChunks() throws Exception {
+    byte[] content = sequence(1000);
+    XxHash64Calculator calculator = new XxHash64Calculator();
+    int position = 0;
+    // Chunks that end before, on and after stripe boundaries
+    for (int count : new int[] {3, 29, 32, 1, 64, 100, 7, 500}) {
+      calculator.update(content, position, count);
+      position += count;
+    }
+    calculator.update(content, position, content.length - position);
+
+    assertThat(Hex.encodeHexString(calculator.digest()), is("6ef436b00eba4078"));
+  }
+
+  @Test
+  public void digestResetsCalculator() throws Exception {
+    XxHash64Calculator calculator = new XxHash64Calculator();
+    byte[] bytes = "abc".getBytes(StandardCharsets.UTF_8);
+
+    calculator.update(bytes, 0, bytes.length);
+    calculator.digest();
+    calculator.update(bytes, 0, bytes.length);
+
+    assertThat(Hex.encodeHexString(calculator.digest()), is("44bc2cf5ad770999"));
+  }
+
+  @Test
+  public void streamingUpdatesMatchSingleUpdate() throws Exception {
+    Random random = new Random(42);
+    for (int length : new int[] {1, 4, 7, 8, 31, 32, 33, 63, 64, 65, 1000, 4099}) {
+      byte[] content = new byte[length];
+      random.nextBytes(content);
+
+      XxHash64Calculator single = new XxHash64Calculator();
+      single.update(content, 0, length);
+
+      XxHash64Calculator streaming = new XxHash64Calculator();
+      int position = 0;
+      while (position < length) {
+        int count = Math.min(length - position, 1 + random.nextInt(40));
+        streaming.update(content, position, count);
+        position += count;
+      }
+
+      assertThat(streaming.digest(), is(single.digest()));
+    }
+  }
+
+  @Test
+  public void restoreState() throws Exception {
+    byte[] content = new byte[1000];
+    new Random(42).nextBytes(content);
+
+    XxHash64Calculator single = new XxHash64Calculator();
+    single.update(content, 0, content.length);
+    byte[] expected = single.digest();
+
+    for (int split : new int[] {0, 10, 32, 100, 999}) {
+      XxHash64Calculator first = new XxHash64Calculator();
+      first.update(content, 0, split);
+
+      XxHash64Calculator second = new XxHash64Calculator();
+      second.setState(first.getState());
+      second.update(content, split, content.length - split);
+
+      assertThat(second.digest(), is(expected));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void restoreInvalidState() throws Exception {
+    new XxHash64Calculator().setState(new byte[3]);
+  }
+
+  private String hash(String value) {
+    return hash(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private String hash(byte[] bytes) {
+    XxHash64Calculator calculator = new XxHash64Calculator();
+    calculator.update(bytes, 0, bytes.length);
+    return Hex.encodeHexString(calculator.digest());
+  }
+
+  private static byte[] sequence(int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) i;
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,59 @@
+package me.desair.tus.server.download;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.List;
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+  @Test
+  public void parseSingleRange() throws Exception {
+    assertRanges(ByteRange.parse("bytes=0-9", 100), "bytes 0-9/100");
+    assertRanges(ByteRange.parse("bytes=90-", 100), "bytes 90-99/100");
+    assertRanges(ByteRange.parse("bytes=90-200", 100), "bytes 90-99/100");
+    assertRanges(ByteRange.parse("bytes=-10", 100), "bytes 90-99/100");
+    assertRanges(ByteRange.parse("bytes=-200", 100), "bytes 0-99/100");
+    assertRanges(ByteRange.parse("Bytes= 5 - 5 ", 100), "bytes 5-5/100");
+  }
+
+  @Test
+  public void parseMultipleRanges() throws Exception {
+    assertRanges(ByteRange.parse("bytes=50-59, 0-9", 100), "bytes 0-9/100", "bytes 50-59/100");
+    // Overlapping and adjacent ranges are combined
+    assertRanges(
+        ByteRange.parse("bytes=0-9,5-14,15-19,-5", 100), "bytes 0-19/100", "bytes 95-99/100");
+    // Unsatisfiable ranges are left out
+    assertRanges(ByteRange.parse("bytes=0-9,200-300", 100), "bytes 0-9/100");
+  }
+
+  @Test
+  public void parseUnsatisfiable() throws Exception {
+    assertThat(ByteRange.parse("bytes=100-", 100), is(empty()));
+    assertThat(ByteRange.parse("bytes=-0", 100), is(empty()));
+    assertThat(ByteRange.parse("bytes=0-", 0), is(empty()));
+    assertThat(ByteRange.parse("bytes=-10", 0), is(empty()));
+  }
+
+  @Test
+  public void parseInvalid() throws Exception {
+    assertThat(ByteRange.parse("items=0-9", 100), is(nullValue()));
+    assertThat(ByteRange.parse("bytes=9-0", 100), is(nullValue()));
+    assertThat(ByteRange.parse("bytes=abc", 100), is(nullValue()));
+    assertThat(ByteRange.parse("bytes=a-9", 100), is(nullValue()));
+    assertThat(ByteRange.parse("bytes=-", 100), is(nullValue()));
+    assertThat(ByteRange.parse("bytes=0-9,", 100), is(nullValue()));
+    assertThat(ByteRange.parse("bytes=99999999999999999999-", 100), is(nullValue()));
+    assertThat(ByteRange.parse(null, 100), is(nullValue()));
+  }
+
+  private void assertRanges(List<ByteRange> ranges, String... contentRanges) {
+    assertThat(ranges.size(), is(contentRanges.length));
+    for (int i = 0; i < contentRanges.length; i++) {
+      assertThat(ranges.get(i).toContentRange(100), is(contentRanges[i]));
+    }
+  }
+}
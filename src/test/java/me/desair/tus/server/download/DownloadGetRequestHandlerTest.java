@@ -2,8 +2,15 @@ package me.desair.tus.server.download;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -11,15 +18,19 @@ import static org.mockito.Mockito.when;
 
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.UUID;
 import me.desair.tus.server.HttpHeader;
 import me.desair.tus.server.HttpMethod;
+import me.desair.tus.server.exception.RangeNotSatisfiableException;
 import me.desair.tus.server.exception.UploadInProgressException;
 import me.desair.tus.server.upload.UploadId;
 import me.desair.tus.server.upload.UploadInfo;
 import me.desair.tus.server.upload.UploadStorageService;
 import me.desair.tus.server.util.TusServletRequest;
 import me.desair.tus.server.util.TusServletResponse;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -129,6 +140,215 @@ public class DownloadGetRequestHandlerTest {
     assertThat(servletResponse.getHeader(HttpHeader.CONTENT_TYPE), is("application/octet-stream"));
   }
 
+  @Test
+  public void testSingleRange() throws Exception {
+    UploadInfo info = completedUpload();
+    servletRequest.addHeader(HttpHeader.RANGE, "bytes=2-4");
+
+    handler.process(
+        HttpMethod.GET,
+        new TusServletRequest(servletRequest),
+        new TusServletResponse(servletResponse),
+        uploadStorageService,
+        null);
+
+    verify(uploadStorageService, times(1)).copyUploadTo(eq(info), eq(2L), eq(3L), any());
+    verify(uploadStorageService, never()).copyUploadTo(any(UploadInfo.class), any());
+    assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_PARTIAL_CONTENT));
+    assertThat(servletResponse.getHeader(HttpHeader.CONTENT_LENGTH), is("3"));
+    assertThat(servletResponse.getHeader(HttpHeader.CONTENT_RANGE), is("bytes 2-4/10"));
+    assertThat(servletResponse.getHeader(HttpHeader.ACCEPT_RANGES), is("bytes"));
+    assertThat(servletResponse.getHeader(HttpHeader.CONTENT_TYPE), is("image/jpeg"));
+  }
+
+  @Test
+  public void testMultipleRanges() throws Exception {
+    UploadInfo info = completedUpload();
+    doAnswer(
+            invocation -> {
+              long count = invocation.getArgument(2);
+              OutputStream output = invocation.getArgument(3);
+              for (long i = 0; i < count; i++) {
+                output.write('x');
+              }
+              return null;
+            })
+        .when(uploadStorageService)
+        .copyUploadTo(eq(info), anyLong(), anyLong(), any());
+    servletRequest.addHeader(HttpHeader.RANGE, "bytes=0-1,-3");
+
+    handler.process(
+        HttpMethod.GET,
+        new TusServletRequest(servletRequest),
+        new TusServletResponse(servletResponse),
+        uploadStorageService,
+        null);
+
+    String contentType = servletResponse.getHeader(HttpHeader.CONTENT_TYPE);
+    String boundary = StringUtils.substringAfter(contentType, "boundary=");
+    assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_PARTIAL_CONTENT));
+    assertThat(contentType, startsWith("multipart/byteranges; boundary="));
+    assertThat(
+        servletResponse.getContentAsString(),
+        is(
+            "\r\n--"
+                + boundary
+                + "\r\nContent-Type: image/jpeg\r\nContent-Range: bytes 0-1/10\r\n\r\nxx"
+                + "\r\n--"
+                + boundary
+                + "\r\nContent-Type: image/jpeg\r\nContent-Range: bytes 7-9/10\r\n\r\nxxx"
+                + "\r\n--"
+                + boundary
+                + "--\r\n"));
+    assertThat(
+        servletResponse.getHeader(HttpHeader.CONTENT_LENGTH),
+        is(String.valueOf(servletResponse.getContentAsByteArray().length)));
+  }
+
+  @Test
+  public void testIfRange() throws Exception {
+    UploadInfo info = completedUpload();
+
+    handler.process(
+        HttpMethod.GET,
+        new TusServletRequest(servletRequest),
+        new TusServletResponse(servletResponse),
+        uploadStorageService,
+        null);
+    String entityTag = servletResponse.getHeader(HttpHeader.ETAG);
+    assertThat(entityTag, notNullValue());
+
+    // The client still has the current version of the upload
+    servletResponse = new MockHttpServletResponse();
+    servletRequest.addHeader(HttpHeader.RANGE, "bytes=5-");
+    servletRequest.addHeader(HttpHeader.IF_RANGE, entityTag);
+    handler.process(
+        HttpMethod.GET,
+        new TusServletRequest(servletRequest),
+        new TusServletResponse(servletResponse),
+        uploadStorageService,
+        null);
+
+    verify(uploadStorageService, times(1)).copyUploadTo(eq(info), eq(5L), eq(5L), any());
+    assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_PARTIAL_CONTENT));
+
+    // The client has another version, so it needs the complete upload
+    servletResponse = new MockHttpServletResponse();
+    servletRequest.removeHeader(HttpHeader.IF_RANGE);
+    servletRequest.addHeader(HttpHeader.IF_RANGE, "\"other\"");
+    handler.process(
+        HttpMethod.GET,
+        new TusServletRequest(servletRequest),
+        new TusServletResponse(servletResponse),
+        uploadStorageService,
+        null);
+
+    verify(uploadStorageService, times(2)).copyUploadTo(any(UploadInfo.class), any());
+    assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_OK));
+    assertThat(servletResponse.getHeader(HttpHeader.CONTENT_LENGTH), is("10"));
+  }
+
+  @Test
+  public void testUnsatisfiableRange() throws Exception {
+    completedUpload();
+    servletRequest.addHeader(HttpHeader.RANGE, "bytes=10-");
+
+    try {
+      handler.process(
+          HttpMethod.GET,
+          new TusServletRequest(servletRequest),
+          new TusServletResponse(servletResponse),
+          uploadStorageService,
+          null);
+      fail();
+    } catch (RangeNotSatisfiableException e) {
+      assertThat(e.getStatus(), is(416));
+    }
+
+    assertThat(servletResponse.getHeader(HttpHeader.CONTENT_RANGE), is("bytes */10"));
+    verify(uploadStorageService, never()).copyUploadTo(any(UploadInfo.class), any());
+  }
+
+  @Test
+  public void testSendFile() throws Exception {
+    UploadInfo info = completedUpload();
+    Path path = Paths.get("target", "tus", "data", "upload").toAbsolutePath();
+    when(uploadStorageService.getUploadedBytesPath(info)).thenReturn(path);
+    servletRequest.setAttribute(DownloadGetRequestHandler.SENDFILE_SUPPORT_ATTRIBUTE, true);
+    servletRequest.addHeader(HttpHeader.RANGE, "bytes=2-");
+    handler.setSendfileEnabled(true);
+
+    handler.process(
+        HttpMethod.GET,
+        new TusServletRequest(servletRequest),
+        new TusServletResponse(servletResponse),
+        uploadStorageService,
+        null);
+
+    verify(uploadStorageService, never()).copyUploadTo(any(), anyLong(), anyLong(), any());
+    assertThat(servletResponse.getStatus(), is(HttpServletResponse.SC_PARTIAL_CONTENT));
+    assertThat(servletResponse.getHeader(HttpHeader.CONTENT_LENGTH), is("8"));
+    assertThat(
+        servletRequest.getAttribute(DownloadGetRequestHandler.SENDFILE_FILENAME_ATTRIBUTE),
+        is(path.toString()));
+    assertThat(
+        servletRequest.getAttribute(DownloadGetRequestHandler.SENDFILE_START_ATTRIBUTE), is(2L));
+    assertThat(
+        servletRequest.getAttribute(DownloadGetRequestHandler.SENDFILE_END_ATTRIBUTE), is(10L));
+  }
+
+  @Test
+  public void testSendFileDisabled() throws Exception {
+    UploadInfo info = completedUpload();
+    Path path = Paths.get("target", "tus", "data", "upload").toAbsolutePath();
+    when(uploadStorageService.getUploadedBytesPath(info)).thenReturn(path);
+    servletRequest.setAttribute(DownloadGetRequestHandler.SENDFILE_SUPPORT_ATTRIBUTE, true);
+
+    handler.process(
+        HttpMethod.GET,
+        new TusServletRequest(servletRequest),
+        new TusServletResponse(servletResponse),
+        uploadStorageService,
+        null);
+
+    // The upload could be removed before the container sends the file
+    verify(uploadStorageService, times(1)).copyUploadTo(eq(info), any());
+    assertThat(
+        servletRequest.getAttribute(DownloadGetRequestHandler.SENDFILE_FILENAME_ATTRIBUTE),
+        is(nullValue()));
+  }
+
+  @Test
+  public void testSendFileNotAvailable() throws Exception {
+    UploadInfo info = completedUpload();
+    when(uploadStorageService.getUploadedBytesPath(info)).thenReturn(null);
+    servletRequest.setAttribute(DownloadGetRequestHandler.SENDFILE_SUPPORT_ATTRIBUTE, true);
+    handler.setSendfileEnabled(true);
+
+    handler.process(
+        HttpMethod.GET,
+        new TusServletRequest(servletRequest),
+        new TusServletResponse(servletResponse),
+        uploadStorageService,
+        null);
+
+    verify(uploadStorageService, times(1)).copyUploadTo(eq(info), any());
+    assertThat(
+        servletRequest.getAttribute(DownloadGetRequestHandler.SENDFILE_FILENAME_ATTRIBUTE),
+        is(nullValue()));
+  }
+
+  private UploadInfo completedUpload() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+    info.setOffset(10L);
+    info.setLength(10L);
+    info.setEncodedMetadata("name dGVzdC5qcGc=,type aW1hZ2UvanBlZw==");
+    when(uploadStorageService.getUploadInfo(nullable(String.class), nullable(String.class)))
+        .thenReturn(info);
+    return info;
+  }
+
   @Test(expected = UploadInProgressException.class)
   public void testWithInProgressUpload() throws Exception {
     final UploadId id = new UploadId(UUID.randomUUID());
@@ -0,0 +1,231 @@
+package me.desair.tus.server.expiration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.exception.UploadAlreadyLockedException;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadLock;
+import me.desair.tus.server.upload.UploadLockingService;
+import me.desair.tus.server.upload.UploadStorageService;
+import me.desair.tus.server.upload.UploadType;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class ExpiredUploadCleanerTest {
+
+  private static final String UPLOAD_URI = "/upload";
+
+  private ExpiredUploadCleaner cleaner;
+
+  @Mock private UploadStorageService storageService;
+
+  @Mock private UploadLockingService lockingService;
+
+  @Mock private UploadLock uploadLock;
+
+  @Before
+  public void setUp() throws Exception {
+    cleaner = new ExpiredUploadCleaner();
+    when(lockingService.isLocked(any(UploadId.class))).thenReturn(false);
+    when(storageService.getUploadUri()).thenReturn(UPLOAD_URI);
+    when(lockingService.lockUploadByUri(anyString())).thenReturn(uploadLock);
+  }
+
+  @Test
+  public void cleanupDeletesExpiredUploads() throws Exception {
+    UploadInfo first = expiredUpload(10L);
+    UploadInfo second = expiredUpload(20L);
+    when(storageService.getExpiredUploads(Integer.MAX_VALUE))
+        .thenReturn(Arrays.asList(first, second));
+
+    assertThat(cleaner.getLastStatistics(), nullValue());
+    CleanupStatistics statistics = cleaner.cleanup(storageService, lockingService);
+
+    verify(storageService, times(1)).terminateUpload(first);
+    verify(storageService, times(1)).terminateUpload(second);
+    verify(lockingService).lockUploadByUri(UPLOAD_URI + "/" + first.getId());
+    verify(lockingService).lockUploadByUri(UPLOAD_URI + "/" + second.getId());
+    verify(uploadLock, times(2)).release();
+    assertThat(statistics.getExpiredUploads(), is(2L));
+    assertThat(statistics.getDeletedUploads(), is(2L));
+    assertThat(statistics.getSkippedUploads(), is(0L));
+    assertThat(statistics.getReclaimedBytes(), is(30L));
+    assertThat(cleaner.getLastStatistics(), is(statistics));
+  }
+
+  @Test
+  public void cleanupSkipsLockedAndExtendedUploads() throws Exception {
+    UploadInfo locked = expiredUpload(10L);
+    when(lockingService.lockUploadByUri(UPLOAD_URI + "/" + locked.getId()))
+        .thenThrow(new UploadAlreadyLockedException("Locked"));
+
+    UploadInfo extended = expiredUpload(20L);
+    UploadInfo extendedNow = new UploadInfo();
+    extendedNow.setId(extended.getId());
+    extendedNow.setOffset(20L);
+    extendedNow.updateExpiration(60000L);
+    when(storageService.getUploadInfo(extended.getId())).thenReturn(extendedNow);
+
+    UploadInfo failing = expiredUpload(30L);
+    doThrow(new IOException("Disk is gone")).when(storageService).terminateUpload(failing);
+
+    UploadInfo concatenated = expiredUpload(40L);
+    concatenated.setUploadType(UploadType.CONCATENATED);
+
+    when(storageService.getExpiredUploads(Integer.MAX_VALUE))
+        .thenReturn(Arrays.asList(locked, extended, failing, concatenated));
+
+    CleanupStatistics statistics = cleaner.cleanup(storageService, lockingService);
+
+    verify(storageService, never()).terminateUpload(locked);
+    verify(storageService, never()).terminateUpload(extendedNow);
+    verify(storageService, times(1)).terminateUpload(failing);
+    verify(storageService, times(1)).terminateUpload(concatenated);
+    assertThat(statistics.getExpiredUploads(), is(4L));
+    assertThat(statistics.getDeletedUploads(), is(1L));
+    assertThat(statistics.getSkippedUploads(), is(3L));
+    // The bytes of a concatenated upload are owned by its partial uploads
+    assertThat(statistics.getReclaimedBytes(), is(0L));
+  }
+
+  @Test
+  public void cleanupRechecksExpirationWhileLocked() throws Exception {
+    UploadInfo upload = expiredUpload(10L);
+    when(storageService.getExpiredUploads(Integer.MAX_VALUE)).thenReturn(Arrays.asList(upload));
+    // The upload is extended by a request that finishes before the cleanup gets the lock
+    UploadInfo extended = new UploadInfo();
+    extended.setId(upload.getId());
+    extended.updateExpiration(60000L);
+    when(lockingService.lockUploadByUri(UPLOAD_URI + "/" + upload.getId()))
+        .then(
+            invocation -> {
+              when(storageService.getUploadInfo(upload.getId())).thenReturn(extended);
+              return uploadLock;
+            });
+
+    CleanupStatistics statistics = cleaner.cleanup(storageService, lockingService);
+
+    verify(storageService, never()).terminateUpload(any(UploadInfo.class));
+    verify(uploadLock).release();
+    assertThat(statistics.getSkippedUploads(), is(1L));
+  }
+
+  @Test
+  public void cleanupWithUploadUriPattern() throws Exception {
+    // An upload URI with regex parameters does not identify an upload
+    when(storageService.getUploadUri()).thenReturn("/users/[0-9]+/upload");
+    when(lockingService.lockUploadByUri(anyString())).thenReturn(null);
+    UploadInfo locked = expiredUpload(10L);
+    when(lockingService.isLocked(locked.getId())).thenReturn(true);
+    UploadInfo unlocked = expiredUpload(20L);
+    when(storageService.getExpiredUploads(Integer.MAX_VALUE))
+        .thenReturn(Arrays.asList(locked, unlocked));
+
+    CleanupStatistics statistics = cleaner.cleanup(storageService, lockingService);
+
+    verify(storageService, never()).terminateUpload(locked);
+    verify(storageService, times(1)).terminateUpload(unlocked);
+    assertThat(statistics.getDeletedUploads(), is(1L));
+  }
+
+  @Test
+  public void cleanupInParallel() throws Exception {
+    List<UploadInfo> expiredUploads = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      expiredUploads.add(expiredUpload(1L));
+    }
+    when(storageService.getExpiredUploads(10)).thenReturn(expiredUploads.subList(0, 10));
+
+    Set<String> workerThreads = ConcurrentHashMap.newKeySet();
+    doAnswer(
+            invocation -> {
+              workerThreads.add(Thread.currentThread().getName());
+              Thread.sleep(20);
+              return null;
+            })
+        .when(storageService)
+        .terminateUpload(any(UploadInfo.class));
+
+    cleaner.setWorkerCount(4);
+    cleaner.setMaxUploadsPerPass(10);
+    CleanupStatistics statistics = cleaner.cleanup(storageService, lockingService);
+
+    // Only the first batch is removed, the rest is left for the next pass
+    verify(storageService, times(10)).terminateUpload(any(UploadInfo.class));
+    assertThat(statistics.getDeletedUploads(), is(10L));
+    assertThat(workerThreads.size() > 1, is(true));
+    for (String workerThread : workerThreads) {
+      assertThat(workerThread.startsWith("tus-cleanup-worker-"), is(true));
+    }
+  }
+
+  @Test
+  public void cleanupWithRateLimit() throws Exception {
+    List<UploadInfo> expiredUploads = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      expiredUploads.add(expiredUpload(1000L));
+    }
+    when(storageService.getExpiredUploads(anyInt())).thenReturn(expiredUploads);
+
+    // 6 deletes of 1000 bytes at 20 deletes/sec and 20000 bytes/sec take at least 250 ms
+    cleaner.setWorkerCount(3);
+    cleaner.setRateLimit(20, 20000L);
+    CleanupStatistics statistics = cleaner.cleanup(storageService, lockingService);
+
+    assertThat(statistics.getDeletedUploads(), is(6L));
+    assertThat(statistics.getDurationMillis(), greaterThanOrEqualTo(240L));
+
+    cleaner.setRateLimit(0, 0L);
+    statistics = cleaner.cleanup(storageService, lockingService);
+    assertThat(statistics.getDeletedUploads(), is(6L));
+  }
+
+  @Test
+  public void throttleUploadLargerThanLongNanos() throws Exception {
+    // Deleting 10 GB at 1 GB/sec reserves 10 seconds, which overflows when calculated in nanos
+    long offset = 10L * 1024 * 1024 * 1024;
+    ExpiredUploadCleaner.Throttle throttle = new ExpiredUploadCleaner.Throttle(1024 * 1024 * 1024);
+
+    assertThat(throttle.reserve(offset), is(0L));
+    assertThat(throttle.reserve(1L), greaterThanOrEqualTo(TimeUnit.SECONDS.toNanos(9)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setWorkerCountZero() {
+    cleaner.setWorkerCount(0);
+  }
+
+  private UploadInfo expiredUpload(long offset) throws IOException {
+    UploadInfo info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+    info.setOffset(offset);
+    info.setExpirationTimestamp(System.currentTimeMillis() - 1000L);
+    when(storageService.getUploadInfo(info.getId())).thenReturn(info);
+    return info;
+  }
+}
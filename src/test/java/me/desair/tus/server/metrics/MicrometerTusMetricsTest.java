@@ -0,0 +1,168 @@
+package me.desair.tus.server.metrics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import me.desair.tus.server.HttpHeader;
+import me.desair.tus.server.HttpMethod;
+import me.desair.tus.server.TusFileUploadService;
+import me.desair.tus.server.checksum.ChecksumAlgorithm;
+import me.desair.tus.server.expiration.CleanupStatistics;
+import me.desair.tus.server.upload.cache.UploadInfoCache;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class MicrometerTusMetricsTest {
+
+  private static final String UPLOAD_URI = "/test/upload";
+  private static final String CONTENT = "This is my test upload content";
+
+  private SimpleMeterRegistry registry;
+  private TusFileUploadService tusFileUploadService;
+  private Path storagePath;
+
+  @Before
+  public void setUp() throws IOException {
+    storagePath = Paths.get("target", "tus", "metrics").toAbsolutePath();
+    Files.createDirectories(storagePath);
+
+    registry = new SimpleMeterRegistry();
+    tusFileUploadService =
+        new TusFileUploadService()
+            .withUploadUri(UPLOAD_URI)
+            .withStoragePath(storagePath.toString())
+            .withUploadInfoCache(10)
+            .withMetrics(new MicrometerTusMetrics(registry));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(storagePath.toFile());
+  }
+
+  @Test
+  public void recordUpload() throws Exception {
+    MockHttpServletResponse response =
+        process(newRequest("POST", UPLOAD_URI, "Upload-Length", CONTENT.length()));
+    assertThat(response.getStatus(), is(201));
+    // The Location header contains the absolute URL of the new upload
+    String location =
+        UPLOAD_URI
+            + StringUtils.substringAfter(response.getHeader(HttpHeader.LOCATION), UPLOAD_URI);
+
+    MockHttpServletRequest patch = newRequest("PATCH", location, HttpHeader.UPLOAD_OFFSET, 0);
+    patch.addHeader(HttpHeader.CONTENT_TYPE, "application/offset+octet-stream");
+    patch.addHeader(HttpHeader.UPLOAD_CHECKSUM, "sha1 Mfhm5HaSPUf+pUakdMxARo4rvfQ=");
+    patch.setContent(CONTENT.getBytes(StandardCharsets.UTF_8));
+    assertThat(process(patch).getStatus(), is(204));
+
+    assertThat(process(newRequest("HEAD", location, null, null)).getStatus(), is(204));
+    assertThat(
+        process(newRequest("HEAD", "/test/upload/unknown", null, null)).getStatus(), is(404));
+
+    assertThat(requestCount("POST", "2xx"), is(1L));
+    assertThat(requestCount("PATCH", "2xx"), is(1L));
+    assertThat(requestCount("HEAD", "2xx"), is(1L));
+    assertThat(requestCount("HEAD", "4xx"), is(1L));
+    assertThat(timerCount("tus.requests.validation", "method", "HEAD"), is(1L));
+    assertThat(timerCount("tus.requests.processing", "method", "PATCH"), is(1L));
+
+    // Only the PATCH request locks an existing upload
+    assertThat(timerCount("tus.lock.wait", "result", "acquired"), is(1L));
+    assertThat(timerCount("tus.lock.wait", "result", "failed"), is(0L));
+
+    assertThat(registry.get("tus.append.bytes").counter().count(), is((double) CONTENT.length()));
+    assertThat(timerCount("tus.append.write", null, null), is(1L));
+    assertThat(timerCount("tus.append.sync", "mode", "inline"), is(1L));
+
+    assertThat(timerCount("tus.checksum", "algorithm", "sha1"), is(1L));
+    assertThat(
+        registry.get("tus.checksum.bytes").tag("algorithm", "sha1").counter().count(),
+        is((double) CONTENT.length()));
+    assertThat(timerCount("tus.checksum", "algorithm", "md5"), is(0L));
+
+    UploadInfoCache cache = tusFileUploadService.getUploadInfoCache();
+    assertThat(cache.getHitCount() + cache.getMissCount(), greaterThan(0L));
+    assertThat(
+        registry.get("tus.cache.requests").tag("result", "hit").counter().count(),
+        is((double) cache.getHitCount()));
+    assertThat(
+        registry.get("tus.cache.requests").tag("result", "miss").counter().count(),
+        is((double) cache.getMissCount()));
+  }
+
+  @Test
+  public void recordUnsupportedMethod() throws Exception {
+    process(newRequest("PUT", UPLOAD_URI, null, null));
+
+    assertThat(registry.get("tus.requests").tag("method", "UNKNOWN").timer(), notNullValue());
+    assertThat(registry.get("tus.requests").tag("method", "UNKNOWN").timer().count(), is(1L));
+  }
+
+  @Test
+  public void recordCleanup() throws Exception {
+    tusFileUploadService.cleanup();
+
+    assertThat(timerCount("tus.cleanup", null, null), is(1L));
+    assertThat(registry.get("tus.cleanup.uploads").counter().count(), is(0.0));
+  }
+
+  @Test
+  public void recordEvents() {
+    MicrometerTusMetrics metrics = new MicrometerTusMetrics(registry);
+
+    metrics.lockFailed(1000, 2);
+    metrics.lockAcquired(1000, 1);
+    metrics.dataSynced(3, 1000);
+    metrics.requestCompleted(HttpMethod.GET, 999, 1000);
+    metrics.checksumCalculated(ChecksumAlgorithm.CRC32C, 10, 1000);
+    metrics.cleanupCompleted(new CleanupStatistics(3, 2, 1, 1024, 15));
+
+    assertThat(timerCount("tus.lock.wait", "result", "failed"), is(1L));
+    assertThat(registry.get("tus.lock.contended").counter().count(), is(4.0));
+    assertThat(timerCount("tus.append.sync", "mode", "periodic"), is(1L));
+    assertThat(requestCount("GET", "UNKNOWN"), is(1L));
+    assertThat(timerCount("tus.checksum", "algorithm", "crc32c"), is(1L));
+    assertThat(registry.get("tus.cleanup.uploads").counter().count(), is(2.0));
+    assertThat(registry.get("tus.cleanup.bytes").counter().count(), is(1024.0));
+  }
+
+  private long requestCount(String method, String status) {
+    return registry.get("tus.requests").tag("method", method).tag("status", status).timer().count();
+  }
+
+  private long timerCount(String name, String tagKey, String tagValue) {
+    return tagKey == null
+        ? registry.get(name).timer().count()
+        : registry.get(name).tag(tagKey, tagValue).timer().count();
+  }
+
+  private MockHttpServletResponse process(MockHttpServletRequest request) throws IOException {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    tusFileUploadService.process(request, response);
+    return response;
+  }
+
+  private static MockHttpServletRequest newRequest(
+      String method, String uri, String header, Object value) {
+    MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+    request.addHeader(HttpHeader.TUS_RESUMABLE, TusFileUploadService.TUS_API_VERSION);
+    if (header != null) {
+      request.addHeader(header, value);
+    }
+    return request;
+  }
+}
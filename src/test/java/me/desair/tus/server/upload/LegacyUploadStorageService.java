@@ -0,0 +1,121 @@
+package me.desair.tus.server.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import me.desair.tus.server.exception.TusException;
+import me.desair.tus.server.exception.UploadNotFoundException;
+import me.desair.tus.server.upload.concatenation.UploadConcatenationService;
+
+/**
+ * A custom {@link UploadStorageService} that only implements the methods that every storage service
+ * has to implement, by delegating them to another storage service. All other methods use the
+ * defaults of the interface.
+ */
+public class LegacyUploadStorageService implements UploadStorageService {
+
+  private final UploadStorageService delegate;
+
+  public LegacyUploadStorageService(UploadStorageService delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public UploadInfo getUploadInfo(String uploadUrl, String ownerKey) throws IOException {
+    return delegate.getUploadInfo(uploadUrl, ownerKey);
+  }
+
+  @Override
+  public UploadInfo getUploadInfo(UploadId id) throws IOException {
+    return delegate.getUploadInfo(id);
+  }
+
+  @Override
+  public String getUploadUri() {
+    return delegate.getUploadUri();
+  }
+
+  @Override
+  public UploadInfo append(UploadInfo upload, InputStream inputStream)
+      throws IOException, TusException {
+    return delegate.append(upload, inputStream);
+  }
+
+  @Override
+  public void setMaxUploadSize(Long maxUploadSize) {
+    delegate.setMaxUploadSize(maxUploadSize);
+  }
+
+  @Override
+  public long getMaxUploadSize() {
+    return delegate.getMaxUploadSize();
+  }
+
+  @Override
+  public UploadInfo create(UploadInfo info, String ownerKey) throws IOException {
+    return delegate.create(info, ownerKey);
+  }
+
+  @Override
+  public void update(UploadInfo uploadInfo) throws IOException, UploadNotFoundException {
+    delegate.update(uploadInfo);
+  }
+
+  @Override
+  public InputStream getUploadedBytes(String uploadUri, String ownerKey)
+      throws IOException, UploadNotFoundException {
+    return delegate.getUploadedBytes(uploadUri, ownerKey);
+  }
+
+  @Override
+  public InputStream getUploadedBytes(UploadId id) throws IOException, UploadNotFoundException {
+    return delegate.getUploadedBytes(id);
+  }
+
+  @Override
+  public void copyUploadTo(UploadInfo info, OutputStream outputStream)
+      throws UploadNotFoundException, IOException {
+    delegate.copyUploadTo(info, outputStream);
+  }
+
+  @Override
+  public void cleanupExpiredUploads(UploadLockingService uploadLockingService) throws IOException {
+    delegate.cleanupExpiredUploads(uploadLockingService);
+  }
+
+  @Override
+  public void removeLastNumberOfBytes(UploadInfo uploadInfo, long byteCount)
+      throws UploadNotFoundException, IOException {
+    delegate.removeLastNumberOfBytes(uploadInfo, byteCount);
+  }
+
+  @Override
+  public void terminateUpload(UploadInfo uploadInfo) throws UploadNotFoundException, IOException {
+    delegate.terminateUpload(uploadInfo);
+  }
+
+  @Override
+  public Long getUploadExpirationPeriod() {
+    return delegate.getUploadExpirationPeriod();
+  }
+
+  @Override
+  public void setUploadExpirationPeriod(Long uploadExpirationPeriod) {
+    delegate.setUploadExpirationPeriod(uploadExpirationPeriod);
+  }
+
+  @Override
+  public void setUploadConcatenationService(UploadConcatenationService concatenationService) {
+    delegate.setUploadConcatenationService(concatenationService);
+  }
+
+  @Override
+  public UploadConcatenationService getUploadConcatenationService() {
+    return delegate.getUploadConcatenationService();
+  }
+
+  @Override
+  public void setIdFactory(UploadIdFactory idFactory) {
+    delegate.setIdFactory(idFactory);
+  }
+}
@@ -8,6 +8,8 @@ import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 
+import java.util.HashSet;
+import java.util.Set;
 import me.desair.tus.server.util.Utils;
 import org.junit.Before;
 import org.junit.Test;
@@ -110,4 +112,13 @@ public class TimeBasedUploadIdFactoryTest {
     assertThat(
         Long.parseLong(id.getOriginalObject().toString()), lessThan(System.currentTimeMillis()));
   }
+
+  @Test
+  public void createIdUniqueWithinMillisecond() throws Exception {
+    Set<Object> ids = new HashSet<>();
+    for (int i = 0; i < 1000; i++) {
+      ids.add(idFactory.createId().getOriginalObject());
+    }
+    assertThat(ids.size(), is(1000));
+  }
 }
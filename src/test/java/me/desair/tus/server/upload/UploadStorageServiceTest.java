@@ -0,0 +1,76 @@
+package me.desair.tus.server.upload;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import me.desair.tus.server.exception.UploadNotFoundException;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test the default methods of the UploadStorageService interface, used by custom stores. */
+public class UploadStorageServiceTest {
+
+  private UploadStorageService storageService;
+  private UploadInfo info;
+
+  @Before
+  public void setUp() throws Exception {
+    storageService = mock(UploadStorageService.class);
+    info = new UploadInfo();
+    info.setId(new UploadId("ab12"));
+    info.setLength(10L);
+    info.setOffset(10L);
+  }
+
+  @Test
+  public void copyUploadRangeFromUploadedBytes() throws Exception {
+    when(storageService.getUploadedBytes(info.getId()))
+        .thenReturn(new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.UTF_8)));
+    doCallRealMethod()
+        .when(storageService)
+        .copyUploadTo(any(UploadInfo.class), anyLong(), anyLong(), any(OutputStream.class));
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    storageService.copyUploadTo(info, 3, 4, output);
+
+    assertThat(output.toString(StandardCharsets.UTF_8), is("3456"));
+  }
+
+  @Test(expected = EOFException.class)
+  public void copyUploadRangeBeyondUploadedBytes() throws Exception {
+    when(storageService.getUploadedBytes(info.getId()))
+        .thenReturn(new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.UTF_8)));
+    doCallRealMethod()
+        .when(storageService)
+        .copyUploadTo(any(UploadInfo.class), anyLong(), anyLong(), any(OutputStream.class));
+
+    storageService.copyUploadTo(info, 8, 4, new ByteArrayOutputStream());
+  }
+
+  @Test(expected = UploadNotFoundException.class)
+  public void copyUploadRangeNotFound() throws Exception {
+    doCallRealMethod()
+        .when(storageService)
+        .copyUploadTo(any(UploadInfo.class), anyLong(), anyLong(), any(OutputStream.class));
+
+    storageService.copyUploadTo(info, 0, 4, new ByteArrayOutputStream());
+  }
+
+  @Test
+  public void noUploadedBytesPathByDefault() throws Exception {
+    doCallRealMethod().when(storageService).getUploadedBytesPath(any(UploadInfo.class));
+
+    assertThat(storageService.getUploadedBytesPath(info), is(nullValue()));
+  }
+}
@@ -0,0 +1,201 @@
+package me.desair.tus.server.upload.cache;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.UUID;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadIdFactory;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadLock;
+import me.desair.tus.server.upload.UploadLockingService;
+import me.desair.tus.server.upload.UploadStorageService;
+import me.desair.tus.server.upload.UuidUploadIdFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class CachedStorageAndLockingServiceTest {
+
+  private static final String UPLOAD_URI = "/test/upload";
+
+  @Mock private UploadStorageService uploadStorageService;
+
+  @Mock private UploadLockingService uploadLockingService;
+
+  @Mock private UploadLock uploadLock;
+
+  private UploadInfoCache cache;
+
+  private CachedStorageAndLockingService service;
+
+  private UploadInfo info;
+
+  private String uploadUrl;
+
+  @Before
+  public void setUp() throws Exception {
+    UploadIdFactory idFactory = new UuidUploadIdFactory();
+    idFactory.setUploadUri(UPLOAD_URI);
+    cache = new UploadInfoCache(10);
+    service = new CachedStorageAndLockingService(uploadStorageService, uploadLockingService, cache);
+    service.setIdFactory(idFactory);
+
+    info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+    info.setOwnerKey("OWNER");
+    info.setOffset(2L);
+    info.setLength(10L);
+    uploadUrl = UPLOAD_URI + "/" + info.getId();
+
+    when(uploadStorageService.getUploadInfo(info.getId())).then(invocation -> copy(info));
+    when(uploadStorageService.getUploadInfoVersion(info.getId())).thenReturn("v1");
+    when(uploadLockingService.lockUploadByUri(uploadUrl)).thenReturn(uploadLock);
+  }
+
+  @Test
+  public void getUploadInfoCachedBetweenRequests() throws Exception {
+    assertThat(service.getUploadInfo(uploadUrl, "OWNER"), is(info));
+    UploadInfo cached = service.getUploadInfo(uploadUrl, "OWNER");
+    assertThat(cached, is(info));
+
+    verify(uploadStorageService, times(1)).getUploadInfo(info.getId());
+    assertThat(cache.getHitCount(), is(1L));
+    assertThat(cache.getMissCount(), is(1L));
+
+    // Every caller gets its own copy
+    cached.setOffset(5L);
+    assertThat(service.getUploadInfo(info.getId()).getOffset(), is(2L));
+    assertThat(service.getUploadInfo(info.getId()), not(sameInstance(cached)));
+  }
+
+  @Test
+  public void getUploadInfoChangedByOtherInstance() throws Exception {
+    assertThat(service.getUploadInfo(info.getId()).getOffset(), is(2L));
+
+    info.setOffset(6L);
+    when(uploadStorageService.getUploadInfoVersion(info.getId())).thenReturn("v2");
+
+    assertThat(service.getUploadInfo(info.getId()).getOffset(), is(6L));
+    verify(uploadStorageService, times(2)).getUploadInfo(info.getId());
+    assertThat(cache.getMissCount(), is(2L));
+  }
+
+  @Test
+  public void getUploadInfoWithoutVersionNotCached() throws Exception {
+    when(uploadStorageService.getUploadInfoVersion(info.getId())).thenReturn(null);
+
+    assertThat(service.getUploadInfo(info.getId()), is(info));
+    assertThat(service.getUploadInfo(info.getId()), is(info));
+
+    verify(uploadStorageService, times(2)).getUploadInfo(info.getId());
+    assertThat(cache.size(), is(0));
+  }
+
+  @Test
+  public void getUploadInfoWithoutVersionNotCachedWhileLocked() throws Exception {
+    when(uploadStorageService.getUploadInfoVersion(info.getId())).thenReturn(null);
+
+    try (UploadLock lock = service.lockUploadByUri(uploadUrl)) {
+      service.update(info);
+      assertThat(service.getUploadInfo(info.getId()), is(info));
+      assertThat(service.getUploadInfo(info.getId()), is(info));
+    }
+
+    verify(uploadStorageService, times(2)).getUploadInfo(info.getId());
+    assertThat(cache.size(), is(0));
+  }
+
+  @Test
+  public void getUploadInfoOtherOwner() throws Exception {
+    assertThat(service.getUploadInfo(uploadUrl, "OTHER"), is(nullValue()));
+
+    verify(uploadStorageService, times(1)).getUploadInfo(uploadUrl, "OTHER");
+  }
+
+  @Test
+  public void getUploadInfoWhileLocked() throws Exception {
+    // An entry that was cached before the lock was obtained is validated once
+    service.getUploadInfo(info.getId());
+    try (UploadLock lock = service.lockUploadByUri(uploadUrl)) {
+      assertThat(lock.getUploadUri(), is(uploadLock.getUploadUri()));
+      service.getUploadInfo(info.getId());
+      service.getUploadInfo(info.getId());
+      service.getUploadInfo(info.getId());
+    }
+    verify(uploadStorageService, times(2)).getUploadInfoVersion(info.getId());
+    verify(uploadLock).close();
+
+    // Once the lock is released, the version is checked again
+    service.getUploadInfo(info.getId());
+    verify(uploadStorageService, times(3)).getUploadInfoVersion(info.getId());
+    verify(uploadStorageService, times(1)).getUploadInfo(info.getId());
+  }
+
+  @Test
+  public void updateWritesThrough() throws Exception {
+    UploadInfo updated = copy(info);
+    updated.setOffset(8L);
+    when(uploadStorageService.getUploadInfoVersion(info.getId())).thenReturn("v2");
+
+    service.update(updated);
+
+    verify(uploadStorageService).update(updated);
+    assertThat(service.getUploadInfo(info.getId()).getOffset(), is(8L));
+    verify(uploadStorageService, never()).getUploadInfo(info.getId());
+  }
+
+  @Test
+  public void appendWritesThrough() throws Exception {
+    UploadInfo appended = copy(info);
+    appended.setOffset(10L);
+    when(uploadStorageService.append(info, null)).thenReturn(appended);
+
+    assertThat(service.append(info, null), sameInstance(appended));
+    assertThat(service.getUploadInfo(info.getId()).getOffset(), is(10L));
+    verify(uploadStorageService, never()).getUploadInfo(info.getId());
+  }
+
+  @Test
+  public void terminateUploadInvalidates() throws Exception {
+    service.getUploadInfo(info.getId());
+    assertThat(cache.size(), is(1));
+
+    service.terminateUpload(info);
+
+    verify(uploadStorageService).terminateUpload(info);
+    assertThat(cache.size(), is(0));
+  }
+
+  @Test
+  public void doubleWrappedServiceUsesOriginalDelegates() throws Exception {
+    CachedStorageAndLockingService service2 =
+        new CachedStorageAndLockingService(service, service, new UploadInfoCache());
+    service2.setIdFactory(new UuidUploadIdFactory());
+
+    service2.cleanupStaleLocks();
+    service2.getExpiredUploads(5);
+
+    verify(uploadLockingService).cleanupStaleLocks();
+    verify(uploadStorageService).getExpiredUploads(5);
+  }
+
+  private static UploadInfo copy(UploadInfo source) {
+    UploadInfo copy = new UploadInfo();
+    copy.setId(source.getId());
+    copy.setOwnerKey(source.getOwnerKey());
+    copy.setOffset(source.getOffset());
+    copy.setLength(source.getLength());
+    return copy;
+  }
+}
@@ -0,0 +1,124 @@
+package me.desair.tus.server.upload.cache;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.UUID;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadInfo;
+import org.junit.Test;
+
+public class UploadInfoCacheTest {
+
+  @Test
+  public void evictLeastRecentlyUsed() throws Exception {
+    UploadInfoCache cache = new UploadInfoCache(2, 1);
+    UploadId first = new UploadId(UUID.randomUUID());
+    UploadId second = new UploadId(UUID.randomUUID());
+    UploadId third = new UploadId(UUID.randomUUID());
+
+    cache.put(first, newEntry(cache, first));
+    cache.put(second, newEntry(cache, second));
+    // Use the first upload, so the second one is the least recently used
+    assertThat(cache.get(first), is(notNullValue()));
+    cache.put(third, newEntry(cache, third));
+
+    assertThat(cache.size(), is(2));
+    assertThat(cache.getEvictionCount(), is(1L));
+    assertThat(cache.get(first), is(notNullValue()));
+    assertThat(cache.get(second), is(nullValue()));
+    assertThat(cache.get(third), is(notNullValue()));
+  }
+
+  @Test
+  public void sizeIsBounded() throws Exception {
+    UploadInfoCache cache = new UploadInfoCache(100);
+    for (int i = 0; i < 1000; i++) {
+      UploadId id = new UploadId(UUID.randomUUID());
+      cache.put(id, newEntry(cache, id));
+    }
+
+    assertThat(cache.size() <= 100, is(true));
+    assertThat(cache.getEvictionCount(), is(1000L - cache.size()));
+
+    cache.clear();
+    assertThat(cache.size(), is(0));
+  }
+
+  @Test
+  public void olderEntryDoesNotReplaceNewerEntry() throws Exception {
+    UploadInfoCache cache = new UploadInfoCache(10);
+    UploadId id = new UploadId(UUID.randomUUID());
+
+    UploadInfoCache.Entry older = newEntry(cache, id);
+    UploadInfoCache.Entry newer = newEntry(cache, id);
+    cache.put(id, newer);
+    cache.put(id, older);
+
+    assertThat(cache.get(id).getStamp(), is(newer.getStamp()));
+
+    cache.put(id, older.withStamp(cache.nextStamp()));
+    assertThat(cache.get(id).getStamp() > newer.getStamp(), is(true));
+  }
+
+  @Test
+  public void entryWithoutVersionNotCached() throws Exception {
+    UploadInfoCache cache = new UploadInfoCache(10);
+    UploadId id = new UploadId(UUID.randomUUID());
+    UploadInfo info = new UploadInfo();
+    info.setId(id);
+
+    cache.put(id, newEntry(cache, id));
+    cache.put(id, cache.newEntry(info, null, cache.nextStamp()));
+
+    assertThat(cache.get(id), is(nullValue()));
+    assertThat(cache.size(), is(0));
+  }
+
+  @Test
+  public void decodeReturnsCopies() throws Exception {
+    UploadInfoCache cache = new UploadInfoCache(10);
+    UploadInfo info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+    info.setOffset(3L);
+    info.setLength(10L);
+
+    UploadInfoCache.Entry entry = cache.newEntry(info, "v1", cache.nextStamp());
+    UploadInfo copy = cache.decode(entry);
+    assertThat(copy, is(info));
+
+    copy.setOffset(7L);
+    assertThat(cache.decode(entry).getOffset(), is(3L));
+    assertThat(entry.getVersion(), is("v1"));
+  }
+
+  @Test
+  public void hitRatio() {
+    UploadInfoCache cache = new UploadInfoCache();
+    assertThat(cache.getHitRatio(), is(0.0));
+
+    cache.recordHit();
+    cache.recordHit();
+    cache.recordHit();
+    cache.recordMiss();
+
+    assertThat(cache.getHitCount(), is(3L));
+    assertThat(cache.getMissCount(), is(1L));
+    assertThat(cache.getHitRatio(), is(0.75));
+    assertThat(cache.getMaxSize(), is(UploadInfoCache.DEFAULT_MAX_SIZE));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidSize() {
+    new UploadInfoCache(0);
+  }
+
+  private static UploadInfoCache.Entry newEntry(UploadInfoCache cache, UploadId id)
+      throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setId(id);
+    return cache.newEntry(info, "v1", cache.nextStamp());
+  }
+}
@@ -0,0 +1,226 @@
+package me.desair.tus.server.upload.cache;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.UUID;
+import me.desair.tus.server.exception.UploadNotFoundException;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadIdFactory;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadStorageService;
+import me.desair.tus.server.upload.UploadType;
+import me.desair.tus.server.upload.UuidUploadIdFactory;
+import me.desair.tus.server.upload.concatenation.UploadConcatenationService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class UploadRequestContextTest {
+
+  private static final String UPLOAD_URI = "/test/upload";
+
+  @Mock private UploadStorageService uploadStorageService;
+
+  @Mock private UploadConcatenationService concatenationService;
+
+  private UploadRequestContext context;
+
+  private UploadInfo info;
+
+  private String uploadUrl;
+
+  @Before
+  public void setUp() throws Exception {
+    UploadIdFactory idFactory = new UuidUploadIdFactory();
+    idFactory.setUploadUri(UPLOAD_URI);
+    context = new UploadRequestContext(uploadStorageService, idFactory);
+
+    info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+    info.setOwnerKey("OWNER");
+    info.setOffset(2L);
+    info.setLength(10L);
+    uploadUrl = UPLOAD_URI + "/" + info.getId();
+
+    when(uploadStorageService.getUploadInfo(info.getId())).thenReturn(info);
+  }
+
+  @Test
+  public void getUploadInfoLoadedOnce() throws Exception {
+    assertThat(context.getUploadInfo(uploadUrl, "OWNER"), sameInstance(info));
+    assertThat(context.getUploadInfo(uploadUrl, "OWNER"), sameInstance(info));
+    assertThat(context.getUploadInfo(info.getId()), sameInstance(info));
+
+    verify(uploadStorageService, times(1)).getUploadInfo(info.getId());
+  }
+
+  @Test
+  public void getUploadInfoNotFoundLoadedOnce() throws Exception {
+    UploadId id = new UploadId(UUID.randomUUID());
+
+    assertThat(context.getUploadInfo(UPLOAD_URI + "/" + id, "OWNER"), is(nullValue()));
+    assertThat(context.getUploadInfo(UPLOAD_URI + "/" + id, "OWNER"), is(nullValue()));
+
+    verify(uploadStorageService, times(1)).getUploadInfo(id);
+  }
+
+  @Test
+  public void getUploadInfoOtherOwner() throws Exception {
+    assertThat(context.getUploadInfo(uploadUrl, "OTHER"), is(nullValue()));
+
+    verify(uploadStorageService, times(1)).getUploadInfo(uploadUrl, "OTHER");
+  }
+
+  @Test
+  public void getUploadInfoInvalidUrl() throws Exception {
+    assertThat(context.getUploadInfo(UPLOAD_URI, "OWNER"), is(nullValue()));
+
+    verify(uploadStorageService, never()).getUploadInfo(any(UploadId.class));
+  }
+
+  @Test
+  public void updateIsWrittenOnceOnFlush() throws Exception {
+    UploadInfo uploadInfo = context.getUploadInfo(uploadUrl, "OWNER");
+    uploadInfo.setLength(20L);
+    context.update(uploadInfo);
+    uploadInfo.updateExpiration(1000L);
+    context.update(uploadInfo);
+
+    verify(uploadStorageService, never()).update(any(UploadInfo.class));
+    assertThat(context.hasPendingUpdates(), is(true));
+
+    context.flush();
+    context.flush();
+
+    verify(uploadStorageService, times(1)).update(info);
+    assertThat(context.hasPendingUpdates(), is(false));
+  }
+
+  @Test
+  public void readOnlyContextDiscardsUpdates() throws Exception {
+    context.setReadOnly(true);
+    context.update(context.getUploadInfo(uploadUrl, "OWNER"));
+
+    context.flush();
+
+    verify(uploadStorageService, never()).update(any(UploadInfo.class));
+    assertThat(context.hasPendingUpdates(), is(false));
+  }
+
+  @Test
+  public void appendReplacesCachedInfo() throws Exception {
+    UploadInfo appended = new UploadInfo();
+    appended.setId(info.getId());
+    appended.setOwnerKey("OWNER");
+    appended.setOffset(10L);
+    appended.setLength(10L);
+    when(uploadStorageService.append(any(UploadInfo.class), any(InputStream.class)))
+        .thenReturn(appended);
+
+    context.update(info);
+    context.append(info, InputStream.nullInputStream());
+
+    assertThat(context.getUploadInfo(uploadUrl, "OWNER"), sameInstance(appended));
+    assertThat(context.hasPendingUpdates(), is(false));
+
+    context.flush();
+    verify(uploadStorageService, never()).update(any(UploadInfo.class));
+  }
+
+  @Test
+  public void createIsCached() throws Exception {
+    UploadInfo created = new UploadInfo();
+    created.setId(new UploadId(UUID.randomUUID()));
+    when(uploadStorageService.create(any(UploadInfo.class), any())).thenReturn(created);
+
+    context.create(new UploadInfo(), null);
+
+    assertThat(context.getUploadInfo(created.getId()), sameInstance(created));
+    verify(uploadStorageService, never()).getUploadInfo(created.getId());
+  }
+
+  @Test
+  public void flushLogsAndSkipsFailedUpdates() throws Exception {
+    UploadInfo removed = new UploadInfo();
+    removed.setId(new UploadId(UUID.randomUUID()));
+    UploadInfo failing = new UploadInfo();
+    failing.setId(new UploadId(UUID.randomUUID()));
+    doThrow(new UploadNotFoundException("Removed")).when(uploadStorageService).update(removed);
+    doThrow(new IOException("Disk is gone")).when(uploadStorageService).update(failing);
+
+    context.update(removed);
+    context.update(failing);
+    context.update(info);
+    try {
+      context.flush();
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage(), is("Disk is gone"));
+    }
+
+    // All updates are attempted once
+    verify(uploadStorageService, times(1)).update(info);
+    assertThat(context.hasPendingUpdates(), is(false));
+    context.flush();
+    verify(uploadStorageService, times(3)).update(any(UploadInfo.class));
+  }
+
+  @Test
+  public void mergeReplacesCachedInfo() throws Exception {
+    UploadInfo part = new UploadInfo();
+    part.setId(new UploadId(UUID.randomUUID()));
+    when(uploadStorageService.getUploadInfo(part.getId())).thenReturn(part);
+    info.setUploadType(UploadType.CONCATENATED);
+    info.setConcatenationPartIds(Arrays.asList(UPLOAD_URI + "/" + part.getId()));
+    when(uploadStorageService.getUploadConcatenationService()).thenReturn(concatenationService);
+
+    // The merge saves the info of a concatenated upload and its partial upload in the delegate
+    UploadInfo merged = new UploadInfo();
+    merged.setId(info.getId());
+    merged.setUploadType(UploadType.CONCATENATED);
+    merged.setConcatenationPartIds(info.getConcatenationPartIds());
+    merged.setOffset(10L);
+    merged.setLength(10L);
+    context.update(context.getUploadInfo(uploadUrl, "OWNER"));
+    context.update(context.getUploadInfo(part.getId()));
+    context.getUploadConcatenationService().merge(merged);
+
+    verify(concatenationService).merge(merged);
+    assertThat(context.getUploadInfo(info.getId()), sameInstance(merged));
+    assertThat(context.getUploadInfo(part.getId()), sameInstance(part));
+    verify(uploadStorageService, times(2)).getUploadInfo(part.getId());
+
+    context.flush();
+    verify(uploadStorageService, times(1)).update(merged);
+    verify(uploadStorageService, never()).update(info);
+    verify(uploadStorageService, never()).update(part);
+  }
+
+  @Test
+  public void terminateUploadForgetsUpload() throws Exception {
+    context.update(context.getUploadInfo(uploadUrl, "OWNER"));
+    context.terminateUpload(info);
+
+    assertThat(context.getUploadInfo(uploadUrl, "OWNER"), is(nullValue()));
+
+    context.flush();
+    verify(uploadStorageService, times(1)).terminateUpload(info);
+    verify(uploadStorageService, never()).update(any(UploadInfo.class));
+  }
+}
@@ -0,0 +1,212 @@
+package me.desair.tus.server.upload.codec;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import me.desair.tus.server.checksum.ChecksumAlgorithm;
+import me.desair.tus.server.upload.UploadChecksumState;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadType;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test cases for the BinaryUploadInfoCodec. */
+public class BinaryUploadInfoCodecTest {
+
+  private BinaryUploadInfoCodec codec;
+
+  @Before
+  public void setUp() {
+    codec = new BinaryUploadInfoCodec();
+  }
+
+  @Test
+  public void encodeDecodeAllFields() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+    info.setUploadType(UploadType.CONCATENATED);
+    info.setOffset(10L);
+    info.setLength(20L);
+    info.setEncodedMetadata("filename d29ybGRfZG9taW5hdGlvbl9wbGFuLnBkZg==");
+    info.setOwnerKey("王五");
+    info.setCreatorIpAddresses("10.0.2.1, 192.168.1.1");
+    info.updateExpiration(1000L);
+    info.setUploadConcatHeaderValue("final; /upload/1 /upload/2");
+    info.setConcatenationPartIds(Arrays.asList("/upload/1", "/upload/2"));
+
+    UploadInfo decoded = codec.decode(codec.encode(info));
+
+    assertThat(decoded, is(info));
+    assertThat(decoded.getCreationTimestamp(), is(info.getCreationTimestamp()));
+    assertThat(decoded.getId().getOriginalObject(), is(info.getId().getOriginalObject()));
+  }
+
+  @Test
+  public void encodeDecodeMinimalFields() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setOffset(null);
+    info.setCreationTimestamp(null);
+
+    UploadInfo decoded = codec.decode(codec.encode(info));
+
+    assertThat(decoded, is(info));
+    assertThat(decoded.getId(), is(nullValue()));
+    assertThat(decoded.getOffset(), is(nullValue()));
+    assertThat(decoded.getLength(), is(nullValue()));
+    assertThat(decoded.getCreationTimestamp(), is(nullValue()));
+    assertThat(decoded.getExpirationTimestamp(), is(nullValue()));
+    assertThat(decoded.getUploadType(), is(nullValue()));
+    assertThat(decoded.getConcatenationPartIds(), is(nullValue()));
+  }
+
+  @Test
+  public void encodeDecodeEmptyPartList() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setConcatenationPartIds(Collections.emptyList());
+
+    assertThat(codec.decode(codec.encode(info)).getConcatenationPartIds().isEmpty(), is(true));
+  }
+
+  @Test
+  public void encodeDecodeIdTypes() throws Exception {
+    for (Serializable value :
+        Arrays.<Serializable>asList(
+            "upload-1", 1337L, UUID.randomUUID(), 42, new CustomId("custom%20id"))) {
+      UploadInfo info = new UploadInfo();
+      info.setId(new UploadId(value));
+
+      UploadInfo decoded = codec.decode(codec.encode(info));
+
+      assertThat(decoded.getId(), is(info.getId()));
+      assertThat(decoded.getId().toString(), is(info.getId().toString()));
+    }
+  }
+
+  @Test
+  public void decodeLegacySerializedInfo() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+    info.setOffset(5L);
+    info.setLength(10L);
+    info.setOwnerKey("John");
+
+    ByteBuffer legacy = new SerializableUploadInfoCodec().encode(info);
+
+    assertThat(codec.decode(legacy), is(info));
+  }
+
+  @Test
+  public void binaryFormatIsSmallerThanSerialization() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+    info.setOffset(5L);
+    info.setLength(10L);
+
+    assertThat(
+        codec.encode(info).remaining(),
+        lessThan(new SerializableUploadInfoCodec().encode(info).remaining()));
+  }
+
+  @Test
+  public void encodeDecodeChecksumState() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+    info.setOffset(10L);
+    info.setChecksumState(
+        new UploadChecksumState(ChecksumAlgorithm.SHA256, 10L, new byte[] {1, 2}));
+
+    ByteBuffer buffer = codec.encode(info);
+    assertThat(buffer.get(4), is(BinaryUploadInfoCodec.VERSION));
+
+    UploadInfo decoded = codec.decode(buffer);
+    assertThat(decoded, is(info));
+    assertThat(decoded.getChecksumState().getAlgorithm(), is(ChecksumAlgorithm.SHA256));
+    assertThat(decoded.getChecksumState().getOffset(), is(10L));
+    assertThat(decoded.getChecksumState().getState(), is(new byte[] {1, 2}));
+    assertThat(decoded.getPreviousChecksumState(), is(nullValue()));
+
+    info.setPreviousChecksumState(
+        new UploadChecksumState(ChecksumAlgorithm.XXH64, 4L, new byte[] {3}));
+    assertThat(codec.decode(codec.encode(info)), is(info));
+  }
+
+  @Test
+  public void encodeWithoutChecksumStateUsesVersion1() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+
+    ByteBuffer buffer = codec.encode(info);
+
+    assertThat(buffer.get(4), is((byte) 1));
+    assertThat(codec.decode(buffer), is(info));
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void decodeEmpty() throws Exception {
+    codec.decode(ByteBuffer.allocate(0));
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void decodeInvalidMagic() throws Exception {
+    codec.decode(ByteBuffer.wrap("this is not valid upload info".getBytes()));
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void decodeTruncated() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+    info.setEncodedMetadata("Encoded Metadata");
+    ByteBuffer buffer = codec.encode(info);
+    buffer.limit(buffer.limit() - 5);
+
+    codec.decode(buffer);
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void decodeLengthExceedingBuffer() throws Exception {
+    ByteBuffer buffer = codec.encode(new UploadInfo());
+    // The length of the owner key follows the header and the (absent) upload ID type
+    buffer.putInt(40, Integer.MAX_VALUE);
+
+    codec.decode(buffer);
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void decodeNegativeLength() throws Exception {
+    ByteBuffer buffer = codec.encode(new UploadInfo());
+    buffer.putInt(40, -2);
+
+    codec.decode(buffer);
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void decodeUnsupportedVersion() throws Exception {
+    ByteBuffer buffer = codec.encode(new UploadInfo());
+    buffer.put(4, (byte) (BinaryUploadInfoCodec.VERSION + 1));
+
+    codec.decode(buffer);
+  }
+
+  /** Custom upload ID value that can only be persisted using Java serialization. */
+  public static class CustomId implements Serializable {
+    private final String value;
+
+    public CustomId(String value) {
+      this.value = value;
+    }
+
+    @Override
+    public String toString() {
+      return value;
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package me.desair.tus.server.upload.codec;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadType;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/** Test cases for the SerializableUploadInfoCodec. */
+public class SerializableUploadInfoCodecTest {
+
+  private SerializableUploadInfoCodec codec = new SerializableUploadInfoCodec();
+
+  @Test
+  public void encodeDecode() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+    info.setUploadType(UploadType.PARTIAL);
+    info.setOffset(3L);
+    info.setLength(10L);
+    info.setOwnerKey("John");
+
+    assertThat(codec.decode(codec.encode(info)), is(info));
+  }
+
+  @Test
+  public void decodeInfoSerializedByPreviousRelease() throws Exception {
+    byte[] bytes;
+    try (InputStream input = getClass().getResourceAsStream("/legacy-upload-info.ser")) {
+      bytes = IOUtils.toByteArray(input);
+    }
+
+    UploadInfo info = codec.decode(ByteBuffer.wrap(bytes));
+
+    assertThat(
+        info.getId(), is(new UploadId(UUID.fromString("1911e8a4-6939-490c-b58b-a5d70f8d91fb"))));
+    assertThat(info.getUploadType(), is(UploadType.REGULAR));
+    assertThat(info.getOffset(), is(3L));
+    assertThat(info.getLength(), is(10L));
+    assertThat(info.getOwnerKey(), is("John"));
+    assertThat(info.getFileName(), is("world_domination_plan.pdf"));
+    assertThat(info.getCreationTimestamp(), is(1792204837697L));
+    assertThat(info.getChecksumState(), is(nullValue()));
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void decodeInvalid() throws Exception {
+    codec.decode(ByteBuffer.wrap("this is not valid serialized data".getBytes()));
+  }
+}
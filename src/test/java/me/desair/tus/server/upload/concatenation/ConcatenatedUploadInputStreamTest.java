@@ -0,0 +1,254 @@
+package me.desair.tus.server.upload.concatenation;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.UUID;
+import me.desair.tus.server.exception.UploadNotFoundException;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadStorageService;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class ConcatenatedUploadInputStreamTest {
+
+  @Mock private UploadStorageService uploadStorageService;
+
+  private Path storagePath;
+  private UploadInfo info1;
+  private UploadInfo info2;
+  private UploadInfo info3;
+
+  @Before
+  public void setUp() throws Exception {
+    storagePath = Paths.get("target", "tus", "concatenated-stream").toAbsolutePath();
+    Files.createDirectories(storagePath);
+
+    info1 = fileUpload("This is the first part ");
+    info2 = streamUpload("and this is the second part ");
+    info3 = fileUpload("followed by the third part.");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(storagePath.toFile());
+  }
+
+  @Test
+  public void read() throws Exception {
+    try (ConcatenatedUploadInputStream stream = newStream(info1, info2, info3)) {
+      assertThat(stream.size(), is(78L));
+      assertThat(
+          IOUtils.toString(stream, StandardCharsets.UTF_8),
+          is("This is the first part and this is the second part followed by the third part."));
+      assertThat(stream.position(), is(78L));
+      assertThat(stream.read(), is(-1));
+    }
+  }
+
+  @Test
+  public void readEmptyList() throws Exception {
+    try (ConcatenatedUploadInputStream stream = newStream()) {
+      assertThat(stream.size(), is(0L));
+      assertThat(stream.read(), is(-1));
+    }
+  }
+
+  @Test
+  public void skip() throws Exception {
+    try (ConcatenatedUploadInputStream stream = newStream(info1, info2, info3)) {
+      assertThat(stream.skip(8), is(8L));
+      assertThat(readString(stream, 5), is("the f"));
+
+      // Skip within the second upload, which is read as a stream
+      assertThat(stream.skip(22), is(22L));
+      assertThat(readString(stream, 10), is("the second"));
+
+      // Skip to the end of the third upload
+      assertThat(stream.skip(100), is(33L));
+      assertThat(stream.read(), is(-1));
+    }
+  }
+
+  @Test
+  public void skipDoesNotOpenSkippedUploads() throws Exception {
+    try (ConcatenatedUploadInputStream stream = newStream(info1, info2, info3)) {
+      assertThat(stream.skip(60), is(60L));
+      assertThat(IOUtils.toString(stream, StandardCharsets.UTF_8), is("by the third part."));
+    }
+    verify(uploadStorageService, never()).getUploadedBytesPath(info1);
+    verify(uploadStorageService, never()).getUploadedBytes(info2.getId());
+  }
+
+  @Test
+  public void positionalRead() throws Exception {
+    try (ConcatenatedUploadInputStream stream = newStream(info1, info2, info3)) {
+      ByteBuffer buffer = ByteBuffer.allocate(50);
+      // A positional read does not cross the boundary of an upload
+      assertThat(stream.read(buffer, 18), is(5));
+      assertThat(new String(buffer.array(), 0, 5, StandardCharsets.UTF_8), is("part "));
+
+      buffer.clear();
+      assertThat(stream.read(buffer, 23), is(28));
+      assertThat(
+          new String(buffer.array(), 0, 28, StandardCharsets.UTF_8),
+          is("and this is the second part "));
+
+      buffer.clear().limit(6);
+      assertThat(stream.read(buffer, 67), is(6));
+      assertThat(new String(buffer.array(), 0, 6, StandardCharsets.UTF_8), is("third "));
+
+      assertThat(stream.read(buffer, 78), is(-1));
+
+      // The position of the stream did not change
+      assertThat(stream.position(), is(0L));
+      assertThat(readString(stream, 4), is("This"));
+    }
+  }
+
+  @Test
+  public void transferToChannel() throws Exception {
+    Path target = storagePath.resolve("target");
+    try (ConcatenatedUploadInputStream stream = newStream(info1, info2, info3);
+        FileChannel channel =
+            FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        ChannelOutputStream output = new ChannelOutputStream(channel)) {
+      assertThat(stream.skip(5), is(5L));
+      assertThat(stream.transferTo(output), is(73L));
+      assertThat(stream.position(), is(78L));
+    }
+
+    assertThat(
+        Files.readString(target),
+        is("is the first part and this is the second part followed by the third part."));
+  }
+
+  @Test
+  public void transferToStream() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (ConcatenatedUploadInputStream stream = newStream(info1, info2, info3)) {
+      assertThat(stream.transferTo(output), is(78L));
+    }
+    assertThat(
+        output.toString(StandardCharsets.UTF_8),
+        is("This is the first part and this is the second part followed by the third part."));
+  }
+
+  @Test(expected = IOException.class)
+  public void missingUpload() throws Exception {
+    when(uploadStorageService.getUploadedBytes(info2.getId()))
+        .thenThrow(new UploadNotFoundException("Test"));
+
+    try (ConcatenatedUploadInputStream stream = newStream(info1, info2, info3)) {
+      IOUtils.toString(stream, StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void missingUploadInfo() throws Exception {
+    try (ConcatenatedUploadInputStream stream = newStream(info1, null, info3)) {
+      IOUtils.toString(stream, StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test(expected = EOFException.class)
+  public void truncatedFileUpload() throws Exception {
+    Files.writeString(uploadStorageService.getUploadedBytesPath(info3), "followed");
+
+    try (ConcatenatedUploadInputStream stream = newStream(info1, info2, info3)) {
+      IOUtils.toString(stream, StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test(expected = EOFException.class)
+  public void truncatedStreamUpload() throws Exception {
+    info2.setLength(info2.getLength() + 10);
+
+    try (ConcatenatedUploadInputStream stream = newStream(info1, info2, info3)) {
+      stream.transferTo(OutputStream.nullOutputStream());
+    }
+  }
+
+  private ConcatenatedUploadInputStream newStream(UploadInfo... uploads) {
+    // Open the next upload on the calling thread to keep the test deterministic
+    return new ConcatenatedUploadInputStream(
+        Arrays.asList(uploads), uploadStorageService, Runnable::run);
+  }
+
+  private UploadInfo fileUpload(String content) throws Exception {
+    UploadInfo info = newUploadInfo(content);
+    Path path = storagePath.resolve(info.getId().toString());
+    Files.writeString(path, content);
+    when(uploadStorageService.getUploadedBytesPath(info)).thenReturn(path);
+    return info;
+  }
+
+  private UploadInfo streamUpload(String content) throws Exception {
+    UploadInfo info = newUploadInfo(content);
+    when(uploadStorageService.getUploadedBytes(info.getId()))
+        .then(invocation -> IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+    return info;
+  }
+
+  private static UploadInfo newUploadInfo(String content) {
+    UploadInfo info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+    info.setLength((long) content.getBytes(StandardCharsets.UTF_8).length);
+    info.setOffset(info.getLength());
+    return info;
+  }
+
+  private static String readString(InputStream stream, int length) throws IOException {
+    return new String(IOUtils.readFully(stream, length), StandardCharsets.UTF_8);
+  }
+
+  /** Output stream that is also a channel, like the output stream of some servlet containers. */
+  private static class ChannelOutputStream extends OutputStream implements WritableByteChannel {
+
+    private final FileChannel channel;
+
+    ChannelOutputStream(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      channel.write(ByteBuffer.wrap(new byte[] {(byte) b}));
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      return channel.write(src);
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+  }
+}
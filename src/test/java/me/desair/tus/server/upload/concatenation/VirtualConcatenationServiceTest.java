@@ -212,6 +212,155 @@ public class VirtualConcatenationServiceTest {
     verify(uploadStorageService, never()).update(child2);
   }
 
+  @Test
+  public void mergeOnlyReadsIncompletePartialUploadsAgain() throws Exception {
+    UploadInfo child1 = new UploadInfo();
+    child1.setId(new UploadId(UUID.randomUUID()));
+    child1.setLength(5L);
+    child1.setOffset(5L);
+
+    UploadInfo child2 = new UploadInfo();
+    child2.setId(new UploadId(UUID.randomUUID()));
+    child2.setLength(10L);
+    child2.setOffset(8L);
+
+    UploadInfo infoParent = new UploadInfo();
+    infoParent.setId(new UploadId(UUID.randomUUID()));
+    infoParent.setConcatenationPartIds(
+        Arrays.asList(child1.getId().toString(), child2.getId().toString()));
+
+    when(uploadStorageService.getUploadInfo(child1.getId().toString(), infoParent.getOwnerKey()))
+        .thenReturn(child1);
+    when(uploadStorageService.getUploadInfo(child2.getId().toString(), infoParent.getOwnerKey()))
+        .thenReturn(child2);
+    when(uploadStorageService.getUploadInfoVersion(child1.getId())).thenReturn("1");
+    when(uploadStorageService.getUploadExpirationPeriod()).thenReturn(60_000L);
+
+    concatenationService.merge(infoParent);
+    concatenationService.merge(infoParent);
+
+    assertThat(infoParent.getLength(), is(15L));
+    assertThat(infoParent.isUploadInProgress(), is(true));
+    verify(uploadStorageService, times(1))
+        .getUploadInfo(child1.getId().toString(), infoParent.getOwnerKey());
+    verify(uploadStorageService, times(2))
+        .getUploadInfo(child2.getId().toString(), infoParent.getOwnerKey());
+    // Nothing changed, so nothing is written again
+    verify(uploadStorageService, times(1)).update(child1);
+    verify(uploadStorageService, times(1)).update(infoParent);
+
+    child2.setOffset(10L);
+    concatenationService.merge(infoParent);
+
+    assertThat(infoParent.getOffset(), is(15L));
+    assertThat(infoParent.isUploadInProgress(), is(false));
+    verify(uploadStorageService, times(1))
+        .getUploadInfo(child1.getId().toString(), infoParent.getOwnerKey());
+    verify(uploadStorageService, times(1)).update(child2);
+    verify(uploadStorageService, times(2)).update(infoParent);
+  }
+
+  @Test
+  public void mergeReadsPartialUploadsWithoutVersionAgain() throws Exception {
+    UploadInfo child1 = new UploadInfo();
+    child1.setId(new UploadId(UUID.randomUUID()));
+    child1.setLength(5L);
+    child1.setOffset(5L);
+
+    UploadInfo child2 = new UploadInfo();
+    child2.setId(new UploadId(UUID.randomUUID()));
+    child2.setLength(10L);
+    child2.setOffset(8L);
+
+    UploadInfo infoParent = new UploadInfo();
+    infoParent.setId(new UploadId(UUID.randomUUID()));
+    infoParent.setConcatenationPartIds(
+        Arrays.asList(child1.getId().toString(), child2.getId().toString()));
+
+    when(uploadStorageService.getUploadInfo(child1.getId().toString(), infoParent.getOwnerKey()))
+        .thenReturn(child1);
+    when(uploadStorageService.getUploadInfo(child2.getId().toString(), infoParent.getOwnerKey()))
+        .thenReturn(child2);
+    when(uploadStorageService.getUploadExpirationPeriod()).thenReturn(60_000L);
+
+    concatenationService.merge(infoParent);
+    concatenationService.merge(infoParent);
+
+    assertThat(infoParent.getLength(), is(15L));
+    verify(uploadStorageService, times(2))
+        .getUploadInfo(child1.getId().toString(), infoParent.getOwnerKey());
+  }
+
+  @Test(expected = UploadNotFoundException.class)
+  public void mergeRemovedCompletedPartialUpload() throws Exception {
+    UploadInfo child1 = new UploadInfo();
+    child1.setId(new UploadId(UUID.randomUUID()));
+    child1.setLength(5L);
+    child1.setOffset(5L);
+
+    UploadInfo child2 = new UploadInfo();
+    child2.setId(new UploadId(UUID.randomUUID()));
+    child2.setLength(10L);
+    child2.setOffset(8L);
+
+    UploadInfo infoParent = new UploadInfo();
+    infoParent.setId(new UploadId(UUID.randomUUID()));
+    infoParent.setConcatenationPartIds(
+        Arrays.asList(child1.getId().toString(), child2.getId().toString()));
+
+    when(uploadStorageService.getUploadInfo(child1.getId().toString(), infoParent.getOwnerKey()))
+        .thenReturn(child1);
+    when(uploadStorageService.getUploadInfo(child2.getId().toString(), infoParent.getOwnerKey()))
+        .thenReturn(child2);
+    when(uploadStorageService.getUploadInfoVersion(child1.getId())).thenReturn("1");
+    when(uploadStorageService.getUploadExpirationPeriod()).thenReturn(60_000L);
+
+    concatenationService.merge(infoParent);
+    assertThat(infoParent.isUploadInProgress(), is(true));
+
+    // The completed partial upload is terminated before the last partial upload completes
+    when(uploadStorageService.getUploadInfo(child1.getId().toString(), infoParent.getOwnerKey()))
+        .thenReturn(null);
+    when(uploadStorageService.getUploadInfoVersion(child1.getId())).thenReturn(null);
+    child2.setOffset(10L);
+
+    concatenationService.merge(infoParent);
+  }
+
+  @Test
+  public void mergeRefreshesExpirationAfterHalfThePeriod() throws Exception {
+    UploadInfo child1 = new UploadInfo();
+    child1.setId(new UploadId(UUID.randomUUID()));
+    child1.setLength(5L);
+    child1.setOffset(5L);
+
+    UploadInfo child2 = new UploadInfo();
+    child2.setId(new UploadId(UUID.randomUUID()));
+    child2.setLength(10L);
+    child2.setOffset(8L);
+
+    UploadInfo infoParent = new UploadInfo();
+    infoParent.setId(new UploadId(UUID.randomUUID()));
+    infoParent.setConcatenationPartIds(
+        Arrays.asList(child1.getId().toString(), child2.getId().toString()));
+
+    when(uploadStorageService.getUploadInfo(child1.getId().toString(), infoParent.getOwnerKey()))
+        .thenReturn(child1);
+    when(uploadStorageService.getUploadInfo(child2.getId().toString(), infoParent.getOwnerKey()))
+        .thenReturn(child2);
+    when(uploadStorageService.getUploadExpirationPeriod()).thenReturn(20L);
+
+    concatenationService.merge(infoParent);
+    Thread.sleep(15);
+    concatenationService.merge(infoParent);
+
+    verify(uploadStorageService, times(2))
+        .getUploadInfo(child1.getId().toString(), infoParent.getOwnerKey());
+    verify(uploadStorageService, times(2)).update(child1);
+    verify(uploadStorageService, times(2)).update(infoParent);
+    verify(uploadStorageService, never()).update(child2);
+  }
+
   @Test
   public void getUploadsEmptyFinal() throws Exception {
     UploadInfo infoParent = new UploadInfo();
@@ -0,0 +1,163 @@
+package me.desair.tus.server.upload.disk;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadIdFactory;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadLock;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class DirectoryShardingMigrationTest {
+
+  private static final String UPLOAD_URL = "/upload/test";
+
+  @Mock private UploadIdFactory idFactory;
+
+  private Path storagePath;
+  private DiskStorageService storageService;
+  private DiskLockingService lockingService;
+
+  @Before
+  public void setUp() throws IOException {
+    storagePath = Paths.get("target", "tus", "sharding-migration").toAbsolutePath();
+    Files.createDirectories(storagePath);
+
+    when(idFactory.getUploadUri()).thenReturn(UPLOAD_URL);
+    when(idFactory.createId()).then(invocation -> new UploadId(UUID.randomUUID()));
+    when(idFactory.readUploadId(nullable(String.class)))
+        .then(
+            invocation ->
+                new UploadId(
+                    StringUtils.substringAfter(
+                        invocation.getArguments()[0].toString(), UPLOAD_URL + "/")));
+
+    storageService = new DiskStorageService(idFactory, storagePath.toString());
+    lockingService = new DiskLockingService(idFactory, storagePath.toString());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(storagePath.toFile());
+  }
+
+  @Test
+  public void migrateFlatLayout() throws Exception {
+    List<UploadInfo> uploads = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      UploadInfo info = new UploadInfo();
+      info.setLength(4L);
+      info = storageService.create(info, null);
+      uploads.add(
+          storageService.append(info, IOUtils.toInputStream("tus" + i, StandardCharsets.UTF_8)));
+    }
+    Path uploadsPath = storagePath.resolve("uploads");
+    assertTrue(Files.exists(uploadsPath.resolve(uploads.get(0).getId().toString())));
+
+    storageService.setShardingLevels(2);
+    lockingService.setShardingLevels(2);
+
+    // A locked upload is not moved
+    UploadInfo locked = uploads.get(3);
+    UploadLock lock = lockingService.lockUploadByUri(UPLOAD_URL + "/" + locked.getId());
+
+    DirectoryShardingMigration migration =
+        new DirectoryShardingMigration(storageService, lockingService);
+    assertThat(migration.migrate(), is(1L));
+    assertThat(migration.getMovedUploads(), is(9L));
+    assertThat(migration.getSkippedUploads(), is(1L));
+
+    for (UploadInfo info : uploads) {
+      Path shardedPath = storageService.getPathInStorageDirectory(info.getId());
+      Path flatPath = uploadsPath.resolve(info.getId().toString());
+      assertThat(Files.exists(shardedPath), is(info != locked));
+      assertThat(Files.exists(flatPath), is(info == locked));
+
+      // All uploads can be read during the migration
+      assertThat(storageService.getUploadInfo(info.getId()), is(info));
+    }
+
+    // The locked upload is moved by the next migration
+    lock.release();
+    migration = new DirectoryShardingMigration(storageService, lockingService);
+    assertThat(migration.migrate(), is(0L));
+    assertThat(migration.getMovedUploads(), is(1L));
+    assertTrue(Files.exists(storageService.getPathInStorageDirectory(locked.getId())));
+
+    try (InputStream bytes = storageService.getUploadedBytes(locked.getId())) {
+      assertThat(IOUtils.toString(bytes, StandardCharsets.UTF_8), is("tus3"));
+    }
+  }
+
+  @Test
+  public void migrateFlatUploadWithShardName() throws Exception {
+    when(idFactory.createId()).thenReturn(new UploadId("ab"));
+    UploadInfo info = new UploadInfo();
+    info.setLength(3L);
+    info = storageService.create(info, null);
+    storageService.append(info, IOUtils.toInputStream("tus", StandardCharsets.UTF_8));
+
+    storageService.setShardingLevels(1);
+    lockingService.setShardingLevels(1);
+
+    List<String> entries = new ArrayList<>();
+    storageService.visitEntries(entry -> entries.add(entry.getFileName().toString()));
+    assertThat(entries, is(Collections.singletonList("ab")));
+    assertThat(storageService.getUploadInfo(info.getId()), is(info));
+
+    DirectoryShardingMigration migration =
+        new DirectoryShardingMigration(storageService, lockingService);
+    assertThat(migration.migrate(), is(0L));
+    assertThat(migration.getMovedUploads(), is(1L));
+    assertTrue(Files.exists(storageService.getPathInStorageDirectory(info.getId())));
+
+    try (InputStream bytes = storageService.getUploadedBytes(info.getId())) {
+      assertThat(IOUtils.toString(bytes, StandardCharsets.UTF_8), is("tus"));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void migrateWithoutSharding() {
+    new DirectoryShardingMigration(storageService, lockingService);
+  }
+
+  @Test
+  public void visitEntriesOfBothLayouts() throws Exception {
+    UploadInfo flat = storageService.create(new UploadInfo(), null);
+    storageService.setShardingLevels(2);
+    UploadInfo sharded = storageService.create(new UploadInfo(), null);
+
+    List<String> entries = new ArrayList<>();
+    storageService.visitEntries(entry -> entries.add(entry.getFileName().toString()));
+
+    assertThat(entries.size(), is(2));
+    assertTrue(entries.contains(flat.getId().toString()));
+    assertTrue(entries.contains(sharded.getId().toString()));
+    Path shardPath = storageService.getPathInStorageDirectory(sharded.getId()).getParent();
+    assertFalse(entries.contains(shardPath.getFileName().toString()));
+  }
+}
@@ -15,7 +15,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import me.desair.tus.server.upload.UploadId;
 import me.desair.tus.server.upload.UploadIdFactory;
 import me.desair.tus.server.upload.UploadLock;
@@ -146,13 +150,49 @@ public class DiskLockingServiceTest {
     uploadLock.release();
   }
 
+  @Test
+  public void cleanupStaleLocksWithSharding() throws Exception {
+    lockingService.setShardingLevels(2);
+    Path locksPath = storagePath.resolve("locks");
+
+    UploadId activeId = new UploadId(UUID.randomUUID());
+    UploadLock uploadLock = lockingService.lockUploadByUri("/upload/test/" + activeId);
+    Path activeLock = lockingService.getPathInStorageDirectory(activeId);
+    assertThat(locksPath.relativize(activeLock).getNameCount(), is(3));
+    assertTrue(Files.exists(activeLock));
+
+    UploadId staleId = new UploadId(UUID.randomUUID());
+    Path staleLock = lockingService.getPathInStorageDirectory(staleId);
+    Files.createDirectories(staleLock.getParent());
+    Files.createFile(staleLock);
+
+    // A lock file that was left behind by the flat layout
+    Path flatStaleLock = locksPath.resolve(UUID.randomUUID().toString());
+    Files.createFile(flatStaleLock);
+
+    for (Path lock : Arrays.asList(activeLock, staleLock, flatStaleLock)) {
+      Files.setLastModifiedTime(lock, FileTime.fromMillis(System.currentTimeMillis() - 20000));
+    }
+
+    lockingService.cleanupStaleLocks();
+
+    assertTrue(Files.exists(activeLock));
+    assertFalse(Files.exists(staleLock));
+    assertFalse(Files.exists(flatStaleLock));
+    assertTrue(lockingService.isLocked(activeId));
+
+    uploadLock.release();
+    assertFalse(lockingService.isLocked(activeId));
+  }
+
   @Test
   public void cleanupStaleLocksWhenStorageDirectoryNotExists() throws Exception {
     // Create a new locking service with a non-existent storage path
     Path nonExistentPath = Paths.get("target", "tus", "non-existent-" + UUID.randomUUID());
     assertFalse(Files.exists(nonExistentPath));
 
-    DiskLockingService newLockingService = new DiskLockingService(idFactory, nonExistentPath.toString());
+    DiskLockingService newLockingService =
+        new DiskLockingService(idFactory, nonExistentPath.toString());
 
     // This should not throw an exception even if the directory does not exist
     newLockingService.cleanupStaleLocks();
@@ -191,4 +231,37 @@ public class DiskLockingServiceTest {
 
     lock.release();
   }
+
+  @Test
+  public void lockWithRetryWokenUpByLocalRelease() throws Exception {
+    DiskLockingService retryLockingService =
+        new DiskLockingService(idFactory, storagePath.toString(), 3, 2000, 4000);
+    UploadId id = new UploadId("000003f1-a850-49de-af03-997272d834c9");
+    String uploadUri = UPLOAD_URL + "/" + id;
+
+    UploadLock lock1 = retryLockingService.lockUploadByUri(uploadUri);
+
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      // Release the lock from another thread while we are waiting for it
+      executor.schedule(lock1::release, 100, TimeUnit.MILLISECONDS);
+
+      long start = System.currentTimeMillis();
+      UploadLock lock2 = retryLockingService.lockUploadByUri(uploadUri);
+
+      assertThat(lock2, not(nullValue()));
+      // We should be woken up by the release and not have to wait for the full retry interval
+      assertThat(System.currentTimeMillis() - start < 2000, is(true));
+      assertThat(retryLockingService.isLocked(id), is(true));
+
+      // Releasing the first lock again must not release the second one
+      lock1.release();
+      assertThat(retryLockingService.isLocked(id), is(true));
+
+      lock2.close();
+      assertThat(retryLockingService.isLocked(id), is(false));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 }
@@ -1,5 +1,6 @@
 package me.desair.tus.server.upload.disk;
 
+import static java.nio.file.StandardOpenOption.WRITE;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
@@ -20,18 +21,31 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import me.desair.tus.server.checksum.ChecksumAlgorithm;
+import me.desair.tus.server.checksum.ChecksumCalculator;
 import me.desair.tus.server.exception.InvalidUploadOffsetException;
 import me.desair.tus.server.exception.UploadNotFoundException;
+import me.desair.tus.server.upload.UploadChecksumState;
 import me.desair.tus.server.upload.UploadId;
 import me.desair.tus.server.upload.UploadIdFactory;
 import me.desair.tus.server.upload.UploadInfo;
 import me.desair.tus.server.upload.UploadLockingService;
+import me.desair.tus.server.upload.UploadType;
+import me.desair.tus.server.upload.codec.BinaryUploadInfoCodec;
 import me.desair.tus.server.util.Utils;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -123,6 +137,20 @@ public class DiskStorageServiceTest {
     assertTrue(Files.exists(getUploadInfoPath(info.getId())));
   }
 
+  @Test
+  public void createWithIdInUse() throws Exception {
+    UploadId usedId = new UploadId(UUID.randomUUID());
+    UploadId freeId = new UploadId(UUID.randomUUID());
+    when(idFactory.createId()).thenReturn(usedId, usedId, freeId);
+
+    UploadInfo first = storageService.create(new UploadInfo(), null);
+    UploadInfo second = storageService.create(new UploadInfo(), null);
+
+    assertThat(first.getId(), is(usedId));
+    assertThat(second.getId(), is(freeId));
+    assertTrue(Files.exists(getUploadInfoPath(freeId)));
+  }
+
   @Test
   public void getUploadInfoById() throws Exception {
     UploadInfo info = new UploadInfo();
@@ -145,6 +173,34 @@ public class DiskStorageServiceTest {
     assertThat(readInfo.getOwnerKey(), is(info.getOwnerKey()));
   }
 
+  @Test
+  public void getUploadInfoLegacySerialized() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setLength(10L);
+    info.setEncodedMetadata("Encoded Metadata");
+    info = storageService.create(info, "John");
+
+    // Simulate an upload that was saved by a previous version using Java serialization
+    Utils.writeSerializable(info, getUploadInfoPath(info.getId()));
+
+    UploadInfo readInfo = storageService.getUploadInfo(info.getId());
+    assertThat(readInfo, is(info));
+
+    // The next update migrates the upload info to the binary format
+    storageService.update(readInfo);
+    assertThat(Files.readAllBytes(getUploadInfoPath(info.getId()))[0], is((byte) 'T'));
+    assertThat(storageService.getUploadInfo(info.getId()), is(info));
+  }
+
+  @Test
+  public void getUploadInfoCorrupted() throws Exception {
+    UploadInfo info = storageService.create(new UploadInfo(), null);
+
+    Files.write(getUploadInfoPath(info.getId()), new byte[0]);
+
+    assertThat(storageService.getUploadInfo(info.getId()), is(nullValue()));
+  }
+
   @Test
   public void getUploadInfoByFakeId() throws Exception {
     UploadInfo readInfo = storageService.getUploadInfo(new UploadId(UUID.randomUUID()));
@@ -391,6 +447,310 @@ public class DiskStorageServiceTest {
         new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is("This is an upload"));
   }
 
+  @Test
+  public void appendDataOnly() throws Exception {
+    String content = "This is an upload with data only syncing";
+    storageService.setDurabilityPolicy(DurabilityPolicy.DATA_ONLY);
+
+    UploadInfo info = new UploadInfo();
+    info.setLength((long) content.getBytes().length);
+    info = storageService.create(info, null);
+
+    storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+
+    assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is(content));
+    assertThat(
+        storageService.getUploadInfo(info.getId()).getOffset(),
+        is((long) content.getBytes().length));
+  }
+
+  @Test
+  public void appendPeriodicPersistsDurableOffset() throws Exception {
+    String part1 = "This is part 1";
+    String part2 = "This is the second part of my upload";
+    storageService.setDurabilityPolicy(DurabilityPolicy.PERIODIC);
+    storageService.setPeriodicSync(3600000L, Long.MAX_VALUE);
+
+    try {
+      UploadInfo info = new UploadInfo();
+      info.setLength((long) (part1.getBytes().length + part2.getBytes().length));
+      info = storageService.create(info, null);
+
+      storageService.append(info, IOUtils.toInputStream(part1, StandardCharsets.UTF_8));
+      storageService.append(info, IOUtils.toInputStream(part2, StandardCharsets.UTF_8));
+
+      // The current offset is known by the storage service, but not persisted yet
+      assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(info.getLength()));
+      assertThat(readPersistedInfo(info.getId()).getOffset(), is(0L));
+
+      // Other updates also do not persist the offset
+      info.setEncodedMetadata("Encoded Metadata");
+      storageService.update(info);
+      assertThat(info.getOffset(), is(info.getLength()));
+      assertThat(readPersistedInfo(info.getId()).getOffset(), is(0L));
+      assertThat(readPersistedInfo(info.getId()).getEncodedMetadata(), is("Encoded Metadata"));
+
+      storageService.syncPendingData();
+
+      assertThat(readPersistedInfo(info.getId()).getOffset(), is(info.getLength()));
+      assertThat(readPersistedInfo(info.getId()).getEncodedMetadata(), is("Encoded Metadata"));
+      assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(info.getLength()));
+    } finally {
+      storageService.setDurabilityPolicy(DurabilityPolicy.ALWAYS);
+    }
+  }
+
+  @Test
+  public void removeLastNumberOfBytesPeriodic() throws Exception {
+    String content = "This is an upload that will be truncated";
+    storageService.setDurabilityPolicy(DurabilityPolicy.PERIODIC);
+    storageService.setPeriodicSync(3600000L, Long.MAX_VALUE);
+
+    try {
+      UploadInfo info = new UploadInfo();
+      info.setLength(50L);
+      info = storageService.create(info, null);
+
+      storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+      storageService.removeLastNumberOfBytes(info, 23);
+
+      assertThat(readPersistedInfo(info.getId()).getOffset(), is(17L));
+      assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(17L));
+
+      // Syncing afterwards should not increase the offset again
+      storageService.syncPendingData();
+      assertThat(readPersistedInfo(info.getId()).getOffset(), is(17L));
+    } finally {
+      storageService.setDurabilityPolicy(DurabilityPolicy.ALWAYS);
+    }
+  }
+
+  @Test
+  public void appendPeriodicDiscardsBytesAfterPersistedOffset() throws Exception {
+    String content = "This is the real content";
+    storageService.setDurabilityPolicy(DurabilityPolicy.PERIODIC);
+    storageService.setPeriodicSync(3600000L, Long.MAX_VALUE);
+
+    try {
+      UploadInfo info = new UploadInfo();
+      info.setLength((long) content.getBytes().length);
+      info = storageService.create(info, null);
+
+      // Simulate bytes that were written before a crash, but of which the offset was never
+      // persisted
+      Files.write(getUploadDataPath(info.getId()), "Lost bytes".getBytes(StandardCharsets.UTF_8));
+
+      info = storageService.getUploadInfo(info.getId());
+      storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+
+      assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is(content));
+      assertThat(
+          storageService.getUploadInfo(info.getId()).getOffset(),
+          is((long) content.getBytes().length));
+    } finally {
+      storageService.setDurabilityPolicy(DurabilityPolicy.ALWAYS);
+    }
+  }
+
+  @Test
+  public void appendNoneDiscardsBytesAfterPersistedOffset() throws Exception {
+    String content = "This is the real content";
+    storageService.setDurabilityPolicy(DurabilityPolicy.NONE);
+
+    UploadInfo info = new UploadInfo();
+    info.setLength((long) content.getBytes().length);
+    info = storageService.create(info, null);
+    Files.write(getUploadDataPath(info.getId()), "Lost bytes".getBytes(StandardCharsets.UTF_8));
+
+    info = storageService.getUploadInfo(info.getId());
+    storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+
+    assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is(content));
+  }
+
+  @Test
+  public void appendWithStaleOffsetKeepsAcknowledgedBytes() throws Exception {
+    String content = "These bytes were acknowledged";
+
+    UploadInfo info = new UploadInfo();
+    info.setLength(100L);
+    info = storageService.create(info, null);
+    UploadInfo staleInfo = storageService.getUploadInfo(info.getId());
+    storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+
+    try {
+      storageService.append(staleInfo, IOUtils.toInputStream("Other", StandardCharsets.UTF_8));
+      fail();
+    } catch (InvalidUploadOffsetException e) {
+      // With the ALWAYS policy a smaller offset means that the request is wrong
+    }
+
+    assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is(content));
+    assertThat(readPersistedInfo(info.getId()).getOffset(), is((long) content.getBytes().length));
+  }
+
+  @Test
+  public void appendPeriodicWithStaleOffsetKeepsAcknowledgedBytes() throws Exception {
+    String content = "These bytes were acknowledged";
+    storageService.setDurabilityPolicy(DurabilityPolicy.PERIODIC);
+    storageService.setPeriodicSync(3600000L, Long.MAX_VALUE);
+
+    try {
+      UploadInfo info = new UploadInfo();
+      info.setLength(100L);
+      info = storageService.create(info, null);
+      UploadInfo staleInfo = storageService.getUploadInfo(info.getId());
+      storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+
+      // The bytes are not durable yet, but they were acknowledged with the new offset
+      try {
+        storageService.append(staleInfo, IOUtils.toInputStream("Other", StandardCharsets.UTF_8));
+        fail();
+      } catch (InvalidUploadOffsetException e) {
+        // Expected
+      }
+
+      assertThat(new String(Files.readAllBytes(getUploadDataPath(info.getId()))), is(content));
+      assertThat(
+          storageService.getUploadInfo(info.getId()).getOffset(),
+          is((long) content.getBytes().length));
+    } finally {
+      storageService.setDurabilityPolicy(DurabilityPolicy.ALWAYS);
+    }
+  }
+
+  @Test
+  public void closeSyncsPendingData() throws Exception {
+    String content = "This is an upload";
+    Set<Thread> threadsBefore = getPeriodicDataSyncThreads();
+    storageService.setDurabilityPolicy(DurabilityPolicy.PERIODIC);
+    storageService.setPeriodicSync(3600000L, Long.MAX_VALUE);
+
+    try {
+      UploadInfo info = new UploadInfo();
+      info.setLength(50L);
+      info = storageService.create(info, null);
+      storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+      assertThat(readPersistedInfo(info.getId()).getOffset(), is(0L));
+
+      storageService.close();
+
+      assertThat(readPersistedInfo(info.getId()).getOffset(), is((long) content.getBytes().length));
+      Set<Thread> threads = getPeriodicDataSyncThreads();
+      threads.removeAll(threadsBefore);
+      for (Thread thread : threads) {
+        // The thread can still be exiting right after the executor terminated
+        thread.join(10000);
+        assertThat(thread.isAlive(), is(false));
+      }
+    } finally {
+      storageService.setDurabilityPolicy(DurabilityPolicy.ALWAYS);
+    }
+  }
+
+  @Test
+  public void getUploadInfoNoneReducesOffsetToStoredBytes() throws Exception {
+    String content = "This is an upload";
+    storageService.setDurabilityPolicy(DurabilityPolicy.NONE);
+
+    UploadInfo info = new UploadInfo();
+    info.setLength(50L);
+    info = storageService.create(info, null);
+    storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+
+    // Simulate that the last bytes were lost in a crash
+    try (FileChannel file = FileChannel.open(getUploadDataPath(info.getId()), WRITE)) {
+      file.truncate(7);
+    }
+
+    assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(7L));
+  }
+
+  @Test
+  public void appendUploadChecksum() throws Exception {
+    String part1 = "This is part 1";
+    String part2 = "This is the second part of my upload";
+    storageService.setUploadChecksumAlgorithm(ChecksumAlgorithm.SHA256);
+
+    UploadInfo info = new UploadInfo();
+    info.setLength((long) (part1.getBytes().length + part2.getBytes().length));
+    info = storageService.create(info, null);
+
+    storageService.append(info, IOUtils.toInputStream(part1, StandardCharsets.UTF_8));
+    info = storageService.getUploadInfo(info.getId());
+    assertThat(info.getChecksumState().getOffset(), is((long) part1.getBytes().length));
+    assertThat(info.getUploadChecksum(), is(nullValue()));
+
+    storageService.append(info, IOUtils.toInputStream(part2, StandardCharsets.UTF_8));
+
+    assertThat(
+        storageService.getUploadInfo(info.getId()).getUploadChecksum(),
+        is("sha256 " + Base64.encodeBase64String(DigestUtils.sha256(part1 + part2))));
+  }
+
+  @Test
+  public void appendUploadChecksumRecalculatesMissingState() throws Exception {
+    String part1 = "This is part 1";
+    String part2 = "This is the second part of my upload";
+
+    UploadInfo info = new UploadInfo();
+    info.setLength((long) (part1.getBytes().length + part2.getBytes().length));
+    info = storageService.create(info, null);
+    storageService.append(info, IOUtils.toInputStream(part1, StandardCharsets.UTF_8));
+    assertThat(info.getChecksumState(), is(nullValue()));
+
+    storageService.setUploadChecksumAlgorithm(ChecksumAlgorithm.XXH64);
+    storageService.append(info, IOUtils.toInputStream(part2, StandardCharsets.UTF_8));
+
+    ChecksumCalculator calculator = ChecksumAlgorithm.XXH64.getChecksumCalculator();
+    byte[] content = (part1 + part2).getBytes(StandardCharsets.UTF_8);
+    calculator.update(content, 0, content.length);
+    assertThat(
+        storageService.getUploadInfo(info.getId()).getUploadChecksum(),
+        is("xxh64 " + Base64.encodeBase64String(calculator.digest())));
+  }
+
+  @Test
+  public void removeLastNumberOfBytesRollsBackUploadChecksum() throws Exception {
+    String part1 = "This is part 1";
+    String part2 = "This is the second part of my upload";
+    storageService.setUploadChecksumAlgorithm(ChecksumAlgorithm.SHA256);
+
+    UploadInfo info = new UploadInfo();
+    info.setLength((long) (part1.getBytes().length + part2.getBytes().length));
+    info = storageService.create(info, null);
+
+    storageService.append(info, IOUtils.toInputStream(part1, StandardCharsets.UTF_8));
+    UploadChecksumState stateAfterPart1 = info.getChecksumState();
+
+    storageService.append(
+        info, IOUtils.toInputStream("Invalid second part", StandardCharsets.UTF_8));
+    storageService.removeLastNumberOfBytes(info, "Invalid second part".getBytes().length);
+
+    info = storageService.getUploadInfo(info.getId());
+    assertThat(info.getChecksumState(), is(stateAfterPart1));
+
+    storageService.append(info, IOUtils.toInputStream(part2, StandardCharsets.UTF_8));
+    assertThat(
+        storageService.getUploadInfo(info.getId()).getUploadChecksum(),
+        is("sha256 " + Base64.encodeBase64String(DigestUtils.sha256(part1 + part2))));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setUploadChecksumAlgorithmNotResumable() throws Exception {
+    storageService.setUploadChecksumAlgorithm(ChecksumAlgorithm.MD5);
+  }
+
+  private static Set<Thread> getPeriodicDataSyncThreads() {
+    return Thread.getAllStackTraces().keySet().stream()
+        .filter(thread -> thread.getName().equals("tus-periodic-data-sync"))
+        .collect(Collectors.toSet());
+  }
+
+  private UploadInfo readPersistedInfo(UploadId id) throws IOException {
+    return new BinaryUploadInfoCodec().decode(Utils.readFile(getUploadInfoPath(id)));
+  }
+
   @Test
   public void getUploadedBytes() throws Exception {
     String content = "This is the content of my upload";
@@ -438,6 +798,66 @@ public class DiskStorageServiceTest {
     }
   }
 
+  @Test
+  public void copyUploadedByteRange() throws Exception {
+    String content = "This is the content of my upload";
+
+    UploadInfo info = new UploadInfo();
+    info.setLength((long) content.getBytes().length);
+    info = storageService.create(info, null);
+    storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    storageService.copyUploadTo(info, 8, 11, output);
+    storageService.copyUploadTo(info, 0, 4, output);
+
+    assertThat(new String(output.toByteArray(), StandardCharsets.UTF_8), is("the contentThis"));
+  }
+
+  @Test
+  public void copyConcatenatedByteRange() throws Exception {
+    when(idFactory.createId()).then(invocation -> new UploadId(UUID.randomUUID()));
+
+    UploadInfo part1 = new UploadInfo();
+    part1.setLength(6L);
+    part1 = storageService.create(part1, null);
+    storageService.append(part1, IOUtils.toInputStream("Part 1", StandardCharsets.UTF_8));
+
+    UploadInfo part2 = new UploadInfo();
+    part2.setLength(11L);
+    part2 = storageService.create(part2, null);
+    storageService.append(part2, IOUtils.toInputStream(" and part 2", StandardCharsets.UTF_8));
+
+    UploadInfo info = new UploadInfo();
+    info.setUploadType(UploadType.CONCATENATED);
+    info.setConcatenationPartIds(
+        Arrays.asList(UPLOAD_URL + "/" + part1.getId(), UPLOAD_URL + "/" + part2.getId()));
+    info.setLength(17L);
+    info.setOffset(17L);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    storageService.copyUploadTo(info, 4, 7, output);
+    assertThat(new String(output.toByteArray(), StandardCharsets.UTF_8), is(" 1 and "));
+
+    output.reset();
+    storageService.copyUploadTo(info, 11, 100, output);
+    assertThat(new String(output.toByteArray(), StandardCharsets.UTF_8), is("part 2"));
+  }
+
+  @Test
+  public void getUploadedBytesPath() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setLength(6L);
+    info = storageService.create(info, null);
+    assertThat(storageService.getUploadedBytesPath(info), is(nullValue()));
+
+    storageService.append(info, IOUtils.toInputStream("Part 1", StandardCharsets.UTF_8));
+    assertThat(storageService.getUploadedBytesPath(info), is(getUploadDataPath(info.getId())));
+
+    info.setUploadType(UploadType.CONCATENATED);
+    assertThat(storageService.getUploadedBytesPath(info), is(nullValue()));
+  }
+
   @Test
   public void terminateCompletedUpload() throws Exception {
     String content = "This is the content of my upload";
@@ -506,6 +926,236 @@ public class DiskStorageServiceTest {
     assertFalse(Files.exists(getStoragePath(info.getId())));
   }
 
+  @Test
+  public void cleanupRemovesTemporaryFilesOfCrashedWrites() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setLength(10L);
+    info = storageService.create(info, null);
+
+    // A write before the crash left a temporary info file behind, a concurrent write is running
+    Path crashed = getStoragePath(info.getId()).resolve("info." + UUID.randomUUID() + ".tmp");
+    Files.createFile(crashed);
+    Files.setLastModifiedTime(
+        crashed, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+    Path running = getStoragePath(info.getId()).resolve("info." + UUID.randomUUID() + ".tmp");
+    Files.createFile(running);
+    Files.setLastModifiedTime(
+        running, FileTime.fromMillis(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1)));
+
+    storageService.getExpiredUploads(Integer.MAX_VALUE);
+
+    assertThat(Files.exists(crashed), is(false));
+    assertThat(Files.exists(running), is(true));
+    assertThat(Files.exists(getUploadInfoPath(info.getId())), is(true));
+  }
+
+  @Test
+  public void cleanupExpiredUploadsUsingExpirationIndex() throws Exception {
+    when(uploadLockingService.isLocked(any(UploadId.class))).thenReturn(false);
+    storageService.cleanupExpiredUploads(uploadLockingService);
+    assertTrue(Files.exists(storagePath.resolve("expirations").resolve(".complete")));
+
+    UploadInfo expired = new UploadInfo();
+    expired.setLength(10L);
+    expired.updateExpiration(100L);
+    expired = storageService.create(expired, null);
+    assertTrue(Files.exists(getExpirationMarkerPath(expired)));
+
+    when(idFactory.createId()).thenReturn(new UploadId(UUID.randomUUID()));
+    UploadInfo active = new UploadInfo();
+    active.setLength(10L);
+    active.updateExpiration(100L);
+    active = storageService.create(active, null);
+    Path staleMarker = getExpirationMarkerPath(active);
+
+    // Extending the expiration adds the upload to a later bucket
+    active.updateExpiration(60L * 60 * 1000);
+    storageService.update(active);
+    assertTrue(Files.exists(getExpirationMarkerPath(active)));
+
+    Utils.sleep(500L);
+    storageService.cleanupExpiredUploads(uploadLockingService);
+
+    assertFalse(Files.exists(getStoragePath(expired.getId())));
+    assertFalse(Files.exists(getExpirationMarkerPath(expired)));
+
+    // The marker in the old bucket is removed, but the upload itself is kept
+    assertTrue(Files.exists(getStoragePath(active.getId())));
+    assertFalse(Files.exists(staleMarker));
+    assertTrue(Files.exists(getExpirationMarkerPath(active)));
+
+    storageService.terminateUpload(active);
+    assertFalse(Files.exists(getExpirationMarkerPath(active)));
+  }
+
+  @Test
+  public void cleanupExpiredUploadsKeepsLockedUploadsIndexed() throws Exception {
+    when(uploadLockingService.isLocked(any(UploadId.class))).thenReturn(false);
+    storageService.cleanupExpiredUploads(uploadLockingService);
+
+    UploadInfo info = new UploadInfo();
+    info.setLength(10L);
+    info.updateExpiration(100L);
+    info = storageService.create(info, null);
+
+    Utils.sleep(500L);
+    when(uploadLockingService.isLocked(info.getId())).thenReturn(true);
+    storageService.cleanupExpiredUploads(uploadLockingService);
+    assertTrue(Files.exists(getStoragePath(info.getId())));
+    assertTrue(Files.exists(getExpirationMarkerPath(info)));
+
+    // The next cleanup deletes the upload once it is unlocked
+    when(uploadLockingService.isLocked(info.getId())).thenReturn(false);
+    storageService.cleanupExpiredUploads(uploadLockingService);
+    assertFalse(Files.exists(getStoragePath(info.getId())));
+    assertFalse(Files.exists(getExpirationMarkerPath(info)));
+  }
+
+  @Test
+  public void cleanupExpiredUploadsIndexesExistingUploads() throws Exception {
+    when(uploadLockingService.isLocked(any(UploadId.class))).thenReturn(false);
+    storageService.cleanupExpiredUploads(uploadLockingService);
+
+    UploadInfo expired = new UploadInfo();
+    expired.setLength(10L);
+    expired.updateExpiration(100L);
+    expired = storageService.create(expired, null);
+
+    when(idFactory.createId()).thenReturn(new UploadId(UUID.randomUUID()));
+    UploadInfo active = new UploadInfo();
+    active.setLength(10L);
+    active.updateExpiration(60L * 60 * 1000);
+    active = storageService.create(active, null);
+
+    // Simulate uploads that were created before the expiration index existed
+    FileUtils.deleteDirectory(storagePath.resolve("expirations").toFile());
+    Utils.sleep(500L);
+
+    storageService.cleanupExpiredUploads(uploadLockingService);
+
+    assertFalse(Files.exists(getStoragePath(expired.getId())));
+    assertTrue(Files.exists(getStoragePath(active.getId())));
+    assertTrue(Files.exists(getExpirationMarkerPath(active)));
+    assertTrue(Files.exists(storagePath.resolve("expirations").resolve(".complete")));
+
+    storageService.terminateUpload(active);
+  }
+
+  @Test
+  public void createAndReadWithSharding() throws Exception {
+    storageService.setShardingLevels(2);
+    when(uploadLockingService.isLocked(any(UploadId.class))).thenReturn(false);
+
+    UploadInfo info = new UploadInfo();
+    info.setLength(10L);
+    info.updateExpiration(100L);
+    info = storageService.create(info, null);
+
+    Path uploadPath = storageService.getPathInStorageDirectory(info.getId());
+    Path uploadsPath = storagePath.resolve("uploads");
+    assertThat(uploadsPath.relativize(uploadPath).getNameCount(), is(3));
+    assertTrue(
+        AbstractDiskBasedService.isShardName(uploadPath.getParent().getFileName().toString()));
+    assertTrue(Files.exists(uploadPath.resolve("info")));
+    assertFalse(Files.exists(getStoragePath(info.getId())));
+
+    info = storageService.append(info, IOUtils.toInputStream("0123456789", StandardCharsets.UTF_8));
+    assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(10L));
+
+    // The index is rebuilt from the sharded layout
+    FileUtils.deleteDirectory(storagePath.resolve("expirations").toFile());
+    Utils.sleep(500L);
+    storageService.cleanupExpiredUploads(uploadLockingService);
+    assertFalse(Files.exists(uploadPath));
+  }
+
+  @Test
+  public void readFlatUploadWithSharding() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setLength(10L);
+    info = storageService.create(info, null);
+    assertTrue(Files.exists(getUploadInfoPath(info.getId())));
+
+    // Uploads that are not migrated yet can still be used
+    storageService.setShardingLevels(2);
+    assertThat(storageService.getUploadInfo(info.getId()), is(info));
+    info = storageService.append(info, IOUtils.toInputStream("0123456789", StandardCharsets.UTF_8));
+    assertThat(info.getOffset(), is(10L));
+    assertThat(storageService.getUploadInfo(info.getId()).getOffset(), is(10L));
+
+    storageService.terminateUpload(info);
+    assertFalse(Files.exists(getStoragePath(info.getId())));
+    assertThat(storageService.getUploadInfo(info.getId()), nullValue());
+  }
+
+  @Test
+  public void getUploadInfoVersion() throws Exception {
+    UploadInfo info = new UploadInfo();
+    info.setLength(10L);
+    info = storageService.create(info, null);
+
+    String version = storageService.getUploadInfoVersion(info.getId());
+    assertThat(version, notNullValue());
+    assertThat(storageService.getUploadInfoVersion(info.getId()), is(version));
+
+    // Every write of the upload info results in a new version, even if the size does not change
+    storageService.update(info);
+    String updatedVersion = storageService.getUploadInfoVersion(info.getId());
+    assertThat(updatedVersion, notNullValue());
+    assertFalse(version.equals(updatedVersion));
+
+    storageService.terminateUpload(info);
+    assertThat(storageService.getUploadInfoVersion(info.getId()), nullValue());
+  }
+
+  @Test
+  public void mappedUploadInfoStore() throws Exception {
+    Path path = storagePath.resolve("mapped-" + UUID.randomUUID());
+    DiskStorageService service = new DiskStorageService(idFactory, path.toString());
+    UploadInfo info = new UploadInfo();
+    info.setLength(10L);
+    info.setEncodedMetadata("Encoded Metadata");
+    info = service.create(info, "John");
+    Path infoPath = path.resolve("uploads").resolve(info.getId().toString()).resolve("info");
+    assertTrue(Files.exists(infoPath));
+
+    try (MappedUploadInfoStore store = new MappedUploadInfoStore(path.resolve("info.store"))) {
+      // The info files of existing uploads are moved into the new store
+      service.setUploadInfoStore(store);
+      assertFalse(Files.exists(infoPath));
+      assertThat(store.size(), is(1));
+      assertThat(service.getUploadInfo(info.getId()), is(info));
+
+      String version = service.getUploadInfoVersion(info.getId());
+      service.append(info, IOUtils.toInputStream("This is", StandardCharsets.UTF_8));
+      assertThat(service.getUploadInfo(info.getId()).getOffset(), is(7L));
+      assertThat(service.getUploadInfo(info.getId()).getEncodedMetadata(), is("Encoded Metadata"));
+      assertFalse(version.equals(service.getUploadInfoVersion(info.getId())));
+      assertFalse(Files.exists(infoPath));
+
+      service.terminateUpload(info);
+      assertThat(service.getUploadInfo(info.getId()), is(nullValue()));
+      assertThat(service.getUploadInfoVersion(info.getId()), is(nullValue()));
+      assertThat(store.size(), is(0));
+
+      try {
+        service.update(info);
+        fail();
+      } catch (UploadNotFoundException e) {
+        assertThat(store.size(), is(0));
+      }
+    }
+  }
+
+  private Path getExpirationMarkerPath(UploadInfo info) {
+    long bucketDuration = ExpirationIndex.DEFAULT_EXPIRATION_BUCKET_DURATION;
+    long bucket = info.getExpirationTimestamp() / bucketDuration * bucketDuration;
+    return storagePath
+        .resolve("expirations")
+        .resolve(Long.toString(bucket))
+        .resolve(info.getId().toString());
+  }
+
   private Path getUploadInfoPath(UploadId id) {
     return getStoragePath(id).resolve("info");
   }
@@ -524,7 +1174,8 @@ public class DiskStorageServiceTest {
     Path nonExistentPath = Paths.get("target", "tus", "non-existent-" + UUID.randomUUID());
     assertFalse(Files.exists(nonExistentPath));
 
-    DiskStorageService newStorageService = new DiskStorageService(idFactory, nonExistentPath.toString());
+    DiskStorageService newStorageService =
+        new DiskStorageService(idFactory, nonExistentPath.toString());
 
     // This should not throw an exception even if the directory does not exist
     newStorageService.cleanupExpiredUploads(uploadLockingService);
@@ -0,0 +1,294 @@
+package me.desair.tus.server.upload.disk;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.startsWith;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadInfo;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedUploadInfoStoreTest {
+
+  private Path storagePath;
+  private Path storePath;
+  private MappedUploadInfoStore store;
+
+  @Before
+  public void setUp() throws IOException {
+    storagePath = Paths.get("target", "tus", "mapped-store").toAbsolutePath();
+    Files.createDirectories(storagePath);
+    storePath = storagePath.resolve("info.store");
+    store = new MappedUploadInfoStore(storePath);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    store.close();
+    FileUtils.deleteDirectory(storagePath.toFile());
+  }
+
+  @Test
+  public void writeAndRead() throws Exception {
+    UploadInfo info = newUploadInfo("Encoded Metadata");
+    store.write(info);
+
+    UploadInfo readInfo = store.read(info.getId());
+    assertThat(readInfo, is(info));
+    assertThat(readInfo.getOffset(), is(2L));
+    assertThat(readInfo.getEncodedMetadata(), is("Encoded Metadata"));
+    assertThat(store.size(), is(1));
+
+    assertThat(store.read(new UploadId(UUID.randomUUID())), is(nullValue()));
+    assertThat(store.getVersion(new UploadId(UUID.randomUUID())), is(nullValue()));
+  }
+
+  @Test
+  public void writeOffsetInPlace() throws Exception {
+    UploadInfo info = newUploadInfo("Encoded Metadata");
+    store.write(info);
+    String version = store.getVersion(info.getId());
+
+    store.writeOffset(info.getId(), 8L);
+    assertThat(store.read(info.getId()).getOffset(), is(8L));
+    assertThat(store.getVersion(info.getId()), is(not(version)));
+
+    // Writing the same upload info with another offset only changes the offset
+    info.setOffset(10L);
+    store.write(info);
+    assertThat(store.read(info.getId()), is(info));
+    assertThat(store.read(info.getId()).getOffset(), is(10L));
+
+    // Nothing happens for an unknown upload
+    store.writeOffset(new UploadId(UUID.randomUUID()), 3L);
+    assertThat(store.size(), is(1));
+  }
+
+  @Test
+  public void overflow() throws Exception {
+    String metadata = StringUtils.repeat("metadata ", 1000);
+    UploadInfo info = newUploadInfo(metadata);
+    store.write(info);
+    assertThat(store.read(info.getId()).getEncodedMetadata(), is(metadata));
+
+    info.setEncodedMetadata("short");
+    store.write(info);
+    assertThat(store.read(info.getId()).getEncodedMetadata(), is("short"));
+
+    info.setEncodedMetadata(metadata + "2");
+    store.write(info);
+    store.writeOffset(info.getId(), 9L);
+    assertThat(store.read(info.getId()).getEncodedMetadata(), is(metadata + "2"));
+    assertThat(store.read(info.getId()).getOffset(), is(9L));
+
+    store.close();
+    store = new MappedUploadInfoStore(storePath);
+    assertThat(store.read(info.getId()).getEncodedMetadata(), is(metadata + "2"));
+    assertThat(store.size(), is(1));
+  }
+
+  @Test
+  public void removeAndReuseSlot() throws Exception {
+    UploadInfo info = newUploadInfo("first");
+    store.write(info);
+    String version = store.getVersion(info.getId());
+
+    store.remove(info.getId());
+    assertThat(store.read(info.getId()), is(nullValue()));
+    assertThat(store.getVersion(info.getId()), is(nullValue()));
+    assertThat(store.size(), is(0));
+    store.remove(info.getId());
+
+    UploadInfo other = newUploadInfo("second");
+    store.write(other);
+    String otherVersion = store.getVersion(other.getId());
+    assertThat(otherVersion, startsWith(StringUtils.substringBefore(version, "-") + "-"));
+    assertThat(otherVersion, is(not(version)));
+    assertThat(store.read(other.getId()), is(other));
+    assertThat(store.read(info.getId()), is(nullValue()));
+  }
+
+  @Test
+  public void reopen() throws Exception {
+    List<UploadInfo> uploads = new ArrayList<>();
+    for (int i = 0; i < MappedUploadInfoStore.SLOTS_PER_SEGMENT + 10; i++) {
+      UploadInfo info = newUploadInfo("metadata " + i);
+      store.write(info);
+      uploads.add(info);
+    }
+    store.remove(uploads.remove(0).getId());
+    store.setSyncOnWrite(true);
+    store.writeOffset(uploads.get(0).getId(), 5L);
+    uploads.get(0).setOffset(5L);
+    store.close();
+
+    store = new MappedUploadInfoStore(storePath);
+    assertThat(store.size(), is(uploads.size()));
+    for (UploadInfo info : uploads) {
+      assertThat(store.read(info.getId()), is(info));
+      assertThat(store.read(info.getId()).getOffset(), is(info.getOffset()));
+    }
+
+    // The free slot is reused
+    store.write(newUploadInfo("new"));
+    assertThat(Files.size(storePath), is(2 * segmentSize()));
+  }
+
+  @Test
+  public void discardIncompleteRecord() throws Exception {
+    UploadInfo info = newUploadInfo("Encoded Metadata");
+    store.write(info);
+    UploadInfo other = newUploadInfo("Other Metadata");
+    store.write(other);
+    store.close();
+
+    try (FileChannel channel = FileChannel.open(storePath, READ, WRITE)) {
+      // The application stopped while the first record was being written
+      corruptSlot(channel, 1);
+      // and while the offset of the second record was being written
+      ByteBuffer sequence = ByteBuffer.allocate(4).putInt(0, 7);
+      channel.write(sequence, 2L * MappedUploadInfoStore.SLOT_SIZE);
+    }
+
+    store = new MappedUploadInfoStore(storePath);
+    assertThat(store.read(info.getId()), is(nullValue()));
+    assertThat(store.read(other.getId()), is(other));
+    assertThat(store.size(), is(1));
+
+    store.write(info);
+    assertThat(store.read(info.getId()), is(info));
+  }
+
+  @Test
+  public void replaceRecordKeepsPreviousRecord() throws Exception {
+    UploadInfo info = newUploadInfo("Encoded Metadata");
+    store.write(info);
+    store.close();
+    ByteBuffer previousRecord = ByteBuffer.allocate(MappedUploadInfoStore.SLOT_SIZE);
+    try (FileChannel channel = FileChannel.open(storePath, READ)) {
+      channel.read(previousRecord, MappedUploadInfoStore.SLOT_SIZE);
+    }
+
+    store = new MappedUploadInfoStore(storePath);
+    UploadInfo replaced = newUploadInfo("Replaced Metadata");
+    replaced.setId(info.getId());
+    store.write(replaced);
+    store.close();
+
+    try (FileChannel channel = FileChannel.open(storePath, READ, WRITE)) {
+      // The application stopped before the previous record was freed
+      previousRecord.flip();
+      channel.write(previousRecord, MappedUploadInfoStore.SLOT_SIZE);
+    }
+
+    store = new MappedUploadInfoStore(storePath);
+    assertThat(store.read(info.getId()).getEncodedMetadata(), is("Replaced Metadata"));
+    assertThat(store.size(), is(1));
+    store.close();
+
+    try (FileChannel channel = FileChannel.open(storePath, READ, WRITE)) {
+      // The application stopped while the new record was being written
+      previousRecord.flip();
+      channel.write(previousRecord, MappedUploadInfoStore.SLOT_SIZE);
+      corruptSlot(channel, 2);
+    }
+
+    store = new MappedUploadInfoStore(storePath);
+    assertThat(store.read(info.getId()).getEncodedMetadata(), is("Encoded Metadata"));
+    assertThat(store.size(), is(1));
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void invalidFile() throws Exception {
+    Path otherPath = storagePath.resolve("other.store");
+    Files.write(otherPath, new byte[(int) segmentSize()]);
+    new MappedUploadInfoStore(otherPath).close();
+  }
+
+  @Test
+  public void concurrentReadsAndWrites() throws Exception {
+    UploadInfo info = newUploadInfo(StringUtils.repeat("a", 2000));
+    store.write(info);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int writer = 0; writer < 2; writer++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 2000; i++) {
+                    UploadInfo copy =
+                        newUploadInfo(StringUtils.repeat(i % 2 == 0 ? "a" : "b", 2000));
+                    copy.setId(info.getId());
+                    copy.setOffset((long) i);
+                    store.write(copy);
+                    store.writeOffset(info.getId(), i + 1L);
+                  }
+                  return null;
+                }));
+      }
+      for (int reader = 0; reader < 2; reader++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 5000; i++) {
+                    String metadata = store.read(info.getId()).getEncodedMetadata();
+                    assertThat(StringUtils.containsOnly(metadata, metadata.charAt(0)), is(true));
+                    assertThat(metadata.length(), is(2000));
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get(1, TimeUnit.MINUTES);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void corruptSlot(FileChannel channel, int slot) throws IOException {
+    ByteBuffer data = ByteBuffer.allocate(1);
+    long position = (long) slot * MappedUploadInfoStore.SLOT_SIZE + 100;
+    channel.read(data, position);
+    data.put(0, (byte) (data.get(0) ^ 0xFF));
+    data.rewind();
+    channel.write(data, position);
+  }
+
+  private static long segmentSize() {
+    return (long) MappedUploadInfoStore.SLOT_SIZE * MappedUploadInfoStore.SLOTS_PER_SEGMENT;
+  }
+
+  private static UploadInfo newUploadInfo(String metadata) {
+    UploadInfo info = new UploadInfo();
+    info.setId(new UploadId(UUID.randomUUID()));
+    info.setOffset(2L);
+    info.setLength(10L);
+    info.setEncodedMetadata(metadata);
+    return info;
+  }
+}
@@ -0,0 +1,288 @@
+package me.desair.tus.server.upload.disk;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import me.desair.tus.server.exception.UploadAlreadyLockedException;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadIdFactory;
+import me.desair.tus.server.upload.UploadInfo;
+import me.desair.tus.server.upload.UploadLock;
+import me.desair.tus.server.upload.UploadLockingService;
+import me.desair.tus.server.upload.UploadType;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class PhysicalConcatenationServiceTest {
+
+  private static final String UPLOAD_URL = "/upload/test";
+
+  @Mock private UploadIdFactory idFactory;
+  @Mock private UploadLockingService lockingService;
+
+  private Path storagePath;
+  private DiskStorageService storageService;
+  private PhysicalConcatenationService concatenationService;
+  private ExecutorService copyExecutor;
+
+  @Before
+  public void setUp() throws IOException {
+    storagePath = Paths.get("target", "tus", "physical-concatenation").toAbsolutePath();
+    Files.createDirectories(storagePath);
+
+    when(idFactory.getUploadUri()).thenReturn(UPLOAD_URL);
+    when(idFactory.createId()).then(invocation -> new UploadId(UUID.randomUUID()));
+    when(idFactory.readUploadId(nullable(String.class)))
+        .then(
+            invocation ->
+                new UploadId(
+                    StringUtils.substringAfter(
+                        invocation.getArguments()[0].toString(), UPLOAD_URL + "/")));
+
+    storageService = new DiskStorageService(idFactory, storagePath.toString());
+    copyExecutor = Executors.newFixedThreadPool(4);
+    concatenationService = new PhysicalConcatenationService(storageService);
+    concatenationService.setCopyExecutor(copyExecutor);
+    storageService.setUploadConcatenationService(concatenationService);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    copyExecutor.shutdownNow();
+    FileUtils.deleteDirectory(storagePath.toFile());
+  }
+
+  @Test
+  public void mergeCopiesPartialUploads() throws Exception {
+    assertThat(concatenationService.isRemovePartialUploads(), is(false));
+    concatenationService.setRemovePartialUploads(true);
+    UploadInfo part1 = createPartialUpload("This is the first part ", true);
+    UploadInfo part2 = createPartialUpload("and this is the second part.", true);
+    UploadInfo upload = createConcatenatedUpload(part1, part2);
+
+    concatenationService.merge(upload);
+
+    assertThat(upload.getOffset(), is(51L));
+    assertThat(upload.getLength(), is(51L));
+    assertThat(concatenationService.isMerged(upload), is(true));
+    Path bytesPath = storageService.getUploadedBytesPath(upload);
+    assertThat(bytesPath, is(notNullValue()));
+    assertThat(
+        Files.readString(bytesPath), is("This is the first part and this is the second part."));
+
+    // The partial uploads are removed
+    assertThat(storageService.getUploadInfo(part1.getId()), is(nullValue()));
+    assertThat(storageService.getUploadInfo(part2.getId()), is(nullValue()));
+    assertThat(concatenationService.getPartialUploads(upload), is(Arrays.asList(upload)));
+
+    // The concatenated upload can still be read and merged again
+    UploadInfo readUpload = storageService.getUploadInfo(upload.getId());
+    concatenationService.merge(readUpload);
+    try (InputStream bytes = storageService.getUploadedBytes(upload.getId())) {
+      assertThat(
+          IOUtils.toString(bytes, StandardCharsets.UTF_8),
+          is("This is the first part and this is the second part."));
+    }
+    ByteArrayOutputStream range = new ByteArrayOutputStream();
+    storageService.copyUploadTo(readUpload, 18, 9, range);
+    assertThat(range.toString(StandardCharsets.UTF_8), is("part and "));
+  }
+
+  @Test
+  public void mergeWithIncompletePartialUpload() throws Exception {
+    UploadInfo part1 = createPartialUpload("This is the first part ", true);
+    UploadInfo part2 = createPartialUpload("and this is the second part.", false);
+    UploadInfo upload = createConcatenatedUpload(part1, part2);
+
+    concatenationService.merge(upload);
+
+    assertThat(upload.getLength(), is(69L));
+    assertThat(upload.isUploadInProgress(), is(true));
+    assertThat(concatenationService.isMerged(upload), is(false));
+    assertThat(storageService.getUploadedBytesPath(upload), is(nullValue()));
+    assertThat(concatenationService.getConcatenatedBytes(upload), is(nullValue()));
+    assertThat(storageService.getUploadInfo(part1.getId()), is(notNullValue()));
+
+    // Complete the second partial upload
+    storageService.append(
+        part2, IOUtils.toInputStream(" Finally complete.", StandardCharsets.UTF_8));
+    try (InputStream bytes = concatenationService.getConcatenatedBytes(upload)) {
+      assertThat(
+          IOUtils.toString(bytes, StandardCharsets.UTF_8),
+          is("This is the first part and this is the second part. Finally complete."));
+    }
+    assertThat(concatenationService.isMerged(upload), is(true));
+  }
+
+  @Test
+  public void mergeInChunksAndKeepPartialUploads() throws Exception {
+    concatenationService.setCopyChunkSize(7);
+
+    List<UploadInfo> parts = new ArrayList<>();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      String content = "Content of partial upload number " + i + ". ";
+      parts.add(createPartialUpload(content, true));
+      expected.append(content);
+    }
+    UploadInfo upload = createConcatenatedUpload(parts.toArray(new UploadInfo[0]));
+
+    concatenationService.merge(upload);
+
+    assertThat(
+        Files.readString(storageService.getUploadedBytesPath(upload)), is(expected.toString()));
+    for (UploadInfo part : parts) {
+      assertThat(storageService.getUploadInfo(part.getId()), is(notNullValue()));
+    }
+  }
+
+  @Test
+  public void mergeVirtualConcatenatedUpload() throws Exception {
+    UploadInfo part1 = createPartialUpload("Completed before ", true);
+    UploadInfo part2 = createPartialUpload("the physical concatenation.", true);
+    UploadInfo upload = createConcatenatedUpload(part1, part2);
+    // A concatenated upload that was completed by the virtual concatenation
+    upload.setLength(44L);
+    upload.setOffset(44L);
+    storageService.update(upload);
+    assertTrue(Files.size(storageService.getBytesPath(upload.getId())) == 0);
+    assertThat(concatenationService.isMerged(upload), is(false));
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    storageService.copyUploadTo(upload, output);
+
+    assertThat(
+        output.toString(StandardCharsets.UTF_8),
+        is("Completed before the physical concatenation."));
+    assertThat(concatenationService.isMerged(upload), is(true));
+  }
+
+  @Test
+  public void mergeWithLockedPartialUpload() throws Exception {
+    concatenationService.setRemovePartialUploads(true);
+    UploadInfo part1 = createPartialUpload("This is the first part ", true);
+    UploadInfo part2 = createPartialUpload("and this is the second part.", true);
+    UploadInfo upload = createConcatenatedUpload(part1, part2);
+
+    DiskLockingService lockingService = new DiskLockingService(idFactory, storagePath.toString());
+    try (UploadLock lock = lockingService.lockUploadByUri(UPLOAD_URL + "/" + part2.getId())) {
+      concatenationService.merge(upload);
+
+      // The upload is complete, but it is served virtually until the partial uploads are unlocked
+      assertThat(upload.isUploadInProgress(), is(false));
+      assertThat(concatenationService.isMerged(upload), is(false));
+      assertThat(storageService.getUploadInfo(part1.getId()), is(notNullValue()));
+      assertThat(lockingService.isLocked(part1.getId()), is(false));
+      try (InputStream bytes = concatenationService.getConcatenatedBytes(upload)) {
+        assertThat(
+            IOUtils.toString(bytes, StandardCharsets.UTF_8),
+            is("This is the first part and this is the second part."));
+      }
+    }
+
+    concatenationService.merge(upload);
+
+    assertThat(concatenationService.isMerged(upload), is(true));
+    assertThat(storageService.getUploadInfo(part1.getId()), is(nullValue()));
+    assertThat(storageService.getUploadInfo(part2.getId()), is(nullValue()));
+  }
+
+  @Test
+  public void mergeWithUploadLockingService() throws Exception {
+    UploadInfo part1 = createPartialUpload("This is the first part ", true);
+    UploadInfo part2 = createPartialUpload("and this is the second part.", true);
+    UploadInfo upload = createConcatenatedUpload(part1, part2);
+    UploadLock lock1 = mock(UploadLock.class);
+    UploadLock lock2 = mock(UploadLock.class);
+    when(lockingService.lockUploadByUri(UPLOAD_URL + "/" + part1.getId())).thenReturn(lock1);
+    when(lockingService.lockUploadByUri(UPLOAD_URL + "/" + part2.getId())).thenReturn(lock2);
+    concatenationService.setUploadLockingService(lockingService);
+
+    concatenationService.merge(upload);
+
+    assertThat(concatenationService.isMerged(upload), is(true));
+    verify(lock1).release();
+    verify(lock2).release();
+  }
+
+  @Test
+  public void mergeWithPartialUploadLockedByUploadLockingService() throws Exception {
+    UploadInfo part1 = createPartialUpload("This is the first part ", true);
+    UploadInfo part2 = createPartialUpload("and this is the second part.", true);
+    UploadInfo upload = createConcatenatedUpload(part1, part2);
+    UploadLock lock1 = mock(UploadLock.class);
+    when(lockingService.lockUploadByUri(UPLOAD_URL + "/" + part1.getId())).thenReturn(lock1);
+    when(lockingService.lockUploadByUri(UPLOAD_URL + "/" + part2.getId()))
+        .thenThrow(new UploadAlreadyLockedException("Locked"));
+    concatenationService.setUploadLockingService(lockingService);
+
+    concatenationService.merge(upload);
+
+    assertThat(upload.isUploadInProgress(), is(false));
+    assertThat(concatenationService.isMerged(upload), is(false));
+    verify(lock1).release();
+  }
+
+  @Test(expected = IOException.class)
+  public void mergeWithMissingBytes() throws Exception {
+    UploadInfo part1 = createPartialUpload("This is the first part ", true);
+    UploadInfo part2 = createPartialUpload("and this is the second part.", true);
+    UploadInfo upload = createConcatenatedUpload(part1, part2);
+    Files.write(storageService.getBytesPath(part2.getId()), new byte[3]);
+
+    try {
+      concatenationService.merge(upload);
+    } finally {
+      assertThat(concatenationService.isMerged(upload), is(false));
+      assertThat(storageService.getUploadInfo(part1.getId()), is(notNullValue()));
+    }
+  }
+
+  private UploadInfo createPartialUpload(String content, boolean complete) throws Exception {
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    UploadInfo info = new UploadInfo();
+    info.setUploadType(UploadType.PARTIAL);
+    info.setLength(complete ? (long) bytes.length : bytes.length + 18L);
+    info = storageService.create(info, null);
+    return storageService.append(info, IOUtils.toInputStream(content, StandardCharsets.UTF_8));
+  }
+
+  private UploadInfo createConcatenatedUpload(UploadInfo... parts) throws Exception {
+    List<String> partIds = new ArrayList<>();
+    for (UploadInfo part : parts) {
+      partIds.add(UPLOAD_URL + "/" + part.getId());
+    }
+    UploadInfo info = new UploadInfo();
+    info.setUploadType(UploadType.CONCATENATED);
+    info.setConcatenationPartIds(partIds);
+    return storageService.create(info, null);
+  }
+}
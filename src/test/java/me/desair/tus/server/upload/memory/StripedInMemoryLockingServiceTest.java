@@ -0,0 +1,175 @@
+package me.desair.tus.server.upload.memory;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import me.desair.tus.server.exception.UploadAlreadyLockedException;
+import me.desair.tus.server.metrics.TusMetrics;
+import me.desair.tus.server.upload.UploadId;
+import me.desair.tus.server.upload.UploadIdFactory;
+import me.desair.tus.server.upload.UploadLock;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class StripedInMemoryLockingServiceTest {
+
+  private static final String UPLOAD_URL = "/upload/test";
+  private static final String ID = "000003f1-a850-49de-af03-997272d834c9";
+
+  private StripedInMemoryLockingService lockingService;
+
+  @Mock private UploadIdFactory idFactory;
+
+  @Before
+  public void setUp() {
+    when(idFactory.getUploadUri()).thenReturn(UPLOAD_URL);
+    when(idFactory.readUploadId(nullable(String.class)))
+        .then(
+            invocation ->
+                new UploadId(
+                    StringUtils.substringAfter(
+                        invocation.getArguments()[0].toString(), UPLOAD_URL + "/")));
+
+    lockingService = new StripedInMemoryLockingService(idFactory);
+  }
+
+  @Test
+  public void lockUploadByUri() throws Exception {
+    UploadLock uploadLock = lockingService.lockUploadByUri(UPLOAD_URL + "/" + ID);
+
+    assertThat(uploadLock, not(nullValue()));
+    assertThat(uploadLock.getUploadUri(), is(UPLOAD_URL + "/" + ID));
+    assertThat(lockingService.isLocked(new UploadId(ID)), is(true));
+
+    uploadLock.release();
+
+    assertThat(lockingService.isLocked(new UploadId(ID)), is(false));
+  }
+
+  @Test(expected = UploadAlreadyLockedException.class)
+  public void lockUploadAlreadyLocked() throws Exception {
+    UploadLock uploadLock = lockingService.lockUploadByUri(UPLOAD_URL + "/" + ID);
+    assertThat(uploadLock, not(nullValue()));
+
+    lockingService.lockUploadByUri(UPLOAD_URL + "/" + ID);
+  }
+
+  @Test
+  public void lockOtherUploads() throws Exception {
+    try (UploadLock lock1 = lockingService.lockUploadByUri(UPLOAD_URL + "/" + ID);
+        UploadLock lock2 = lockingService.lockUploadByUri(UPLOAD_URL + "/other-upload")) {
+      assertThat(lock1, not(nullValue()));
+      assertThat(lock2, not(nullValue()));
+      assertThat(lockingService.isLocked(new UploadId("other-upload")), is(true));
+    }
+
+    assertThat(lockingService.isLocked(new UploadId(ID)), is(false));
+    assertThat(lockingService.isLocked(new UploadId("other-upload")), is(false));
+  }
+
+  @Test
+  public void isLockedFalse() throws Exception {
+    assertThat(lockingService.isLocked(new UploadId(ID)), is(false));
+    assertThat(lockingService.isLocked(null), is(false));
+  }
+
+  @Test
+  public void lockUploadNotExists() throws Exception {
+    reset(idFactory);
+    when(idFactory.readUploadId(nullable(String.class))).thenReturn(null);
+
+    assertThat(lockingService.lockUploadByUri(UPLOAD_URL + "/" + ID), nullValue());
+  }
+
+  @Test
+  public void releaseTwiceKeepsNewLock() throws Exception {
+    UploadLock lock1 = lockingService.lockUploadByUri(UPLOAD_URL + "/" + ID);
+    lock1.release();
+
+    UploadLock lock2 = lockingService.lockUploadByUri(UPLOAD_URL + "/" + ID);
+    lock1.release();
+
+    assertThat(lockingService.isLocked(new UploadId(ID)), is(true));
+    lock2.release();
+    assertThat(lockingService.isLocked(new UploadId(ID)), is(false));
+  }
+
+  @Test
+  public void lockWithRetrySuccess() throws Exception {
+    lockingService = new StripedInMemoryLockingService(idFactory, 3, 1000, 2000);
+
+    UploadLock lock1 = lockingService.lockUploadByUri(UPLOAD_URL + "/" + ID);
+
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      // Release the lock from another thread while we are waiting for it
+      executor.schedule(lock1::release, 100, TimeUnit.MILLISECONDS);
+
+      long start = System.currentTimeMillis();
+      UploadLock lock2 = lockingService.lockUploadByUri(UPLOAD_URL + "/" + ID);
+
+      assertThat(lock2, not(nullValue()));
+      // We should be woken up by the release and not have to wait for the full retry interval
+      assertThat(System.currentTimeMillis() - start < 1000, is(true));
+      lock2.release();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(expected = UploadAlreadyLockedException.class)
+  public void lockWithRetryFailure() throws Exception {
+    lockingService = new StripedInMemoryLockingService(2, 10, 20);
+    lockingService.setIdFactory(idFactory);
+
+    lockingService.lockUploadByUri(UPLOAD_URL + "/" + ID);
+    lockingService.lockUploadByUri(UPLOAD_URL + "/" + ID);
+  }
+
+  @Test
+  public void lockMetrics() throws Exception {
+    TusMetrics metrics = mock(TusMetrics.class);
+    lockingService = new StripedInMemoryLockingService(idFactory, 1, 10, 20);
+    lockingService.setMetrics(metrics);
+
+    UploadLock uploadLock = lockingService.lockUploadByUri(UPLOAD_URL + "/" + ID);
+    verify(metrics).lockAcquired(anyLong(), eq(0));
+    verify(metrics, never()).lockFailed(anyLong(), eq(1));
+
+    try {
+      lockingService.lockUploadByUri(UPLOAD_URL + "/" + ID);
+    } catch (UploadAlreadyLockedException e) {
+      // Expected
+    }
+    verify(metrics).lockFailed(anyLong(), eq(1));
+    uploadLock.release();
+  }
+
+  @Test
+  public void cleanupStaleLocks() throws Exception {
+    UploadLock uploadLock = lockingService.lockUploadByUri(UPLOAD_URL + "/" + ID);
+
+    lockingService.cleanupStaleLocks();
+
+    assertThat(lockingService.isLocked(new UploadId(ID)), is(true));
+    uploadLock.release();
+  }
+}
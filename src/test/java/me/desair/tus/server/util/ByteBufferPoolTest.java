@@ -0,0 +1,87 @@
+package me.desair.tus.server.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class ByteBufferPoolTest {
+
+  @Test
+  public void acquireDirectBuffer() {
+    ByteBufferPool pool = new ByteBufferPool(1024, 2);
+
+    ByteBuffer buffer = pool.acquire();
+
+    assertThat(buffer.isDirect(), is(true));
+    assertThat(buffer.capacity(), is(1024));
+    assertThat(buffer.position(), is(0));
+    assertThat(buffer.remaining(), is(1024));
+  }
+
+  @Test
+  public void releasedBufferIsReusedAndCleared() {
+    ByteBufferPool pool = new ByteBufferPool(1024, 2);
+
+    ByteBuffer buffer = pool.acquire();
+    buffer.put(new byte[10]);
+    pool.release(buffer);
+
+    ByteBuffer reused = pool.acquire();
+    assertThat(reused, sameInstance(buffer));
+    assertThat(reused.position(), is(0));
+    assertThat(reused.remaining(), is(1024));
+
+    assertThat(pool.acquire(), not(sameInstance(buffer)));
+  }
+
+  @Test
+  public void onlyMaxBuffersArePooled() {
+    ByteBufferPool pool = new ByteBufferPool(1024, 1);
+
+    ByteBuffer buffer1 = pool.acquire();
+    ByteBuffer buffer2 = pool.acquire();
+    pool.release(buffer1);
+    pool.release(buffer2);
+
+    assertThat(pool.acquire(), sameInstance(buffer1));
+    assertThat(pool.acquire(), not(sameInstance(buffer2)));
+  }
+
+  @Test
+  public void foreignBuffersAreNotPooled() {
+    ByteBufferPool pool = new ByteBufferPool(1024, 2);
+
+    ByteBuffer heapBuffer = ByteBuffer.allocate(1024);
+    ByteBuffer otherSize = ByteBuffer.allocateDirect(512);
+    pool.release(heapBuffer);
+    pool.release(otherSize);
+    pool.release((ByteBuffer) null);
+
+    ByteBuffer buffer = pool.acquire();
+    assertThat(buffer, not(sameInstance(heapBuffer)));
+    assertThat(buffer, not(sameInstance(otherSize)));
+  }
+
+  @Test
+  public void stagingArraysAreReused() {
+    ByteBufferPool pool = new ByteBufferPool(1024 * 1024, 2);
+
+    byte[] array = pool.acquireStagingArray();
+    assertThat(array.length, is(64 * 1024));
+
+    pool.releaseStagingArray(array);
+    pool.releaseStagingArray(new byte[10]);
+
+    assertThat(pool.acquireStagingArray(), sameInstance(array));
+    assertThat(pool.acquireStagingArray(), not(sameInstance(array)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidBufferSize() {
+    new ByteBufferPool(0, 2);
+  }
+}
@@ -1,15 +1,28 @@
 package me.desair.tus.server.util;
 
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.stream.Stream;
 import org.apache.commons.io.FileUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -98,6 +111,152 @@ public class UtilsTest {
     assertThat(result, is(nullValue()));
   }
 
+  @Test
+  public void writeFileReplacesContent() throws Exception {
+    Path directory = Files.createDirectories(storagePath.resolve("write-" + UUID.randomUUID()));
+    Path testFile = directory.resolve("info");
+
+    Utils.writeFile(ByteBuffer.wrap("first version".getBytes(StandardCharsets.UTF_8)), testFile);
+    Utils.writeFile(ByteBuffer.wrap("second".getBytes(StandardCharsets.UTF_8)), testFile);
+
+    ByteBuffer result = Utils.readFile(testFile);
+    assertThat(StandardCharsets.UTF_8.decode(result).toString(), is("second"));
+
+    // No temporary files should be left behind
+    try (Stream<Path> files = Files.list(directory)) {
+      assertThat(files.count(), is(1L));
+    }
+  }
+
+  @Test
+  public void writeFileForced() throws Exception {
+    Path directory = Files.createDirectories(storagePath.resolve("write-" + UUID.randomUUID()));
+    Path testFile = directory.resolve("info");
+
+    Utils.writeFile(ByteBuffer.wrap("forced".getBytes(StandardCharsets.UTF_8)), testFile, true);
+
+    ByteBuffer result = Utils.readFile(testFile);
+    assertThat(StandardCharsets.UTF_8.decode(result).toString(), is("forced"));
+    try (Stream<Path> files = Files.list(directory)) {
+      assertThat(files.count(), is(1L));
+    }
+  }
+
+  @Test
+  public void forceDirectoryAfterWrite() throws Exception {
+    Path directory = Files.createDirectories(storagePath.resolve("force-" + UUID.randomUUID()));
+    Path testFile = directory.resolve("info");
+
+    Utils.writeFile(ByteBuffer.wrap("durable".getBytes(StandardCharsets.UTF_8)), testFile, true);
+    Utils.forceDirectory(directory);
+
+    ByteBuffer result = Utils.readFile(testFile);
+    assertThat(StandardCharsets.UTF_8.decode(result).toString(), is("durable"));
+  }
+
+  @Test
+  public void isTemporaryFile() {
+    assertThat(Utils.isTemporaryFile(Paths.get("info." + UUID.randomUUID() + ".tmp")), is(true));
+    assertThat(Utils.isTemporaryFile(Paths.get("info")), is(false));
+  }
+
+  @Test
+  public void transferFromUsesMultipleBuffers() throws Exception {
+    Path testFile = Files.createFile(storagePath.resolve("transfer-" + UUID.randomUUID()));
+    byte[] content = new byte[10000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) i;
+    }
+
+    try (FileChannel file = FileChannel.open(testFile, WRITE)) {
+      long transferred =
+          Utils.transferFrom(
+              new ByteArrayInputStream(content),
+              file,
+              0,
+              Long.MAX_VALUE,
+              new ByteBufferPool(1024, 1));
+      assertThat(transferred, is(10000L));
+    }
+
+    assertThat(Arrays.equals(Files.readAllBytes(testFile), content), is(true));
+  }
+
+  @Test
+  public void transferFromRespectsPositionAndCount() throws Exception {
+    Path testFile = Files.createFile(storagePath.resolve("transfer-" + UUID.randomUUID()));
+    Files.write(testFile, "Hello".getBytes(StandardCharsets.UTF_8));
+
+    try (FileChannel file = FileChannel.open(testFile, WRITE)) {
+      long transferred =
+          Utils.transferFrom(
+              new ByteArrayInputStream(" world and more".getBytes(StandardCharsets.UTF_8)),
+              file,
+              5,
+              6,
+              new ByteBufferPool(4, 1));
+      assertThat(transferred, is(6L));
+    }
+
+    assertThat(new String(Files.readAllBytes(testFile), StandardCharsets.UTF_8), is("Hello world"));
+  }
+
+  @Test
+  public void transferToCopiesRange() throws Exception {
+    Path testFile = Files.createFile(storagePath.resolve("transfer-" + UUID.randomUUID()));
+    byte[] content = new byte[10000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) i;
+    }
+    Files.write(testFile, content);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (FileChannel file = FileChannel.open(testFile, READ)) {
+      Utils.transferTo(file, 100, 5000, output, new ByteBufferPool(1024, 1));
+    }
+
+    assertThat(
+        Arrays.equals(output.toByteArray(), Arrays.copyOfRange(content, 100, 5100)), is(true));
+  }
+
+  @Test(expected = EOFException.class)
+  public void transferToBeyondEndOfFile() throws Exception {
+    Path testFile = Files.createFile(storagePath.resolve("transfer-" + UUID.randomUUID()));
+    Files.write(testFile, "Hello".getBytes(StandardCharsets.UTF_8));
+
+    try (FileChannel file = FileChannel.open(testFile, READ)) {
+      Utils.transferTo(file, 2, 10, new ByteArrayOutputStream(), new ByteBufferPool());
+    }
+  }
+
+  @Test
+  public void transferFromWritesReceivedBytesOnFailure() throws Exception {
+    Path testFile = Files.createFile(storagePath.resolve("transfer-" + UUID.randomUUID()));
+    InputStream failingStream =
+        new SequenceInputStream(
+            new ByteArrayInputStream("Received".getBytes(StandardCharsets.UTF_8)),
+            new InputStream() {
+              @Override
+              public int read() throws IOException {
+                throw new IOException("Connection reset");
+              }
+            });
+
+    try (FileChannel file = FileChannel.open(testFile, WRITE)) {
+      Utils.transferFrom(failingStream, file, 0, Long.MAX_VALUE, new ByteBufferPool());
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage(), is("Connection reset"));
+    }
+
+    assertThat(new String(Files.readAllBytes(testFile), StandardCharsets.UTF_8), is("Received"));
+  }
+
+  @Test
+  public void readFileWithNullPath() throws Exception {
+    assertThat(Utils.readFile(null), is(nullValue()));
+  }
+
   /** Simple serializable class for testing. */
   public static class TestSerializable implements Serializable {
     private static final long serialVersionUID = 1L;